@@ -183,6 +183,86 @@ public interface Platform
      */
     public void setIdentityOverrideOn(boolean identityOverrideOn);
 
+    /**
+     * Returns the number of rows that the batch <code>insert</code> methods combine into
+     * one multi-row INSERT statement. This setting is only relevant if the database
+     * supports it ({@link PlatformInfo#isMultiRowInsertSupported()}), and the actual
+     * number of rows is further limited by {@link PlatformInfo#getMaxRowsPerInsert()} and
+     * {@link PlatformInfo#getMaxParametersPerStatement()}.
+     *  
+     * @return The number of rows per INSERT statement; 1 (the default) for single-row inserts
+     */
+    public int getMultiRowInsertSize();
+
+    /**
+     * Specifies the number of rows that the batch <code>insert</code> methods combine into
+     * one multi-row INSERT statement. This setting is only relevant if the database
+     * supports it ({@link PlatformInfo#isMultiRowInsertSupported()}).
+     *  
+     * @param numRows The number of rows per INSERT statement; 1 for single-row inserts
+     */
+    public void setMultiRowInsertSize(int numRows);
+
+    /**
+     * Returns the maximum number of prepared statements that the <code>insert</code>,
+     * <code>update</code>, <code>exists</code> and <code>delete</code> methods cache per
+     * connection. The statements are cached per table, operation and set of columns, and
+     * the least recently used one is closed when the cache is full. A connection's cache
+     * is closed when the connection is handed to {@link #returnConnection(Connection)}.
+     *  
+     * @return The maximum number of cached statements; 0 (the default) if caching is disabled
+     */
+    public int getStatementCacheSize();
+
+    /**
+     * Specifies the maximum number of prepared statements that the <code>insert</code>,
+     * <code>update</code>, <code>exists</code> and <code>delete</code> methods cache per
+     * connection. Connections used with a cache need to be returned via
+     * {@link #returnConnection(Connection)} so that the cached statements are closed.
+     *  
+     * @param maxStatements The maximum number of cached statements; 0 to disable caching
+     */
+    public void setStatementCacheSize(int maxStatements);
+
+    /**
+     * Returns the number of rows that the JDBC driver shall fetch at once for the result sets
+     * of the <code>query</code> and <code>fetch</code> methods.
+     *  
+     * @return The fetch size; 0 (the default) to use the default of the driver
+     */
+    public int getQueryFetchSize();
+
+    /**
+     * Specifies the number of rows that the JDBC driver shall fetch at once for the result sets
+     * of the <code>query</code> and <code>fetch</code> methods.
+     *  
+     * @param fetchSize The fetch size; 0 to use the default of the driver
+     */
+    public void setQueryFetchSize(int fetchSize);
+
+    /**
+     * Determines whether the <code>query</code> and <code>fetch</code> methods use streaming
+     * cursors, i.e. forward-only, read-only result sets whose rows are fetched from the database
+     * as they are iterated instead of all at once. This allows to read big tables in constant
+     * memory.
+     *  
+     * @return <code>true</code> if streaming cursors are used; <code>false</code> is the default
+     */
+    public boolean isStreamingQueriesOn();
+
+    /**
+     * Specifies whether the <code>query</code> and <code>fetch</code> methods shall use streaming
+     * cursors. The platform applies the settings that its JDBC driver requires for this, e.g.
+     * turning off the auto-commit mode of the connection for the duration of the query. Unless
+     * a query fetch size is specified, a default fetch size of
+     * {@link org.apache.ddlutils.platform.PlatformImplBase#DEFAULT_STREAMING_FETCH_SIZE} is used.
+     * Note that some drivers (e.g. MySQL's) do not allow other statements on the connection until
+     * the result set of a streaming query is closed.
+     *  
+     * @param streamingQueriesOn <code>true</code> if streaming cursors shall be used
+     */
+    public void setStreamingQueriesOn(boolean streamingQueriesOn);
+
     /**
      * Determines whether foreign keys of a table read from a live database
      * are alphabetically sorted.
@@ -251,6 +331,28 @@ public interface Platform
      */
     public void returnConnection(Connection connection);
 
+    /**
+     * Starts the session for writing rows to the given table on the given connection. The
+     * platform then prepares the connection for the table (e.g. enables identity override)
+     * only once instead of around every insert, update or batch, until the session ends.
+     * While a session is open on the connection, writing rows to another table switches the
+     * session to that table. The session ends when {@link #endTableSession(Connection)} is
+     * called or when the connection is handed to {@link #returnConnection(Connection)}.
+     * Starting the session for the table of the current session does nothing.
+     * 
+     * @param connection The connection
+     * @param table      The table
+     */
+    public void startTableSession(Connection connection, Table table) throws DatabaseOperationException;
+
+    /**
+     * Ends the table session of the given connection, if any, undoing the preparations of the
+     * connection for the table of the session.
+     * 
+     * @param connection The connection
+     */
+    public void endTableSession(Connection connection) throws DatabaseOperationException;
+
     /**
      * Executes a series of sql statements which must be seperated by the delimiter
      * configured as {@link PlatformInfo#getSqlCommandDelimiter()} of the info object
@@ -1005,6 +1107,20 @@ public interface Platform
      */
     public boolean exists(Connection connection, Database model, DynaBean dynaBean);
 
+    /**
+     * Determines which of the given dyna beans are stored in the database. Note that this only
+     * checks the primary key, not the other attributes. All beans have to be for the same table.
+     * The check uses one query per chunk of beans instead of one query per bean, in which beans
+     * with the same primary key are queried only once.
+     * 
+     * @param connection The connection
+     * @param model      The database model to use
+     * @param dynaBeans  The beans
+     * @return For each bean, <code>true</code> if a row with the bean's primary key exists in
+     *         the database
+     */
+    public boolean[] exists(Connection connection, Database model, DynaBean[] dynaBeans) throws DatabaseOperationException;
+
     /**
      * Stores the given bean in the database, inserting it if there is no primary key
      * otherwise the bean is updated in the database.
@@ -1077,6 +1193,32 @@ public interface Platform
      */
     public void insert(Connection connection, Database model, Collection dynaBeans) throws DatabaseOperationException;
 
+    /**
+     * Inserts the given beans in the database, or updates the rows with the same primary key
+     * if they already exist. If the platform supports it (see {@link PlatformInfo#isUpsertSupported()}),
+     * a native statement is used in a batch for subsequent beans of the same type. Otherwise the
+     * existence of the rows is checked first, and the beans are then inserted or updated in batches.
+     * Beans whose primary key values are not specified, are simply inserted.
+     * 
+     * @param model     The database model to use
+     * @param dynaBeans The beans
+     */
+    public void upsert(Database model, Collection dynaBeans) throws DatabaseOperationException;
+
+    /**
+     * Inserts the given beans in the database, or updates the rows with the same primary key
+     * if they already exist. If the platform supports it (see {@link PlatformInfo#isUpsertSupported()}),
+     * a native statement is used in a batch for subsequent beans of the same type. Otherwise the
+     * existence of the rows is checked first, and the beans are then inserted or updated in batches.
+     * Beans whose primary key values are not specified, are simply inserted.
+     * This method does not close the connection.
+     * 
+     * @param connection The database connection
+     * @param model      The database model to use
+     * @param dynaBeans  The beans
+     */
+    public void upsert(Connection connection, Database model, Collection dynaBeans) throws DatabaseOperationException;
+
     /**
      * Returns the sql for updating the given bean in the database. Note that this method can not be used to
      * generate SQL for updating primary key columns. 
@@ -1117,6 +1259,17 @@ public interface Platform
      */
     public void update(Connection connection, Database model, DynaBean dynaBean) throws DatabaseOperationException;
 
+    /**
+     * Updates the rows which map to the given beans, using a batch for subsequent beans of the same
+     * type. Note that this means that this method will not update the primary key columns.
+     * This method does not close the connection.
+     * 
+     * @param connection The database connection
+     * @param model      The database model to use
+     * @param dynaBeans  The beans
+     */
+    public void update(Connection connection, Database model, Collection dynaBeans) throws DatabaseOperationException;
+
     /**
      * Updates the row identified by the given <code>oldDynaBean</code> in the database with the
      * values in <code>newDynaBean</code>. This method can be used to update primary key columns.
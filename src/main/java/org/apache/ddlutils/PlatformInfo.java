@@ -124,6 +124,31 @@ public class PlatformInfo
         shall be used. */ 
     private boolean _autoCommitModeForLastIdentityValueReading = true;
 
+    /** Whether the values of identity columns can be read via <code>getGeneratedKeys</code> after
+        executing a batch of inserts. */ 
+    private boolean _generatedKeysReadableInBatchMode = false;
+
+    /** Whether INSERT statements can specify multiple rows in the VALUES clause. */ 
+    private boolean _multiRowInsertSupported = false;
+
+    /** Whether a single statement can insert a row or update it if a row with the same primary key
+        already exists (e.g. via MERGE). */ 
+    private boolean _upsertSupported = false;
+
+    /** Whether the foreign key checks can be deferred or suspended for the current connection
+        so that rows can be inserted before the rows that they reference. */ 
+    private boolean _foreignKeyChecksDeferrable = false;
+
+    /** Whether deferring the foreign key checks only affects the foreign keys that are declared
+        as <code>DEFERRABLE</code>. */ 
+    private boolean _deferrableForeignKeysRequired = false;
+
+    /** The maximum number of rows in one multi-row INSERT statement, -1 if not limited. */ 
+    private int _maxRowsPerInsert = -1;
+
+    /** The maximum number of parameters in one prepared statement, -1 if not limited. */ 
+    private int _maxParametersPerStatement = -1;
+
     /** Specifies the maximum length that a table name can have for this database (-1 if there is no limit). */
     private int _maxTableNameLength = -1;
 
@@ -746,6 +771,161 @@ public class PlatformInfo
         _autoCommitModeForLastIdentityValueReading = autoCommitModeForLastIdentityValueReading;
     }
 
+    /**
+     * Determines whether the values of identity columns can be read back via
+     * {@link java.sql.Statement#getGeneratedKeys()} after a batch of inserts has been executed.
+     * This depends on the JDBC driver.
+     * 
+     * @return <code>true</code> if the generated keys can be read in batch mode
+     */
+    public boolean isGeneratedKeysReadableInBatchMode()
+    {
+        return _generatedKeysReadableInBatchMode;
+    }
+
+    /**
+     * Specifies whether the values of identity columns can be read back via
+     * {@link java.sql.Statement#getGeneratedKeys()} after a batch of inserts has been executed.
+     * 
+     * @param generatedKeysReadableInBatchMode <code>true</code> if the generated keys can be read
+     *                                         in batch mode
+     */
+    public void setGeneratedKeysReadableInBatchMode(boolean generatedKeysReadableInBatchMode)
+    {
+        _generatedKeysReadableInBatchMode = generatedKeysReadableInBatchMode;
+    }
+
+    /**
+     * Determines whether INSERT statements can specify multiple rows in the VALUES
+     * clause, i.e. <code>INSERT INTO ... VALUES (...), (...)</code>.
+     * 
+     * @return <code>true</code> if multi-row inserts are supported
+     */
+    public boolean isMultiRowInsertSupported()
+    {
+        return _multiRowInsertSupported;
+    }
+
+    /**
+     * Specifies whether INSERT statements can specify multiple rows in the VALUES clause.
+     * 
+     * @param multiRowInsertSupported <code>true</code> if multi-row inserts are supported
+     */
+    public void setMultiRowInsertSupported(boolean multiRowInsertSupported)
+    {
+        _multiRowInsertSupported = multiRowInsertSupported;
+    }
+
+    /**
+     * Determines whether a single statement can insert a row or update it if a row with
+     * the same primary key already exists, e.g. <code>MERGE</code> or
+     * <code>INSERT ... ON DUPLICATE KEY UPDATE</code>.
+     * 
+     * @return <code>true</code> if native upserts are supported
+     */
+    public boolean isUpsertSupported()
+    {
+        return _upsertSupported;
+    }
+
+    /**
+     * Specifies whether a single statement can insert a row or update it if a row with
+     * the same primary key already exists.
+     * 
+     * @param upsertSupported <code>true</code> if native upserts are supported
+     */
+    public void setUpsertSupported(boolean upsertSupported)
+    {
+        _upsertSupported = upsertSupported;
+    }
+
+    /**
+     * Determines whether the foreign key checks can be deferred or suspended for the current
+     * connection, e.g. via <code>SET CONSTRAINTS ALL DEFERRED</code>, so that rows can be
+     * inserted before the rows that they reference.
+     * 
+     * @return <code>true</code> if the foreign key checks can be deferred
+     * @see org.apache.ddlutils.platform.SqlBuilder#getDeferForeignKeyChecksSql()
+     */
+    public boolean isForeignKeyChecksDeferrable()
+    {
+        return _foreignKeyChecksDeferrable;
+    }
+
+    /**
+     * Specifies whether the foreign key checks can be deferred or suspended for the current
+     * connection.
+     * 
+     * @param foreignKeyChecksDeferrable <code>true</code> if the foreign key checks can be deferred
+     */
+    public void setForeignKeyChecksDeferrable(boolean foreignKeyChecksDeferrable)
+    {
+        _foreignKeyChecksDeferrable = foreignKeyChecksDeferrable;
+    }
+
+    /**
+     * Determines whether deferring the foreign key checks only affects the foreign keys that
+     * are declared as <code>DEFERRABLE</code>, which DdlUtils does not do when creating them.
+     * 
+     * @return <code>true</code> if only deferrable foreign keys are deferred
+     */
+    public boolean isDeferrableForeignKeysRequired()
+    {
+        return _deferrableForeignKeysRequired;
+    }
+
+    /**
+     * Specifies whether deferring the foreign key checks only affects the foreign keys that
+     * are declared as <code>DEFERRABLE</code>.
+     * 
+     * @param deferrableForeignKeysRequired <code>true</code> if only deferrable foreign keys are deferred
+     */
+    public void setDeferrableForeignKeysRequired(boolean deferrableForeignKeysRequired)
+    {
+        _deferrableForeignKeysRequired = deferrableForeignKeysRequired;
+    }
+
+    /**
+     * Returns the maximum number of rows that one multi-row INSERT statement can specify.
+     * 
+     * @return The number of rows, or -1 if not limited
+     */
+    public int getMaxRowsPerInsert()
+    {
+        return _maxRowsPerInsert;
+    }
+
+    /**
+     * Sets the maximum number of rows that one multi-row INSERT statement can specify.
+     * 
+     * @param maxRowsPerInsert The maximum number of rows, -1 if unlimited
+     */
+    public void setMaxRowsPerInsert(int maxRowsPerInsert)
+    {
+        _maxRowsPerInsert = maxRowsPerInsert;
+    }
+
+    /**
+     * Returns the maximum number of parameters (placeholders) that one prepared
+     * statement can have.
+     * 
+     * @return The number of parameters, or -1 if not limited
+     */
+    public int getMaxParametersPerStatement()
+    {
+        return _maxParametersPerStatement;
+    }
+
+    /**
+     * Sets the maximum number of parameters (placeholders) that one prepared statement can have.
+     * 
+     * @param maxParametersPerStatement The maximum number of parameters, -1 if unlimited
+     */
+    public void setMaxParametersPerStatement(int maxParametersPerStatement)
+    {
+        _maxParametersPerStatement = maxParametersPerStatement;
+    }
+
     /**
      * Returns the maximum number of characters that a table name can have.
      * 
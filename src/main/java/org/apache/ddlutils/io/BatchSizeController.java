@@ -0,0 +1,264 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.DynaProperty;
+import org.apache.ddlutils.model.Table;
+
+/**
+ * Determines the batch size per table for the {@link org.apache.ddlutils.io.DataToDatabaseSink}
+ * and collects statistics about the executed batches. If a target latency is given, then the
+ * batch size of a table is adjusted after every batch so that executing a batch takes about
+ * the target latency. The batch size changes by at most a factor of two per batch, stays within
+ * the configured bounds, and is further limited so that the (estimated) size of the data bound
+ * to the statements of one batch does not exceed the maximum number of bytes. Without a target
+ * latency, the initial batch size is used for all tables.<br/>
+ * The controller is thread-safe so that it can be shared by the sinks that insert tables
+ * concurrently.
+ *
+ * @version $Revision: $
+ */
+public class BatchSizeController
+{
+    /** The number of bytes assumed for values other than strings and binary data. */
+    private static final int DEFAULT_VALUE_SIZE = 8;
+
+    /** The batch size of tables for which no batch has been executed yet. */
+    private final int _initialBatchSize;
+    /** The minimum batch size. */
+    private final int _minBatchSize;
+    /** The maximum batch size. */
+    private final int _maxBatchSize;
+    /** The target latency of one batch in milliseconds, or 0 if the batch size is fixed. */
+    private final long _targetLatency;
+    /** The maximum number of bytes per batch, or 0 if unlimited. */
+    private final long _maxBatchBytes;
+    /** The statistics per table. */
+    private final IdentityHashMap _statsPerTable = new IdentityHashMap();
+    /** The tables in the order in which their first batch was executed. */
+    private final List _tables = new ArrayList();
+
+    /**
+     * Creates a new controller.
+     *
+     * @param initialBatchSize The batch size to start with
+     * @param minBatchSize     The minimum batch size
+     * @param maxBatchSize     The maximum batch size
+     * @param targetLatency    The target latency of one batch in milliseconds, or 0 if the
+     *                         batch size shall not be adjusted
+     * @param maxBatchBytes    The maximum number of bytes per batch, or 0 if unlimited
+     */
+    public BatchSizeController(int initialBatchSize, int minBatchSize, int maxBatchSize, long targetLatency, long maxBatchBytes)
+    {
+        if (minBatchSize < 1)
+        {
+            throw new IllegalArgumentException("The minimum batch size must be at least 1");
+        }
+        if (maxBatchSize < minBatchSize)
+        {
+            throw new IllegalArgumentException("The maximum batch size must not be less than the minimum batch size");
+        }
+        _minBatchSize     = minBatchSize;
+        _maxBatchSize     = maxBatchSize;
+        _targetLatency    = targetLatency;
+        _maxBatchBytes    = maxBatchBytes;
+        _initialBatchSize = (targetLatency > 0 ? clamp(initialBatchSize) : Math.max(initialBatchSize, 1));
+    }
+
+    /**
+     * Determines whether the batch sizes are adjusted to the measured latency.
+     *
+     * @return <code>true</code> if the batch sizes are adjusted
+     */
+    public boolean isAdaptive()
+    {
+        return _targetLatency > 0;
+    }
+
+    /**
+     * Returns the maximum number of bytes per batch.
+     *
+     * @return The number of bytes, or 0 if unlimited
+     */
+    public long getMaxBatchBytes()
+    {
+        return _maxBatchBytes;
+    }
+
+    /**
+     * Returns the current batch size for the given table.
+     *
+     * @param table The table
+     * @return The number of rows per batch
+     */
+    public synchronized int getBatchSize(Table table)
+    {
+        TableStats stats = (TableStats)_statsPerTable.get(table);
+
+        return stats == null ? _initialBatchSize : stats._batchSize;
+    }
+
+    /**
+     * Records an executed batch and adjusts the batch size of the table if a target latency
+     * is set. Batches that are considerably smaller than the current batch size, e.g. because
+     * the data of the table ended, do not change the batch size.
+     *
+     * @param table    The table
+     * @param numRows  The number of rows in the batch
+     * @param numBytes The estimated number of bytes of the rows
+     * @param latency  The time it took to execute the batch, in milliseconds
+     */
+    public synchronized void batchExecuted(Table table, int numRows, long numBytes, long latency)
+    {
+        TableStats stats = (TableStats)_statsPerTable.get(table);
+
+        if (stats == null)
+        {
+            stats = new TableStats(_initialBatchSize);
+            _statsPerTable.put(table, stats);
+            _tables.add(table);
+        }
+        stats._numRows    += numRows;
+        stats._numBatches += 1;
+        stats._numBytes   += numBytes;
+        stats._latency    += latency;
+
+        if (isAdaptive() && (numRows > 0) && (2 * numRows >= stats._batchSize))
+        {
+            // the timer resolution may yield 0 for fast batches which we treat as 1 ms
+            long newSize = numRows * _targetLatency / Math.max(latency, 1);
+
+            newSize = Math.max(newSize, stats._batchSize / 2);
+            newSize = Math.min(newSize, 2L * stats._batchSize);
+            if ((_maxBatchBytes > 0) && (stats._numBytes > 0))
+            {
+                newSize = Math.min(newSize, _maxBatchBytes * stats._numRows / stats._numBytes);
+            }
+            stats._batchSize = clamp(newSize);
+        }
+    }
+
+    /**
+     * Returns a summary of the executed batches, one line per table.
+     *
+     * @return The summary lines
+     */
+    public synchronized List getSummary()
+    {
+        List result = new ArrayList();
+
+        for (int idx = 0; idx < _tables.size(); idx++)
+        {
+            Table        table = (Table)_tables.get(idx);
+            TableStats   stats = (TableStats)_statsPerTable.get(table);
+            StringBuffer line  = new StringBuffer();
+
+            line.append(table.getName());
+            line.append(": ");
+            line.append(stats._numRows);
+            line.append(" rows in ");
+            line.append(stats._numBatches);
+            line.append(stats._numBatches == 1 ? " batch" : " batches");
+            line.append(", average latency ");
+            line.append(stats._latency / stats._numBatches);
+            line.append(" ms, ");
+            line.append(stats._numRows > 0 ? stats._numBytes / stats._numRows : 0);
+            line.append(" bytes per row, batch size ");
+            line.append(stats._batchSize);
+            result.add(line.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Estimates the number of bytes that the values of the given bean take up when bound
+     * to a statement.
+     *
+     * @param bean The bean
+     * @return The estimated number of bytes
+     */
+    public static long estimateSize(DynaBean bean)
+    {
+        DynaProperty[] props  = bean.getDynaClass().getDynaProperties();
+        long           result = 0;
+
+        for (int idx = 0; idx < props.length; idx++)
+        {
+            Object value = bean.get(props[idx].getName());
+
+            if (value instanceof String)
+            {
+                result += 2 * ((String)value).length();
+            }
+            else if (value instanceof byte[])
+            {
+                result += ((byte[])value).length;
+            }
+            else if (value != null)
+            {
+                result += DEFAULT_VALUE_SIZE;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Limits the given batch size to the configured bounds.
+     *
+     * @param batchSize The batch size
+     * @return The limited batch size
+     */
+    private int clamp(long batchSize)
+    {
+        return (int)Math.max(_minBatchSize, Math.min(_maxBatchSize, batchSize));
+    }
+
+    /**
+     * The batch size and statistics of one table.
+     */
+    private static class TableStats
+    {
+        /** The current batch size. */
+        int _batchSize;
+        /** The number of rows written. */
+        long _numRows;
+        /** The number of batches executed. */
+        long _numBatches;
+        /** The estimated number of bytes written. */
+        long _numBytes;
+        /** The total latency of the batches in milliseconds. */
+        long _latency;
+
+        /**
+         * Creates the statistics for a table.
+         *
+         * @param initialBatchSize The initial batch size
+         */
+        TableStats(int initialBatchSize)
+        {
+            _batchSize = initialBatchSize;
+        }
+    }
+}
@@ -0,0 +1,844 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ddlutils.DdlUtilsException;
+import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformInfo;
+import org.apache.ddlutils.model.Database;
+import org.apache.ddlutils.model.ForeignKey;
+import org.apache.ddlutils.model.Index;
+import org.apache.ddlutils.model.Table;
+import org.apache.ddlutils.platform.SqlBuilder;
+
+/**
+ * Drops the indexes and foreign keys of the tables of a model before a bulk load, and
+ * recreates them afterwards. Loading data into tables without indexes and foreign keys
+ * and then building these is usually a lot faster than maintaining them for every row.<br/>
+ * Every index and foreign key is recorded in a file before it is dropped, and removed from the
+ * file once it has been recreated or if dropping it failed. If dropping fails, then the indexes
+ * and foreign keys dropped so far are recreated right away. If the load is aborted before the
+ * indexes and foreign keys have been recreated, then dropping them again with the same file
+ * (e.g. when rerunning the load) skips the recorded ones, and recreating them afterwards also
+ * restores these. The file is deleted when everything has been recreated. If the process ends
+ * between recording an object and dropping it, then the object still exists when it is
+ * recreated, which is treated as recreated.<br/>
+ * The indexes and foreign keys can be recreated concurrently using one connection per thread.
+ * All indexes are recreated before the foreign keys, as some databases use the indexes
+ * for the foreign keys.
+ *
+ * @version $Revision: $
+ */
+public class BulkLoadConstraints
+{
+    /** The type of recorded indexes. */
+    private static final String TYPE_INDEX = "index";
+    /** The type of recorded foreign keys. */
+    private static final String TYPE_FOREIGN_KEY = "foreignkey";
+    /** The prefix of the names of unnamed foreign keys, which are identified by their position. */
+    private static final String POSITION_PREFIX = "#";
+
+    /** Our log. */
+    private final Log _log = LogFactory.getLog(BulkLoadConstraints.class);
+
+    /** The platform. */
+    private final Platform _platform;
+    /** The model. */
+    private final Database _model;
+    /** The file in which the dropped objects are recorded. */
+    private final File _recordFile;
+    /** The dropped objects. */
+    private final List _dropped = new ArrayList();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param platform   The platform, must be connected to a live database
+     * @param model      The model of the database
+     * @param recordFile The file in which to record the dropped indexes and foreign keys
+     */
+    public BulkLoadConstraints(Platform platform, Database model, File recordFile)
+    {
+        _platform   = platform;
+        _model      = model;
+        _recordFile = recordFile;
+    }
+
+    /**
+     * Returns the file in which the dropped indexes and foreign keys are recorded.
+     *
+     * @return The file
+     */
+    public File getRecordFile()
+    {
+        return _recordFile;
+    }
+
+    /**
+     * Determines whether the foreign keys of the tables are dropped. This is not possible if
+     * the platform only supports foreign keys that are embedded in the table definition.
+     *
+     * @return <code>true</code> if the foreign keys are dropped
+     */
+    public boolean isDroppingForeignKeys()
+    {
+        return !_platform.getPlatformInfo().isForeignKeysEmbedded();
+    }
+
+    /**
+     * Returns the number of indexes and foreign keys that are currently dropped.
+     *
+     * @return The number of dropped objects
+     */
+    public synchronized int getDroppedCount()
+    {
+        return _dropped.size();
+    }
+
+    /**
+     * Drops the indexes and foreign keys of all tables of the model. Those that are recorded
+     * as dropped in the record file are skipped. If an index or foreign key cannot be dropped,
+     * then the recorded ones are recreated before the error is thrown.
+     */
+    public void drop() throws DdlUtilsException
+    {
+        readRecord();
+        if (!_dropped.isEmpty())
+        {
+            _log.info("Found " + _dropped.size() + " indexes and foreign keys that were dropped by a previous bulk load, they will be recreated after this load");
+        }
+        try
+        {
+            dropAll();
+        }
+        catch (DdlUtilsException ex)
+        {
+            try
+            {
+                restore(1);
+            }
+            catch (DdlUtilsException restoreEx)
+            {
+                _log.error("Could not recreate the indexes and foreign keys after dropping them failed", restoreEx);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Drops the indexes and foreign keys of all tables of the model that are not recorded yet.
+     */
+    private void dropAll() throws DdlUtilsException
+    {
+        PlatformInfo info       = _platform.getPlatformInfo();
+        Connection   connection = _platform.borrowConnection();
+
+        try
+        {
+            // foreign keys first as some databases require indexes for them
+            if (isDroppingForeignKeys())
+            {
+                for (int tableIdx = 0; tableIdx < _model.getTableCount(); tableIdx++)
+                {
+                    Table table = _model.getTable(tableIdx);
+
+                    for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
+                    {
+                        ForeignKey    fk  = table.getForeignKey(fkIdx);
+                        DroppedObject obj = new DroppedObject(TYPE_FOREIGN_KEY, table.getName(),
+                                                              fk.getName() == null ? POSITION_PREFIX + fkIdx : fk.getName());
+
+                        if (!_dropped.contains(obj))
+                        {
+                            StringWriter buffer  = new StringWriter();
+                            SqlBuilder   builder = _platform.getSqlBuilder();
+
+                            builder.setWriter(buffer);
+                            builder.dropForeignKey(table, fk);
+                            drop(connection, obj, buffer.toString());
+                        }
+                    }
+                }
+            }
+            if (info.isIndicesSupported())
+            {
+                for (int tableIdx = 0; tableIdx < _model.getTableCount(); tableIdx++)
+                {
+                    Table table = _model.getTable(tableIdx);
+
+                    for (int indexIdx = 0; indexIdx < table.getIndexCount(); indexIdx++)
+                    {
+                        Index index = table.getIndex(indexIdx);
+
+                        // unnamed indexes cannot be recreated
+                        if (index.getName() != null)
+                        {
+                            DroppedObject obj = new DroppedObject(TYPE_INDEX, table.getName(), index.getName());
+
+                            if (!_dropped.contains(obj))
+                            {
+                                StringWriter buffer  = new StringWriter();
+                                SqlBuilder   builder = _platform.getSqlBuilder();
+
+                                builder.setWriter(buffer);
+                                builder.dropIndex(table, index);
+                                drop(connection, obj, buffer.toString());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new DdlUtilsException(ex);
+        }
+        finally
+        {
+            _platform.returnConnection(connection);
+        }
+    }
+
+    /**
+     * Recreates the dropped indexes and then the dropped foreign keys.
+     *
+     * @param threadCount The number of threads that shall recreate the indexes and foreign keys
+     *                    concurrently, each using its own connection
+     */
+    public void restore(int threadCount) throws DdlUtilsException
+    {
+        LinkedList indexes     = new LinkedList();
+        LinkedList foreignKeys = new LinkedList();
+
+        if (_dropped.isEmpty())
+        {
+            readRecord();
+        }
+        try
+        {
+            for (Iterator it = new ArrayList(_dropped).iterator(); it.hasNext();)
+            {
+                DroppedObject obj     = (DroppedObject)it.next();
+                Table         table   = _model.findTable(obj.getTableName(), _platform.isDelimitedIdentifierModeOn());
+                StringWriter  buffer  = new StringWriter();
+                SqlBuilder    builder = _platform.getSqlBuilder();
+
+                builder.setWriter(buffer);
+                if (TYPE_INDEX.equals(obj.getType()))
+                {
+                    Index index = (table == null ? null : table.findIndex(obj.getName(), _platform.isDelimitedIdentifierModeOn()));
+
+                    if (index != null)
+                    {
+                        builder.createIndex(table, index);
+                        obj.setSql(buffer.toString());
+                        obj.setDatabaseNames(builder.getTableName(table), builder.getIndexName(index));
+                        indexes.add(obj);
+                        continue;
+                    }
+                }
+                else
+                {
+                    ForeignKey fk = (table == null ? null : findForeignKey(table, obj.getName()));
+
+                    if (fk != null)
+                    {
+                        builder.createForeignKey(_model, table, fk);
+                        obj.setSql(buffer.toString());
+                        obj.setDatabaseNames(builder.getTableName(table), builder.getForeignKeyName(table, fk));
+                        foreignKeys.add(obj);
+                        continue;
+                    }
+                }
+                _log.warn("Cannot recreate the " + obj + " because it is not part of the model anymore");
+                recordRestored(obj);
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new DdlUtilsException(ex);
+        }
+
+        List errors = new ArrayList();
+
+        execute(indexes, threadCount, errors);
+        execute(foreignKeys, threadCount, errors);
+        if (!errors.isEmpty())
+        {
+            throw new DdlUtilsException("Could not recreate " + errors.size() + " indexes or foreign keys, they are recorded in " + _recordFile.getAbsolutePath(),
+                                        (Throwable)errors.get(0));
+        }
+    }
+
+    /**
+     * Executes the SQL of the given objects, using multiple threads if requested.
+     *
+     * @param objs        The objects to recreate; this list is shared by the threads
+     * @param threadCount The maximum number of threads
+     * @param errors      Receives the errors
+     */
+    private void execute(LinkedList objs, int threadCount, List errors)
+    {
+        int numThreads = Math.min(threadCount, objs.size());
+
+        if (numThreads <= 1)
+        {
+            new RestoreThread(objs, errors).run();
+            return;
+        }
+
+        Thread[] threads = new Thread[numThreads];
+
+        for (int idx = 0; idx < numThreads; idx++)
+        {
+            threads[idx] = new RestoreThread(objs, errors);
+            threads[idx].start();
+        }
+        for (int idx = 0; idx < numThreads; idx++)
+        {
+            try
+            {
+                threads[idx].join();
+            }
+            catch (InterruptedException ex)
+            {
+                throw new DdlUtilsException(ex);
+            }
+        }
+    }
+
+    /**
+     * Records an object and drops it. The object is recorded first so that it is not lost if
+     * the process ends right after dropping it, and its record is removed if dropping fails.
+     *
+     * @param connection The connection
+     * @param obj        The object
+     * @param sql        The SQL to drop the object
+     */
+    private void drop(Connection connection, DroppedObject obj, String sql) throws DdlUtilsException
+    {
+        synchronized (this)
+        {
+            _dropped.add(obj);
+            writeRecord();
+        }
+        try
+        {
+            _platform.evaluateBatch(connection, sql, false);
+        }
+        catch (DdlUtilsException ex)
+        {
+            recordRestored(obj);
+            throw ex;
+        }
+        if (_log.isDebugEnabled())
+        {
+            _log.debug("Dropped the " + obj);
+        }
+    }
+
+    /**
+     * Removes the given object from the record.
+     *
+     * @param obj The recreated object
+     */
+    private synchronized void recordRestored(DroppedObject obj) throws DdlUtilsException
+    {
+        _dropped.remove(obj);
+        if (_dropped.isEmpty())
+        {
+            _recordFile.delete();
+            getTemporaryRecordFile().delete();
+        }
+        else
+        {
+            writeRecord();
+        }
+    }
+
+    /**
+     * Finds the foreign key of the given table by its name or, for unnamed foreign keys, by its
+     * position.
+     *
+     * @param table The table
+     * @param name  The recorded name
+     * @return The foreign key or <code>null</code> if there is no such foreign key
+     */
+    private ForeignKey findForeignKey(Table table, String name)
+    {
+        if (name.startsWith(POSITION_PREFIX))
+        {
+            try
+            {
+                int idx = Integer.parseInt(name.substring(POSITION_PREFIX.length()));
+
+                if ((idx >= 0) && (idx < table.getForeignKeyCount()) && (table.getForeignKey(idx).getName() == null))
+                {
+                    return table.getForeignKey(idx);
+                }
+            }
+            catch (NumberFormatException ex)
+            {
+                // then we treat it as a name
+            }
+        }
+        return table.findForeignKey(name, _platform.isDelimitedIdentifierModeOn());
+    }
+
+    /**
+     * Determines whether the given object exists in the database, according to the meta data
+     * of the database.
+     *
+     * @param connection The connection
+     * @param obj        The object
+     * @return <code>true</code> if the object exists
+     */
+    private boolean existsInDatabase(Connection connection, DroppedObject obj)
+    {
+        boolean delimited = _platform.isDelimitedIdentifierModeOn();
+
+        try
+        {
+            DatabaseMetaData metaData  = connection.getMetaData();
+            String           tableName = obj.getDatabaseTableName();
+
+            if (!delimited)
+            {
+                if (metaData.storesUpperCaseIdentifiers())
+                {
+                    tableName = tableName.toUpperCase();
+                }
+                else if (metaData.storesLowerCaseIdentifiers())
+                {
+                    tableName = tableName.toLowerCase();
+                }
+            }
+
+            boolean   isIndex = TYPE_INDEX.equals(obj.getType());
+            ResultSet result  = (isIndex ? metaData.getIndexInfo(null, null, tableName, false, false)
+                                         : metaData.getImportedKeys(null, null, tableName));
+
+            try
+            {
+                while (result.next())
+                {
+                    String name = result.getString(isIndex ? "INDEX_NAME" : "FK_NAME");
+
+                    if ((name != null) && (delimited ? name.equals(obj.getDatabaseName()) : name.equalsIgnoreCase(obj.getDatabaseName())))
+                    {
+                        return true;
+                    }
+                }
+            }
+            finally
+            {
+                result.close();
+            }
+        }
+        catch (SQLException ex)
+        {
+            _log.warn("Could not determine whether the " + obj + " exists", ex);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the temporary file that the record is written to before it replaces the record file.
+     *
+     * @return The temporary file
+     */
+    private File getTemporaryRecordFile()
+    {
+        return new File(_recordFile.getAbsolutePath() + ".tmp");
+    }
+
+    /**
+     * Reads the dropped objects from the record file if it exists. If it does not exist, then
+     * the temporary record file is read instead if it exists, as the process might have ended
+     * after deleting the old record file and before replacing it with the temporary one. A
+     * temporary file that is incomplete is ignored as no object recorded in it has been
+     * dropped yet.
+     */
+    private synchronized void readRecord() throws DdlUtilsException
+    {
+        _dropped.clear();
+        if (_recordFile.exists())
+        {
+            readRecord(_recordFile);
+        }
+        else if (getTemporaryRecordFile().exists())
+        {
+            try
+            {
+                readRecord(getTemporaryRecordFile());
+            }
+            catch (DdlUtilsException ex)
+            {
+                _dropped.clear();
+                _log.warn("Ignoring the incomplete bulk load record file " + getTemporaryRecordFile().getAbsolutePath(), ex);
+            }
+        }
+    }
+
+    /**
+     * Reads the dropped objects from the given record file.
+     *
+     * @param file The file
+     */
+    private void readRecord(File file) throws DdlUtilsException
+    {
+        try
+        {
+            Properties  props = new Properties();
+            InputStream input = new FileInputStream(file);
+
+            try
+            {
+                props.load(input);
+            }
+            finally
+            {
+                input.close();
+            }
+
+            int count = Integer.parseInt(props.getProperty("count", "0"));
+
+            for (int idx = 0; idx < count; idx++)
+            {
+                String type      = props.getProperty(idx + ".type");
+                String tableName = props.getProperty(idx + ".table");
+                String name      = props.getProperty(idx + ".name");
+
+                if ((type == null) || (tableName == null) || (name == null))
+                {
+                    throw new DdlUtilsException("Invalid bulk load record file " + file.getAbsolutePath());
+                }
+                _dropped.add(new DroppedObject(type, tableName, name));
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new DdlUtilsException("Could not read the bulk load record file " + file.getAbsolutePath(), ex);
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new DdlUtilsException("Invalid bulk load record file " + file.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * Writes the dropped objects to the record file. The record is first written to a temporary
+     * file which then replaces the record file, so that a failure while writing does not destroy
+     * the previous record. If the process ends after the old record file has been deleted, then
+     * the temporary file is read instead.
+     */
+    private void writeRecord() throws DdlUtilsException
+    {
+        Properties props = new Properties();
+
+        props.setProperty("count", String.valueOf(_dropped.size()));
+        for (int idx = 0; idx < _dropped.size(); idx++)
+        {
+            DroppedObject obj = (DroppedObject)_dropped.get(idx);
+
+            props.setProperty(idx + ".type",  obj.getType());
+            props.setProperty(idx + ".table", obj.getTableName());
+            props.setProperty(idx + ".name",  obj.getName());
+        }
+        try
+        {
+            File         tmpFile = getTemporaryRecordFile();
+            OutputStream output  = new FileOutputStream(tmpFile);
+
+            try
+            {
+                props.store(output, "Indexes and foreign keys dropped by a DdlUtils bulk load");
+            }
+            finally
+            {
+                output.close();
+            }
+            // renaming does not replace an existing file on all platforms
+            if ((_recordFile.exists() && !_recordFile.delete()) || !tmpFile.renameTo(_recordFile))
+            {
+                throw new IOException("Could not replace the file");
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new DdlUtilsException("Could not write the bulk load record file " + _recordFile.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * An index or foreign key that has been dropped.
+     */
+    private static class DroppedObject
+    {
+        /** The type of the object. */
+        private final String _type;
+        /** The name of the table. */
+        private final String _tableName;
+        /** The name of the object. */
+        private final String _name;
+        /** The SQL to recreate the object. */
+        private String _sql;
+        /** The name of the table in the database. */
+        private String _dbTableName;
+        /** The name of the object in the database. */
+        private String _dbName;
+
+        /**
+         * Creates a new object.
+         *
+         * @param type      The type
+         * @param tableName The name of the table
+         * @param name      The name of the object
+         */
+        public DroppedObject(String type, String tableName, String name)
+        {
+            _type      = type;
+            _tableName = tableName;
+            _name      = name;
+        }
+
+        /**
+         * Returns the type of the object.
+         *
+         * @return The type
+         */
+        public String getType()
+        {
+            return _type;
+        }
+
+        /**
+         * Returns the name of the table.
+         *
+         * @return The table name
+         */
+        public String getTableName()
+        {
+            return _tableName;
+        }
+
+        /**
+         * Returns the name of the object.
+         *
+         * @return The name
+         */
+        public String getName()
+        {
+            return _name;
+        }
+
+        /**
+         * Returns the SQL to recreate the object.
+         *
+         * @return The SQL
+         */
+        public String getSql()
+        {
+            return _sql;
+        }
+
+        /**
+         * Sets the SQL to recreate the object.
+         *
+         * @param sql The SQL
+         */
+        public void setSql(String sql)
+        {
+            _sql = sql;
+        }
+
+        /**
+         * Returns the name of the table in the database.
+         *
+         * @return The table name
+         */
+        public String getDatabaseTableName()
+        {
+            return _dbTableName;
+        }
+
+        /**
+         * Returns the name of the object in the database, which differs from the recorded name
+         * if the name is shortened or generated.
+         *
+         * @return The name or <code>null</code> if it has not been determined
+         */
+        public String getDatabaseName()
+        {
+            return _dbName;
+        }
+
+        /**
+         * Sets the names of the table and of the object in the database.
+         *
+         * @param tableName The table name
+         * @param name      The name of the object
+         */
+        public void setDatabaseNames(String tableName, String name)
+        {
+            _dbTableName = tableName;
+            _dbName      = name;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof DroppedObject)
+            {
+                DroppedObject other = (DroppedObject)obj;
+
+                return _type.equals(other._type) && _tableName.equals(other._tableName) && _name.equals(other._name);
+            }
+            else
+            {
+                return false;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int hashCode()
+        {
+            return (_type.hashCode() * 31 + _tableName.hashCode()) * 31 + _name.hashCode();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String toString()
+        {
+            return (TYPE_INDEX.equals(_type) ? "index " : "foreign key ") + _name + " of table " + _tableName;
+        }
+    }
+
+    /**
+     * Thread that takes objects from a shared list and recreates them using its own connection.
+     */
+    private class RestoreThread extends Thread
+    {
+        /** The objects that still need to be recreated; shared between the threads. */
+        private LinkedList _objs;
+        /** Receives the errors; shared between the threads. */
+        private List _errors;
+
+        /**
+         * Creates a new thread instance.
+         *
+         * @param objs   The objects to recreate
+         * @param errors The list receiving the errors
+         */
+        public RestoreThread(LinkedList objs, List errors)
+        {
+            _objs   = objs;
+            _errors = errors;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run()
+        {
+            Connection connection = null;
+
+            try
+            {
+                connection = _platform.borrowConnection();
+                while (true)
+                {
+                    DroppedObject obj = null;
+
+                    synchronized (_objs)
+                    {
+                        if (_objs.isEmpty())
+                        {
+                            return;
+                        }
+                        obj = (DroppedObject)_objs.removeFirst();
+                    }
+                    try
+                    {
+                        _platform.evaluateBatch(connection, obj.getSql(), false);
+                        recordRestored(obj);
+                        if (_log.isDebugEnabled())
+                        {
+                            _log.debug("Recreated the " + obj);
+                        }
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        // the object has not been dropped if the process ended right after recording it
+                        if ((obj.getDatabaseName() != null) && existsInDatabase(connection, obj))
+                        {
+                            _log.info("The " + obj + " already exists");
+                            recordRestored(obj);
+                            continue;
+                        }
+                        _log.error("Could not recreate the " + obj, ex);
+                        synchronized (_errors)
+                        {
+                            _errors.add(ex);
+                        }
+                    }
+                }
+            }
+            catch (RuntimeException ex)
+            {
+                synchronized (_errors)
+                {
+                    _errors.add(ex);
+                }
+            }
+            finally
+            {
+                if (connection != null)
+                {
+                    _platform.returnConnection(connection);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.model.Database;
+
+/**
+ * The beans of a table, or of a part of a table, that the {@link org.apache.ddlutils.io.DataToDatabaseSink}
+ * collects when inserting them with multiple threads. The beans can be moved to a temporary file
+ * in the format of the {@link org.apache.ddlutils.io.SpillFile}, and are read back in the order in
+ * which they were added. The file is deleted when this object is closed.
+ *
+ * @version $Revision: $
+ */
+class CollectedBeans
+{
+    /** The database model. */
+    private Database _model;
+    /** The beans that are held in memory; these were added after the beans in the file. */
+    private ArrayList _beans = new ArrayList();
+    /** The temporary file, or <code>null</code> if no beans have been moved out of memory. */
+    private File _file;
+    /** The stream writing the file. */
+    private DataOutputStream _output;
+    /** The stream reading the file. */
+    private DataInputStream _input;
+    /** The number of beans in the file. */
+    private int _numBeansInFile = 0;
+
+    /**
+     * Creates a new collection of beans.
+     *
+     * @param model The database model which is used to resolve the tables when reading the beans
+     */
+    public CollectedBeans(Database model)
+    {
+        _model = model;
+    }
+
+    /**
+     * Adds the given bean.
+     *
+     * @param bean The bean
+     */
+    public void add(DynaBean bean)
+    {
+        _beans.add(bean);
+    }
+
+    /**
+     * Returns the number of collected beans.
+     *
+     * @return The number of beans
+     */
+    public int size()
+    {
+        return _numBeansInFile + _beans.size();
+    }
+
+    /**
+     * Appends the beans that are held in memory to the temporary file.
+     */
+    public void moveOutOfMemory() throws IOException
+    {
+        if (_beans.isEmpty())
+        {
+            return;
+        }
+        if (_file == null)
+        {
+            _file = File.createTempFile("ddlutils", ".beans");
+            _file.deleteOnExit();
+            _output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file)));
+        }
+        for (Iterator it = _beans.iterator(); it.hasNext();)
+        {
+            SpillFile.writeBean(_output, (DynaBean)it.next());
+        }
+        _numBeansInFile += _beans.size();
+        _beans.clear();
+    }
+
+    /**
+     * Returns an iterator over the collected beans, in the order in which they were added.
+     * No further beans may be added after calling this method. Errors when reading the
+     * beans from the temporary file are thrown as {@link DataSinkException}s.
+     *
+     * @return The iterator
+     */
+    public Iterator iterator() throws IOException
+    {
+        if (_output != null)
+        {
+            _output.close();
+            _output = null;
+            _input  = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+        }
+        return new Iterator() {
+            private int _numReadBeans = 0;
+            private Iterator _memoryIt = _beans.iterator();
+
+            public boolean hasNext()
+            {
+                return (_numReadBeans < _numBeansInFile) || _memoryIt.hasNext();
+            }
+
+            public Object next()
+            {
+                if (_numReadBeans < _numBeansInFile)
+                {
+                    try
+                    {
+                        DynaBean bean = SpillFile.readBean(_input, _model);
+
+                        _numReadBeans++;
+                        return bean;
+                    }
+                    catch (IOException ex)
+                    {
+                        throw new DataSinkException("Could not read the collected rows from a temporary file", ex);
+                    }
+                }
+                else if (_memoryIt.hasNext())
+                {
+                    return _memoryIt.next();
+                }
+                else
+                {
+                    throw new NoSuchElementException();
+                }
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Releases the beans and deletes the temporary file.
+     */
+    public void close()
+    {
+        try
+        {
+            if (_output != null)
+            {
+                _output.close();
+            }
+            if (_input != null)
+            {
+                _input.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            // ignored, we're only deleting the file
+        }
+        _output = null;
+        _input  = null;
+        if (_file != null)
+        {
+            _file.delete();
+            _file = null;
+        }
+        _beans.clear();
+        _numBeansInFile = 0;
+    }
+}
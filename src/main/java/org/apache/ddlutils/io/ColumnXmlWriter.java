@@ -22,7 +22,8 @@ package org.apache.ddlutils.io;
 import org.apache.ddlutils.model.Column;
 
 /**
- * Helper class for writing columns to XML.  
+ * Helper class for writing columns to XML. The writer determines how to write the column name
+ * once, so that it can be used for the values of the column in all rows.
  */
 public class ColumnXmlWriter extends ModelXmlWriter
 {
@@ -32,18 +33,16 @@ public class ColumnXmlWriter extends ModelXmlWriter
     private final int AS_VALUE            = 3;
 
     private final String columnName;
-    private final String columnValue;
     private final boolean nameBase64Encoded;
-    private final boolean valueBase64Encoded;
-    private final int columnFormattingMethod;
+    /** How to write the column; {@link #AS_TABLE_ATTRIBUTE} if the value decides whether it is an attribute or a sub tag. */
+    private final int nameFormattingMethod;
 
     /**
      * Creates a new column writer.
      * 
      * @param column The column, cannot be null
-     * @param value  The value, cannot be null
      */
-    public ColumnXmlWriter(Column column, String value)
+    public ColumnXmlWriter(Column column)
     {
         /*
          * - attribute "column name"="column value" in the parent's (table) element
@@ -60,21 +59,10 @@ public class ColumnXmlWriter extends ModelXmlWriter
          *   corresponding sub element will have a "base64" attribute with the value "true" and its body will
          *   be base64 encoded.
          */
-        if (XMLUtils.hasIllegalXMLCharacters(value))
-        {
-            columnValue        = XMLUtils.base64Encode(value);
-            valueBase64Encoded = true;
-        }
-        else
-        {
-            columnValue        = value;
-            valueBase64Encoded = false;
-        }
-
         if (XMLUtils.hasIllegalXMLCharacters(column.getName())) {
-            columnName             = XMLUtils.base64Encode(column.getName());
-            nameBase64Encoded      = true;
-            columnFormattingMethod = AS_VALUE;
+            columnName           = XMLUtils.base64Encode(column.getName());
+            nameBase64Encoded    = true;
+            nameFormattingMethod = AS_VALUE;
         }
         else
         {
@@ -82,37 +70,55 @@ public class ColumnXmlWriter extends ModelXmlWriter
             nameBase64Encoded = false;
             if (columnName.length() > XMLUtils.MAX_NAME_LENGTH)
             {
-                columnFormattingMethod = AS_VALUE;
+                nameFormattingMethod = AS_VALUE;
             }
             else if ("table-name".equals(columnName) ||
                      DatabaseIO.BASE64_ATTR_NAME.equals(columnName) ||
                      !XMLUtils.isWellFormedXMLName(columnName))
             {
-                columnFormattingMethod = AS_COLUMN_ATTRIBUTE;
-            }
-            else if (valueBase64Encoded || (value.length() > XMLUtils.MAX_ATTRIBUTE_LENGTH))
-            {
-                columnFormattingMethod = AS_SUBTAG;
+                nameFormattingMethod = AS_COLUMN_ATTRIBUTE;
             }
             else
             {
-                columnFormattingMethod = AS_TABLE_ATTRIBUTE;
+                nameFormattingMethod = AS_TABLE_ATTRIBUTE;
             }
         }
     }
 
     /**
-     * Writes the column data as an attribute of the parent element if possible.
+     * Determines how to write the given value of the column.
+     * 
+     * @param value              The value
+     * @param valueBase64Encoded Whether the value is base64 encoded
+     * @return The formatting method
+     */
+    private int getFormattingMethod(String value, boolean valueBase64Encoded)
+    {
+        if ((nameFormattingMethod == AS_TABLE_ATTRIBUTE) &&
+            (valueBase64Encoded || (value.length() > XMLUtils.MAX_ATTRIBUTE_LENGTH)))
+        {
+            return AS_SUBTAG;
+        }
+        else
+        {
+            return nameFormattingMethod;
+        }
+    }
+
+    /**
+     * Writes the column value as an attribute of the parent element if possible.
      * Does nothing if the column name or value cannot be used in an attribute.
      * 
-     * @param writer The writer to write to
+     * @param writer             The writer to write to
+     * @param value              The value, cannot be null
+     * @param valueBase64Encoded Whether the value is base64 encoded
      * @return <code>true</code> if something was written
      */
-    public boolean writeAttribute(DataWriter writer)
+    public boolean writeAttribute(DataWriter writer, String value, boolean valueBase64Encoded)
     {
-        if (columnFormattingMethod == AS_TABLE_ATTRIBUTE)
+        if (getFormattingMethod(value, valueBase64Encoded) == AS_TABLE_ATTRIBUTE)
         {
-            writer.writeAttribute(null, columnName, columnValue);
+            writer.writeAttribute(null, columnName, value);
             return true;
         }
         else
@@ -122,14 +128,18 @@ public class ColumnXmlWriter extends ModelXmlWriter
     }
 
     /**
-     * Writes any sub elements necessary for the column. If no sub elements
+     * Writes any sub elements necessary for the column value. If no sub elements
      * are required, then this method does nothing.
      * 
-     * @param writer The writer to write to
+     * @param writer             The writer to write to
+     * @param value              The value, cannot be null
+     * @param valueBase64Encoded Whether the value is base64 encoded
      * @return <code>true</code> if something was written
      */
-    public boolean writeSubElement(DataWriter writer)
+    public boolean writeSubElement(DataWriter writer, String value, boolean valueBase64Encoded)
     {
+        int columnFormattingMethod = getFormattingMethod(value, valueBase64Encoded);
+
         if (columnFormattingMethod != AS_TABLE_ATTRIBUTE)
         {
             writer.printlnIfPrettyPrinting();
@@ -137,7 +147,7 @@ public class ColumnXmlWriter extends ModelXmlWriter
             if (columnFormattingMethod == AS_SUBTAG)
             {
                 writer.writeElementStart(null, columnName);
-                writeText(writer, columnValue, valueBase64Encoded);
+                writeText(writer, value, valueBase64Encoded);
             }
             else
             {
@@ -145,7 +155,7 @@ public class ColumnXmlWriter extends ModelXmlWriter
                 if (columnFormattingMethod == AS_COLUMN_ATTRIBUTE)
                 {
                     writer.writeAttribute(null, "column-name", columnName);
-                    writeText(writer, columnValue, valueBase64Encoded);
+                    writeText(writer, value, valueBase64Encoded);
                 }
                 else if (columnFormattingMethod == AS_VALUE)
                 {
@@ -158,7 +168,7 @@ public class ColumnXmlWriter extends ModelXmlWriter
                     writer.printlnIfPrettyPrinting();
                     writer.indentIfPrettyPrinting(3);
                     writer.writeElementStart(null, "column-value");
-                    writeText(writer, columnValue, valueBase64Encoded);
+                    writeText(writer, value, valueBase64Encoded);
                     writer.writeElementEnd();
                     writer.printlnIfPrettyPrinting();
                     writer.indentIfPrettyPrinting(2);
@@ -43,6 +43,8 @@ public class ConverterConfiguration
     private HashMap  _convertersPerType = new HashMap();
     /** The converters per table-column path. */
     private HashMap  _convertersPerPath = new HashMap();
+    /** The number of converter registrations, used by users that cache the converters. */
+    private int      _modificationCount = 0;
 
     /**
      * Creates a new configuration object with the default converters.
@@ -81,6 +83,7 @@ public class ConverterConfiguration
     public void registerConverter(int sqlTypeCode, SqlTypeConverter converter)
     {
         _convertersPerType.put(new Integer(sqlTypeCode), converter);
+        _modificationCount++;
     }
 
     /**
@@ -93,6 +96,19 @@ public class ConverterConfiguration
     public void registerConverter(String tableName, String columnName, SqlTypeConverter converter)
     {
         _convertersPerPath.put(tableName +"/" + columnName, converter);
+        _modificationCount++;
+    }
+
+    /**
+     * Returns the number of times that a converter has been registered with this configuration.
+     * Objects that cache the converters for columns can use this to determine whether their
+     * cached converters are still valid.
+     * 
+     * @return The modification count
+     */
+    int getModificationCount()
+    {
+        return _modificationCount;
     }
 
     /**
@@ -0,0 +1,232 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Records the progress of a data load in a file so that the load can be resumed after
+ * a failure. The {@link org.apache.ddlutils.io.DataToDatabaseSink} writes the checkpoint
+ * whenever it commits. A position in the data is given by the name of the source (usually
+ * the path of the data file) and the ordinal of the row in that source. All rows before
+ * the committed position have been committed, and none of the rows from the written
+ * position on have been written. The rows in between may or may not have been committed,
+ * e.g. because they had to wait for rows that they reference.
+ *
+ * @version $Revision: $
+ */
+public class DataLoadCheckpoint
+{
+    /** The key of the source of the committed position. */
+    private static final String KEY_SOURCE = "source";
+    /** The key of the row of the committed position. */
+    private static final String KEY_ROW = "row";
+    /** The key of the source of the written position. */
+    private static final String KEY_WRITTEN_SOURCE = "writtenSource";
+    /** The key of the row of the written position. */
+    private static final String KEY_WRITTEN_ROW = "writtenRow";
+
+    /** The checkpoint file. */
+    private final File _file;
+    /** The source of the first row that is not known to be committed. */
+    private String _source;
+    /** The ordinal of the first row that is not known to be committed. */
+    private long _row;
+    /** The source of the first row that has not been written. */
+    private String _writtenSource;
+    /** The ordinal of the first row that has not been written. */
+    private long _writtenRow;
+
+    /**
+     * Creates a new checkpoint that is stored in the given file.
+     *
+     * @param file The checkpoint file
+     */
+    public DataLoadCheckpoint(File file)
+    {
+        _file = file;
+    }
+
+    /**
+     * Returns the checkpoint file.
+     *
+     * @return The file
+     */
+    public File getFile()
+    {
+        return _file;
+    }
+
+    /**
+     * Returns the source of the first row that is not known to be committed.
+     *
+     * @return The source, or <code>null</code> if the source has no name
+     */
+    public String getSource()
+    {
+        return _source;
+    }
+
+    /**
+     * Returns the ordinal (starting with 0) of the first row in its source that is not
+     * known to be committed.
+     *
+     * @return The row ordinal
+     */
+    public long getRow()
+    {
+        return _row;
+    }
+
+    /**
+     * Sets the position of the first row that is not known to be committed.
+     *
+     * @param source The source, or <code>null</code> if the source has no name
+     * @param row    The ordinal of the row in the source
+     */
+    public void setCommittedPosition(String source, long row)
+    {
+        _source = source;
+        _row    = row;
+    }
+
+    /**
+     * Returns the source of the first row that has not been written.
+     *
+     * @return The source, or <code>null</code> if the source has no name
+     */
+    public String getWrittenSource()
+    {
+        return _writtenSource;
+    }
+
+    /**
+     * Returns the ordinal (starting with 0) of the first row in its source that has not
+     * been written.
+     *
+     * @return The row ordinal
+     */
+    public long getWrittenRow()
+    {
+        return _writtenRow;
+    }
+
+    /**
+     * Sets the position of the first row that has not been written.
+     *
+     * @param source The source, or <code>null</code> if the source has no name
+     * @param row    The ordinal of the row in the source
+     */
+    public void setWrittenPosition(String source, long row)
+    {
+        _writtenSource = source;
+        _writtenRow    = row;
+    }
+
+    /**
+     * Reads the checkpoint from its file.
+     *
+     * @return <code>true</code> if the checkpoint was read, <code>false</code> if the file
+     *         does not exist
+     */
+    public boolean read() throws IOException
+    {
+        if (!_file.exists())
+        {
+            return false;
+        }
+
+        Properties  props = new Properties();
+        InputStream input = new FileInputStream(_file);
+
+        try
+        {
+            props.load(input);
+        }
+        finally
+        {
+            input.close();
+        }
+        try
+        {
+            _source        = props.getProperty(KEY_SOURCE);
+            _row           = Long.parseLong(props.getProperty(KEY_ROW, "0"));
+            _writtenSource = props.getProperty(KEY_WRITTEN_SOURCE);
+            _writtenRow    = Long.parseLong(props.getProperty(KEY_WRITTEN_ROW, "0"));
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new IOException("Invalid checkpoint file " + _file.getAbsolutePath());
+        }
+        return true;
+    }
+
+    /**
+     * Writes the checkpoint to its file. The checkpoint is first written to a temporary
+     * file which then replaces the checkpoint file, so that a failure while writing does
+     * not destroy the previous checkpoint.
+     */
+    public void write() throws IOException
+    {
+        Properties props = new Properties();
+
+        if (_source != null)
+        {
+            props.setProperty(KEY_SOURCE, _source);
+        }
+        props.setProperty(KEY_ROW, String.valueOf(_row));
+        if (_writtenSource != null)
+        {
+            props.setProperty(KEY_WRITTEN_SOURCE, _writtenSource);
+        }
+        props.setProperty(KEY_WRITTEN_ROW, String.valueOf(_writtenRow));
+
+        File         tmpFile = new File(_file.getAbsolutePath() + ".tmp");
+        OutputStream output  = new FileOutputStream(tmpFile);
+
+        try
+        {
+            props.store(output, "DdlUtils data load checkpoint");
+        }
+        finally
+        {
+            output.close();
+        }
+        // renaming does not replace an existing file on all platforms
+        if ((_file.exists() && !_file.delete()) || !tmpFile.renameTo(_file))
+        {
+            throw new IOException("Could not write the checkpoint file " + _file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Deletes the checkpoint file, e.g. after the data load has finished.
+     */
+    public void delete()
+    {
+        _file.delete();
+    }
+}
@@ -65,6 +65,8 @@ public class DataReaderKeys
     private ConverterConfiguration _converterConf = new ConverterConfiguration();
     /** Whether to be case sensitive or not. */
     private boolean _caseSensitive = false;
+    /** Creates the identities of the read beans. */
+    private IdentityFactory _identityFactory = new IdentityFactory();
 
 	//map of the keys and values for the tables
 	public HashMap keymap = new HashMap();
@@ -309,7 +311,7 @@ public class DataReaderKeys
 		readColumnSubElements(xmlReader, bean, table);
 		//getSink().addBean(bean);
 		//--get keys here
-		Identity id = buildIdentityFromPKs(table, bean);
+		Identity id = _identityFactory.buildIdentityFromPKs(table, bean);
 		//Hashmap keyval = new Hashmap();
 		//keyval.put(id.,id);
 		consumeRestOfElement(xmlReader);
@@ -437,16 +439,4 @@ public class DataReaderKeys
             eventType = reader.next();
         }
     }
-
-	private Identity buildIdentityFromPKs(Table table, DynaBean bean)
-    {
-        Identity identity  = new Identity(table);
-        Column[] pkColumns = table.getPrimaryKeyColumns();
-
-        for (int idx = 0; idx < pkColumns.length; idx++)
-        {
-            identity.setColumnValue(pkColumns[idx].getName(), bean.get(pkColumns[idx].getName()));
-        }
-        return identity;
-    }
 }
@@ -0,0 +1,808 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ddlutils.dynabean.SqlDynaBean;
+import org.apache.ddlutils.model.Database;
+import org.apache.ddlutils.model.ForeignKey;
+import org.apache.ddlutils.model.ModelHelper;
+import org.apache.ddlutils.model.Table;
+
+/**
+ * Sorts the rows of data XML files so that they can be inserted in the order in which they
+ * are written, without having to wait for the rows that they reference. The rows are grouped
+ * by table, and the tables are written in the order of their foreign keys. The rows of a table
+ * keep the order in which they were read, except in tables that reference themselves, where
+ * the referenced rows are written first, via all of the table's self-referencing foreign keys.
+ * Sorted data can be inserted with
+ * {@link DataToDatabaseSink#setEnsureForeignKeyOrder(boolean)} turned off, unless there are
+ * circular foreign keys between tables or primary key values that are generated by the database.<br/>
+ * The rows are sorted via an external merge sort so that only a limited number of them are held
+ * in memory; the others are written to temporary files. Only the primary and foreign key values
+ * of the rows of self-referencing tables are held in memory completely.
+ *
+ * @version $Revision: $
+ */
+public class DataSorter
+{
+    /** The maximum number of temporary files that are merged at once. */
+    private static final int MAX_MERGED_RUNS = 64;
+
+    /** Orders rows by their sort key and then by the order in which they were read. */
+    private static final Comparator ROW_ORDER = new Comparator() {
+        public int compare(Object obj1, Object obj2)
+        {
+            Row row1 = (Row)obj1;
+            Row row2 = (Row)obj2;
+
+            if (row1.getKey() != row2.getKey())
+            {
+                return row1.getKey() < row2.getKey() ? -1 : 1;
+            }
+            else if (row1.getNumber() != row2.getNumber())
+            {
+                return row1.getNumber() < row2.getNumber() ? -1 : 1;
+            }
+            else
+            {
+                return 0;
+            }
+        }
+    };
+
+    /** Our log. */
+    private final Log _log = LogFactory.getLog(DataSorter.class);
+
+    /** The database model. */
+    private final Database _model;
+    /** The position of each table in the foreign key order. */
+    private final Map _tableOrder = new IdentityHashMap();
+    /** The self-referencing foreign keys of the tables that have any. */
+    private final Map _selfReferencingFks = new IdentityHashMap();
+    /** Creates the identities of the rows of self-referencing tables. */
+    private final IdentityFactory _identityFactory = new IdentityFactory();
+    /** The maximum number of rows to hold in memory. */
+    private int _maxRowsInMemory = 100000;
+    /** The directory for the temporary files; <code>null</code> for the default one. */
+    private File _tempDir;
+
+    /**
+     * Creates a new sorter for data of the given model.
+     *
+     * @param model The database model
+     */
+    public DataSorter(Database model)
+    {
+        int tableIdx = 0;
+
+        _model = model;
+        for (Iterator levelIt = new ModelHelper().groupTablesByForeignKeyOrder(model.getTables()).iterator(); levelIt.hasNext();)
+        {
+            for (Iterator tableIt = ((List)levelIt.next()).iterator(); tableIt.hasNext();)
+            {
+                _tableOrder.put(tableIt.next(), new Integer(tableIdx++));
+            }
+        }
+        for (int idx = 0; idx < model.getTableCount(); idx++)
+        {
+            Table table   = model.getTable(idx);
+            List  selfFks = new ArrayList();
+
+            for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
+            {
+                ForeignKey fk = table.getForeignKey(fkIdx);
+
+                if (table.equals(fk.getForeignTable()))
+                {
+                    selfFks.add(fk);
+                }
+            }
+            if (!selfFks.isEmpty())
+            {
+                _selfReferencingFks.put(table, selfFks.toArray(new ForeignKey[selfFks.size()]));
+            }
+        }
+    }
+
+    /**
+     * Returns the model of the sorted data.
+     *
+     * @return The model
+     */
+    public Database getModel()
+    {
+        return _model;
+    }
+
+    /**
+     * Returns the maximum number of rows that are held in memory while sorting.
+     *
+     * @return The number of rows
+     */
+    public int getMaxRowsInMemory()
+    {
+        return _maxRowsInMemory;
+    }
+
+    /**
+     * Specifies the maximum number of rows that are held in memory while sorting. Whenever
+     * this number is reached, the rows are sorted and written to a temporary file.
+     *
+     * @param maxRows The number of rows
+     */
+    public void setMaxRowsInMemory(int maxRows)
+    {
+        if (maxRows < 1)
+        {
+            throw new IllegalArgumentException("The number of rows in memory must be at least 1");
+        }
+        _maxRowsInMemory = maxRows;
+    }
+
+    /**
+     * Returns the directory in which the temporary files are created.
+     *
+     * @return The directory, or <code>null</code> if the default temporary directory is used
+     */
+    public File getTempDir()
+    {
+        return _tempDir;
+    }
+
+    /**
+     * Specifies the directory in which the temporary files are created.
+     *
+     * @param tempDir The directory, or <code>null</code> to use the default temporary directory
+     */
+    public void setTempDir(File tempDir)
+    {
+        _tempDir = tempDir;
+    }
+
+    /**
+     * Reads the rows from the given data XML files and writes them sorted to the given writer.
+     * The sink of the reader is replaced by this method, and the writer is ended.
+     *
+     * @param reader The reader for the data XML files, configured with the model of this sorter
+     * @param files  The data XML files
+     * @param writer The writer for the sorted data
+     */
+    public void sort(DataReader reader, File[] files, DataWriter writer) throws DdlUtilsXMLException
+    {
+        RowSorter sorter  = new RowSorter();
+        Map       parents = new IdentityHashMap();
+
+        try
+        {
+            reader.setSink(new SortingSink(sorter, parents));
+            for (int idx = 0; idx < files.length; idx++)
+            {
+                if (_log.isDebugEnabled())
+                {
+                    _log.debug("Reading data file " + files[idx].getAbsolutePath());
+                }
+                reader.read(files[idx]);
+            }
+            writer.writeDocumentStart();
+
+            Table     curTable   = null;
+            Map       depths     = null;
+            RowSorter selfSorter = null;
+
+            for (Iterator it = sorter.iterator(); it.hasNext();)
+            {
+                Row   row   = (Row)it.next();
+                Table table = _model.getDynaClassFor(row.getBean()).getTable();
+
+                if (table != curTable)
+                {
+                    if (selfSorter != null)
+                    {
+                        writeRows(selfSorter, writer);
+                        selfSorter = null;
+                    }
+                    curTable = table;
+                    if (parents.containsKey(table))
+                    {
+                        depths     = computeDepths(table, (Map)parents.remove(table));
+                        selfSorter = new RowSorter();
+                    }
+                }
+                if (selfSorter != null)
+                {
+                    Integer depth = (Integer)depths.get(_identityFactory.buildIdentityFromPKs(table, row.getBean()));
+
+                    selfSorter.add(new Row(depth.intValue(), row.getNumber(), row.getBean()));
+                }
+                else
+                {
+                    writer.write((SqlDynaBean)row.getBean());
+                }
+            }
+            if (selfSorter != null)
+            {
+                writeRows(selfSorter, writer);
+            }
+            writer.writeDocumentEnd();
+        }
+        catch (IOException ex)
+        {
+            throw new DataSinkException("Could not sort the data", ex);
+        }
+        finally
+        {
+            sorter.close();
+        }
+    }
+
+    /**
+     * Writes the rows of the given sorter to the writer, and closes the sorter.
+     *
+     * @param sorter The sorter
+     * @param writer The writer
+     */
+    private void writeRows(RowSorter sorter, DataWriter writer) throws IOException, DdlUtilsXMLException
+    {
+        try
+        {
+            for (Iterator it = sorter.iterator(); it.hasNext();)
+            {
+                writer.write((SqlDynaBean)((Row)it.next()).getBean());
+            }
+        }
+        finally
+        {
+            sorter.close();
+        }
+    }
+
+    /**
+     * Determines the depth of each row of a self-referencing table, i.e. the length of the
+     * longest chain of rows that it references directly or indirectly via the self-referencing
+     * foreign keys. Rows that only reference rows not contained in the data have the depth 0,
+     * so every row has a greater depth than the rows that it references. References that
+     * close a cycle are ignored.
+     *
+     * @param table   The table
+     * @param parents The identities of the rows mapped to the arrays of the identities of the
+     *                rows that they reference per self-referencing foreign key, which contain
+     *                <code>null</code> for foreign keys without value
+     * @return The depths of the rows keyed by their identities
+     */
+    private Map computeDepths(Table table, Map parents)
+    {
+        Map  depths = new HashMap();
+        List path   = new ArrayList();
+        Set  onPath = new HashSet();
+
+        for (Iterator it = parents.keySet().iterator(); it.hasNext();)
+        {
+            Identity start = (Identity)it.next();
+
+            if (depths.containsKey(start))
+            {
+                continue;
+            }
+            // depth-first search along the references; a row's depth is known once the
+            // depths of all rows that it references are known
+            path.add(start);
+            onPath.add(start);
+            while (!path.isEmpty())
+            {
+                Identity   identity   = (Identity)path.get(path.size() - 1);
+                Identity[] rowParents = (Identity[])parents.get(identity);
+                Identity   next       = null;
+                int        depth      = 0;
+
+                for (int idx = 0; (next == null) && (idx < rowParents.length); idx++)
+                {
+                    Identity parent = rowParents[idx];
+
+                    // rows may reference themselves
+                    if ((parent == null) || parent.equals(identity) || !parents.containsKey(parent))
+                    {
+                        continue;
+                    }
+
+                    Integer parentDepth = (Integer)depths.get(parent);
+
+                    if (parentDepth != null)
+                    {
+                        depth = Math.max(depth, parentDepth.intValue() + 1);
+                    }
+                    else if (onPath.contains(parent))
+                    {
+                        _log.warn("The rows of table " + table.getName() + " reference each other in a cycle, e.g. row " + parent);
+                    }
+                    else
+                    {
+                        next = parent;
+                    }
+                }
+                if (next != null)
+                {
+                    path.add(next);
+                    onPath.add(next);
+                }
+                else
+                {
+                    depths.put(identity, new Integer(depth));
+                    path.remove(path.size() - 1);
+                    onPath.remove(identity);
+                }
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * A row together with its sort key and the ordinal in which it was read.
+     */
+    private static class Row
+    {
+        /** The sort key. */
+        private final long _key;
+        /** The ordinal of the row in the input. */
+        private final long _number;
+        /** The row. */
+        private final DynaBean _bean;
+
+        /**
+         * Creates a new row.
+         *
+         * @param key    The sort key
+         * @param number The ordinal of the row in the input
+         * @param bean   The row
+         */
+        public Row(long key, long number, DynaBean bean)
+        {
+            _key    = key;
+            _number = number;
+            _bean   = bean;
+        }
+
+        /**
+         * Returns the sort key.
+         *
+         * @return The key
+         */
+        public long getKey()
+        {
+            return _key;
+        }
+
+        /**
+         * Returns the ordinal of the row in the input.
+         *
+         * @return The ordinal
+         */
+        public long getNumber()
+        {
+            return _number;
+        }
+
+        /**
+         * Returns the row.
+         *
+         * @return The bean
+         */
+        public DynaBean getBean()
+        {
+            return _bean;
+        }
+    }
+
+    /**
+     * Sorts rows via sorted runs that are written to temporary files when the maximum number
+     * of rows in memory is reached, and merged when the rows are read back.
+     */
+    private class RowSorter
+    {
+        /** The rows in memory. */
+        private ArrayList _rows = new ArrayList();
+        /** The temporary files containing the sorted runs. */
+        private ArrayList _runFiles = new ArrayList();
+        /** The readers of the runs that are currently merged. */
+        private ArrayList _readers = new ArrayList();
+
+        /**
+         * Adds the given row.
+         *
+         * @param row The row
+         */
+        public void add(Row row) throws IOException
+        {
+            _rows.add(row);
+            if (_rows.size() >= _maxRowsInMemory)
+            {
+                writeRowsInMemory();
+            }
+        }
+
+        /**
+         * Returns an iterator over the sorted rows. No rows may be added afterwards.
+         *
+         * @return The iterator
+         */
+        public Iterator iterator() throws IOException
+        {
+            if (_runFiles.isEmpty())
+            {
+                Collections.sort(_rows, ROW_ORDER);
+                return _rows.iterator();
+            }
+            if (!_rows.isEmpty())
+            {
+                writeRowsInMemory();
+            }
+            // only a limited number of files is read at the same time
+            while (_runFiles.size() > MAX_MERGED_RUNS)
+            {
+                List     runFiles = new ArrayList(_runFiles.subList(0, MAX_MERGED_RUNS));
+                Iterator merged   = merge(runFiles);
+
+                _runFiles.subList(0, MAX_MERGED_RUNS).clear();
+                writeRun(merged);
+                closeReaders();
+                for (Iterator it = runFiles.iterator(); it.hasNext();)
+                {
+                    ((File)it.next()).delete();
+                }
+            }
+            return merge(_runFiles);
+        }
+
+        /**
+         * Sorts the rows in memory and writes them as a new run to a temporary file.
+         */
+        private void writeRowsInMemory() throws IOException
+        {
+            Collections.sort(_rows, ROW_ORDER);
+            writeRun(_rows.iterator());
+            _rows.clear();
+        }
+
+        /**
+         * Writes the given sorted rows as a new run to a temporary file.
+         *
+         * @param rows The rows
+         */
+        private void writeRun(Iterator rows) throws IOException
+        {
+            File             file   = File.createTempFile("ddlutils", ".run", _tempDir);
+            DataOutputStream output = null;
+
+            file.deleteOnExit();
+            _runFiles.add(file);
+            try
+            {
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                while (rows.hasNext())
+                {
+                    Row row = (Row)rows.next();
+
+                    output.writeBoolean(true);
+                    output.writeLong(row.getKey());
+                    output.writeLong(row.getNumber());
+                    SpillFile.writeBean(output, row.getBean());
+                }
+                output.writeBoolean(false);
+            }
+            finally
+            {
+                if (output != null)
+                {
+                    output.close();
+                }
+            }
+        }
+
+        /**
+         * Returns an iterator that merges the runs in the given files.
+         *
+         * @param runFiles The files
+         * @return The iterator
+         */
+        private Iterator merge(List runFiles) throws IOException
+        {
+            TreeSet heads = new TreeSet(new Comparator() {
+                public int compare(Object obj1, Object obj2)
+                {
+                    return ROW_ORDER.compare(((RunReader)obj1).getRow(), ((RunReader)obj2).getRow());
+                }
+            });
+
+            for (Iterator it = runFiles.iterator(); it.hasNext();)
+            {
+                RunReader reader = new RunReader((File)it.next());
+
+                _readers.add(reader);
+                if (reader.next())
+                {
+                    heads.add(reader);
+                }
+            }
+            return new MergeIterator(heads);
+        }
+
+        /**
+         * Closes the readers of the runs.
+         */
+        private void closeReaders()
+        {
+            for (Iterator it = _readers.iterator(); it.hasNext();)
+            {
+                ((RunReader)it.next()).close();
+            }
+            _readers.clear();
+        }
+
+        /**
+         * Releases the rows and deletes the temporary files.
+         */
+        public void close()
+        {
+            closeReaders();
+            for (Iterator it = _runFiles.iterator(); it.hasNext();)
+            {
+                ((File)it.next()).delete();
+            }
+            _runFiles.clear();
+            _rows.clear();
+        }
+    }
+
+    /**
+     * Reads the rows of a run from its temporary file.
+     */
+    private class RunReader
+    {
+        /** The input stream. */
+        private DataInputStream _input;
+        /** The current row. */
+        private Row _row;
+
+        /**
+         * Creates a new reader for the given file.
+         *
+         * @param file The file
+         */
+        public RunReader(File file) throws IOException
+        {
+            _input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        /**
+         * Returns the current row.
+         *
+         * @return The row
+         */
+        public Row getRow()
+        {
+            return _row;
+        }
+
+        /**
+         * Reads the next row.
+         *
+         * @return <code>false</code> if there are no more rows
+         */
+        public boolean next() throws IOException
+        {
+            if (_input.readBoolean())
+            {
+                long key    = _input.readLong();
+                long number = _input.readLong();
+
+                _row = new Row(key, number, SpillFile.readBean(_input, _model));
+                return true;
+            }
+            else
+            {
+                _row = null;
+                close();
+                return false;
+            }
+        }
+
+        /**
+         * Closes the input stream.
+         */
+        public void close()
+        {
+            if (_input != null)
+            {
+                try
+                {
+                    _input.close();
+                }
+                catch (IOException ex)
+                {
+                    _log.debug("Ignoring exception that occurred while closing a temporary file", ex);
+                }
+                _input = null;
+            }
+        }
+    }
+
+    /**
+     * Iterates over the rows of multiple runs in sort order.
+     */
+    private static class MergeIterator implements Iterator
+    {
+        /** The readers of the runs that have more rows, ordered by their current rows. */
+        private final TreeSet _heads;
+
+        /**
+         * Creates a new iterator.
+         *
+         * @param heads The readers of the runs, ordered by their current rows
+         */
+        public MergeIterator(TreeSet heads)
+        {
+            _heads = heads;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext()
+        {
+            return !_heads.isEmpty();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object next()
+        {
+            if (_heads.isEmpty())
+            {
+                throw new NoSuchElementException();
+            }
+
+            RunReader reader = (RunReader)_heads.first();
+            Row       row    = reader.getRow();
+
+            _heads.remove(reader);
+            try
+            {
+                if (reader.next())
+                {
+                    _heads.add(reader);
+                }
+            }
+            catch (IOException ex)
+            {
+                throw new DataSinkException("Could not read a temporary file", ex);
+            }
+            return row;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Sink that passes the read rows to the sorter, using the position of their tables in
+     * the foreign key order as the sort key, and collects the references of the rows of
+     * self-referencing tables.
+     */
+    private class SortingSink implements DataSink
+    {
+        /** The sorter. */
+        private final RowSorter _sorter;
+        /** Receives the references per self-referencing table. */
+        private final Map _parents;
+        /** The number of rows read so far. */
+        private long _numRows = 0;
+
+        /**
+         * Creates a new sink.
+         *
+         * @param sorter  The sorter
+         * @param parents Receives the identities of the rows of self-referencing tables mapped to
+         *                the identities of the rows that they reference via each self-referencing
+         *                foreign key, per table
+         */
+        public SortingSink(RowSorter sorter, Map parents)
+        {
+            _sorter  = sorter;
+            _parents = parents;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void start() throws DataSinkException
+        {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void addBean(DynaBean bean) throws DataSinkException
+        {
+            Table        table   = _model.getDynaClassFor(bean).getTable();
+            ForeignKey[] selfFks = (ForeignKey[])_selfReferencingFks.get(table);
+
+            if (selfFks != null)
+            {
+                Map        tableParents = (Map)_parents.get(table);
+                Identity[] rowParents   = new Identity[selfFks.length];
+
+                if (tableParents == null)
+                {
+                    tableParents = new HashMap();
+                    _parents.put(table, tableParents);
+                }
+                for (int idx = 0; idx < selfFks.length; idx++)
+                {
+                    rowParents[idx] = _identityFactory.buildIdentityFromFK(table, selfFks[idx], bean);
+                }
+                tableParents.put(_identityFactory.buildIdentityFromPKs(table, bean), rowParents);
+            }
+            try
+            {
+                _sorter.add(new Row(((Integer)_tableOrder.get(table)).intValue(), _numRows++, bean));
+            }
+            catch (IOException ex)
+            {
+                throw new DataSinkException("Could not write the rows to a temporary file", ex);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void end() throws DataSinkException
+        {
+        }
+    }
+}
@@ -19,29 +19,67 @@ package org.apache.ddlutils.io;
  * under the License.
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ddlutils.DatabaseOperationException;
 import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.PlatformInfo;
+import org.apache.ddlutils.dynabean.SqlDynaBean;
 import org.apache.ddlutils.dynabean.SqlDynaClass;
 import org.apache.ddlutils.model.Column;
 import org.apache.ddlutils.model.Database;
 import org.apache.ddlutils.model.ForeignKey;
+import org.apache.ddlutils.model.ModelHelper;
 import org.apache.ddlutils.model.Reference;
 import org.apache.ddlutils.model.Table;
 
 /**
  * Data sink that directly inserts the beans into the database. If configured, it will make
  * sure that the beans are inserted in the correct order according to the foreignkeys. Note
- * that this will only work if there are no circles.
+ * that this will only work if there are no circles.<br/>
+ * If more than one thread is configured, then the beans are collected per table and
+ * inserted when the sink is ended. The tables are then processed in the order of their
+ * foreign key dependencies, and the tables of one dependency level are inserted concurrently
+ * using one connection per thread. The next level is only started once all tables of the
+ * current level have been written. The beans of a table can also be split among several
+ * threads (see {@link #setWorkersPerTable(int)}).<br/>
+ * Per default, the sink commits after every written row or batch. Alternatively, a commit
+ * interval can be specified, and a checkpoint file to which the sink records the progress
+ * of the load at every commit. A failed load can then be resumed from the checkpoint, skipping
+ * the rows that have already been committed. Rows are identified by their ordinal in their
+ * source (see {@link #startSource(String)}), so a resumed load has to read the same data in the
+ * same order. Note that this does not work for rows whose primary key values are generated by
+ * the database and referenced by other rows, as the generated values of the skipped rows are
+ * not known, so the sink refuses to resume a load of such tables unless the identity override
+ * is on.<br/>
+ * In batch mode, the beans are queued per table so that the batches stay full regardless
+ * of how the tables are interleaved in the data. The queue of a table is written once it
+ * has reached the batch size, after the queues of the tables that it references. The batch
+ * size can be adapted per table to the measured latency of its batches (see
+ * {@link BatchSizeController}). The number of rows and batches and the final
+ * batch size of each table are logged when the sink is ended.
  * 
  * @version $Revision: 289996 $
  */
@@ -62,23 +100,112 @@ public class DataToDatabaseSink implements DataSink
     private boolean _ensureFkOrder = true;
     /** Whether to use batch mode inserts. */
     private boolean _useBatchMode = false;
-    /** The queued objects for batch insertion. */
-    private ArrayList _batchQueue = new ArrayList();
+    /**
+     * The queued objects for batch insertion per table. Tables with circular foreign keys between
+     * them share one queue, keyed by the first of these tables, so that their beans keep their order.
+     */
+    private IdentityHashMap _batchQueues = new IdentityHashMap();
+    /** The key of the shared batch queue per table with circular foreign keys. */
+    private IdentityHashMap _sharedBatchQueueKeys = new IdentityHashMap();
+    /** The keys of the batch queues that have reached the batch size. */
+    private LinkedList _fullBatchQueues = new LinkedList();
     /** The number of beans to insert in one batch. */
     private int _batchSize = 1024;
     /** Stores the tables that are target of a foreign key. */
-    private HashSet _fkTables = new HashSet();
+    private IdentityHashMap _fkTables = new IdentityHashMap();
     /** Contains the tables that have a self-referencing foreign key to a (partially) identity primary key. */
-    private HashSet _tablesWithSelfIdentityReference = new HashSet();
+    private IdentityHashMap _tablesWithSelfIdentityReference = new IdentityHashMap();
     /** Contains the tables that have a self-referencing foreign key that is required. */
-    private HashSet _tablesWithRequiredSelfReference = new HashSet();
+    private IdentityHashMap _tablesWithRequiredSelfReference = new IdentityHashMap();
+    /** Creates the identities of the beans. */
+    private IdentityFactory _identityFactory = new IdentityFactory();
     /** Maps original to processed identities. */
-    private HashMap _identityMap = new HashMap();
+    private SpillingIdentityMap _identityMap;
+    /** Whether the identity map is shared with other sinks. */
+    private boolean _sharedIdentityMap = false;
     /** Stores the objects that are waiting for other objects to be inserted. */
-    private ArrayList _waitingObjects = new ArrayList();
+    private LinkedHashSet _waitingObjects = new LinkedHashSet();
+    /** Maps the identities of not yet inserted objects to the lists of the objects waiting for them. */
+    private HashMap _waitingObjectsByIdentity = new HashMap();
      /** Specifies how to load the data. Insert will insert all and error if the row alrady exists.
-        INSERT_NEW will only insert if the row exists */
+        INSERT_NEW will only insert if the row exists, UPSERT will insert the row or update it if it exists */
     private String _dataLoadType;
+    /** The number of threads to use for inserting the beans of independent tables. */
+    private int _threadCount = 1;
+    /** The number of threads that insert the collected beans of one table concurrently. */
+    private int _workersPerTable = 1;
+    /** Collects the beans per table if multiple threads are used, as arrays of {@link CollectedBeans} with one element per part. */
+    private IdentityHashMap _beansPerTable = new IdentityHashMap();
+    /** The number of collected beans currently held in memory. */
+    private int _numCollectedBeansInMemory = 0;
+    /** The maximum number of identities and of deferred beans to hold in memory; 0 for no limit. */
+    private int _maxObjectsInMemory = 0;
+    /** The number of deferred beans currently held in memory. */
+    private int _numWaitingBeansInMemory = 0;
+    /** The file receiving the deferred beans that do not fit into memory. */
+    private SpillFile _spillFile;
+    /** Contains the identity primary key columns of the tables that have any. */
+    private IdentityHashMap _identityPkColumns = new IdentityHashMap();
+    /** Maps the queued beans whose generated identity is only known after the batch insert, to their original identities. */
+    private IdentityHashMap _pendingRegistrations = new IdentityHashMap();
+    /** Contains the queued beans that need to be inserted individually so that their generated identity can be read. */
+    private IdentityHashMap _singleInsertBeans = new IdentityHashMap();
+    /** The queued beans that reference themselves via their generated primary key, mapped to the self-referencing foreign key. */
+    private IdentityHashMap _selfReferencingBeans = new IdentityHashMap();
+    /** The inserted beans whose self-reference still needs to be set via an update. */
+    private ArrayList _selfReferenceUpdates = new ArrayList();
+    /** Contains the queued beans that are inserted or updated if they exist (UPSERT). */
+    private IdentityHashMap _upsertBeans = new IdentityHashMap();
+    /** The beans per table whose existence in the database needs to be checked before inserting them (INSERT_NEW). */
+    private IdentityHashMap _beansToProbe = new IdentityHashMap();
+    /** The number of beans per table whose existence is checked with one query. */
+    private int _existenceProbeSize = 100;
+    /** The number of rows after which the sink commits; 0 to commit after every written row or batch. */
+    private int _commitInterval = 0;
+    /** The number of rows processed since the last commit. */
+    private int _numUncommittedRows = 0;
+    /** The auto-commit mode of the connection before the sink turned it off. */
+    private boolean _origAutoCommit;
+    /** The file that the checkpoints are written to, if any. */
+    private File _checkpointFile;
+    /** Whether to resume from the checkpoint in the checkpoint file if there is one. */
+    private boolean _resumeFromCheckpoint = false;
+    /** The checkpoint that is written at every commit. */
+    private DataLoadCheckpoint _checkpoint;
+    /** The checkpoint that the load resumes from. */
+    private DataLoadCheckpoint _resumedCheckpoint;
+    /** Whether the source of the committed position of the resumed checkpoint has been reached. */
+    private boolean _committedSourceReached;
+    /** Whether the source of the written position of the resumed checkpoint has been reached. */
+    private boolean _writtenSourceReached;
+    /** The name of the current source. */
+    private String _source;
+    /** The ordinal of the next row in the current source. */
+    private long _sourceRow = 0;
+    /** The latency in milliseconds that batches shall take, or 0 if the batch size is fixed. */
+    private int _targetBatchLatency = 0;
+    /** The minimum batch size when adapting the batch size. */
+    private int _minBatchSize = 16;
+    /** The maximum batch size when adapting the batch size. */
+    private int _maxBatchSize = 65536;
+    /** The maximum number of bytes per batch, or 0 if unlimited. */
+    private long _maxBatchBytes = 0;
+    /** Determines the batch sizes per table in batch mode. */
+    private BatchSizeController _batchSizeController;
+    /** Whether the batch size controller is shared with other sinks. */
+    private boolean _sharedBatchSizeController = false;
+    /** Whether to defer the foreign key checks instead of ordering the rows by their foreign keys. */
+    private boolean _deferForeignKeyChecks = false;
+    /** Whether the foreign key checks are deferred for the current load. */
+    private boolean _foreignKeyChecksDeferred = false;
+    /** The file to write the rows to that could not be written to the database, if any. */
+    private File _rejectFile;
+    /** Receives the rows that could not be written to the database. */
+    private RejectFile _rejects;
+    /** Whether the reject file is shared with other sinks. */
+    private boolean _sharedRejects = false;
+    /** Whether the rows of failed batches are written again in smaller batches to isolate the failing rows. */
+    private boolean _isolatingFailedRows = false;
 
     /**
      * Creates a new sink instance.
@@ -94,24 +221,32 @@ public class DataToDatabaseSink implements DataSink
         {
             Table      table     = model.getTable(tableIdx);
             ForeignKey selfRefFk = table.getSelfReferencingForeignKey();
+            ArrayList  idColumns = new ArrayList();
+            Column[]   pkColumns = table.getPrimaryKeyColumns();
 
-            if (selfRefFk != null)
+            for (int idx = 0; idx < pkColumns.length; idx++)
+            {
+                if (pkColumns[idx].isAutoIncrement())
+                {
+                    idColumns.add(pkColumns[idx]);
+                }
+            }
+            if (!idColumns.isEmpty())
             {
-                Column[] pkColumns = table.getPrimaryKeyColumns();
+                _identityPkColumns.put(table, idColumns.toArray(new Column[idColumns.size()]));
+            }
 
-                for (int idx = 0; idx < pkColumns.length; idx++)
+            if (selfRefFk != null)
+            {
+                if (!idColumns.isEmpty())
                 {
-                    if (pkColumns[idx].isAutoIncrement())
-                    {
-                        _tablesWithSelfIdentityReference.add(table);
-                        break;
-                    }
+                    _tablesWithSelfIdentityReference.put(table, table);
                 }
                 for (int idx = 0; idx < selfRefFk.getReferenceCount(); idx++)
                 {
                     if (selfRefFk.getReference(idx).getLocalColumn().isRequired())
                     {
-                        _tablesWithRequiredSelfReference.add(table);
+                        _tablesWithRequiredSelfReference.put(table, table);
                         break;
                     }
                 }
@@ -207,11 +342,132 @@ public class DataToDatabaseSink implements DataSink
         _batchSize = batchSize;
     }
 
+    /**
+     * Returns the latency that the execution of a batch shall take. If set, the batch size
+     * of each table is adjusted so that its batches take about this time, starting with the
+     * configured batch size.
+     *
+     * @return The latency in milliseconds, or 0 if the batch size is fixed
+     */
+    public int getTargetBatchLatency()
+    {
+        return _targetBatchLatency;
+    }
+
+    /**
+     * Sets the latency that the execution of a batch shall take.
+     *
+     * @param latency The latency in milliseconds, or 0 if the batch size shall be fixed
+     */
+    public void setTargetBatchLatency(int latency)
+    {
+        _targetBatchLatency = latency;
+    }
+
+    /**
+     * Returns the controller that determines the batch sizes in batch mode. It also provides
+     * the statistics of the batches written since the sink was started.
+     *
+     * @return The controller, or <code>null</code> if the sink is not started in batch mode
+     */
+    public BatchSizeController getBatchSizeController()
+    {
+        return _batchSizeController;
+    }
+
+    /**
+     * Returns the minimum number of beans per batch when adapting the batch size.
+     *
+     * @return The number of beans
+     */
+    public int getMinBatchSize()
+    {
+        return _minBatchSize;
+    }
+
+    /**
+     * Sets the minimum number of beans per batch when adapting the batch size.
+     *
+     * @param batchSize The number of beans
+     */
+    public void setMinBatchSize(int batchSize)
+    {
+        _minBatchSize = batchSize;
+    }
+
+    /**
+     * Returns the maximum number of beans per batch when adapting the batch size.
+     *
+     * @return The number of beans
+     */
+    public int getMaxBatchSize()
+    {
+        return _maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of beans per batch when adapting the batch size.
+     *
+     * @param batchSize The number of beans
+     */
+    public void setMaxBatchSize(int batchSize)
+    {
+        _maxBatchSize = batchSize;
+    }
+
+    /**
+     * Returns the maximum number of bytes of the values of the beans in one batch. This is
+     * an estimate of the amount of data that is bound to the statements of a batch.
+     *
+     * @return The number of bytes, or 0 if unlimited
+     */
+    public long getMaxBatchBytes()
+    {
+        return _maxBatchBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes of the values of the beans in one batch.
+     *
+     * @param maxBytes The number of bytes, or 0 if unlimited
+     */
+    public void setMaxBatchBytes(long maxBytes)
+    {
+        _maxBatchBytes = maxBytes;
+    }
+
+    /**
+     * Returns the file that the rows are written to that could not be written to the database.
+     *
+     * @return The reject file, or <code>null</code> if the rows are only logged
+     */
+    public File getRejectFile()
+    {
+        return _rejectFile;
+    }
+
+    /**
+     * Specifies the file that the rows are written to that could not be written to the database
+     * if the sink does not halt on errors. The file is written in the format of the
+     * {@link DataWriter}, with the error message of the database as a comment before each row.
+     * It is only created if there are such rows.<br/>
+     * In batch mode, a failed batch is written again in two halves, and failing halves are split
+     * further until the failing rows are isolated, so that all other rows of the batch are still
+     * written. This requires that the connection is in auto-commit mode or supports savepoints.
+     *
+     * @param rejectFile The reject file, or <code>null</code> if the rows shall only be logged
+     */
+    public void setRejectFile(File rejectFile)
+    {
+        _rejectFile = rejectFile;
+    }
+
         /**
      * Specifies how to load the data. Insert will insert all and error if the row alrady exists.
      * INSERT_NEW will only insert if the row exists
+     * UPSERT will insert the row or update it if it exists
      * 
-     * @param dataLoadType INSERT or INSERT_NEW
+     * @param dataLoadType INSERT, INSERT_NEW or UPSERT
      */
     public void setDataLoadType(String dataLoadType)
     {
@@ -228,34 +484,312 @@ public class DataToDatabaseSink implements DataSink
         return _dataLoadType;
     }
 
+    /**
+     * Returns the number of threads that insert the beans of independent tables concurrently.
+     *
+     * @return The number of threads (<code>1</code> per default)
+     */
+    public int getThreadCount()
+    {
+        return _threadCount;
+    }
+
+    /**
+     * Specifies the number of threads that insert the beans of independent tables concurrently.
+     * Each thread uses its own connection. Note that if more than one thread is used, then
+     * all beans are collected until the sink is ended, and are only then inserted. The collected
+     * beans beyond the maximum number of objects in memory are moved to temporary files.
+     *
+     * @param threadCount The number of threads
+     */
+    public void setThreadCount(int threadCount)
+    {
+        _threadCount = threadCount;
+    }
+
+    /**
+     * Returns the number of threads that insert the collected beans of one table concurrently.
+     *
+     * @return The number of threads (<code>1</code> per default)
+     */
+    public int getWorkersPerTable()
+    {
+        return _workersPerTable;
+    }
+
+    /**
+     * Specifies the number of threads that insert the collected beans of one table concurrently
+     * if more than one thread is used. The beans of the table are split among that many sinks, each
+     * with its own connection, batch queues and commits. Rows with the same primary key go to the
+     * same sink when using the <code>INSERT_NEW</code> or <code>UPSERT</code> data load types;
+     * otherwise the beans are split round-robin. Tables that reference themselves or tables with
+     * generated primary key values are not split, as their foreign keys may need to be changed
+     * to the values generated for the referenced rows. The total number of threads is still
+     * limited by the thread count.
+     *
+     * @param workersPerTable The number of threads
+     */
+    public void setWorkersPerTable(int workersPerTable)
+    {
+        _workersPerTable = workersPerTable;
+    }
+
+    /**
+     * Returns the maximum number of identities and of deferred beans that the sink holds in memory.
+     *
+     * @return The maximum number of objects, or <code>0</code> if there is no limit (the default)
+     */
+    public int getMaxObjectsInMemory()
+    {
+        return _maxObjectsInMemory;
+    }
+
+    /**
+     * Specifies the maximum number of objects that the sink holds in memory. This limit is applied
+     * separately to the identities of the inserted rows, which the sink needs to follow the foreign
+     * key order, and to the beans whose insertion is deferred because they reference rows that are
+     * not yet inserted, and to the beans that are collected when multiple threads are used. Further
+     * identities and beans are written to temporary files and read back when needed.
+     *
+     * @param maxObjects The maximum number of objects, or <code>0</code> if there is no limit
+     */
+    public void setMaxObjectsInMemory(int maxObjects)
+    {
+        _maxObjectsInMemory = maxObjects;
+    }
+
+    /**
+     * Returns the number of beans per table whose existence in the database is checked with one
+     * query when using the <code>INSERT_NEW</code> data load type.
+     *
+     * @return The number of beans
+     */
+    public int getExistenceProbeSize()
+    {
+        return _existenceProbeSize;
+    }
+
+    /**
+     * Specifies the number of beans per table whose existence in the database is checked with one
+     * query when using the <code>INSERT_NEW</code> data load type. The beans are collected until
+     * this number is reached, and only the ones that do not exist yet are then inserted.
+     *
+     * @param probeSize The number of beans
+     */
+    public void setExistenceProbeSize(int probeSize)
+    {
+        _existenceProbeSize = probeSize;
+    }
+
+    /**
+     * Returns the number of rows after which the sink commits.
+     *
+     * @return The number of rows, or <code>0</code> if the sink commits after every written
+     *         row or batch (the default)
+     */
+    public int getCommitInterval()
+    {
+        return _commitInterval;
+    }
+
+    /**
+     * Specifies the number of rows after which the sink commits, independent of the batch size.
+     * If set, the sink turns off the auto-commit mode of its connection. Before committing,
+     * all queued rows are written.
+     *
+     * @param commitInterval The number of rows, or <code>0</code> if the sink shall commit after
+     *                       every written row or batch
+     */
+    public void setCommitInterval(int commitInterval)
+    {
+        _commitInterval = commitInterval;
+    }
+
+    /**
+     * Determines whether the sink defers the foreign key checks instead of ordering the rows
+     * by their foreign keys.
+     *
+     * @return <code>true</code> if the foreign key checks are deferred (<code>false</code> per default)
+     */
+    public boolean isDeferForeignKeyChecks()
+    {
+        return _deferForeignKeyChecks;
+    }
+
+    /**
+     * Specifies whether the sink shall defer the foreign key checks instead of ordering the rows
+     * by their foreign keys. If the platform supports this (see
+     * {@link PlatformInfo#isForeignKeyChecksDeferrable()}), the sink turns off the auto-commit
+     * mode of its connection, defers the checks at the start of every transaction, and inserts
+     * the rows in the order in which they are added without delaying rows whose referenced rows
+     * have not been inserted yet. Without a commit interval, the whole load is then done in one
+     * transaction. Otherwise, each commit interval has to be consistent by itself on databases
+     * that check the deferred foreign keys when committing.<br/>
+     * The sink keeps ordering the rows itself if foreign keys reference tables whose primary
+     * key values are generated by the database, as their values then have to be adjusted, and
+     * on databases that only defer foreign keys declared as <code>DEFERRABLE</code> (see
+     * {@link PlatformInfo#isDeferrableForeignKeysRequired()}) if the foreign keys in the database
+     * are not. Note that on databases that suspend the checks instead of deferring them, e.g.
+     * MySQL and HSQLDB, the inserted rows are not checked at all, which the sink logs as a
+     * warning. This mode is only used if the sink inserts the beans
+     * in one thread.
+     *
+     * @param deferForeignKeyChecks <code>true</code> if the foreign key checks shall be deferred
+     * @see org.apache.ddlutils.platform.SqlBuilder#getDeferForeignKeyChecksSql()
+     */
+    public void setDeferForeignKeyChecks(boolean deferForeignKeyChecks)
+    {
+        _deferForeignKeyChecks = deferForeignKeyChecks;
+    }
+
+    /**
+     * Returns the file that the sink records its progress in.
+     *
+     * @return The checkpoint file, or <code>null</code> if no checkpoints are written
+     */
+    public File getCheckpointFile()
+    {
+        return _checkpointFile;
+    }
+
+    /**
+     * Specifies the file that the sink records its progress in whenever it commits at the
+     * commit interval. The file is deleted when the load has finished successfully. Checkpoints
+     * cannot be used if the beans are inserted by multiple threads; the sink then fails to
+     * start and leaves the file untouched.
+     *
+     * @param checkpointFile The checkpoint file, or <code>null</code> if no checkpoints shall
+     *                       be written
+     */
+    public void setCheckpointFile(File checkpointFile)
+    {
+        _checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Determines whether the sink resumes the load from the checkpoint file.
+     *
+     * @return <code>true</code> if the load is resumed
+     */
+    public boolean isResumeFromCheckpoint()
+    {
+        return _resumeFromCheckpoint;
+    }
+
+    /**
+     * Specifies whether the sink shall resume the load from the checkpoint file if it exists.
+     * The rows that have been committed according to the checkpoint are then skipped, and the
+     * rows that might have been committed are only inserted if they don't exist yet. A load
+     * cannot be resumed if the foreign key order is ensured, and referenced rows get primary
+     * key values generated by the database because the identity override is off, nor if the
+     * beans are inserted by multiple threads.
+     *
+     * @param resumeFromCheckpoint <code>true</code> if the load shall be resumed
+     */
+    public void setResumeFromCheckpoint(boolean resumeFromCheckpoint)
+    {
+        _resumeFromCheckpoint = resumeFromCheckpoint;
+    }
+
+    /**
+     * Tells the sink that the following beans are read from the given source, e.g. a data file.
+     * The source and the ordinal of the beans in it are used for the checkpoints.
+     *
+     * @param source The name of the source, or <code>null</code> if it has no name
+     */
+    public void startSource(String source)
+    {
+        _source    = source;
+        _sourceRow = 0;
+        if (_resumedCheckpoint != null)
+        {
+            if (ObjectUtils.equals(source, _resumedCheckpoint.getSource()))
+            {
+                _committedSourceReached = true;
+            }
+            if (ObjectUtils.equals(source, _resumedCheckpoint.getWrittenSource()))
+            {
+                _writtenSourceReached = true;
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     public void end() throws DataSinkException
     {
-        purgeBatchQueue();
-        if (_connection != null)
+        if (_threadCount > 1)
+        {
+            try
+            {
+                insertCollectedBeans();
+            }
+            finally
+            {
+                closeRejectFile();
+            }
+            logBatchSummary();
+            return;
+        }
+        // inserting beans can release deferred beans that then need to be probed or inserted
+        do
         {
+            probeBeans(true);
+            purgeBatchQueues();
+        }
+        while (!_beansToProbe.isEmpty());
+        logBatchSummary();
+        if ((_connection != null) && ((_commitInterval > 0) || _foreignKeyChecksDeferred))
+        {
+            try
+            {
+                commit();
+            }
+            catch (DataSinkException ex)
+            {
+                returnConnectionAfterError();
+                throw ex;
+            }
+            if (_foreignKeyChecksDeferred)
+            {
+                restoreForeignKeyChecks();
+            }
             try
             {
-                _connection.close();
+                _connection.setAutoCommit(_origAutoCommit);
             }
             catch (SQLException ex)
             {
-                throw new DataSinkException(ex);
+                _log.warn("Could not restore the auto-commit mode of the connection", ex);
             }
         }
+        if (_connection != null)
+        {
+            // returning the connection also ends the table session and closes the statements
+            // that the platform cached for it
+            _platform.returnConnection(_connection);
+            _connection = null;
+        }
+        if (_spillFile != null)
+        {
+            _spillFile.close();
+            _spillFile = null;
+        }
+        if ((_identityMap != null) && !_sharedIdentityMap)
+        {
+            _identityMap.close();
+        }
+        closeRejectFile();
         if (!_waitingObjects.isEmpty())
         {
             if (_log.isDebugEnabled())
             {
                 for (Iterator it = _waitingObjects.iterator(); it.hasNext();)
                 {
-                    WaitingObject obj   = (WaitingObject)it.next();
-                    Table         table = _model.getDynaClassFor(obj.getObject()).getTable();
-                    Identity      objId = buildIdentityFromPKs(table, obj.getObject());
+                    WaitingObject obj = (WaitingObject)it.next();
 
-                    _log.debug("Row " + objId + " is still not written because it depends on these yet unwritten rows");
+                    _log.debug("Row " + obj.getIdentity() + " is still not written because it depends on these yet unwritten rows");
                     for (Iterator fkIt = obj.getPendingFKs(); fkIt.hasNext();)
                     {
                         Identity pendingFkId = (Identity)fkIt.next();
@@ -274,6 +808,14 @@ public class DataToDatabaseSink implements DataSink
                 throw new DataSinkException("There are " + _waitingObjects.size() + " rows still not written because of missing referenced rows");
             }
         }
+        if ((_resumedCheckpoint != null) && !_committedSourceReached)
+        {
+            _log.warn("The load was not resumed because the source " + _resumedCheckpoint.getSource() + " of the checkpoint was not read");
+        }
+        else if (_checkpoint != null)
+        {
+            _checkpoint.delete();
+        }
     }
 
     /**
@@ -282,54 +824,203 @@ public class DataToDatabaseSink implements DataSink
     public void start() throws DataSinkException
     {
         _fkTables.clear();
+        _batchQueues.clear();
+        _sharedBatchQueueKeys.clear();
+        _fullBatchQueues.clear();
         _waitingObjects.clear();
-        if (_ensureFkOrder)
+        _waitingObjectsByIdentity.clear();
+        _pendingRegistrations.clear();
+        _singleInsertBeans.clear();
+        _selfReferencingBeans.clear();
+        _selfReferenceUpdates.clear();
+        _upsertBeans.clear();
+        _beansToProbe.clear();
+        _numWaitingBeansInMemory  = 0;
+        _numUncommittedRows       = 0;
+        _foreignKeyChecksDeferred = false;
+        _source                   = null;
+        _sourceRow               = 0;
+        _checkpoint              = null;
+        _resumedCheckpoint       = null;
+        if ((_checkpointFile != null) && (_threadCount > 1))
+        {
+            // the rows are collected and written per table, so there is no position in the
+            // sources up to which all rows have been committed
+            throw new DataSinkException("Checkpoints cannot be used when inserting the data with multiple threads");
+        }
+        if (_checkpointFile != null)
         {
-            for (int tableIdx = 0; tableIdx < _model.getTableCount(); tableIdx++)
+            _checkpoint = new DataLoadCheckpoint(_checkpointFile);
+            if (_resumeFromCheckpoint)
             {
-                Table table = _model.getTable(tableIdx);
-    
-                for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
+                Table generatedPkTable = (_ensureFkOrder ? findReferencedTableWithGeneratedPk() : null);
+
+                if (generatedPkTable != null)
                 {
-                    ForeignKey curFk = table.getForeignKey(fkIdx);
-    
-                    _fkTables.add(curFk.getForeignTable());
+                    throw new DataSinkException("Cannot resume the load because the primary key values of table " +
+                                                generatedPkTable.getName() + " are generated by the database but are referenced by other rows; " +
+                                                "use the identity override instead");
+                }
+
+                DataLoadCheckpoint checkpoint = new DataLoadCheckpoint(_checkpointFile);
+
+                try
+                {
+                    if (checkpoint.read())
+                    {
+                        _resumedCheckpoint      = checkpoint;
+                        _committedSourceReached = (checkpoint.getSource() == null);
+                        _writtenSourceReached   = (checkpoint.getWrittenSource() == null);
+                    }
+                }
+                catch (IOException ex)
+                {
+                    throw new DataSinkException("Could not read the checkpoint file", ex);
                 }
             }
         }
-        try
+        if (!_sharedIdentityMap)
         {
-            _connection = _platform.borrowConnection();
+            _identityMap = new SpillingIdentityMap(_model, _maxObjectsInMemory);
         }
-        catch (DatabaseOperationException ex)
+        if (!_sharedRejects)
         {
-            throw new DataSinkException(ex);
+            _rejects = (_rejectFile == null ? null : new RejectFile(_rejectFile));
         }
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    public void addBean(DynaBean bean) throws DataSinkException
-    {
-        Table    table        = _model.getDynaClassFor(bean).getTable();
-        Identity origIdentity = buildIdentityFromPKs(table, bean);
-
-        if (_ensureFkOrder && (table.getForeignKeyCount() > 0))
+        if (!_sharedBatchSizeController)
         {
-            WaitingObject waitingObj = new WaitingObject(bean, origIdentity);
-
-            for (int idx = 0; idx < table.getForeignKeyCount(); idx++)
+            _batchSizeController = null;
+            if (_useBatchMode)
             {
-                ForeignKey fk         = table.getForeignKey(idx);
-                Identity   fkIdentity = buildIdentityFromFK(table, fk, bean);
-
-                if ((fkIdentity != null) && !fkIdentity.equals(origIdentity))
+                try
                 {
-                    Identity processedIdentity = (Identity)_identityMap.get(fkIdentity);
-
-                    if (processedIdentity != null)
-                    {
+                    _batchSizeController = new BatchSizeController(_batchSize, _minBatchSize, _maxBatchSize, _targetBatchLatency, _maxBatchBytes);
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    throw new DataSinkException(ex.getMessage(), ex);
+                }
+            }
+        }
+        if (_threadCount > 1)
+        {
+            // the beans are inserted by separate sinks at the end
+            closeCollectedBeans();
+            return;
+        }
+        if (_useBatchMode)
+        {
+            List levels    = new ModelHelper().groupTablesByForeignKeyOrder(_model.getTables());
+            List lastLevel = levels.isEmpty() ? Collections.EMPTY_LIST : (List)levels.get(levels.size() - 1);
+
+            // only the last level can contain tables with circular foreign keys
+            if (hasForeignKeysBetween(lastLevel))
+            {
+                for (Iterator it = lastLevel.iterator(); it.hasNext();)
+                {
+                    _sharedBatchQueueKeys.put(it.next(), lastLevel.get(0));
+                }
+            }
+        }
+        try
+        {
+            _connection = _platform.borrowConnection();
+            _foreignKeyChecksDeferred = _deferForeignKeyChecks && canDeferForeignKeyChecks();
+            if (_ensureFkOrder && !_foreignKeyChecksDeferred)
+            {
+                for (int tableIdx = 0; tableIdx < _model.getTableCount(); tableIdx++)
+                {
+                    Table table = _model.getTable(tableIdx);
+
+                    for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
+                    {
+                        ForeignKey curFk = table.getForeignKey(fkIdx);
+
+                        _fkTables.put(curFk.getForeignTable(), curFk.getForeignTable());
+                    }
+                }
+            }
+            if ((_commitInterval > 0) || _foreignKeyChecksDeferred)
+            {
+                _origAutoCommit = _connection.getAutoCommit();
+                _connection.setAutoCommit(false);
+            }
+            if (_foreignKeyChecksDeferred)
+            {
+                if (_platform.getSqlBuilder().getRestoreForeignKeyChecksSql() != null)
+                {
+                    _log.warn("The foreign key checks are suspended instead of deferred on platform " + _platform.getName() +
+                              ", so the rows written by this load will not be checked against the foreign keys");
+                }
+                executeForeignKeyChecksSql(_platform.getSqlBuilder().getDeferForeignKeyChecksSql());
+            }
+            // a failed batch can only be written again if it can be undone completely
+            _isolatingFailedRows = !_haltOnErrors && _useBatchMode &&
+                                   (_connection.getAutoCommit() || _connection.getMetaData().supportsSavepoints());
+        }
+        catch (DatabaseOperationException ex)
+        {
+            returnConnectionAfterError();
+            throw new DataSinkException(ex);
+        }
+        catch (SQLException ex)
+        {
+            returnConnectionAfterError();
+            throw new DataSinkException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addBean(DynaBean bean) throws DataSinkException
+    {
+        Table table = _model.getDynaClassFor(bean).getTable();
+
+        if (_threadCount > 1)
+        {
+            collectBean(table, bean);
+            return;
+        }
+
+        Identity origIdentity   = _identityFactory.buildIdentityFromPKs(table, bean);
+        long     row            = _sourceRow++;
+        boolean  checkExistence = false;
+
+        if (_resumedCheckpoint != null)
+        {
+            if (isBefore(_resumedCheckpoint.getSource(), _resumedCheckpoint.getRow(), _committedSourceReached, row))
+            {
+                // the row has been committed by the resumed load, but rows referencing it
+                // might not have been
+                if (_ensureFkOrder && _fkTables.containsKey(table))
+                {
+                    registerInsertedBean(table, origIdentity, bean);
+                }
+                return;
+            }
+            checkExistence = isBefore(_resumedCheckpoint.getWrittenSource(), _resumedCheckpoint.getWrittenRow(), _writtenSourceReached, row);
+        }
+        _numUncommittedRows++;
+
+        if (_ensureFkOrder && !_foreignKeyChecksDeferred && (table.getForeignKeyCount() > 0))
+        {
+            WaitingObject waitingObj = new WaitingObject(bean, origIdentity);
+
+            waitingObj.setSourcePosition(_source, row);
+            waitingObj.setCheckExistence(checkExistence);
+
+            for (int idx = 0; idx < table.getForeignKeyCount(); idx++)
+            {
+                ForeignKey fk         = table.getForeignKey(idx);
+                Identity   fkIdentity = _identityFactory.buildIdentityFromFK(table, fk, bean);
+
+                if ((fkIdentity != null) && !fkIdentity.equals(origIdentity))
+                {
+                    Identity processedIdentity = _identityMap.get(fkIdentity);
+
+                    if (processedIdentity != null)
+                    {
                         updateFKColumns(bean, fkIdentity.getForeignKeyName(), processedIdentity);
                     }
                     else
@@ -338,180 +1029,1694 @@ public class DataToDatabaseSink implements DataSink
                     }
                 }
             }
-            if (waitingObj.hasPendingFKs())
+            if (waitingObj.hasPendingFKs())
+            {
+                if (_log.isDebugEnabled())
+                {
+                    StringBuffer msg = new StringBuffer();
+
+                    msg.append("Defering insertion of row ");
+                    msg.append(_identityFactory.buildIdentityFromPKs(table, bean).toString());
+                    msg.append(" because it is waiting for:");
+                    for (Iterator it = waitingObj.getPendingFKs(); it.hasNext();)
+                    {
+                        msg.append("\n  ");
+                        msg.append(it.next().toString());
+                    }
+                    _log.debug(msg.toString());
+                }
+                for (Iterator it = waitingObj.getPendingFKs(); it.hasNext();)
+                {
+                    Object pendingIdentity = it.next();
+                    List   waitingObjs     = (List)_waitingObjectsByIdentity.get(pendingIdentity);
+
+                    if (waitingObjs == null)
+                    {
+                        waitingObjs = new ArrayList();
+                        _waitingObjectsByIdentity.put(pendingIdentity, waitingObjs);
+                    }
+                    waitingObjs.add(waitingObj);
+                }
+                _waitingObjects.add(waitingObj);
+                _numWaitingBeansInMemory++;
+                if ((_maxObjectsInMemory > 0) && (_numWaitingBeansInMemory > _maxObjectsInMemory))
+                {
+                    moveOutOfMemory(waitingObj);
+                }
+                commitAtInterval();
+                return;
+            }
+        }
+
+        if (insertBeanIntoDatabase(table, bean, origIdentity, checkExistence))
+        {
+            if (_log.isDebugEnabled())
+            {
+                _log.debug("Inserted bean " + origIdentity);
+            }
+            if (_ensureFkOrder && _fkTables.containsKey(table))
+            {
+                registerInsertedBean(table, origIdentity, bean);
+            }
+        }
+        probeBeans(false);
+        purgeFullBatchQueues();
+        commitAtInterval();
+    }
+
+    /**
+     * Logs the number of rows and batches and the final batch size per table at the end of
+     * a load in batch mode.
+     */
+    private void logBatchSummary()
+    {
+        if ((_batchSizeController != null) && !_sharedBatchSizeController && _log.isInfoEnabled())
+        {
+            List summary = _batchSizeController.getSummary();
+
+            if (!summary.isEmpty())
+            {
+                _log.info("Batch summary" + (_batchSizeController.isAdaptive() ? " (adaptive batch sizes):" : ":"));
+                for (Iterator it = summary.iterator(); it.hasNext();)
+                {
+                    _log.info("  " + it.next());
+                }
+            }
+        }
+    }
+
+    /**
+     * Commits the rows written so far unless a commit interval is used or the foreign key
+     * checks are deferred.
+     */
+    private void commitWrittenRows() throws SQLException
+    {
+        if ((_commitInterval <= 0) && !_foreignKeyChecksDeferred && !_connection.getAutoCommit())
+        {
+            _connection.commit();
+        }
+    }
+
+    /**
+     * Determines whether the foreign key checks can be deferred for this load. This is not the
+     * case if the platform does not support it, if foreign keys reference rows whose primary key
+     * values are generated by the database as the foreign key values then have to be adjusted,
+     * or if the platform only defers foreign keys declared as <code>DEFERRABLE</code> and some
+     * of the foreign keys are not. The sink then orders the rows itself.
+     * 
+     * @return <code>true</code> if the foreign key checks can be deferred
+     */
+    private boolean canDeferForeignKeyChecks()
+    {
+        if (!_platform.getPlatformInfo().isForeignKeyChecksDeferrable() ||
+            (_platform.getSqlBuilder().getDeferForeignKeyChecksSql() == null))
+        {
+            _log.warn("The foreign key checks cannot be deferred on platform " + _platform.getName());
+            return false;
+        }
+
+        Table table = findReferencedTableWithGeneratedPk();
+
+        if (table != null)
+        {
+            _log.warn("The foreign key checks are not deferred because the primary key values of table " + table.getName() +
+                      " are generated by the database, so the foreign keys referencing them have to be adjusted");
+            return false;
+        }
+        if (_platform.getPlatformInfo().isDeferrableForeignKeysRequired())
+        {
+            try
+            {
+                table = findTableWithNonDeferrableForeignKeys();
+            }
+            catch (SQLException ex)
+            {
+                _log.warn("The foreign key checks are not deferred because it could not be determined whether the foreign keys are deferrable", ex);
+                return false;
+            }
+            if (table != null)
+            {
+                _log.warn("The foreign key checks are not deferred because the foreign keys of table " + table.getName() +
+                          " are not declared as DEFERRABLE");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a table of the model whose foreign keys in the database are not deferrable, according
+     * to the meta data of the database. Tables whose foreign keys cannot be found in the meta data
+     * are treated as not deferrable, too.
+     * 
+     * @return The table or <code>null</code> if all foreign keys are deferrable
+     */
+    private Table findTableWithNonDeferrableForeignKeys() throws SQLException
+    {
+        DatabaseMetaData metaData = _connection.getMetaData();
+
+        for (int tableIdx = 0; tableIdx < _model.getTableCount(); tableIdx++)
+        {
+            Table table = _model.getTable(tableIdx);
+
+            if (table.getForeignKeyCount() == 0)
+            {
+                continue;
+            }
+
+            String tableName = table.getName();
+
+            if (!_platform.isDelimitedIdentifierModeOn())
+            {
+                if (metaData.storesUpperCaseIdentifiers())
+                {
+                    tableName = tableName.toUpperCase();
+                }
+                else if (metaData.storesLowerCaseIdentifiers())
+                {
+                    tableName = tableName.toLowerCase();
+                }
+            }
+
+            ResultSet result     = metaData.getImportedKeys(null, null, tableName);
+            boolean   deferrable = false;
+
+            try
+            {
+                while (result.next())
+                {
+                    if (result.getShort("DEFERRABILITY") == DatabaseMetaData.importedKeyNotDeferrable)
+                    {
+                        return table;
+                    }
+                    deferrable = true;
+                }
+            }
+            finally
+            {
+                result.close();
+            }
+            if (!deferrable)
+            {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Executes the given statement for deferring or restoring the foreign key checks.
+     * 
+     * @param sql The sql, can be <code>null</code>
+     */
+    private void executeForeignKeyChecksSql(String sql) throws SQLException
+    {
+        if (sql != null)
+        {
+            Statement statement = _connection.createStatement();
+
+            try
+            {
+                statement.execute(sql);
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Restores the foreign key checks at the end of a load with deferred checks.
+     */
+    private void restoreForeignKeyChecks()
+    {
+        try
+        {
+            executeForeignKeyChecksSql(_platform.getSqlBuilder().getRestoreForeignKeyChecksSql());
+        }
+        catch (SQLException ex)
+        {
+            _log.warn("Could not restore the foreign key checks", ex);
+        }
+    }
+
+    /**
+     * Returns the connection after an error that halts the load. The rows that are not committed
+     * yet are rolled back, and the foreign key checks and the auto-commit mode are restored
+     * before, as they would otherwise stay changed for the next user of a pooled connection
+     * or, on some databases, for all connections.
+     */
+    private void returnConnectionAfterError()
+    {
+        if (_connection == null)
+        {
+            return;
+        }
+        try
+        {
+            if (!_connection.getAutoCommit())
+            {
+                _connection.rollback();
+            }
+        }
+        catch (SQLException ex)
+        {
+            _log.warn("Could not roll back the uncommitted rows", ex);
+        }
+        if (_foreignKeyChecksDeferred)
+        {
+            restoreForeignKeyChecks();
+        }
+        if ((_commitInterval > 0) || _foreignKeyChecksDeferred)
+        {
+            try
+            {
+                _connection.setAutoCommit(_origAutoCommit);
+            }
+            catch (SQLException ex)
+            {
+                _log.warn("Could not restore the auto-commit mode of the connection", ex);
+            }
+        }
+        _platform.returnConnection(_connection);
+        _connection = null;
+    }
+
+    /**
+     * Determines whether the given row of the current source is before the given position.
+     * 
+     * @param source        The source of the position
+     * @param row           The row of the position
+     * @param sourceReached Whether the source of the position has been reached
+     * @param curRow        The row in the current source
+     * @return <code>true</code> if the row is before the position
+     */
+    private boolean isBefore(String source, long row, boolean sourceReached, long curRow)
+    {
+        return !sourceReached || (ObjectUtils.equals(_source, source) && (curRow < row));
+    }
+
+    /**
+     * Commits if the commit interval has been reached.
+     */
+    private void commitAtInterval() throws DataSinkException
+    {
+        if ((_commitInterval > 0) && (_numUncommittedRows >= _commitInterval))
+        {
+            commit();
+        }
+    }
+
+    /**
+     * Writes the collected and queued beans, commits and writes the checkpoint. After this,
+     * only the deferred beans are not committed.
+     */
+    private void commit() throws DataSinkException
+    {
+        do
+        {
+            probeBeans(true);
+            purgeBatchQueues();
+        }
+        while (!_beansToProbe.isEmpty());
+        try
+        {
+            if (!_connection.getAutoCommit())
+            {
+                _connection.commit();
+            }
+            if (_foreignKeyChecksDeferred)
+            {
+                // the checks are deferred per transaction on some databases
+                executeForeignKeyChecksSql(_platform.getSqlBuilder().getDeferForeignKeyChecksSql());
+            }
+        }
+        catch (SQLException ex)
+        {
+            returnConnectionAfterError();
+            throw new DataSinkException(ex);
+        }
+        _numUncommittedRows = 0;
+        if (_checkpoint != null)
+        {
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * Writes the checkpoint for the current position. The first row that is not committed
+     * is the oldest deferred bean, if there is one.
+     */
+    private void writeCheckpoint() throws DataSinkException
+    {
+        if (_waitingObjects.isEmpty())
+        {
+            _checkpoint.setCommittedPosition(_source, _sourceRow);
+        }
+        else
+        {
+            WaitingObject oldestObj = (WaitingObject)_waitingObjects.iterator().next();
+
+            _checkpoint.setCommittedPosition(oldestObj.getSource(), oldestObj.getRow());
+        }
+        if ((_resumedCheckpoint != null) &&
+            isBefore(_resumedCheckpoint.getWrittenSource(), _resumedCheckpoint.getWrittenRow(), _writtenSourceReached, _sourceRow))
+        {
+            // rows up to the written position of the resumed load might still have been committed
+            _checkpoint.setWrittenPosition(_resumedCheckpoint.getWrittenSource(), _resumedCheckpoint.getWrittenRow());
+        }
+        else
+        {
+            _checkpoint.setWrittenPosition(_source, _sourceRow);
+        }
+        try
+        {
+            _checkpoint.write();
+        }
+        catch (IOException ex)
+        {
+            throw new DataSinkException("Could not write the checkpoint file", ex);
+        }
+    }
+
+    /**
+     * Registers the identity of the given bean after it has been inserted into the database, and
+     * inserts the deferred beans that were waiting only for it (or for the beans inserted because of it).
+     * 
+     * @param table        The table of the bean
+     * @param origIdentity The identity of the bean as read from the data
+     * @param bean         The inserted bean, which contains the generated identity values (if any)
+     */
+    private void registerInsertedBean(Table table, Identity origIdentity, DynaBean bean) throws DataSinkException
+    {
+        Identity  newIdentity  = _identityFactory.buildIdentityFromPKs(table, bean);
+        ArrayList finishedObjs = new ArrayList();
+
+        _identityMap.put(origIdentity, newIdentity);
+
+        // we're doing multiple passes so that we can insert as much objects in
+        // one go as possible
+        LinkedList identitiesToCheck = new LinkedList();
+
+        identitiesToCheck.add(origIdentity);
+        while (!identitiesToCheck.isEmpty() && !_waitingObjects.isEmpty())
+        {
+            Identity curIdentity = (Identity)identitiesToCheck.removeFirst();
+            List     waitingObjs = (List)_waitingObjectsByIdentity.remove(curIdentity);
+
+            if (waitingObjs == null)
+            {
+                continue;
+            }
+
+            Identity curNewIdentity = _identityMap.get(curIdentity);
+            boolean  changed        = !curIdentity.equals(curNewIdentity);
+
+            finishedObjs.clear();
+            for (Iterator waitingObjIt = waitingObjs.iterator(); waitingObjIt.hasNext();)
+            {
+                WaitingObject waitingObj = (WaitingObject)waitingObjIt.next();
+                Identity      fkIdentity = waitingObj.removePendingFK(curIdentity);
+
+                // if the identity did not change, then there is no need to update the fk columns
+                // (and to read the bean back into memory)
+                if ((fkIdentity != null) && changed)
+                {
+                    updateFKColumns(getWaitingBean(waitingObj), fkIdentity.getForeignKeyName(), curNewIdentity);
+                }
+                if (!waitingObj.hasPendingFKs())
+                {
+                    _waitingObjects.remove(waitingObj);
+                    // we defer handling of the finished objects to avoid concurrent modification exceptions
+                    getWaitingBean(waitingObj);
+                    finishedObjs.add(waitingObj);
+                    _numWaitingBeansInMemory--;
+                }
+                else if ((_maxObjectsInMemory > 0) && (_numWaitingBeansInMemory > _maxObjectsInMemory) && !waitingObj.isSpilled())
+                {
+                    moveOutOfMemory(waitingObj);
+                }
+            }
+            for (Iterator finishedObjIt = finishedObjs.iterator(); finishedObjIt.hasNext();)
+            {
+                WaitingObject finishedWaitingObj = (WaitingObject)finishedObjIt.next();
+                DynaBean      finishedObj        = finishedWaitingObj.getObject();
+                Table         tableForObj        = _model.getDynaClassFor(finishedObj).getTable();
+                Identity      objIdentity        = _identityFactory.buildIdentityFromPKs(tableForObj, finishedObj);
+
+                // beans with generated identities in batch mode are registered once the batch
+                // has been inserted
+                if (insertBeanIntoDatabase(tableForObj, finishedObj, objIdentity, finishedWaitingObj.isCheckExistence()))
+                {
+                    Identity newObjIdentity = _identityFactory.buildIdentityFromPKs(tableForObj, finishedObj);
+
+                    _identityMap.put(objIdentity, newObjIdentity);
+                    identitiesToCheck.add(objIdentity);
+                    if (_log.isDebugEnabled())
+                    {
+                        _log.debug("Inserted deferred row " + objIdentity);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the bean of the given waiting object to the spill file and releases it.
+     * 
+     * @param waitingObj The waiting object
+     */
+    private void moveOutOfMemory(WaitingObject waitingObj) throws DataSinkException
+    {
+        try
+        {
+            if (_spillFile == null)
+            {
+                _spillFile = new SpillFile(_model);
+            }
+            waitingObj.setSpillPosition(_spillFile.writeBean(waitingObj.getObject()));
+            _numWaitingBeansInMemory--;
+        }
+        catch (IOException ex)
+        {
+            throw new DataSinkException("Could not write a deferred row to disk", ex);
+        }
+    }
+
+    /**
+     * Returns the bean of the given waiting object, reading it back from the spill file
+     * if necessary.
+     * 
+     * @param waitingObj The waiting object
+     * @return The bean
+     */
+    private DynaBean getWaitingBean(WaitingObject waitingObj) throws DataSinkException
+    {
+        if (waitingObj.isSpilled())
+        {
+            try
+            {
+                waitingObj.setObject(_spillFile.readBean(waitingObj.getSpillPosition()));
+                _numWaitingBeansInMemory++;
+            }
+            catch (IOException ex)
+            {
+                throw new DataSinkException("Could not read a deferred row from disk", ex);
+            }
+        }
+        return waitingObj.getObject();
+    }
+
+    /**
+     * Inserts the collected beans into the database, level by level according to the foreign
+     * key order of their tables. The tables of one level are distributed among the threads.
+     */
+    private void insertCollectedBeans() throws DataSinkException
+    {
+        SpillingIdentityMap identityMap = new SpillingIdentityMap(_model, _maxObjectsInMemory);
+        List errors      = new ArrayList();
+        List levels      = new ModelHelper().groupTablesByForeignKeyOrder(_model.getTables());
+
+        try
+        {
+            for (Iterator levelIt = levels.iterator(); levelIt.hasNext() && (errors.isEmpty() || !_haltOnErrors);)
+            {
+                LinkedList tables = new LinkedList();
+
+                for (Iterator tableIt = ((List)levelIt.next()).iterator(); tableIt.hasNext();)
+                {
+                    Table table = (Table)tableIt.next();
+
+                    if (_beansPerTable.containsKey(table))
+                    {
+                        tables.add(table);
+                    }
+                }
+                if (tables.isEmpty())
+                {
+                    continue;
+                }
+                if (hasForeignKeysBetween(tables))
+                {
+                    // circular dependencies, so we have to insert these tables via one sink
+                    try
+                    {
+                        insertBeansOfTables(tables, identityMap);
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        errors.add(ex);
+                    }
+                }
+                else
+                {
+                    LinkedList parts = new LinkedList();
+
+                    for (Iterator tableIt = tables.iterator(); tableIt.hasNext();)
+                    {
+                        parts.addAll(getCollectedBeans((Table)tableIt.next()));
+                    }
+
+                    int      numThreads = Math.min(_threadCount, parts.size());
+                    Thread[] threads    = new Thread[numThreads];
+
+                    for (int idx = 0; idx < numThreads; idx++)
+                    {
+                        threads[idx] = new TableInsertionThread(parts, identityMap, errors);
+                        threads[idx].start();
+                    }
+                    joinThreads(threads);
+                }
+                if (_log.isDebugEnabled())
+                {
+                    _log.debug("Finished inserting the rows of a foreign key level");
+                }
+            }
+        }
+        finally
+        {
+            closeCollectedBeans();
+            identityMap.close();
+        }
+        if (!errors.isEmpty())
+        {
+            // the first error is thrown, the others would be lost otherwise
+            for (int idx = 1; idx < errors.size(); idx++)
+            {
+                _log.error("Another thread failed to insert its rows", (Throwable)errors.get(idx));
+            }
+
+            RuntimeException ex = (RuntimeException)errors.get(0);
+
+            if (ex instanceof DataSinkException)
+            {
+                throw ex;
+            }
+            else
+            {
+                throw new DataSinkException(ex);
+            }
+        }
+    }
+
+    /**
+     * Waits until the given threads have finished. If the current thread is interrupted
+     * while waiting, then the given threads are interrupted, too, so that they stop after
+     * their current part, and this method waits for them before it fails.
+     * 
+     * @param threads The threads
+     */
+    private void joinThreads(Thread[] threads) throws DataSinkException
+    {
+        InterruptedException interruption = null;
+
+        for (int idx = 0; idx < threads.length; idx++)
+        {
+            while (threads[idx].isAlive())
+            {
+                try
+                {
+                    threads[idx].join();
+                }
+                catch (InterruptedException ex)
+                {
+                    if (interruption == null)
+                    {
+                        interruption = ex;
+                        for (int otherIdx = 0; otherIdx < threads.length; otherIdx++)
+                        {
+                            threads[otherIdx].interrupt();
+                        }
+                    }
+                }
+            }
+        }
+        if (interruption != null)
+        {
+            Thread.currentThread().interrupt();
+            throw new DataSinkException("Interrupted while inserting the rows", interruption);
+        }
+    }
+
+    /**
+     * Returns a table whose primary key values are generated by the database instead of taken from
+     * the data, and which is referenced by a foreign key whose values therefore have to be changed
+     * to the generated values.
+     * 
+     * @return The table or <code>null</code> if there is no such table
+     */
+    private Table findReferencedTableWithGeneratedPk()
+    {
+        if (_platform.isIdentityOverrideOn() && _platform.getPlatformInfo().isIdentityOverrideAllowed())
+        {
+            return null;
+        }
+        for (int tableIdx = 0; tableIdx < _model.getTableCount(); tableIdx++)
+        {
+            Table table = _model.getTable(tableIdx);
+
+            for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
+            {
+                Table foreignTable = table.getForeignKey(fkIdx).getForeignTable();
+
+                if (_identityPkColumns.containsKey(foreignTable))
+                {
+                    return foreignTable;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Determines whether one of the given tables has a foreign key to another of the tables.
+     * 
+     * @param tables The tables
+     * @return <code>true</code> if there is such a foreign key
+     */
+    private boolean hasForeignKeysBetween(List tables)
+    {
+        for (Iterator it = tables.iterator(); it.hasNext();)
+        {
+            Table table = (Table)it.next();
+
+            for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
+            {
+                Table foreignTable = table.getForeignKey(fkIdx).getForeignTable();
+
+                if ((foreignTable != table) && tables.contains(foreignTable))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the given bean to the collected beans of its table. The beans of a table are split
+     * into the parts that are inserted concurrently, according to the number of workers per
+     * table. If too many collected beans are held in memory, they are moved to temporary files.
+     * 
+     * @param table The table
+     * @param bean  The bean
+     */
+    private void collectBean(Table table, DynaBean bean) throws DataSinkException
+    {
+        CollectedBeans[] parts = (CollectedBeans[])_beansPerTable.get(table);
+
+        if (parts == null)
+        {
+            parts = new CollectedBeans[(_workersPerTable > 1) && canSplitBeansOf(table) ? _workersPerTable : 1];
+            for (int idx = 0; idx < parts.length; idx++)
+            {
+                parts[idx] = new CollectedBeans(_model);
+            }
+            _beansPerTable.put(table, parts);
+        }
+
+        int partIdx = 0;
+
+        if (parts.length > 1)
+        {
+            // rows with the same primary key have to be written in order by the same sink
+            if (table.hasPrimaryKey() && ("INSERT_NEW".equals(_dataLoadType) || "UPSERT".equals(_dataLoadType)))
+            {
+                partIdx = (_identityFactory.buildIdentityFromPKs(table, bean).hashCode() & Integer.MAX_VALUE) % parts.length;
+            }
+            else
+            {
+                int numBeans = 0;
+
+                for (int idx = 0; idx < parts.length; idx++)
+                {
+                    numBeans += parts[idx].size();
+                }
+                partIdx = numBeans % parts.length;
+            }
+        }
+        parts[partIdx].add(bean);
+        _numCollectedBeansInMemory++;
+        if ((_maxObjectsInMemory > 0) && (_numCollectedBeansInMemory > _maxObjectsInMemory))
+        {
+            moveCollectedBeansOutOfMemory();
+        }
+    }
+
+    /**
+     * Moves all collected beans that are held in memory to temporary files.
+     */
+    private void moveCollectedBeansOutOfMemory() throws DataSinkException
+    {
+        if (_log.isDebugEnabled())
+        {
+            _log.debug("Moving " + _numCollectedBeansInMemory + " collected rows to temporary files");
+        }
+        try
+        {
+            for (Iterator it = _beansPerTable.values().iterator(); it.hasNext();)
+            {
+                CollectedBeans[] parts = (CollectedBeans[])it.next();
+
+                for (int idx = 0; idx < parts.length; idx++)
+                {
+                    parts[idx].moveOutOfMemory();
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new DataSinkException("Could not move the collected rows to a temporary file", ex);
+        }
+        _numCollectedBeansInMemory = 0;
+    }
+
+    /**
+     * Returns the non-empty parts of the collected beans of the given table.
+     * 
+     * @param table The table
+     * @return The {@link CollectedBeans} objects of the parts
+     */
+    private List getCollectedBeans(Table table)
+    {
+        CollectedBeans[] parts  = (CollectedBeans[])_beansPerTable.get(table);
+        List             result = new ArrayList(parts.length);
+
+        for (int idx = 0; idx < parts.length; idx++)
+        {
+            if (parts[idx].size() > 0)
+            {
+                result.add(parts[idx]);
+            }
+        }
+        if (_log.isDebugEnabled() && (result.size() > 1))
+        {
+            _log.debug("Splitting the rows of table " + table.getName() + " among " + result.size() + " threads");
+        }
+        return result;
+    }
+
+    /**
+     * Releases the collected beans and deletes their temporary files.
+     */
+    private void closeCollectedBeans()
+    {
+        for (Iterator it = _beansPerTable.values().iterator(); it.hasNext();)
+        {
+            CollectedBeans[] parts = (CollectedBeans[])it.next();
+
+            for (int idx = 0; idx < parts.length; idx++)
+            {
+                parts[idx].close();
+            }
+        }
+        _beansPerTable.clear();
+        _numCollectedBeansInMemory = 0;
+    }
+
+    /**
+     * Determines whether the beans of the given table can be inserted by multiple sinks
+     * concurrently. This is not the case if the foreign key values of the beans may have
+     * to be changed to the values generated for the referenced rows, as this requires
+     * the order in which one sink inserts the beans.
+     * 
+     * @param table The table
+     * @return <code>true</code> if the beans can be split
+     */
+    private boolean canSplitBeansOf(Table table)
+    {
+        if (table.getSelfReferencingForeignKey() != null)
+        {
+            return false;
+        }
+
+        boolean identitiesKept = _platform.isIdentityOverrideOn() && _platform.getPlatformInfo().isIdentityOverrideAllowed();
+
+        for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
+        {
+            if (!identitiesKept && _identityPkColumns.containsKey(table.getForeignKey(fkIdx).getForeignTable()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inserts the collected beans of the given tables via a new sink that uses its own connection.
+     * 
+     * @param tables      The tables
+     * @param identityMap The identity map shared by all sinks
+     */
+    private void insertBeansOfTables(List tables, SpillingIdentityMap identityMap) throws DataSinkException
+    {
+        List beanLists = new ArrayList();
+
+        for (Iterator tableIt = tables.iterator(); tableIt.hasNext();)
+        {
+            beanLists.addAll(getCollectedBeans((Table)tableIt.next()));
+        }
+        insertBeans(beanLists, identityMap);
+    }
+
+    /**
+     * Inserts the given beans via a new sink that uses its own connection.
+     * 
+     * @param beanLists   The {@link CollectedBeans} objects with the beans to insert, in this order
+     * @param identityMap The identity map shared by all sinks
+     */
+    private void insertBeans(List beanLists, SpillingIdentityMap identityMap) throws DataSinkException
+    {
+        DataToDatabaseSink sink = new DataToDatabaseSink(_platform, _model);
+
+        sink.setHaltOnErrors(_haltOnErrors);
+        sink.setEnsureForeignKeyOrder(_ensureFkOrder);
+        sink.setUseBatchMode(_useBatchMode);
+        sink.setBatchSize(_batchSize);
+        sink.setDataLoadType(_dataLoadType);
+        sink.setExistenceProbeSize(_existenceProbeSize);
+        sink.setMaxObjectsInMemory(_maxObjectsInMemory);
+        sink.setCommitInterval(_commitInterval);
+        sink._identityMap               = identityMap;
+        sink._sharedIdentityMap         = true;
+        sink._batchSizeController       = _batchSizeController;
+        sink._sharedBatchSizeController = true;
+        sink._rejects                   = _rejects;
+        sink._sharedRejects             = true;
+
+        sink.start();
+        try
+        {
+            for (Iterator listIt = beanLists.iterator(); listIt.hasNext();)
+            {
+                CollectedBeans beans = (CollectedBeans)listIt.next();
+
+                for (Iterator beanIt = beans.iterator(); beanIt.hasNext();)
+                {
+                    sink.addBean((DynaBean)beanIt.next());
+                }
+                beans.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new DataSinkException("Could not read the collected rows from a temporary file", ex);
+        }
+        sink.end();
+    }
+
+    /**
+     * Thread that takes the collected beans of a table, or a part of them, from a shared
+     * list and inserts them until the list is empty.
+     */
+    private class TableInsertionThread extends Thread
+    {
+        /** The {@link CollectedBeans} objects that still need to be inserted; shared between the threads. */
+        private LinkedList _parts;
+        /** The identity map shared by all sinks. */
+        private SpillingIdentityMap _sharedMap;
+        /** Receives the errors; shared between the threads. */
+        private List _errors;
+
+        /**
+         * Creates a new thread instance.
+         * 
+         * @param parts       The {@link CollectedBeans} objects to insert
+         * @param identityMap The identity map shared by all sinks
+         * @param errors      The list receiving the errors
+         */
+        public TableInsertionThread(LinkedList parts, SpillingIdentityMap identityMap, List errors)
+        {
+            _parts     = parts;
+            _sharedMap = identityMap;
+            _errors    = errors;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run()
+        {
+            while (true)
+            {
+                CollectedBeans beans = null;
+
+                if (isInterrupted())
+                {
+                    return;
+                }
+                synchronized (_errors)
+                {
+                    if (_haltOnErrors && !_errors.isEmpty())
+                    {
+                        return;
+                    }
+                }
+                synchronized (_parts)
+                {
+                    if (_parts.isEmpty())
+                    {
+                        return;
+                    }
+                    beans = (CollectedBeans)_parts.removeFirst();
+                }
+                try
+                {
+                    insertBeans(Collections.singletonList(beans), _sharedMap);
+                }
+                catch (RuntimeException ex)
+                {
+                    synchronized (_errors)
+                    {
+                        _errors.add(ex);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts the bean into the database or batch queue. If the bean is queued and its
+     * identity is generated by the database, then its identity is registered when the
+     * batch queue is purged.
+     * 
+     * @param table          The table
+     * @param bean           The bean
+     * @param origIdentity   The identity of the bean as read from the data
+     * @param checkExistence Whether to only insert the bean if it does not exist yet regardless
+     *                       of the data load type, e.g. because a resumed load might have inserted it
+     * @return <code>true</code> if the identity of the bean can be registered now, or
+     *         <code>false</code> if its registration is deferred until the batch is inserted
+     */
+    private boolean insertBeanIntoDatabase(Table table, DynaBean bean, Identity origIdentity, boolean checkExistence) throws DataSinkException
+    {
+        if (("INSERT_NEW".equals(_dataLoadType) || (checkExistence && !"UPSERT".equals(_dataLoadType))) &&
+            table.hasPrimaryKey())
+        {
+            // the existence of the beans is checked for multiple beans of the table at once
+            List beans = (List)_beansToProbe.get(table);
+
+            if (beans == null)
+            {
+                beans = new ArrayList();
+                _beansToProbe.put(table, beans);
+            }
+            beans.add(bean);
+            if (_ensureFkOrder && _fkTables.containsKey(table))
+            {
+                _pendingRegistrations.put(bean, origIdentity);
+            }
+            return false;
+        }
+        if ("UPSERT".equals(_dataLoadType) && table.hasPrimaryKey() && !hasGeneratedPrimaryKeyValues(table, bean))
+        {
+            // the primary key is known, so the identity can be registered right away
+            if (_useBatchMode)
+            {
+                _upsertBeans.put(bean, bean);
+                queueBean(table, bean);
+            }
+            else
+            {
+                upsertSingleBeanIntoDatabase(bean);
+            }
+            return true;
+        }
+        return insertNewBeanIntoDatabase(table, bean, origIdentity);
+    }
+
+    /**
+     * Checks which of the collected beans already exist in the database, and inserts the others.
+     * The identities of the existing beans and of the inserted beans (unless their registration
+     * is deferred to the purging of the batch queue) are then registered.
+     * 
+     * @param all Whether to check all collected beans, or only those of the tables for which
+     *            the probe size has been reached
+     */
+    private void probeBeans(boolean all) throws DataSinkException
+    {
+        while (!_beansToProbe.isEmpty())
+        {
+            Table table = null;
+            List  beans = null;
+
+            for (Iterator it = _beansToProbe.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry entry = (Map.Entry)it.next();
+
+                if (all || (((List)entry.getValue()).size() >= _existenceProbeSize))
+                {
+                    table = (Table)entry.getKey();
+                    beans = (List)entry.getValue();
+                    break;
+                }
+            }
+            if (table == null)
+            {
+                return;
+            }
+            // registering the beans may add new beans to probe
+            _beansToProbe.remove(table);
+
+            boolean[] exists;
+
+            try
+            {
+                exists = _platform.exists(_connection, _model, (DynaBean[])beans.toArray(new DynaBean[beans.size()]));
+            }
+            catch (DatabaseOperationException ex)
+            {
+                returnConnectionAfterError();
+                throw new DataSinkException(ex);
+            }
+
+            // the first of multiple beans with the same primary key is inserted, the others are
+            // treated as existing as they would be if they had been probed after the first one
+            HashSet insertedIdentities = new HashSet();
+
+            for (int idx = 0; idx < exists.length; idx++)
+            {
+                DynaBean bean         = (DynaBean)beans.get(idx);
+                Identity origIdentity = (Identity)_pendingRegistrations.remove(bean);
+                boolean  found        = exists[idx];
+
+                if (!found && !hasGeneratedPrimaryKeyValues(table, bean))
+                {
+                    found = !insertedIdentities.add(_identityFactory.buildIdentityFromPKs(table, bean));
+                }
+                if ((found || insertNewBeanIntoDatabase(table, bean, origIdentity)) && (origIdentity != null))
+                {
+                    registerInsertedBean(table, origIdentity, bean);
+                }
+            }
+            if (_log.isDebugEnabled())
+            {
+                _log.debug("Checked the existence of " + beans.size() + " rows of table " + table.getName());
+            }
+        }
+    }
+
+    /**
+     * Inserts the bean, which does not exist in the database yet, into the database or batch queue.
+     * 
+     * @param table        The table
+     * @param bean         The bean
+     * @param origIdentity The identity of the bean as read from the data
+     * @return <code>true</code> if the identity of the bean can be registered now, or
+     *         <code>false</code> if its registration is deferred until the batch is inserted
+     */
+    private boolean insertNewBeanIntoDatabase(Table table, DynaBean bean, Identity origIdentity) throws DataSinkException
+    {
+        if (_useBatchMode)
+        {
+            PlatformInfo info      = _platform.getPlatformInfo();
+            boolean      keysRead  = info.isGeneratedKeysReadableInBatchMode();
+            ForeignKey   selfRefFk = getSelfReferenceToIdentity(table, bean);
+
+            queueBean(table, bean);
+            if (selfRefFk != null)
+            {
+                if (_tablesWithRequiredSelfReference.containsKey(table))
+                {
+                    // the two-step insert of a single bean reports this
+                    _singleInsertBeans.put(bean, bean);
+                }
+                else
+                {
+                    // the bean is inserted without the reference to itself which is set via
+                    // a batched update once its primary key has been generated
+                    for (int idx = 0; idx < selfRefFk.getReferenceCount(); idx++)
+                    {
+                        bean.set(selfRefFk.getReference(idx).getLocalColumnName(), null);
+                    }
+                    _selfReferencingBeans.put(bean, selfRefFk);
+                    if (!keysRead)
+                    {
+                        _singleInsertBeans.put(bean, bean);
+                    }
+                }
+            }
+            if (_ensureFkOrder && _fkTables.containsKey(table) && hasGeneratedPrimaryKeyValues(table, bean))
+            {
+                if (!keysRead)
+                {
+                    _singleInsertBeans.put(bean, bean);
+                }
+                _pendingRegistrations.put(bean, origIdentity);
+                return false;
+            }
+            return true;
+        }
+        else
+        {
+            insertSingleBeanIntoDatabase(table, bean);
+            return true;
+        }
+    }
+
+    /**
+     * Determines whether the given bean references itself via a primary key that will be
+     * generated by the database, so that the reference can only be set after the bean has
+     * been inserted.
+     * 
+     * @param table The table of the bean
+     * @param bean  The bean
+     * @return The self-referencing foreign key if the bean references itself, <code>null</code> otherwise
+     */
+    private ForeignKey getSelfReferenceToIdentity(Table table, DynaBean bean)
+    {
+        if (_platform.isIdentityOverrideOn() || !_tablesWithSelfIdentityReference.containsKey(table))
+        {
+            return null;
+        }
+
+        ForeignKey selfRefFk  = table.getSelfReferencingForeignKey();
+        Identity   pkIdentity = _identityFactory.buildIdentityFromPKs(table, bean);
+        Identity   fkIdentity = _identityFactory.buildIdentityFromFK(table, selfRefFk, bean);
+
+        return pkIdentity.equals(fkIdentity) ? selfRefFk : null;
+    }
+
+    /**
+     * Determines whether the database will generate values for (some of) the primary key
+     * columns of the given bean.
+     * 
+     * @param table The table of the bean
+     * @param bean  The bean
+     * @return <code>true</code> if primary key values will be generated
+     */
+    private boolean hasGeneratedPrimaryKeyValues(Table table, DynaBean bean)
+    {
+        Column[] idColumns = (Column[])_identityPkColumns.get(table);
+
+        if (idColumns == null)
+        {
+            return false;
+        }
+        if (!_platform.isIdentityOverrideOn() || !_platform.getPlatformInfo().isIdentityOverrideAllowed())
+        {
+            return true;
+        }
+        for (int idx = 0; idx < idColumns.length; idx++)
+        {
+            if (bean.get(idColumns[idx].getName()) == null)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the bean to the batch queue of its table.
+     *
+     * @param table The table
+     * @param bean  The bean
+     */
+    private void queueBean(Table table, DynaBean bean)
+    {
+        Object     key   = getBatchQueueKey(table);
+        LinkedList queue = (LinkedList)_batchQueues.get(key);
+
+        if (queue == null)
+        {
+            queue = new LinkedList();
+            _batchQueues.put(key, queue);
+        }
+        queue.add(bean);
+        if ((queue.size() >= _batchSizeController.getBatchSize(table)) && !_fullBatchQueues.contains(key))
+        {
+            _fullBatchQueues.add(key);
+        }
+    }
+
+    /**
+     * Returns the key of the batch queue for the given table.
+     *
+     * @param table The table
+     * @return The key
+     */
+    private Object getBatchQueueKey(Table table)
+    {
+        Object key = _sharedBatchQueueKeys.get(table);
+
+        return key == null ? table : key;
+    }
+
+    /**
+     * Purges the batch queues that have reached the batch size.
+     */
+    private void purgeFullBatchQueues() throws DataSinkException
+    {
+        while (!_fullBatchQueues.isEmpty())
+        {
+            purgeBatchQueue(_fullBatchQueues.removeFirst(), new IdentityHashMap());
+        }
+    }
+
+    /**
+     * Purges all batch queues.
+     */
+    private void purgeBatchQueues() throws DataSinkException
+    {
+        while (true)
+        {
+            Object key = null;
+
+            for (Iterator it = _batchQueues.entrySet().iterator(); it.hasNext() && (key == null);)
+            {
+                Map.Entry entry = (Map.Entry)it.next();
+
+                if (!((List)entry.getValue()).isEmpty())
+                {
+                    key = entry.getKey();
+                }
+            }
+            if (key == null)
             {
-                if (_log.isDebugEnabled())
+                break;
+            }
+            purgeBatchQueue(key, new IdentityHashMap());
+        }
+        _fullBatchQueues.clear();
+    }
+
+    /**
+     * Purges a batch queue by inserting the objects into the database. The queues of the tables
+     * referenced by the tables of the queue are purged first, so that the referenced rows are
+     * inserted before the rows referencing them even though they are queued separately. The beans
+     * are inserted (or upserted) in chunks of one table, each at most as large as the current batch
+     * size of its table and the maximum number of bytes per batch allow. The identities of the beans
+     * of a chunk are registered after the chunk has been inserted so that the beans waiting for
+     * them use the generated identity values. Beans of the same queue inserted because of this
+     * are inserted as part of the same purge.
+     *
+     * @param key     The key of the queue
+     * @param purging The keys of the queues that are currently being purged
+     */
+    private void purgeBatchQueue(Object key, IdentityHashMap purging) throws DataSinkException
+    {
+        LinkedList queue = (LinkedList)_batchQueues.get(key);
+
+        if ((queue == null) || queue.isEmpty())
+        {
+            return;
+        }
+        purging.put(key, key);
+        for (int tableIdx = 0; tableIdx < _model.getTableCount(); tableIdx++)
+        {
+            Table table = _model.getTable(tableIdx);
+
+            if (getBatchQueueKey(table) == key)
+            {
+                for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
                 {
-                    StringBuffer msg = new StringBuffer();
+                    Object foreignKey = getBatchQueueKey(table.getForeignKey(fkIdx).getForeignTable());
 
-                    msg.append("Defering insertion of row ");
-                    msg.append(buildIdentityFromPKs(table, bean).toString());
-                    msg.append(" because it is waiting for:");
-                    for (Iterator it = waitingObj.getPendingFKs(); it.hasNext();)
+                    if (!purging.containsKey(foreignKey))
                     {
-                        msg.append("\n  ");
-                        msg.append(it.next().toString());
+                        purgeBatchQueue(foreignKey, purging);
                     }
-                    _log.debug(msg.toString());
                 }
-                _waitingObjects.add(waitingObj);
-                return;
             }
         }
-
-        insertBeanIntoDatabase(table, bean);
-
-        if (_log.isDebugEnabled())
+        purging.remove(key);
+        while (!queue.isEmpty())
         {
-            _log.debug("Inserted bean " + origIdentity);
-        }
+            ArrayList chunk      = new ArrayList();
+            boolean   upsert     = _upsertBeans.containsKey(queue.getFirst());
+            Table     chunkTable = _model.getDynaClassFor((DynaBean)queue.getFirst()).getTable();
+            long      chunkBytes = 0;
 
-        if (_ensureFkOrder && _fkTables.contains(table))
-        {
-            Identity  newIdentity  = buildIdentityFromPKs(table, bean);
-            ArrayList finishedObjs = new ArrayList();
+            if (_singleInsertBeans.containsKey(queue.getFirst()))
+            {
+                chunk.add(queue.removeFirst());
+            }
+            else
+            {
+                int  maxRows  = _batchSizeController.getBatchSize(chunkTable);
+                long maxBytes = _batchSizeController.getMaxBatchBytes();
+
+                // the platform executes one batch per table anyway, so chunks do not span tables
+                // which allows to measure the latency per table
+                while (!queue.isEmpty() && (chunk.size() < maxRows) &&
+                       ((maxBytes <= 0) || (chunkBytes < maxBytes)) &&
+                       !_singleInsertBeans.containsKey(queue.getFirst()) &&
+                       (_upsertBeans.containsKey(queue.getFirst()) == upsert) &&
+                       (_model.getDynaClassFor((DynaBean)queue.getFirst()).getTable() == chunkTable))
+                {
+                    DynaBean bean = (DynaBean)queue.removeFirst();
 
-            _identityMap.put(origIdentity, newIdentity);
+                    chunk.add(bean);
+                    chunkBytes += BatchSizeController.estimateSize(bean);
+                }
+            }
 
-            // we're doing multiple passes so that we can insert as much objects in
-            // one go as possible
-            ArrayList identitiesToCheck = new ArrayList();
+            boolean         success     = true;
+            IdentityHashMap failedBeans = new IdentityHashMap();
 
-            identitiesToCheck.add(origIdentity);
-            while (!identitiesToCheck.isEmpty() && !_waitingObjects.isEmpty())
+            if (_singleInsertBeans.remove(chunk.get(0)) != null)
             {
-                Identity curIdentity    = (Identity)identitiesToCheck.get(0);
-                Identity curNewIdentity = (Identity)_identityMap.get(curIdentity);
+                DynaBean bean = (DynaBean)chunk.get(0);
 
-                identitiesToCheck.remove(0);
-                finishedObjs.clear();
-                for (Iterator waitingObjIt = _waitingObjects.iterator(); waitingObjIt.hasNext();)
+                success = insertSingleBeanIntoDatabase(_model.getDynaClassFor(bean).getTable(), bean);
+            }
+            else
+            {
+                try
                 {
-                    WaitingObject waitingObj = (WaitingObject)waitingObjIt.next();
-                    Identity      fkIdentity = waitingObj.removePendingFK(curIdentity);
+                    long startTime = System.currentTimeMillis();
 
-                    if (fkIdentity != null)
+                    if (upsert)
                     {
-                        updateFKColumns(waitingObj.getObject(), fkIdentity.getForeignKeyName(), curNewIdentity);
+                        for (Iterator it = chunk.iterator(); it.hasNext();)
+                        {
+                            _upsertBeans.remove(it.next());
+                        }
                     }
-                    if (!waitingObj.hasPendingFKs())
+                    writeBeans(chunk, upsert, true);
+                    _batchSizeController.batchExecuted(chunkTable, chunk.size(), chunkBytes, System.currentTimeMillis() - startTime);
+                    commitWrittenRows();
+                    if (_log.isDebugEnabled())
                     {
-                        waitingObjIt.remove();
-                        // we defer handling of the finished objects to avoid concurrent modification exceptions
-                        finishedObjs.add(waitingObj.getObject());
+                        _log.debug((upsert ? "Upserted " : "Inserted ") + chunk.size() + " rows in batch mode ");
                     }
                 }
-                for (Iterator finishedObjIt = finishedObjs.iterator(); finishedObjIt.hasNext();)
+                catch (Exception ex)
                 {
-                    DynaBean finishedObj = (DynaBean)finishedObjIt.next();
-                    Table    tableForObj = _model.getDynaClassFor(finishedObj).getTable();
-                    Identity objIdentity = buildIdentityFromPKs(tableForObj, finishedObj);
-
-                    insertBeanIntoDatabase(tableForObj, finishedObj);
-                    
-                    Identity newObjIdentity = buildIdentityFromPKs(tableForObj, finishedObj);
+                    if (_haltOnErrors)
+                    {
+                        returnConnectionAfterError();
+                        throw new DataSinkException(ex);
+                    }
+                    else if (_isolatingFailedRows)
+                    {
+                        _log.warn("Exception while inserting " + chunk.size() + " rows via batch mode into the database, retrying in smaller batches: " + getErrorMessage(ex));
+                        isolateFailedBeans(chunk, upsert, ex, failedBeans);
+                    }
+                    else
+                    {
+                        _log.warn("Exception while inserting " + chunk.size() + " rows via batch mode into the database", ex);
+                        for (Iterator it = chunk.iterator(); it.hasNext();)
+                        {
+                            rejectBean((DynaBean)it.next(), ex);
+                        }
+                        success = false;
+                    }
+                }
+            }
+            for (Iterator it = chunk.iterator(); it.hasNext();)
+            {
+                DynaBean   bean         = (DynaBean)it.next();
+                Identity   origIdentity = (Identity)_pendingRegistrations.remove(bean);
+                ForeignKey selfRefFk    = (ForeignKey)_selfReferencingBeans.remove(bean);
 
-                    _identityMap.put(objIdentity, newObjIdentity);
-                    identitiesToCheck.add(objIdentity);
-                    if (_log.isDebugEnabled())
+                if ((selfRefFk != null) && success && !failedBeans.containsKey(bean))
+                {
+                    // the primary key values have been generated now
+                    for (int idx = 0; idx < selfRefFk.getReferenceCount(); idx++)
                     {
-                        _log.debug("Inserted deferred row " + objIdentity);
+                        Reference ref = selfRefFk.getReference(idx);
+
+                        bean.set(ref.getLocalColumnName(), bean.get(ref.getForeignColumnName()));
                     }
+                    _selfReferenceUpdates.add(bean);
                 }
+
+                // the beans waiting for the rows of a failed chunk remain waiting and are
+                // reported at the end
+                if ((origIdentity != null) && success && !failedBeans.containsKey(bean))
+                {
+                    registerInsertedBean(_model.getDynaClassFor(bean).getTable(), origIdentity, bean);
+                }
+            }
+        }
+        updateSelfReferences();
+    }
+
+    /**
+     * Sets the references of the inserted beans to themselves via one batch per table.
+     */
+    private void updateSelfReferences() throws DataSinkException
+    {
+        if (_selfReferenceUpdates.isEmpty())
+        {
+            return;
+        }
+        try
+        {
+            _platform.update(_connection, _model, _selfReferenceUpdates);
+            commitWrittenRows();
+            if (_log.isDebugEnabled())
+            {
+                _log.debug("Updated the self-references of " + _selfReferenceUpdates.size() + " rows in batch mode");
+            }
+        }
+        catch (Exception ex)
+        {
+            if (_haltOnErrors)
+            {
+                returnConnectionAfterError();
+                throw new DataSinkException(ex);
+            }
+            else
+            {
+                _log.warn("Exception while updating the self-references of " + _selfReferenceUpdates.size() + " rows via batch mode", ex);
             }
         }
+        finally
+        {
+            _selfReferenceUpdates.clear();
+        }
     }
 
     /**
-     * Inserts the bean into the database or batch queue.
+     * Writes the given beans of one table. If the rows of failed batches are isolated, the beans
+     * are written in a transaction or after a savepoint, and are rolled back completely if the
+     * writing fails, so that they can be written again. The savepoint is released when the
+     * beans have been written.
      * 
-     * @param table The table
-     * @param bean  The bean
+     * @param beans  The beans
+     * @param upsert Whether to upsert the beans instead of inserting them
+     * @param batch  Whether to insert the beans via batch mode; otherwise there must be only one bean
      */
-    private void insertBeanIntoDatabase(Table table, DynaBean bean) throws DataSinkException
+    private void writeBeans(List beans, boolean upsert, boolean batch) throws Exception
     {
-        if(_dataLoadType == "INSERT_NEW"){
-            boolean rowExists = _platform.exists(_connection, _model, bean);
-            if(rowExists){
-                return;
+        boolean   autoCommit = _isolatingFailedRows && _connection.getAutoCommit();
+        Savepoint savepoint  = null;
+
+        if (autoCommit)
+        {
+            _connection.setAutoCommit(false);
+        }
+        else if (_isolatingFailedRows)
+        {
+            savepoint = _connection.setSavepoint();
+        }
+        try
+        {
+            // the platform prepares the connection for the table only once per table session
+            _platform.startTableSession(_connection, _model.getDynaClassFor((DynaBean)beans.get(0)).getTable());
+            if (upsert)
+            {
+                _platform.upsert(_connection, _model, beans);
+            }
+            else if (batch)
+            {
+                _platform.insert(_connection, _model, beans);
+            }
+            else
+            {
+                _platform.insert(_connection, _model, (DynaBean)beans.get(0));
+            }
+            if (autoCommit)
+            {
+                _connection.commit();
             }
         }
-        if (_useBatchMode)
+        catch (Exception ex)
         {
-            _batchQueue.add(bean);
-            if (_batchQueue.size() >= _batchSize)
+            if (autoCommit)
+            {
+                _connection.rollback();
+            }
+            else if (savepoint != null)
             {
-                purgeBatchQueue();
+                _connection.rollback(savepoint);
             }
+            throw ex;
         }
-        else
+        finally
         {
-            insertSingleBeanIntoDatabase(table, bean);
+            if (autoCommit)
+            {
+                _connection.setAutoCommit(true);
+            }
+        }
+        if (savepoint != null)
+        {
+            try
+            {
+                _connection.releaseSavepoint(savepoint);
+            }
+            catch (SQLException ex)
+            {
+                // the beans are written, and the savepoint is released with the next commit anyway
+                _log.debug("Could not release the savepoint", ex);
+            }
         }
     }
 
     /**
-     * Purges the batch queue by inserting the objects into the database.
+     * Isolates the failing beans of a failed batch by writing the beans again in two halves,
+     * and splitting the halves that fail again recursively. The beans that fail on their own
+     * are written to the reject file. Thus every other bean of the batch is written, and each
+     * failing bean costs a number of additional batches that is logarithmic in the batch size.
+     * Single beans are inserted without batch mode as not all drivers report the cause of a
+     * failed batch.
+     * 
+     * @param beans       The beans of the failed batch
+     * @param upsert      Whether to upsert the beans instead of inserting them
+     * @param error       The error of the failed batch
+     * @param failedBeans The map to add the beans to that could not be written
      */
-    private void purgeBatchQueue() throws DataSinkException
+    private void isolateFailedBeans(List beans, boolean upsert, Exception error, IdentityHashMap failedBeans) throws DataSinkException
     {
-        if (!_batchQueue.isEmpty())
+        if (beans.size() == 1)
+        {
+            DynaBean bean = (DynaBean)beans.get(0);
+
+            _log.warn("Could not write row " + _identityFactory.buildIdentityFromPKs(_model.getDynaClassFor(bean).getTable(), bean) +
+                      " into the database: " + getErrorMessage(error));
+            rejectBean(bean, error);
+            failedBeans.put(bean, bean);
+            return;
+        }
+
+        int    half  = beans.size() / 2;
+        List[] parts = new List[] { new ArrayList(beans.subList(0, half)), new ArrayList(beans.subList(half, beans.size())) };
+
+        for (int idx = 0; idx < parts.length; idx++)
         {
             try
             {
-                _platform.insert(_connection, _model, _batchQueue);
-                if (!_connection.getAutoCommit())
-                {
-                    _connection.commit();
-                }
-                if (_log.isDebugEnabled())
-                {
-                    _log.debug("Inserted " + _batchQueue.size() + " rows in batch mode ");
-                }
+                writeBeans(parts[idx], upsert, parts[idx].size() > 1);
+                commitWrittenRows();
             }
             catch (Exception ex)
             {
-                if (_haltOnErrors)
-                {
-                    _platform.returnConnection(_connection);
-                    throw new DataSinkException(ex);
-                }
-                else
-                {
-                    _log.warn("Exception while inserting " + _batchQueue.size() + " rows via batch mode into the database", ex);
-                }
+                isolateFailedBeans(parts[idx], upsert, ex, failedBeans);
+            }
+        }
+    }
+
+    /**
+     * Writes the given bean that could not be written to the database, to the reject file
+     * if there is one.
+     * 
+     * @param bean  The bean
+     * @param error The error that occurred when writing the bean
+     */
+    private void rejectBean(DynaBean bean, Exception error) throws DataSinkException
+    {
+        if ((_rejects != null) && (bean instanceof SqlDynaBean))
+        {
+            _rejects.reject((SqlDynaBean)bean, getErrorMessage(error));
+        }
+    }
+
+    /**
+     * Returns the message of the underlying database error of the given exception.
+     * 
+     * @param error The exception
+     * @return The message
+     */
+    private String getErrorMessage(Exception error)
+    {
+        Throwable cause = ExceptionUtils.getRootCause(error);
+
+        return String.valueOf((cause == null ? error : cause).getMessage());
+    }
+
+    /**
+     * Closes the reject file unless it is shared, and logs the number of rejected rows.
+     */
+    private void closeRejectFile() throws DataSinkException
+    {
+        if ((_rejects != null) && !_sharedRejects)
+        {
+            _rejects.close();
+            if (_rejects.getNumRows() > 0)
+            {
+                _log.warn(_rejects.getNumRows() + " rows could not be written to the database and were written to " + _rejects.getFile().getAbsolutePath());
             }
-            _batchQueue.clear();
         }
     }
     
+    /**
+     * Directly inserts the given bean into the database, or updates the existing row with
+     * the same primary key.
+     * 
+     * @param bean The bean
+     * @return <code>true</code> if the bean was written, <code>false</code> if an error occurred
+     *         that did not halt the sink
+     */
+    private boolean upsertSingleBeanIntoDatabase(DynaBean bean) throws DataSinkException
+    {
+        try
+        {
+            _platform.startTableSession(_connection, _model.getDynaClassFor(bean).getTable());
+            _platform.upsert(_connection, _model, Collections.singletonList(bean));
+            commitWrittenRows();
+            return true;
+        }
+        catch (Exception ex)
+        {
+            if (_haltOnErrors)
+            {
+                returnConnectionAfterError();
+                throw new DataSinkException(ex);
+            }
+            else
+            {
+                _log.warn("Exception while upserting a row into the database", ex);
+                rejectBean(bean, ex);
+                return false;
+            }
+        }
+    }
+
     /**
      * Directly inserts the given bean into the database.
      * 
      * @param table The table of the bean
      * @param bean  The bean
+     * @return <code>true</code> if the bean was inserted, <code>false</code> if an error occurred
+     *         that did not halt the sink
      */
-    private void insertSingleBeanIntoDatabase(Table table, DynaBean bean) throws DataSinkException
+    private boolean insertSingleBeanIntoDatabase(Table table, DynaBean bean) throws DataSinkException
     {
         try
         {
             boolean    needTwoStepInsert = false;
             ForeignKey selfRefFk         = null;
 
+            _platform.startTableSession(_connection, table);
             if (!_platform.isIdentityOverrideOn() &&
-                _tablesWithSelfIdentityReference.contains(table))
+                _tablesWithSelfIdentityReference.containsKey(table))
             {
                 selfRefFk = table.getSelfReferencingForeignKey();
 
                 // in case of a self-reference (fk points to the very row that we're inserting)
                 // and (at least) one of the pk columns is an identity column, we first need
                 // to insert the row with the fk columns set to null
-                Identity pkIdentity = buildIdentityFromPKs(table, bean);
-                Identity fkIdentity = buildIdentityFromFK(table, selfRefFk, bean);
+                Identity pkIdentity = _identityFactory.buildIdentityFromPKs(table, bean);
+                Identity fkIdentity = _identityFactory.buildIdentityFromFK(table, selfRefFk, bean);
 
                 if (pkIdentity.equals(fkIdentity))
                 {
-                    if (_tablesWithRequiredSelfReference.contains(table))
+                    if (_tablesWithRequiredSelfReference.containsKey(table))
                     {
                         throw new DataSinkException("Can only insert rows with fk pointing to themselves when all fk columns can be NULL (row pk is " + pkIdentity + ")");
                     }
@@ -546,116 +2751,25 @@ public class DataToDatabaseSink implements DataSink
             {
                 _platform.insert(_connection, _model, bean);
             }
-            if (!_connection.getAutoCommit())
-            {
-                _connection.commit();
-            }
+            commitWrittenRows();
+            return true;
         }
         catch (Exception ex)
         {
             if (_haltOnErrors)
             {
-                _platform.returnConnection(_connection);
+                returnConnectionAfterError();
                 throw new DataSinkException(ex);
             }
             else
             {
                 _log.warn("Exception while inserting a row into the database", ex);
+                rejectBean(bean, ex);
+                return false;
             }
         }
     }
     
-    /**
-     * Returns the name of the given foreign key. If it has no name, then a temporary one
-     * is generated from the names of the relevant tables and columns.
-     *
-     * @param owningTable    The table owning the fk
-     * @param fk             The foreign key
-     * @return The name
-     */
-    private String getFKName(Table owningTable, ForeignKey fk)
-    {
-        if ((fk.getName() != null) && (fk.getName().length() > 0))
-        {
-            return fk.getName();
-        }
-        else
-        {
-            StringBuffer result = new StringBuffer();
-
-            result.append(owningTable.getName());
-            result.append("[");
-            for (int idx = 0; idx < fk.getReferenceCount(); idx++)
-            {
-                if (idx > 0)
-                {
-                    result.append(",");
-                }
-                result.append(fk.getReference(idx).getLocalColumnName());
-            }
-            result.append("]->");
-            result.append(fk.getForeignTableName());
-            result.append("[");
-            for (int idx = 0; idx < fk.getReferenceCount(); idx++)
-            {
-                if (idx > 0)
-                {
-                    result.append(",");
-                }
-                result.append(fk.getReference(idx).getForeignColumnName());
-            }
-            result.append("]");
-            return result.toString();
-        }
-    }
-    
-    /**
-     * Builds an identity object from the primary keys of the specified table using the
-     * column values of the supplied bean.
-     * 
-     * @param table The table
-     * @param bean  The bean
-     * @return The identity
-     */
-    private Identity buildIdentityFromPKs(Table table, DynaBean bean)
-    {
-        Identity identity  = new Identity(table);
-        Column[] pkColumns = table.getPrimaryKeyColumns();
-
-        for (int idx = 0; idx < pkColumns.length; idx++)
-        {
-            identity.setColumnValue(pkColumns[idx].getName(), bean.get(pkColumns[idx].getName()));
-        }
-        return identity;
-    }
-
-    /**
-     * Builds an identity object for the specified foreign key using the foreignkey column values
-     * of the supplied bean.
-     * 
-     * @param owningTable The table owning the foreign key
-     * @param fk          The foreign key
-     * @param bean        The bean
-     * @return The identity
-     */
-    private Identity buildIdentityFromFK(Table owningTable, ForeignKey fk, DynaBean bean)
-    {
-        Identity identity = new Identity(fk.getForeignTable(), getFKName(owningTable, fk));
-
-        for (int idx = 0; idx < fk.getReferenceCount(); idx++)
-        {
-            Reference reference = (Reference)fk.getReference(idx);
-            Object    value     = bean.get(reference.getLocalColumnName());
-
-            if (value == null)
-            {
-                return null;
-            }
-            identity.setColumnValue(reference.getForeignColumnName(), value);
-        }
-        return identity;
-    }
-
     /**
      * Updates the values of the columns constituting the indicated foreign key with the values
      * of the given identity.
@@ -676,7 +2790,7 @@ public class DataToDatabaseSink implements DataSink
 
             if (curFk.getForeignTableName().equalsIgnoreCase(targetTable.getName()))
             {
-                if (fkName.equals(getFKName(sourceTable, curFk)))
+                if (fkName.equals(_identityFactory.getForeignKeyName(sourceTable, curFk)))
                 {
                     fk = curFk;
                     break;
@@ -21,10 +21,11 @@ package org.apache.ddlutils.io;
 
 import java.io.OutputStream;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLStreamWriter;
 import org.apache.commons.beanutils.DynaBean;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -44,6 +45,10 @@ public class DataWriter extends PrettyPrintingXmlWriter
 
     /** The converters. */
     private ConverterConfiguration _converterConf = new ConverterConfiguration();
+    /** The write plans per table. */
+    private final Map _writePlans = new IdentityHashMap();
+    /** The modification count of the converter configuration when the write plans were created. */
+    private int _converterConfModCount = -1;
 
     /**
      * Creates a data writer instance using UTF-8 encoding.
@@ -66,6 +71,19 @@ public class DataWriter extends PrettyPrintingXmlWriter
         super(output, encoding);
     }
 
+    /**
+     * Creates a data writer instance that uses the given xml stream writer, e.g. a
+     * {@link FastXmlStreamWriter}. Note that the stream writer needs to write in the
+     * specified encoding.
+     * 
+     * @param writer   The xml stream writer
+     * @param encoding The encoding of the stream writer
+     */
+    DataWriter(XMLStreamWriter writer, String encoding) throws DataWriterException
+    {
+        super(writer, encoding);
+    }
+
     /**
      * Creates a data writer instance using the specified writer. Note that the writer
      * needs to be configured using the specified encoding.
@@ -125,36 +143,34 @@ public class DataWriter extends PrettyPrintingXmlWriter
      */
     public void write(SqlDynaBean bean) throws DataWriterException
     {
-        SqlDynaClass   dynaClass     = (SqlDynaClass)bean.getDynaClass();
-        Table          table         = dynaClass.getTable();
-        TableXmlWriter tableWriter   = new TableXmlWriter(table);
-        List           columnWriters = new ArrayList();
+        SqlDynaClass dynaClass = (SqlDynaClass)bean.getDynaClass();
 
-        for (int idx = 0; idx < table.getColumnCount(); idx++)
-        {
-            Column           column      = table.getColumn(idx);
-            Object           value       = bean.get(column.getName());
-            SqlTypeConverter converter   = _converterConf.getRegisteredConverter(table, column);
-            String           valueAsText = null;
+        getWritePlan(dynaClass.getTable()).write(bean);
+    }
 
-            if (converter == null)
-            {
-                if (value != null)
-                {
-                    valueAsText = value.toString();
-                }
-            }
-            else
-            {
-                valueAsText = converter.convertToString(value, column.getTypeCode());
-            }
-            if (valueAsText != null)
-            {
-                columnWriters.add(new ColumnXmlWriter(column, valueAsText));
-            }
+    /**
+     * Returns the write plan for the given table. The plans are created when a table is written
+     * for the first time, and are discarded when converters are registered afterwards.
+     * 
+     * @param table The table
+     * @return The write plan
+     */
+    private TableWritePlan getWritePlan(Table table)
+    {
+        if (_converterConfModCount != _converterConf.getModificationCount())
+        {
+            _writePlans.clear();
+            _converterConfModCount = _converterConf.getModificationCount();
         }
 
-        tableWriter.write(columnWriters, this);
+        TableWritePlan plan = (TableWritePlan)_writePlans.get(table);
+
+        if (plan == null)
+        {
+            plan = new TableWritePlan(table);
+            _writePlans.put(table, plan);
+        }
+        return plan;
     }
 
     /**
@@ -188,4 +204,83 @@ public class DataWriter extends PrettyPrintingXmlWriter
     {
         write(beans.iterator());
     }
+
+    /**
+     * Holds everything that is needed to write the rows of a table, so that writing a row
+     * does not have to determine the converters and the XML representation of the table and
+     * column names again.
+     */
+    private class TableWritePlan
+    {
+        /** The writer for the table element. */
+        private final TableXmlWriter _tableWriter;
+        /** The columns. */
+        private final Column[] _columns;
+        /** The converters for the columns, <code>null</code> if a column has no converter. */
+        private final SqlTypeConverter[] _converters;
+        /** The writers for the columns. */
+        private final ColumnXmlWriter[] _columnWriters;
+        /** The values of the current row as text, reused for all rows. */
+        private final String[] _values;
+        /** Whether the values of the current row are base64 encoded, reused for all rows. */
+        private final boolean[] _valuesBase64Encoded;
+
+        /**
+         * Creates the write plan for the given table.
+         * 
+         * @param table The table
+         */
+        public TableWritePlan(Table table)
+        {
+            _tableWriter         = new TableXmlWriter(table);
+            _columns             = table.getColumns();
+            _converters          = new SqlTypeConverter[_columns.length];
+            _columnWriters       = new ColumnXmlWriter[_columns.length];
+            _values              = new String[_columns.length];
+            _valuesBase64Encoded = new boolean[_columns.length];
+            for (int idx = 0; idx < _columns.length; idx++)
+            {
+                _converters[idx]    = _converterConf.getRegisteredConverter(table, _columns[idx]);
+                _columnWriters[idx] = new ColumnXmlWriter(_columns[idx]);
+            }
+        }
+
+        /**
+         * Writes the given bean.
+         * 
+         * @param bean The bean to write
+         */
+        public void write(SqlDynaBean bean) throws DataWriterException
+        {
+            for (int idx = 0; idx < _columns.length; idx++)
+            {
+                Column column      = _columns[idx];
+                Object value       = bean.get(column.getName());
+                String valueAsText = null;
+
+                if (_converters[idx] == null)
+                {
+                    if (value != null)
+                    {
+                        valueAsText = value.toString();
+                    }
+                }
+                else
+                {
+                    valueAsText = _converters[idx].convertToString(value, column.getTypeCode());
+                }
+                if ((valueAsText != null) && XMLUtils.hasIllegalXMLCharacters(valueAsText))
+                {
+                    _values[idx]              = XMLUtils.base64Encode(valueAsText);
+                    _valuesBase64Encoded[idx] = true;
+                }
+                else
+                {
+                    _values[idx]              = valueAsText;
+                    _valuesBase64Encoded[idx] = false;
+                }
+            }
+            _tableWriter.write(_columnWriters, _values, _valuesBase64Encoded, DataWriter.this);
+        }
+    }
 }
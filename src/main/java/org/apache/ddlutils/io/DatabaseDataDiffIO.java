@@ -54,6 +54,8 @@ import org.apache.ddlutils.dynabean.SqlDynaBean;
 public class DatabaseDataDiffIO extends DatabaseDataIO
 {
 	private final Log _log = LogFactory.getLog(DatabaseDataDiffIO.class);
+    /** Creates the identities of the rows read from the database. */
+    private IdentityFactory _identityFactory = new IdentityFactory();
 	
 	/**
      * Compares the keys for data in ths database to whats in the readers xml files.
@@ -130,7 +132,7 @@ public class DatabaseDataDiffIO extends DatabaseDataIO
 
             if (bean instanceof SqlDynaBean)
             {
-				Identity id = buildIdentityFromPKs(table, bean);
+				Identity id = _identityFactory.buildIdentityFromPKs(table, bean);
 				if(keys==null || !keys.contains(id)){
 					if (writer==null){
 						writer = getConfiguredDataWriter(outPath+table.getName()+".xml", null);
@@ -201,16 +203,4 @@ public class DatabaseDataDiffIO extends DatabaseDataIO
 
         return platform.query(model, query.toString(), tables);
     }
-
-	private Identity buildIdentityFromPKs(Table table, DynaBean bean)
-    {
-        Identity identity  = new Identity(table);
-        Column[] pkColumns = table.getPrimaryKeyColumns();
-
-        for (int idx = 0; idx < pkColumns.length; idx++)
-        {
-            identity.setColumnValue(pkColumns[idx].getName(), bean.get(pkColumns[idx].getName()));
-        }
-        return identity;
-    }
 }	
\ No newline at end of file
@@ -19,6 +19,12 @@ package org.apache.ddlutils.io;
  * under the License.
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -26,19 +32,26 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
-import org.apache.commons.collections.map.ListOrderedMap;
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.ddlutils.DdlUtilsException;
 import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.dynabean.SqlDynaBean;
 import org.apache.ddlutils.model.Column;
 import org.apache.ddlutils.model.Database;
+import org.apache.ddlutils.model.ModelHelper;
 import org.apache.ddlutils.model.Table;
+import org.apache.ddlutils.platform.ModelBasedResultSetIterator;
 
 /**
  * Provides basic live database data <-> XML functionality.
@@ -47,6 +60,9 @@ import org.apache.ddlutils.model.Table;
  */
 public class DatabaseDataIO
 {
+    /** Our log. */
+    private final Log _log = LogFactory.getLog(DatabaseDataIO.class);
+
     /** The converters to use for converting between data and its XML representation. */
     private ArrayList _converters = new ArrayList();
     /** Whether we should continue when an error was detected. */
@@ -63,8 +79,49 @@ public class DatabaseDataIO
     /** The schema pattern for finding tables when reading data from a live database. @deprecated */
     private String _schemaPattern;
 
-    /** The type data insert to do. INSERT just tries to insert, INSERT_NEW will only insert if the row does not exist */
+    /** The type data insert to do. INSERT just tries to insert, INSERT_NEW will only insert if the row does not exist,
+        UPSERT will insert the row or update it if it exists */
     private String _dataLoadType = "INSERT";
+    /** The number of rows per table whose existence is checked with one query for INSERT_NEW, or <code>null</code> for the default. */
+    private Integer _existenceProbeSize;
+    /** The number of threads to use for inserting data into the database. */
+    private int _threadCount = 1;
+    /** The number of threads that insert the data of one table concurrently. */
+    private int _workersPerTable = 1;
+    /** The maximum number of identities and deferred rows to hold in memory when inserting data; 0 for no limit. */
+    private int _maxObjectsInMemory = 0;
+    /** The number of rows after which to commit when inserting data; 0 to commit after every row or batch. */
+    private int _commitInterval = 0;
+    /** Whether to defer the foreign key checks when inserting data instead of ordering the rows. */
+    private boolean _deferForeignKeyChecks = false;
+    /** The file to write the rows to that could not be inserted, if any. */
+    private File _rejectFile;
+    /** The file to record the progress of the data insertion in, if any. */
+    private File _checkpointFile;
+    /** Whether to resume the data insertion from the checkpoint file. */
+    private boolean _resumeFromCheckpoint = false;
+    /** The latency in milliseconds that batches shall take; 0 for a fixed batch size. */
+    private int _targetBatchLatency = 0;
+    /** The minimum batch size when adapting the batch size, or <code>null</code> for the default. */
+    private Integer _minBatchSize;
+    /** The maximum batch size when adapting the batch size, or <code>null</code> for the default. */
+    private Integer _maxBatchSize;
+    /** The maximum number of bytes per batch; 0 for no limit. */
+    private long _maxBatchBytes = 0;
+    /** The number of rows to queue between parsing and inserting the data; 0 to insert in the parsing thread. */
+    private int _pipelineQueueSize = 0;
+    /** Whether to drop the indexes and foreign keys before inserting data and recreate them afterwards. */
+    private boolean _bulkLoad = false;
+    /** The file to record the dropped indexes and foreign keys in, or <code>null</code> for the default. */
+    private File _bulkLoadRecordFile;
+    /** The number of threads to use for recreating the indexes and foreign keys after a bulk load. */
+    private int _indexThreadCount = 1;
+    /** The number of threads that read the data of the tables concurrently when writing it to XML. */
+    private int _exportThreadCount = 1;
+    /** The number of rows per primary key range into which big tables are split when reading them concurrently. */
+    private int _exportChunkSize = 0;
+    /** Whether to write the data XML with the fast xml writer where possible. */
+    private boolean _useFastXmlWriter = true;
     
     /**
      * Registers a converter.
@@ -119,8 +176,9 @@ public class DatabaseDataIO
     /**
      * Specifies how to load the data. Insert will insert all and error if the row alrady exists.
      * INSERT_NEW will only insert if the row exists
+     * UPSERT will insert the row or update it if it exists
      * 
-     * @param dataLoadType INSERT or INSERT_NEW
+     * @param dataLoadType INSERT, INSERT_NEW or UPSERT
      */
     public void setDataLoadType(String dataLoadType)
     {
@@ -137,6 +195,17 @@ public class DatabaseDataIO
         return _dataLoadType;
     }
 
+    /**
+     * Specifies the number of rows per table whose existence in the database is checked with
+     * one query when using the INSERT_NEW data load type.
+     * 
+     * @param probeSize The number of rows
+     */
+    public void setExistenceProbeSize(int probeSize)
+    {
+        _existenceProbeSize = new Integer(probeSize);
+    }
+
     /**
      * Returns the batch size override.
      * 
@@ -183,6 +252,493 @@ public class DatabaseDataIO
         _ensureFKOrder = ensureFKOrder;
     }
 
+    /**
+     * Returns the number of threads that insert the data of independent tables concurrently.
+     *
+     * @return The number of threads
+     */
+    public int getThreadCount()
+    {
+        return _threadCount;
+    }
+
+    /**
+     * Specifies the number of threads that insert the data of independent tables concurrently.
+     *
+     * @param threadCount The number of threads
+     */
+    public void setThreadCount(int threadCount)
+    {
+        _threadCount = threadCount;
+    }
+
+    /**
+     * Returns the number of threads that insert the data of one table concurrently.
+     *
+     * @return The number of threads
+     */
+    public int getWorkersPerTable()
+    {
+        return _workersPerTable;
+    }
+
+    /**
+     * Specifies the number of threads that insert the data of one table concurrently if more
+     * than one thread is used.
+     *
+     * @param workersPerTable The number of threads
+     * @see DataToDatabaseSink#setWorkersPerTable(int)
+     */
+    public void setWorkersPerTable(int workersPerTable)
+    {
+        _workersPerTable = workersPerTable;
+    }
+
+    /**
+     * Returns the number of threads that read the data of the tables concurrently when writing
+     * the data of the database to XML.
+     *
+     * @return The number of threads
+     */
+    public int getExportThreadCount()
+    {
+        return _exportThreadCount;
+    }
+
+    /**
+     * Specifies the number of threads that read the data of the tables concurrently when writing
+     * the data of the database to XML. If more than one thread is used, then each thread reads
+     * whole tables via its own connection and stores their rows in a temporary file. The data of
+     * these files is then written to the XML in the same order as when using a single thread.
+     *
+     * @param threadCount The number of threads
+     */
+    public void setExportThreadCount(int threadCount)
+    {
+        _exportThreadCount = threadCount;
+    }
+
+    /**
+     * Returns the number of rows per primary key range into which big tables are split when
+     * reading the tables concurrently.
+     *
+     * @return The number of rows, or 0 if tables are not split
+     */
+    public int getExportChunkSize()
+    {
+        return _exportChunkSize;
+    }
+
+    /**
+     * Specifies the number of rows per primary key range into which big tables are split when
+     * reading the tables concurrently. This applies to tables with a single integer primary key
+     * column. The number of ranges is derived from the number of rows in the table, and the
+     * ranges divide the values between the minimum and maximum primary key value evenly. The
+     * ranges are then read concurrently, and the rows of these tables are written ordered by
+     * the primary key. This setting is only used if more than one export thread is used.
+     *
+     * @param numRows The number of rows, or 0 if tables shall not be split
+     */
+    public void setExportChunkSize(int numRows)
+    {
+        _exportChunkSize = numRows;
+    }
+
+    /**
+     * Determines whether the data writers returned by the <code>getConfiguredDataWriter</code>
+     * methods use a fast, hand-written xml writer instead of the StAX implementation where possible.
+     *
+     * @return <code>true</code> if the fast xml writer is used
+     */
+    public boolean isUseFastXmlWriter()
+    {
+        return _useFastXmlWriter;
+    }
+
+    /**
+     * Specifies whether the data writers returned by the <code>getConfiguredDataWriter</code>
+     * methods shall use a fast, hand-written xml writer instead of the StAX implementation. The
+     * fast writer produces the same XML as the Woodstox StAX implementation, but is only used
+     * for writers and for output streams with the UTF-8 encoding; for other encodings the StAX
+     * implementation is used.
+     *
+     * @param useFastXmlWriter <code>true</code> if the fast xml writer shall be used
+     */
+    public void setUseFastXmlWriter(boolean useFastXmlWriter)
+    {
+        _useFastXmlWriter = useFastXmlWriter;
+    }
+
+    /**
+     * Returns the maximum number of identities and of deferred rows that are held in memory
+     * when inserting data into the database.
+     *
+     * @return The maximum number of objects, or <code>0</code> if there is no limit
+     */
+    public int getMaxObjectsInMemory()
+    {
+        return _maxObjectsInMemory;
+    }
+
+    /**
+     * Specifies the maximum number of identities and of deferred rows that are held in memory
+     * when inserting data into the database. The limit also applies to the rows that are collected
+     * before inserting them with multiple threads. Further objects are moved to temporary files.
+     *
+     * @param maxObjects The maximum number of objects, or <code>0</code> if there is no limit
+     */
+    public void setMaxObjectsInMemory(int maxObjects)
+    {
+        _maxObjectsInMemory = maxObjects;
+    }
+
+    /**
+     * Returns the number of rows after which to commit when inserting data into the database.
+     *
+     * @return The number of rows, or <code>0</code> if every written row or batch is committed
+     */
+    public int getCommitInterval()
+    {
+        return _commitInterval;
+    }
+
+    /**
+     * Specifies the number of rows after which to commit when inserting data into the database.
+     *
+     * @param commitInterval The number of rows, or <code>0</code> if every written row or batch
+     *                       shall be committed
+     */
+    public void setCommitInterval(int commitInterval)
+    {
+        _commitInterval = commitInterval;
+    }
+
+    /**
+     * Determines whether the foreign key checks are deferred when inserting data into the database
+     * instead of ordering the rows by their foreign keys.
+     *
+     * @return <code>true</code> if the foreign key checks are deferred
+     */
+    public boolean isDeferForeignKeyChecks()
+    {
+        return _deferForeignKeyChecks;
+    }
+
+    /**
+     * Specifies whether the foreign key checks shall be deferred when inserting data into the database
+     * instead of ordering the rows by their foreign keys. This is only done if the platform supports it.
+     *
+     * @param deferForeignKeyChecks <code>true</code> if the foreign key checks shall be deferred
+     * @see DataToDatabaseSink#setDeferForeignKeyChecks(boolean)
+     */
+    public void setDeferForeignKeyChecks(boolean deferForeignKeyChecks)
+    {
+        _deferForeignKeyChecks = deferForeignKeyChecks;
+    }
+
+    /**
+     * Returns the file that the rows are written to that could not be inserted into the database.
+     *
+     * @return The reject file, or <code>null</code> if the rows are only logged
+     */
+    public File getRejectFile()
+    {
+        return _rejectFile;
+    }
+
+    /**
+     * Specifies the file that the rows are written to that could not be inserted into the database
+     * if the insertion does not fail on errors.
+     *
+     * @param rejectFile The reject file, or <code>null</code> if the rows shall only be logged
+     * @see DataToDatabaseSink#setRejectFile(File)
+     */
+    public void setRejectFile(File rejectFile)
+    {
+        _rejectFile = rejectFile;
+    }
+
+    /**
+     * Returns the file that the progress of the data insertion is recorded in.
+     *
+     * @return The checkpoint file, or <code>null</code> if no checkpoints are written
+     */
+    public File getCheckpointFile()
+    {
+        return _checkpointFile;
+    }
+
+    /**
+     * Specifies the file that the progress of the data insertion is recorded in at every commit
+     * (see {@link #setCommitInterval(int)}). The file is deleted after the data has been inserted.
+     * Checkpoints cannot be used together with multiple insertion threads (see
+     * {@link #setThreadCount(int)}), the data insertion then fails without touching the file.
+     *
+     * @param checkpointFile The checkpoint file, or <code>null</code> if no checkpoints shall be written
+     */
+    public void setCheckpointFile(File checkpointFile)
+    {
+        _checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Determines whether the data insertion is resumed from the checkpoint file.
+     *
+     * @return <code>true</code> if the data insertion is resumed
+     */
+    public boolean isResumeFromCheckpoint()
+    {
+        return _resumeFromCheckpoint;
+    }
+
+    /**
+     * Specifies whether the data insertion shall be resumed from the checkpoint file if it exists,
+     * skipping the rows that have already been committed. The same data files have to be read in
+     * the same order as in the failed run. This is not possible with multiple insertion threads.
+     *
+     * @param resumeFromCheckpoint <code>true</code> if the data insertion shall be resumed
+     */
+    public void setResumeFromCheckpoint(boolean resumeFromCheckpoint)
+    {
+        _resumeFromCheckpoint = resumeFromCheckpoint;
+    }
+
+    /**
+     * Returns the latency that the execution of one batch shall take.
+     *
+     * @return The latency in milliseconds, or 0 if the batch size is fixed
+     */
+    public int getTargetBatchLatency()
+    {
+        return _targetBatchLatency;
+    }
+
+    /**
+     * Specifies the latency that the execution of one batch shall take in batch mode. If set,
+     * the batch size of each table is adjusted to the measured latency of its batches, starting
+     * with the batch size and staying within the minimum and maximum batch sizes.
+     *
+     * @param latency The latency in milliseconds, or 0 if the batch size shall be fixed
+     */
+    public void setTargetBatchLatency(int latency)
+    {
+        _targetBatchLatency = latency;
+    }
+
+    /**
+     * Returns the minimum batch size override.
+     *
+     * @return The minimum batch size if different from the default, <code>null</code> otherwise
+     */
+    public Integer getMinBatchSize()
+    {
+        return _minBatchSize;
+    }
+
+    /**
+     * Sets the minimum number of rows per batch when adapting the batch size.
+     *
+     * @param batchSize The number of rows
+     */
+    public void setMinBatchSize(int batchSize)
+    {
+        _minBatchSize = new Integer(batchSize);
+    }
+
+    /**
+     * Returns the maximum batch size override.
+     *
+     * @return The maximum batch size if different from the default, <code>null</code> otherwise
+     */
+    public Integer getMaxBatchSize()
+    {
+        return _maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of rows per batch when adapting the batch size.
+     *
+     * @param batchSize The number of rows
+     */
+    public void setMaxBatchSize(int batchSize)
+    {
+        _maxBatchSize = new Integer(batchSize);
+    }
+
+    /**
+     * Returns the maximum number of bytes per batch.
+     *
+     * @return The number of bytes, or 0 if unlimited
+     */
+    public long getMaxBatchBytes()
+    {
+        return _maxBatchBytes;
+    }
+
+    /**
+     * Specifies the maximum (estimated) number of bytes of the row values in one batch.
+     *
+     * @param maxBytes The number of bytes, or 0 if unlimited
+     */
+    public void setMaxBatchBytes(long maxBytes)
+    {
+        _maxBatchBytes = maxBytes;
+    }
+
+    /**
+     * Returns the number of rows that are queued between parsing the data and inserting it
+     * into the database.
+     *
+     * @return The number of rows, or 0 if the data is inserted by the parsing thread
+     */
+    public int getPipelineQueueSize()
+    {
+        return _pipelineQueueSize;
+    }
+
+    /**
+     * Specifies whether the data shall be inserted into the database by a separate thread while
+     * the data is parsed. If so, the parsed rows are handed to the inserting thread via a queue
+     * of the given size (see {@link PipelinedDataSink}).
+     *
+     * @param queueSize The maximum number of queued rows, or 0 if the data shall be inserted by
+     *                  the parsing thread
+     */
+    public void setPipelineQueueSize(int queueSize)
+    {
+        _pipelineQueueSize = queueSize;
+    }
+
+    /**
+     * Determines whether the indexes and foreign keys are dropped before inserting data and
+     * recreated afterwards.
+     *
+     * @return <code>true</code> if bulk load mode is used
+     */
+    public boolean isBulkLoad()
+    {
+        return _bulkLoad;
+    }
+
+    /**
+     * Specifies whether the indexes and foreign keys of the tables shall be dropped before inserting
+     * data and recreated afterwards (see {@link BulkLoadConstraints}). As there are no foreign keys
+     * during the load, the foreign key order is not ensured then. Note that this also means that
+     * the values of identity columns that are referenced by other rows have to be inserted explicitly.
+     *
+     * @param bulkLoad <code>true</code> if bulk load mode shall be used
+     */
+    public void setBulkLoad(boolean bulkLoad)
+    {
+        _bulkLoad = bulkLoad;
+    }
+
+    /**
+     * Returns the file in which the indexes and foreign keys dropped for a bulk load are recorded.
+     *
+     * @return The file, or <code>null</code> if the default file is used
+     */
+    public File getBulkLoadRecordFile()
+    {
+        return _bulkLoadRecordFile;
+    }
+
+    /**
+     * Sets the file in which the indexes and foreign keys dropped for a bulk load are recorded
+     * until they have been recreated. Per default, a file in the temporary directory whose name
+     * contains the name of the database model is used.
+     *
+     * @param recordFile The file, or <code>null</code> for the default file
+     */
+    public void setBulkLoadRecordFile(File recordFile)
+    {
+        _bulkLoadRecordFile = recordFile;
+    }
+
+    /**
+     * Returns the number of threads that recreate the indexes and foreign keys after a bulk load.
+     *
+     * @return The number of threads
+     */
+    public int getIndexThreadCount()
+    {
+        return _indexThreadCount;
+    }
+
+    /**
+     * Sets the number of threads that recreate the indexes and foreign keys after a bulk load,
+     * each using its own database connection.
+     *
+     * @param threadCount The number of threads
+     */
+    public void setIndexThreadCount(int threadCount)
+    {
+        _indexThreadCount = threadCount;
+    }
+
+    /**
+     * Drops the indexes and foreign keys of the tables of the given model if bulk load mode is used.
+     * Indexes and foreign keys that were dropped by a previous bulk load and not recreated yet
+     * are recreated by {@link #finishBulkLoad(BulkLoadConstraints, boolean)}, too. If dropping
+     * fails, then the already dropped ones are recreated before the error is thrown.
+     *
+     * @param platform The platform, must be connected to a live database
+     * @param model    The model
+     * @return The object for recreating the dropped indexes and foreign keys, or <code>null</code>
+     *         if bulk load mode is not used
+     */
+    public BulkLoadConstraints startBulkLoad(Platform platform, Database model) throws DdlUtilsException
+    {
+        if (!_bulkLoad)
+        {
+            return null;
+        }
+
+        File recordFile = _bulkLoadRecordFile;
+
+        if (recordFile == null)
+        {
+            recordFile = new File(System.getProperty("java.io.tmpdir"),
+                                  "ddlutils-bulkload-" + (model.getName() == null ? "unnamed" : model.getName()) + ".properties");
+        }
+
+        BulkLoadConstraints bulkLoad = new BulkLoadConstraints(platform, model, recordFile);
+
+        bulkLoad.drop();
+        return bulkLoad;
+    }
+
+    /**
+     * Recreates the indexes and foreign keys dropped for a bulk load. If the load failed, then
+     * errors while recreating them are only logged so that they do not hide the error of the load.
+     *
+     * @param bulkLoad      The object returned by {@link #startBulkLoad(Platform, Database)}, can be
+     *                      <code>null</code>
+     * @param loadSucceeded Whether the data was inserted successfully
+     */
+    public void finishBulkLoad(BulkLoadConstraints bulkLoad, boolean loadSucceeded) throws DdlUtilsException
+    {
+        if (bulkLoad == null)
+        {
+            return;
+        }
+        try
+        {
+            bulkLoad.restore(_indexThreadCount);
+        }
+        catch (DdlUtilsException ex)
+        {
+            if (loadSucceeded)
+            {
+                throw ex;
+            }
+            else
+            {
+                _log.error("Could not recreate the indexes and foreign keys after the failed load", ex);
+            }
+        }
+    }
+
     /**
      * Specifies whether DdlUtils should try to find the schema of the tables when reading data
      * from a live database.
@@ -247,7 +803,7 @@ public class DatabaseDataIO
     {
         try
         {
-            DataWriter writer = new DataWriter(new FileOutputStream(path), xmlEncoding);
+            DataWriter writer = createDataWriter(new FileOutputStream(path), xmlEncoding);
             
             registerConverters(writer.getConverterConfiguration());
             return writer;
@@ -268,7 +824,7 @@ public class DatabaseDataIO
      */
     public DataWriter getConfiguredDataWriter(OutputStream output, String xmlEncoding) throws DdlUtilsException
     {
-        DataWriter writer = new DataWriter(output, xmlEncoding);
+        DataWriter writer = createDataWriter(output, xmlEncoding);
         
         registerConverters(writer.getConverterConfiguration());
         return writer;
@@ -284,12 +840,42 @@ public class DatabaseDataIO
      */
     public DataWriter getConfiguredDataWriter(Writer output, String xmlEncoding) throws DdlUtilsException
     {
-        DataWriter writer = new DataWriter(output, xmlEncoding);
-        
+        DataWriter writer;
+
+        if (_useFastXmlWriter)
+        {
+            writer = new DataWriter(new FastXmlStreamWriter(output), xmlEncoding);
+        }
+        else
+        {
+            writer = new DataWriter(output, xmlEncoding);
+        }
         registerConverters(writer.getConverterConfiguration());
         return writer;
     }
 
+    /**
+     * Creates a data writer that writes to the given output stream, using the
+     * {@link FastXmlStreamWriter} if possible.
+     * 
+     * @param output      The output stream
+     * @param xmlEncoding The encoding to use for writing the XML
+     * @return The writer
+     */
+    private DataWriter createDataWriter(OutputStream output, String xmlEncoding) throws DdlUtilsException
+    {
+        String encoding = ((xmlEncoding == null) || (xmlEncoding.length() == 0)) ? "UTF-8" : xmlEncoding;
+
+        if (_useFastXmlWriter && FastXmlStreamWriter.isSupportedEncoding(encoding))
+        {
+            return new DataWriter(new FastXmlStreamWriter(output), encoding);
+        }
+        else
+        {
+            return new DataWriter(output, encoding);
+        }
+    }
+
     /**
      * Writes the data contained in the database to which the given platform is connected, as XML
      * to the given output stream (which won't be closed by this method).
@@ -400,100 +986,370 @@ public class DatabaseDataIO
         List tables = sortTables(model.getTables());
 
         writer.writeDocumentStart();
+        if ((_exportThreadCount > 1) && ((tables.size() > 1) || (_exportChunkSize > 0)))
+        {
+            writeDataForTablesToXML(platform, model, tables, writer);
+        }
+        else
+        {
+            for (Iterator it = tables.iterator(); it.hasNext();)
+            {
+                Table table = (Table)it.next();
+
+                writer.write(platform.query(model, getQueryForTable(platform, table), new Table[] { table }));
+            }
+        }
+        writer.writeDocumentEnd();
+    }
+
+    /**
+     * Writes the data of the given tables to XML, reading the tables concurrently. The rows of
+     * each table, or of each primary key range of a big table, are stored in a temporary file by
+     * one of the threads, and are written from there in the order of the tables once the thread
+     * has finished the table or range.
+     * 
+     * @param platform The platform
+     * @param model    The database model
+     * @param tables   The tables in the order in which to write them
+     * @param writer   The data writer
+     */
+    private void writeDataForTablesToXML(Platform platform, Database model, List tables, DataWriter writer)
+    {
+        LinkedList pending  = new LinkedList();
+        List       segments = new ArrayList();
+
         for (Iterator it = tables.iterator(); it.hasNext();)
         {
-            writeDataForTableToXML(platform, model, (Table)it.next(), writer);
+            TableSegment segment = new TableSegment((Table)it.next());
+
+            segments.add(segment);
+            pending.add(segment);
+        }
+
+        // big tables may be split into more ranges than there are tables
+        int      numThreads = _exportChunkSize > 0 ? _exportThreadCount : Math.min(_exportThreadCount, segments.size());
+        Thread[] threads    = new Thread[numThreads];
+
+        try
+        {
+            for (int idx = 0; idx < numThreads; idx++)
+            {
+                threads[idx] = new TableExportThread(platform, model, pending);
+                threads[idx].start();
+            }
+            for (Iterator it = segments.iterator(); it.hasNext();)
+            {
+                writeSegment(model, (TableSegment)it.next(), writer);
+            }
+        }
+        finally
+        {
+            // stops the threads if a table could not be read or written
+            synchronized (pending)
+            {
+                pending.clear();
+                for (Iterator it = segments.iterator(); it.hasNext();)
+                {
+                    ((TableSegment)it.next()).cancel();
+                }
+            }
+            for (int idx = 0; idx < numThreads; idx++)
+            {
+                try
+                {
+                    if (threads[idx] != null)
+                    {
+                        threads[idx].join();
+                    }
+                }
+                catch (InterruptedException ex)
+                {
+                    throw new DdlUtilsException(ex);
+                }
+            }
+            for (Iterator it = segments.iterator(); it.hasNext();)
+            {
+                ((TableSegment)it.next()).deleteFile();
+            }
+        }
+    }
+
+    /**
+     * Waits until the given table segment has been read, and writes its rows to XML.
+     * 
+     * @param model   The database model
+     * @param segment The segment
+     * @param writer  The data writer
+     */
+    private void writeSegment(Database model, TableSegment segment, DataWriter writer)
+    {
+        segment.waitUntilFinished();
+        if (segment.getParts() != null)
+        {
+            for (Iterator it = segment.getParts().iterator(); it.hasNext();)
+            {
+                writeSegment(model, (TableSegment)it.next(), writer);
+            }
+            return;
+        }
+
+        DataInputStream input = null;
+
+        try
+        {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.getFile())));
+            while (input.readBoolean())
+            {
+                writer.write((SqlDynaBean)SpillFile.readBean(input, model));
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new DdlUtilsException("Could not read the data of table " + segment.getTable().getName() + " from the temporary file", ex);
+        }
+        finally
+        {
+            if (input != null)
+            {
+                try
+                {
+                    input.close();
+                }
+                catch (IOException ex)
+                {
+                    _log.warn("Could not close the temporary file " + segment.getFile().getAbsolutePath(), ex);
+                }
+            }
+            segment.deleteFile();
+        }
+    }
+
+    /**
+     * Sorts the given table according to their foreign key order.
+     * 
+     * @param tables The tables
+     * @return The sorted tables
+     */
+    private List sortTables(Table[] tables)
+    {
+        ArrayList result = new ArrayList();
+
+        for (Iterator it = new ModelHelper().groupTablesByForeignKeyOrder(tables).iterator(); it.hasNext();)
+        {
+            result.addAll((List)it.next());
+        }
+        return result;
+    }
+    
+    /**
+     * Splits the given table into primary key ranges of about {@link #getExportChunkSize()} rows
+     * each if the table is big enough and has a single integer primary key column.
+     * 
+     * @param platform The platform
+     * @param table    The table
+     * @return The segments for the ranges in the order of the primary key, or <code>null</code>
+     *         if the table is not split
+     */
+    private List splitTable(Platform platform, Table table)
+    {
+        Column[] pkColumns = table.getPrimaryKeyColumns();
+
+        if ((_exportChunkSize <= 0) || (pkColumns.length != 1) || !isIntegerColumn(pkColumns[0]))
+        {
+            return null;
+        }
+
+        String     pkColumn   = getDelimitedName(platform, pkColumns[0].getName());
+        String     sql        = "SELECT MIN(" + pkColumn + "),MAX(" + pkColumn + "),COUNT(*) FROM " +
+                                getTableNameForQuery(platform, table);
+        Connection connection = platform.borrowConnection();
+        Statement  statement  = null;
+        ResultSet  resultSet  = null;
+        long       minValue   = 0;
+        long       maxValue   = 0;
+        long       numRows    = 0;
+
+        try
+        {
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery(sql);
+            if (!resultSet.next())
+            {
+                return null;
+            }
+            minValue = resultSet.getLong(1);
+            if (resultSet.wasNull())
+            {
+                return null;
+            }
+            maxValue = resultSet.getLong(2);
+            numRows  = resultSet.getLong(3);
+        }
+        catch (SQLException ex)
+        {
+            _log.warn("Could not determine the primary key range of table " + table.getName() + ", reading it as a whole", ex);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                if (resultSet != null)
+                {
+                    resultSet.close();
+                }
+                if (statement != null)
+                {
+                    statement.close();
+                }
+            }
+            catch (SQLException ex)
+            {
+                _log.warn("Could not close the statement", ex);
+            }
+            platform.returnConnection(connection);
+        }
+
+        long numRanges = (numRows + _exportChunkSize - 1) / _exportChunkSize;
+        long span      = maxValue - minValue;
+
+        // a negative span means that the difference does not fit into a long
+        if ((numRanges < 2) || (span < 0))
+        {
+            return null;
+        }
+
+        long      width = span / numRanges + 1;
+        ArrayList parts = new ArrayList();
+        Long      lower = null;
+
+        // the first and last range are open so that all rows are read
+        for (long idx = 1; (idx < numRanges) && (idx * width <= span); idx++)
+        {
+            Long upper = new Long(minValue + idx * width);
+
+            parts.add(new TableSegment(table, lower, upper));
+            lower = upper;
+        }
+        parts.add(new TableSegment(table, lower, null));
+        if (_log.isDebugEnabled())
+        {
+            _log.debug("Reading table " + table.getName() + " in " + parts.size() + " primary key ranges");
+        }
+        return parts;
+    }
+
+    /**
+     * Determines whether the given column holds integer values that fit into a long.
+     * 
+     * @param column The column
+     * @return <code>true</code> if the column holds integer values
+     */
+    private boolean isIntegerColumn(Column column)
+    {
+        switch (column.getTypeCode())
+        {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return true;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return (column.getScale() == 0) && (column.getSizeAsInt() <= 18);
+            default:
+                return false;
         }
-        writer.writeDocumentEnd();
     }
 
     /**
-     * Sorts the given table according to their foreign key order.
+     * Returns the query that reads the data contained in a single table.
      * 
-     * @param tables The tables
-     * @return The sorted tables
+     * @param platform The platform
+     * @param table    The table 
+     * @return The query
      */
-    private List sortTables(Table[] tables)
+    private String getQueryForTable(Platform platform, Table table)
     {
-        ArrayList      result    = new ArrayList();
-        HashSet        processed = new HashSet();
-        ListOrderedMap pending   = new ListOrderedMap();
+        StringBuffer query   = new StringBuffer();
+        Column[]     columns = table.getColumns();
 
-        for (int idx = 0; idx < tables.length; idx++)
+        query.append("SELECT ");
+        for (int columnIdx = 0; columnIdx < columns.length; columnIdx++)
         {
-            Table table = tables[idx];
-
-            if (table.getForeignKeyCount() == 0)
-            {
-                result.add(table);
-                processed.add(table);
-            }
-            else
+            if (columnIdx > 0)
             {
-                HashSet waitedFor = new HashSet();
-
-                for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
-                {
-                    Table waitedForTable = table.getForeignKey(fkIdx).getForeignTable();
-
-                    if (!table.equals(waitedForTable))
-                    {
-                        waitedFor.add(waitedForTable);
-                    }
-                }
-                pending.put(table, waitedFor);
+                query.append(",");
             }
+            query.append(getDelimitedName(platform, columns[columnIdx].getName()));
         }
+        query.append(" FROM ");
+        query.append(getTableNameForQuery(platform, table));
+        return query.toString();
+    }
 
-        HashSet newProcessed = new HashSet();
+    /**
+     * Returns the query that reads the data contained in the given primary key range of a table.
+     * The rows are ordered by the primary key.
+     * 
+     * @param platform The platform
+     * @param table    The table; needs to have a single primary key column
+     * @param segment  The segment specifying the range
+     * @return The query
+     */
+    private String getQueryForTableRange(Platform platform, Table table, TableSegment segment)
+    {
+        StringBuffer query    = new StringBuffer(getQueryForTable(platform, table));
+        String       pkColumn = getDelimitedName(platform, table.getPrimaryKeyColumns()[0].getName());
 
-        while (!processed.isEmpty() && !pending.isEmpty())
+        if (segment.getLowerBound() != null)
         {
-            newProcessed.clear();
-            for (Iterator it = pending.entrySet().iterator(); it.hasNext();)
-            {
-                Map.Entry entry     = (Map.Entry)it.next();
-                Table     table     = (Table)entry.getKey();
-                HashSet   waitedFor = (HashSet)entry.getValue();
-
-                waitedFor.removeAll(processed);
-                if (waitedFor.isEmpty())
-                {
-                    it.remove();
-                    result.add(table);
-                    newProcessed.add(table);
-                }
-            }
-            processed.clear();
+            query.append(" WHERE ");
+            query.append(pkColumn);
+            query.append(" >= ?");
+        }
+        if (segment.getUpperBound() != null)
+        {
+            query.append(segment.getLowerBound() != null ? " AND " : " WHERE ");
+            query.append(pkColumn);
+            query.append(" < ?");
+        }
+        query.append(" ORDER BY ");
+        query.append(pkColumn);
+        return query.toString();
+    }
 
-            HashSet tmp = processed;
+    /**
+     * Returns the given name delimited if the platform uses delimited identifiers.
+     * 
+     * @param platform The platform
+     * @param name     The name
+     * @return The name to use in queries
+     */
+    private String getDelimitedName(Platform platform, String name)
+    {
+        if (platform.isDelimitedIdentifierModeOn())
+        {
+            String delimiter = platform.getPlatformInfo().getDelimiterToken();
 
-            processed    = newProcessed;
-            newProcessed = tmp;
+            return delimiter + name + delimiter;
         }
-        // the remaining are within circular dependencies
-        for (Iterator it = pending.keySet().iterator(); it.hasNext();)
+        else
         {
-            result.add(it.next());
+            return name;
         }
-        return result;
     }
-    
+
     /**
-     * Writes the data contained in a single table to XML.
+     * Returns the name of the given table for use in the FROM clause of queries.
      * 
      * @param platform The platform
-     * @param model    The database model
      * @param table    The table 
-     * @param writer   The data writer
+     * @return The table name, including the schema if it is to be determined
      */
-    private void writeDataForTableToXML(Platform platform, Database model, Table table, DataWriter writer)
+    private String getTableNameForQuery(Platform platform, Table table)
     {
-        Table[]      tables = { table };
-        StringBuffer query  = new StringBuffer();
-
-        query.append("SELECT ");
-
+        Table[]    tables     = { table };
         Connection connection = null;
         String     schema     = null;
 
@@ -525,41 +1381,7 @@ public class DatabaseDataIO
             }
         }
 
-        Column[] columns = tables[0].getColumns();
-
-        for (int columnIdx = 0; columnIdx < columns.length; columnIdx++)
-        {
-            if (columnIdx > 0)
-            {
-                query.append(",");
-            }
-            if (platform.isDelimitedIdentifierModeOn())
-            {
-                query.append(platform.getPlatformInfo().getDelimiterToken());
-            }
-            query.append(columns[columnIdx].getName());
-            if (platform.isDelimitedIdentifierModeOn())
-            {
-                query.append(platform.getPlatformInfo().getDelimiterToken());
-            }
-        }
-        query.append(" FROM ");
-        if (platform.isDelimitedIdentifierModeOn())
-        {
-            query.append(platform.getPlatformInfo().getDelimiterToken());
-        }
-        if (schema != null)
-        {
-            query.append(schema);
-            query.append(".");
-        }
-        query.append(tables[0].getName());
-        if (platform.isDelimitedIdentifierModeOn())
-        {
-            query.append(platform.getPlatformInfo().getDelimiterToken());
-        }
-
-        writer.write(platform.query(model, query.toString(), tables));
+        return getDelimitedName(platform, schema != null ? schema + "." + tables[0].getName() : tables[0].getName());
     }
 
     /**
@@ -576,20 +1398,93 @@ public class DatabaseDataIO
         DataReader         reader   = new DataReader();
 
         sink.setHaltOnErrors(_failOnError);
-        sink.setEnsureForeignKeyOrder(_ensureFKOrder);
+        // in bulk load mode, there are no foreign keys that would require the order
+        sink.setEnsureForeignKeyOrder(_ensureFKOrder && (!_bulkLoad || platform.getPlatformInfo().isForeignKeysEmbedded()));
         sink.setUseBatchMode(_useBatchMode);
         sink.setDataLoadType(_dataLoadType);
+        sink.setThreadCount(_threadCount);
+        sink.setWorkersPerTable(_workersPerTable);
+        sink.setMaxObjectsInMemory(_maxObjectsInMemory);
+        sink.setCommitInterval(_commitInterval);
+        sink.setDeferForeignKeyChecks(_deferForeignKeyChecks);
+        sink.setRejectFile(_rejectFile);
+        sink.setCheckpointFile(_checkpointFile);
+        sink.setResumeFromCheckpoint(_resumeFromCheckpoint);
+        sink.setTargetBatchLatency(_targetBatchLatency);
+        sink.setMaxBatchBytes(_maxBatchBytes);
         if (_batchSize != null)
         {
             sink.setBatchSize(_batchSize.intValue());
         }
+        if (_minBatchSize != null)
+        {
+            sink.setMinBatchSize(_minBatchSize.intValue());
+        }
+        if (_maxBatchSize != null)
+        {
+            sink.setMaxBatchSize(_maxBatchSize.intValue());
+        }
+        if (_existenceProbeSize != null)
+        {
+            sink.setExistenceProbeSize(_existenceProbeSize.intValue());
+        }
         
         reader.setModel(model);
-        reader.setSink(sink);
+        if (_pipelineQueueSize > 0)
+        {
+            reader.setSink(new PipelinedDataSink(sink, _pipelineQueueSize));
+        }
+        else
+        {
+            reader.setSink(sink);
+        }
         registerConverters(reader.getConverterConfiguration());
         return reader;
     }
 
+    /**
+     * Reads the data from the given XML files and writes it sorted by table in foreign key
+     * order to the indicated file, so that it can be inserted without ensuring the foreign
+     * key order. The converters registered with this object are used for reading and writing.
+     * 
+     * @param sorter      The sorter, which also specifies the model of the data
+     * @param files       The XML data files
+     * @param path        The path of the output file
+     * @param xmlEncoding The encoding to use for the output XML
+     * @see DataSorter
+     */
+    public void sortData(DataSorter sorter, File[] files, String path, String xmlEncoding) throws DdlUtilsException
+    {
+        DataReader       reader = new DataReader();
+        FileOutputStream output = null;
+
+        reader.setModel(sorter.getModel());
+        registerConverters(reader.getConverterConfiguration());
+        try
+        {
+            output = new FileOutputStream(path);
+            sorter.sort(reader, files, getConfiguredDataWriter(output, xmlEncoding));
+        }
+        catch (IOException ex)
+        {
+            throw new DdlUtilsException(ex);
+        }
+        finally
+        {
+            if (output != null)
+            {
+                try
+                {
+                    output.close();
+                }
+                catch (IOException ex)
+                {
+                    _log.warn("Could not close the output file " + path, ex);
+                }
+            }
+        }
+    }
+
     /**
      * Reads the data from the specified files and writes it to the database to which the given
      * platform is connected.
@@ -636,14 +1531,25 @@ public class DatabaseDataIO
      */
     public void writeDataToDatabase(Platform platform, Database model, String[] files) throws DdlUtilsException
     {
-        DataReader dataReader = getConfiguredDataReader(platform, model); 
+        BulkLoadConstraints bulkLoad = startBulkLoad(platform, model);
+        boolean             success  = false;
 
-        dataReader.getSink().start();
-        for (int idx = 0; (files != null) && (idx < files.length); idx++)
+        try
         {
-            writeDataToDatabase(dataReader, files[idx]);
+            DataReader dataReader = getConfiguredDataReader(platform, model); 
+
+            dataReader.getSink().start();
+            for (int idx = 0; (files != null) && (idx < files.length); idx++)
+            {
+                writeDataToDatabase(dataReader, files[idx]);
+            }
+            dataReader.getSink().end();
+            success = true;
+        }
+        finally
+        {
+            finishBulkLoad(bulkLoad, success);
         }
-        dataReader.getSink().end();
     }
 
     /**
@@ -656,14 +1562,25 @@ public class DatabaseDataIO
      */
     public void writeDataToDatabase(Platform platform, Database model, InputStream[] inputs) throws DdlUtilsException
     {
-        DataReader dataReader = getConfiguredDataReader(platform, model); 
+        BulkLoadConstraints bulkLoad = startBulkLoad(platform, model);
+        boolean             success  = false;
 
-        dataReader.getSink().start();
-        for (int idx = 0; (inputs != null) && (idx < inputs.length); idx++)
+        try
         {
-            writeDataToDatabase(dataReader, inputs[idx]);
+            DataReader dataReader = getConfiguredDataReader(platform, model); 
+
+            dataReader.getSink().start();
+            for (int idx = 0; (inputs != null) && (idx < inputs.length); idx++)
+            {
+                writeDataToDatabase(dataReader, inputs[idx]);
+            }
+            dataReader.getSink().end();
+            success = true;
+        }
+        finally
+        {
+            finishBulkLoad(bulkLoad, success);
         }
-        dataReader.getSink().end();
     }
 
     /**
@@ -676,14 +1593,25 @@ public class DatabaseDataIO
      */
     public void writeDataToDatabase(Platform platform, Database model, Reader[] inputs) throws DdlUtilsException
     {
-        DataReader dataReader = getConfiguredDataReader(platform, model); 
+        BulkLoadConstraints bulkLoad = startBulkLoad(platform, model);
+        boolean             success  = false;
 
-        dataReader.getSink().start();
-        for (int idx = 0; (inputs != null) && (idx < inputs.length); idx++)
+        try
         {
-            writeDataToDatabase(dataReader, inputs[idx]);
+            DataReader dataReader = getConfiguredDataReader(platform, model); 
+
+            dataReader.getSink().start();
+            for (int idx = 0; (inputs != null) && (idx < inputs.length); idx++)
+            {
+                writeDataToDatabase(dataReader, inputs[idx]);
+            }
+            dataReader.getSink().end();
+            success = true;
+        }
+        finally
+        {
+            finishBulkLoad(bulkLoad, success);
         }
-        dataReader.getSink().end();
     }
 
     /**
@@ -746,6 +1674,15 @@ public class DatabaseDataIO
      */
     public void writeDataToDatabase(DataReader dataReader, String path) throws DdlUtilsException
     {
+        // the path identifies the rows in the checkpoints
+        if (dataReader.getSink() instanceof DataToDatabaseSink)
+        {
+            ((DataToDatabaseSink)dataReader.getSink()).startSource(path);
+        }
+        else if (dataReader.getSink() instanceof PipelinedDataSink)
+        {
+            ((PipelinedDataSink)dataReader.getSink()).startSource(path);
+        }
         try
         {
             dataReader.read(path);
@@ -797,4 +1734,351 @@ public class DatabaseDataIO
             throw new DdlUtilsException(ex);
         }
     }
+
+    /**
+     * The rows of one table, or of a primary key range of a table, that are stored in a temporary
+     * file by a {@link TableExportThread}. If the thread splits the table into ranges, then the
+     * segment contains the segments of the ranges instead.
+     */
+    private static class TableSegment
+    {
+        /** The table. */
+        private final Table _table;
+        /** Whether the segment is a primary key range of the table. */
+        private final boolean _isRange;
+        /** The inclusive lower bound of the range, or <code>null</code> if the range is open. */
+        private final Long _lowerBound;
+        /** The exclusive upper bound of the range, or <code>null</code> if the range is open. */
+        private final Long _upperBound;
+        /** The temporary file containing the rows. */
+        private File _file;
+        /** The segments of the ranges if the table has been split. */
+        private List _parts;
+        /** Whether the thread has finished the table. */
+        private boolean _finished;
+        /** Whether the segment is no longer needed because the export failed. */
+        private boolean _cancelled;
+        /** The error that occurred while reading the table, if any. */
+        private Throwable _error;
+
+        /**
+         * Creates a new segment for a whole table.
+         * 
+         * @param table The table
+         */
+        public TableSegment(Table table)
+        {
+            _table      = table;
+            _isRange    = false;
+            _lowerBound = null;
+            _upperBound = null;
+        }
+
+        /**
+         * Creates a new segment for a primary key range of a table.
+         * 
+         * @param table      The table
+         * @param lowerBound The inclusive lower bound, or <code>null</code>
+         * @param upperBound The exclusive upper bound, or <code>null</code>
+         */
+        public TableSegment(Table table, Long lowerBound, Long upperBound)
+        {
+            _table      = table;
+            _isRange    = true;
+            _lowerBound = lowerBound;
+            _upperBound = upperBound;
+        }
+
+        /**
+         * Returns the table.
+         * 
+         * @return The table
+         */
+        public Table getTable()
+        {
+            return _table;
+        }
+
+        /**
+         * Determines whether the segment is a primary key range of the table.
+         * 
+         * @return <code>true</code> if the segment is a range
+         */
+        public boolean isRange()
+        {
+            return _isRange;
+        }
+
+        /**
+         * Returns the inclusive lower bound of the range.
+         * 
+         * @return The lower bound, or <code>null</code> if the range is open
+         */
+        public Long getLowerBound()
+        {
+            return _lowerBound;
+        }
+
+        /**
+         * Returns the exclusive upper bound of the range.
+         * 
+         * @return The upper bound, or <code>null</code> if the range is open
+         */
+        public Long getUpperBound()
+        {
+            return _upperBound;
+        }
+
+        /**
+         * Returns the segments of the ranges if the table has been split.
+         * 
+         * @return The segments, or <code>null</code>
+         */
+        public synchronized List getParts()
+        {
+            return _parts;
+        }
+
+        /**
+         * Marks the segment as no longer needed. The caller needs to hold the lock of the list
+         * of pending segments.
+         */
+        public synchronized void cancel()
+        {
+            _cancelled = true;
+        }
+
+        /**
+         * Determines whether the segment is no longer needed.
+         * 
+         * @return <code>true</code> if the segment has been cancelled
+         */
+        public synchronized boolean isCancelled()
+        {
+            return _cancelled;
+        }
+
+        /**
+         * Returns the temporary file containing the rows.
+         * 
+         * @return The file
+         */
+        public synchronized File getFile()
+        {
+            return _file;
+        }
+
+        /**
+         * Creates the temporary file for the rows.
+         * 
+         * @return The file
+         */
+        public synchronized File createFile() throws IOException
+        {
+            _file = File.createTempFile("ddlutils", ".segment");
+            _file.deleteOnExit();
+            return _file;
+        }
+
+        /**
+         * Deletes the temporary file if it exists.
+         */
+        public synchronized void deleteFile()
+        {
+            if (_file != null)
+            {
+                _file.delete();
+                _file = null;
+            }
+            if (_parts != null)
+            {
+                for (Iterator it = _parts.iterator(); it.hasNext();)
+                {
+                    ((TableSegment)it.next()).deleteFile();
+                }
+            }
+        }
+
+        /**
+         * Marks the table as finished because it has been split into the given ranges.
+         * 
+         * @param parts The segments of the ranges
+         */
+        public synchronized void finishWithParts(List parts)
+        {
+            _parts = parts;
+            finish(null);
+        }
+
+        /**
+         * Marks the table as finished.
+         * 
+         * @param error The error that occurred while reading the table, or <code>null</code>
+         */
+        public synchronized void finish(Throwable error)
+        {
+            _finished = true;
+            _error    = error;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the table has been finished, and throws the error that occurred while
+         * reading the table if any.
+         */
+        public synchronized void waitUntilFinished() throws DdlUtilsException
+        {
+            while (!_finished)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException ex)
+                {
+                    throw new DdlUtilsException(ex);
+                }
+            }
+            if (_error instanceof RuntimeException)
+            {
+                throw (RuntimeException)_error;
+            }
+            else if (_error != null)
+            {
+                throw new DdlUtilsException("Could not read the data of table " + _table.getName(), _error);
+            }
+        }
+    }
+
+    /**
+     * Thread that takes tables from a shared list and stores their rows in temporary files
+     * until the list is empty.
+     */
+    private class TableExportThread extends Thread
+    {
+        /** The platform. */
+        private final Platform _platform;
+        /** The database model. */
+        private final Database _model;
+        /** The segments of the tables that still need to be read; shared between the threads. */
+        private final LinkedList _pending;
+
+        /**
+         * Creates a new thread instance.
+         * 
+         * @param platform The platform
+         * @param model    The database model
+         * @param pending  The segments of the tables to read
+         */
+        public TableExportThread(Platform platform, Database model, LinkedList pending)
+        {
+            _platform = platform;
+            _model    = model;
+            _pending  = pending;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run()
+        {
+            while (true)
+            {
+                TableSegment segment = null;
+
+                synchronized (_pending)
+                {
+                    if (_pending.isEmpty())
+                    {
+                        return;
+                    }
+                    segment = (TableSegment)_pending.removeFirst();
+                }
+
+                Throwable error = null;
+
+                try
+                {
+                    List parts = segment.isRange() ? null : splitTable(_platform, segment.getTable());
+
+                    if (parts != null)
+                    {
+                        synchronized (_pending)
+                        {
+                            if (!segment.isCancelled())
+                            {
+                                // the ranges are read before the following tables
+                                _pending.addAll(0, parts);
+                            }
+                        }
+                        segment.finishWithParts(parts);
+                    }
+                    else
+                    {
+                        writeTableToSegment(segment);
+                    }
+                }
+                catch (Throwable ex)
+                {
+                    error = ex;
+                }
+                finally
+                {
+                    segment.finish(error);
+                }
+            }
+        }
+
+        /**
+         * Reads the rows of the table of the given segment and stores them in its temporary file.
+         * 
+         * @param segment The segment
+         */
+        private void writeTableToSegment(TableSegment segment) throws IOException
+        {
+            Table            table  = segment.getTable();
+            Iterator         beans  = null;
+            DataOutputStream output = null;
+
+            try
+            {
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment.createFile())));
+                if (segment.isRange())
+                {
+                    ArrayList parameters = new ArrayList();
+
+                    if (segment.getLowerBound() != null)
+                    {
+                        parameters.add(segment.getLowerBound());
+                    }
+                    if (segment.getUpperBound() != null)
+                    {
+                        parameters.add(segment.getUpperBound());
+                    }
+                    beans = _platform.query(_model, getQueryForTableRange(_platform, table, segment), parameters, new Table[] { table });
+                }
+                else
+                {
+                    beans = _platform.query(_model, getQueryForTable(_platform, table), new Table[] { table });
+                }
+                while (beans.hasNext())
+                {
+                    output.writeBoolean(true);
+                    SpillFile.writeBean(output, (DynaBean)beans.next());
+                }
+                output.writeBoolean(false);
+            }
+            finally
+            {
+                if (beans instanceof ModelBasedResultSetIterator)
+                {
+                    ((ModelBasedResultSetIterator)beans).cleanUp();
+                }
+                if (output != null)
+                {
+                    output.close();
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,773 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A hand-written xml writer that is used instead of the StAX implementation for writing
+ * data XML. It escapes the text with precomputed tables and writes it straight into a
+ * large character buffer which, for output streams, is encoded as UTF-8 by the writer
+ * itself.<br/>
+ * The writer produces the same output as the Woodstox StAX implementation, including
+ * the places where Woodstox escapes <code>&gt;</code> characters in text even though
+ * that is not necessary. It only supports the subset of the {@link XMLStreamWriter}
+ * interface that is used by the {@link PrettyPrintingXmlWriter} for data XML, i.e. it
+ * does not support namespaces, processing instructions, DTDs and entity references.
+ * For output streams, only the UTF-8 encoding is supported, as Woodstox escapes
+ * characters differently for other encodings.<br/>
+ * Because of the unsupported parts of the interface, this writer is not handed out on its
+ * own; it is only created for the data writers of the {@link DatabaseDataIO}.
+ *
+ * @version $Revision: $
+ */
+class FastXmlStreamWriter implements XMLStreamWriter
+{
+    /** The size of the character buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Woodstox escapes texts of at least this length in chunks, see {@link #writeCharacters(String)}. */
+    private static final int MIN_CHUNKED_TEXT_LENGTH = 12;
+    /** The size of the chunks in which Woodstox escapes longer texts. */
+    private static final int TEXT_CHUNK_SIZE = 512;
+    /** The first character that is written as a character reference. */
+    private static final char FIRST_CHAR_AS_REFERENCE = 0xFFFE;
+    /** The first high surrogate character. */
+    private static final char MIN_HIGH_SURROGATE = 0xD800;
+    /** The first low surrogate character. */
+    private static final char MIN_LOW_SURROGATE = 0xDC00;
+    /** The last low surrogate character. */
+    private static final char MAX_LOW_SURROGATE = 0xDFFF;
+    /** Marks characters in the escape tables that are not allowed in XML. */
+    private static final String ILLEGAL_CHAR = "";
+    /** The escape strings for the characters up to and including '&gt;' in attribute values. */
+    private static final String[] ATTRIBUTE_ESCAPES = new String['>' + 1];
+    /** The escape strings for the characters up to and including '&gt;' in text. */
+    private static final String[] TEXT_ESCAPES = new String['>' + 1];
+
+    static
+    {
+        for (int idx = 0; idx < ' '; idx++)
+        {
+            ATTRIBUTE_ESCAPES[idx] = ILLEGAL_CHAR;
+            TEXT_ESCAPES[idx]      = ILLEGAL_CHAR;
+        }
+        ATTRIBUTE_ESCAPES['\t'] = "&#x9;";
+        ATTRIBUTE_ESCAPES['\n'] = "&#xa;";
+        ATTRIBUTE_ESCAPES['\r'] = "&#xd;";
+        ATTRIBUTE_ESCAPES['"']  = "&quot;";
+        ATTRIBUTE_ESCAPES['&']  = "&amp;";
+        ATTRIBUTE_ESCAPES['<']  = "&lt;";
+        TEXT_ESCAPES['\t'] = null;
+        TEXT_ESCAPES['\n'] = null;
+        TEXT_ESCAPES['\r'] = "&#xd;";
+        TEXT_ESCAPES['&']  = "&amp;";
+        TEXT_ESCAPES['<']  = "&lt;";
+        // '>' is handled separately
+    }
+
+    /** The writer to write to if the output is a writer. */
+    private Writer _writer;
+    /** The stream to write to if the output is a stream. */
+    private OutputStream _output;
+    /** The character buffer. */
+    private final char[] _buffer = new char[BUFFER_SIZE];
+    /** The number of characters in the buffer. */
+    private int _bufferPos = 0;
+    /** The buffer for the UTF-8 encoded bytes. */
+    private byte[] _byteBuffer;
+    /** The names of the open elements. */
+    private final ArrayList _openElements = new ArrayList();
+    /** Whether the start tag of the current element has not been closed yet. */
+    private boolean _startTagOpen = false;
+
+    /**
+     * Creates a new xml writer that writes UTF-8 encoded XML to the given stream.
+     *
+     * @param output The output stream
+     */
+    public FastXmlStreamWriter(OutputStream output)
+    {
+        _output     = output;
+        // a character needs at most 3 bytes, surrogate pairs need 4 bytes for two characters
+        _byteBuffer = new byte[BUFFER_SIZE * 3];
+    }
+
+    /**
+     * Creates a new xml writer that writes to the given writer.
+     *
+     * @param output The writer
+     */
+    public FastXmlStreamWriter(Writer output)
+    {
+        _writer = output;
+    }
+
+    /**
+     * Determines whether this xml writer can be used for output streams with the given encoding.
+     * These are the names that Woodstox recognizes as UTF-8, e.g. <code>UTF-8</code> or
+     * <code>utf8</code>, but not other aliases of UTF-8.
+     *
+     * @param encoding The encoding
+     * @return <code>true</code> if the encoding is supported
+     */
+    public static boolean isSupportedEncoding(String encoding)
+    {
+        if (encoding == null)
+        {
+            return false;
+        }
+
+        StringBuffer name = new StringBuffer();
+
+        for (int idx = 0; idx < encoding.length(); idx++)
+        {
+            char c = encoding.charAt(idx);
+
+            if ((c != '-') && (c != '_'))
+            {
+                name.append(Character.toUpperCase(c));
+            }
+        }
+        return "UTF8".equals(name.toString());
+    }
+
+    /**
+     * Appends the given character to the buffer.
+     *
+     * @param c The character
+     */
+    private void write(char c) throws XMLStreamException
+    {
+        if (_bufferPos == BUFFER_SIZE)
+        {
+            flushBuffer();
+        }
+        _buffer[_bufferPos++] = c;
+    }
+
+    /**
+     * Appends the given string to the buffer.
+     *
+     * @param text The string
+     */
+    private void write(String text) throws XMLStreamException
+    {
+        write(text, 0, text.length());
+    }
+
+    /**
+     * Appends a part of the given string to the buffer.
+     *
+     * @param text  The string
+     * @param start The index of the first character to append
+     * @param end   The index after the last character to append
+     */
+    private void write(String text, int start, int end) throws XMLStreamException
+    {
+        while (start < end)
+        {
+            if (_bufferPos == BUFFER_SIZE)
+            {
+                flushBuffer();
+            }
+
+            int len = Math.min(end - start, BUFFER_SIZE - _bufferPos);
+
+            text.getChars(start, start + len, _buffer, _bufferPos);
+            _bufferPos += len;
+            start      += len;
+        }
+    }
+
+    /**
+     * Appends a character reference for the given character to the buffer.
+     *
+     * @param c The character
+     */
+    private void writeCharacterReference(int c) throws XMLStreamException
+    {
+        write("&#x");
+        write(Integer.toHexString(c));
+        write(';');
+    }
+
+    /**
+     * Writes the buffer to the output. If the output is a stream, then a high surrogate at
+     * the end of the buffer is kept in the buffer so that it can be encoded together with
+     * the low surrogate that follows it.
+     */
+    private void flushBuffer() throws XMLStreamException
+    {
+        try
+        {
+            if (_writer != null)
+            {
+                _writer.write(_buffer, 0, _bufferPos);
+                _bufferPos = 0;
+            }
+            else
+            {
+                int end = _bufferPos;
+
+                if ((end == BUFFER_SIZE) && isHighSurrogate(_buffer[end - 1]))
+                {
+                    end--;
+                }
+                _output.write(_byteBuffer, 0, encodeUTF8(end));
+                if (end < _bufferPos)
+                {
+                    _buffer[0] = _buffer[end];
+                }
+                _bufferPos -= end;
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new XMLStreamException(ex);
+        }
+    }
+
+    /**
+     * Encodes the given number of characters from the start of the character buffer as UTF-8
+     * into the byte buffer.
+     *
+     * @param numChars The number of characters
+     * @return The number of bytes
+     */
+    private int encodeUTF8(int numChars) throws XMLStreamException
+    {
+        int bytePos = 0;
+
+        for (int idx = 0; idx < numChars; idx++)
+        {
+            char c = _buffer[idx];
+
+            if (c < 0x80)
+            {
+                _byteBuffer[bytePos++] = (byte)c;
+            }
+            else if (c < 0x800)
+            {
+                _byteBuffer[bytePos++] = (byte)(0xC0 | (c >> 6));
+                _byteBuffer[bytePos++] = (byte)(0x80 | (c & 0x3F));
+            }
+            else if ((c < MIN_HIGH_SURROGATE) || (c > MAX_LOW_SURROGATE))
+            {
+                _byteBuffer[bytePos++] = (byte)(0xE0 | (c >> 12));
+                _byteBuffer[bytePos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                _byteBuffer[bytePos++] = (byte)(0x80 | (c & 0x3F));
+            }
+            else if (isHighSurrogate(c) && (idx + 1 < numChars) && (_buffer[idx + 1] >= MIN_LOW_SURROGATE) && (_buffer[idx + 1] <= MAX_LOW_SURROGATE))
+            {
+                int codePoint = 0x10000 + ((c - MIN_HIGH_SURROGATE) << 10) + (_buffer[++idx] - MIN_LOW_SURROGATE);
+
+                _byteBuffer[bytePos++] = (byte)(0xF0 | (codePoint >> 18));
+                _byteBuffer[bytePos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                _byteBuffer[bytePos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                _byteBuffer[bytePos++] = (byte)(0x80 | (codePoint & 0x3F));
+            }
+            else
+            {
+                throw new XMLStreamException("Unmatched surrogate character (0x" + Integer.toHexString(c) + ") in the output");
+            }
+        }
+        return bytePos;
+    }
+
+    /**
+     * Determines whether the given character is the first character of a surrogate pair.
+     *
+     * @param c The character
+     * @return <code>true</code> if the character is a high surrogate
+     */
+    private static boolean isHighSurrogate(char c)
+    {
+        return (c >= MIN_HIGH_SURROGATE) && (c < MIN_LOW_SURROGATE);
+    }
+
+    /**
+     * Throws an exception for the given character that is not allowed in XML.
+     *
+     * @param c The character
+     */
+    private void throwIllegalCharacter(char c) throws XMLStreamException
+    {
+        throw new XMLStreamException("Invalid white space character (0x" + Integer.toHexString(c) + ") in text to output");
+    }
+
+    /**
+     * Closes the start tag of the current element if it is still open.
+     */
+    private void closeStartTag() throws XMLStreamException
+    {
+        if (_startTagOpen)
+        {
+            write('>');
+            _startTagOpen = false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeStartDocument() throws XMLStreamException
+    {
+        writeStartDocument(null, "1.0");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeStartDocument(String version) throws XMLStreamException
+    {
+        writeStartDocument(null, version);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException
+    {
+        write("<?xml version='");
+        write(version);
+        write('\'');
+        if ((encoding != null) && (encoding.length() > 0))
+        {
+            write(" encoding='");
+            write(encoding);
+            write('\'');
+        }
+        write("?>");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeStartElement(String localName) throws XMLStreamException
+    {
+        closeStartTag();
+        write('<');
+        write(localName);
+        _openElements.add(localName);
+        _startTagOpen = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeEmptyElement(String localName) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Empty elements are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Empty elements are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Empty elements are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeAttribute(String localName, String value) throws XMLStreamException
+    {
+        if (!_startTagOpen)
+        {
+            throw new XMLStreamException("Cannot write the attribute " + localName + " outside of a start tag");
+        }
+        write(' ');
+        write(localName);
+        write("=\"");
+
+        int len   = value.length();
+        int start = 0;
+
+        for (int idx = 0; idx < len; idx++)
+        {
+            char c = value.charAt(idx);
+
+            if (c <= '>')
+            {
+                String escape = ATTRIBUTE_ESCAPES[c];
+
+                if (escape != null)
+                {
+                    if (escape == ILLEGAL_CHAR)
+                    {
+                        throwIllegalCharacter(c);
+                    }
+                    write(value, start, idx);
+                    write(escape);
+                    start = idx + 1;
+                }
+            }
+            else if (c >= FIRST_CHAR_AS_REFERENCE)
+            {
+                write(value, start, idx);
+                writeCharacterReference(c);
+                start = idx + 1;
+            }
+        }
+        write(value, start, len);
+        write('"');
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeEndElement() throws XMLStreamException
+    {
+        if (_openElements.isEmpty())
+        {
+            throw new XMLStreamException("No element to close");
+        }
+
+        String localName = (String)_openElements.remove(_openElements.size() - 1);
+
+        if (_startTagOpen)
+        {
+            write(" />");
+            _startTagOpen = false;
+        }
+        else
+        {
+            write("</");
+            write(localName);
+            write('>');
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeEndDocument() throws XMLStreamException
+    {
+        closeStartTag();
+        while (!_openElements.isEmpty())
+        {
+            writeEndElement();
+        }
+    }
+
+    /**
+     * Writes the given text. Outside of the root element, only white space is allowed which
+     * is written as is.<br/>
+     * Woodstox escapes a '&gt;' character if it follows a ']' character, or if it is the
+     * first character of the text. In texts of at least 12 characters, which Woodstox copies
+     * in chunks of 512 characters, it also escapes a '&gt;' character if it is the first
+     * character of a chunk or if it follows an escaped character.
+     *
+     * @param text The text
+     */
+    public void writeCharacters(String text) throws XMLStreamException
+    {
+        closeStartTag();
+        if (_openElements.isEmpty())
+        {
+            for (int idx = 0; idx < text.length(); idx++)
+            {
+                if (!Character.isWhitespace(text.charAt(idx)))
+                {
+                    throw new XMLStreamException("Cannot write non-whitespace text outside of the root element");
+                }
+            }
+            write(text);
+            return;
+        }
+
+        int     len     = text.length();
+        boolean chunked = len >= MIN_CHUNKED_TEXT_LENGTH;
+        int     start   = 0;
+
+        for (int idx = 0; idx < len; idx++)
+        {
+            char c = text.charAt(idx);
+
+            if (c < '>')
+            {
+                String escape = TEXT_ESCAPES[c];
+
+                if (escape != null)
+                {
+                    if (escape == ILLEGAL_CHAR)
+                    {
+                        throwIllegalCharacter(c);
+                    }
+                    write(text, start, idx);
+                    write(escape);
+                    start = idx + 1;
+                }
+            }
+            else if (c == '>')
+            {
+                if ((idx == 0) ||
+                    (text.charAt(idx - 1) == ']') ||
+                    (chunked && ((start == idx) || (idx % TEXT_CHUNK_SIZE == 0))))
+                {
+                    write(text, start, idx);
+                    write("&gt;");
+                    start = idx + 1;
+                }
+            }
+            else if (c >= FIRST_CHAR_AS_REFERENCE)
+            {
+                write(text, start, idx);
+                writeCharacterReference(c);
+                start = idx + 1;
+            }
+        }
+        write(text, start, len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException
+    {
+        writeCharacters(new String(text, start, len));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeCData(String data) throws XMLStreamException
+    {
+        closeStartTag();
+        write("<![CDATA[");
+
+        int start = 0;
+        int end   = data.indexOf("]]>");
+
+        // the end marker is split into two CDATA sections
+        while (end >= 0)
+        {
+            write(data, start, end + 2);
+            write("]]><![CDATA[");
+            start = end + 2;
+            end   = data.indexOf("]]>", start);
+        }
+        write(data, start, data.length());
+        write("]]>");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeComment(String data) throws XMLStreamException
+    {
+        closeStartTag();
+        write("<!--");
+
+        int start = 0;
+        int end   = data.indexOf("--");
+
+        // two consecutive hyphens are not allowed in comments
+        while (end >= 0)
+        {
+            write(data, start, end + 1);
+            write(' ');
+            start = end + 1;
+            end   = data.indexOf("--", start);
+        }
+        write(data, start, data.length());
+        if (data.endsWith("-"))
+        {
+            write(' ');
+        }
+        write("-->");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeProcessingInstruction(String target) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Processing instructions are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Processing instructions are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeDTD(String dtd) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("DTDs are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeEntityRef(String name) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Entity references are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getPrefix(String uri) throws XMLStreamException
+    {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setPrefix(String prefix, String uri) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setDefaultNamespace(String uri) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException
+    {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public NamespaceContext getNamespaceContext()
+    {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getProperty(String name) throws IllegalArgumentException
+    {
+        throw new IllegalArgumentException("Unknown property " + name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void flush() throws XMLStreamException
+    {
+        flushBuffer();
+        try
+        {
+            if (_writer != null)
+            {
+                _writer.flush();
+            }
+            else
+            {
+                _output.flush();
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new XMLStreamException(ex);
+        }
+    }
+
+    /**
+     * Flushes the output. Like the StAX implementation, the writer does not close the
+     * underlying stream or writer.
+     */
+    public void close() throws XMLStreamException
+    {
+        flush();
+    }
+}
@@ -19,16 +19,14 @@ package org.apache.ddlutils.io;
  * under the License.
  */
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-
 import org.apache.ddlutils.model.Table;
 
 /**
  * Stores the identity of an database object as defined by its primary keys. Is used
  * by {@link org.apache.ddlutils.io.DataToDatabaseSink} class for inserting objects
- * in the correct order. 
+ * in the correct order. Identities are immutable, and their hash code is computed
+ * once when they are created. Use {@link #newInstance(Table, String, String[], Object[])}
+ * to create them.
  * 
  * @version $Revision: 289996 $
  */
@@ -38,29 +36,75 @@ public class Identity
     private Table _table;
     /** The optional foreign key name whose referenced object this identity represents. */
     private String _fkName;
-    /** The identity columns and their values. */
-    private HashMap _columnValues = new HashMap();
+    /** The names of the identity columns. */
+    private String[] _columnNames;
+    /** The values of the identity columns in the order of the column names. */
+    private Object[] _columnValues;
+    /** The precomputed hash code. */
+    private int _hashCode;
 
     /**
-     * Creates a new identity object for the given table.
+     * Creates a new identity object for the given table. This constructor is intended for
+     * sub classes that store the column values themselves.
      * 
-     * @param table The name of the table
+     * @param table    The table
+     * @param fkName   The name of the foreign key whose referenced object this identity represents
+     * @param hashCode The hash code of the identity
      */
-    public Identity(Table table)
+    protected Identity(Table table, String fkName, int hashCode)
     {
-        _table = table;
+        _table    = table;
+        _fkName   = fkName;
+        _hashCode = hashCode;
     }
 
     /**
-     * Creates a new identity object for the given table.
+     * Creates a new identity object for the given table. Note that the arrays are not copied.
      * 
-     * @param table  The table
-     * @param fkName The name of the foreign key whose referenced object this identity represents
+     * @param table        The table
+     * @param fkName       The name of the foreign key whose referenced object this identity represents
+     * @param columnNames  The names of the identity columns
+     * @param columnValues The values of the identity columns
      */
-    public Identity(Table table, String fkName)
+    private Identity(Table table, String fkName, String[] columnNames, Object[] columnValues)
     {
-        _table  = table;
-        _fkName = fkName;
+        _table        = table;
+        _fkName       = fkName;
+        _columnNames  = columnNames;
+        _columnValues = columnValues;
+
+        int hashCode = table.getName().hashCode();
+
+        for (int idx = 0; idx < columnValues.length; idx++)
+        {
+            hashCode = 31 * hashCode + (columnValues[idx] == null ? 0 : columnValues[idx].hashCode());
+        }
+        _hashCode = hashCode;
+    }
+
+    /**
+     * Creates a new identity object for the given table. Identities of one table that shall be
+     * equal, have to specify the columns in the same order. An identity consisting of a single
+     * integral number value is represented by a {@link NumericIdentity}. Note that the given
+     * arrays are not copied, so they must not be changed afterwards.
+     * 
+     * @param table        The table
+     * @param fkName       The name of the foreign key whose referenced object this identity
+     *                     represents, or <code>null</code>
+     * @param columnNames  The names of the identity columns
+     * @param columnValues The values of the identity columns
+     * @return The identity
+     */
+    public static Identity newInstance(Table table, String fkName, String[] columnNames, Object[] columnValues)
+    {
+        if ((columnValues.length == 1) && NumericIdentity.isIntegralNumber(columnValues[0]))
+        {
+            return new NumericIdentity(table, fkName, columnNames[0], columnValues[0]);
+        }
+        else
+        {
+            return new Identity(table, fkName, columnNames, columnValues);
+        }
     }
 
     /**
@@ -84,55 +128,81 @@ public class Identity
     {
         return _fkName;
     }
-    
+
     /**
-     * Specifies the value of the indicated identity columns.
+     * Returns the number of identity columns.
      * 
-     * @param name  The column name
-     * @param value The value for the column
+     * @return The number of columns
      */
-    public void setColumnValue(String name, Object value)
+    public int getColumnCount()
     {
-        _columnValues.put(name, value);
+        return _columnNames.length;
     }
 
     /**
-     * Returns the value of the indicated identity columns.
+     * Returns the name of the indicated identity column.
      * 
-     * @param name  The column name
+     * @param idx The index of the column
+     * @return The column name
+     */
+    public String getColumnName(int idx)
+    {
+        return _columnNames[idx];
+    }
+
+    /**
+     * Returns the value of the indicated identity column.
+     * 
+     * @param idx The index of the column
      * @return The column's value
      */
-    public Object getColumnValue(String name)
+    public Object getColumnValue(int idx)
     {
-        return _columnValues.get(name);
+        return _columnValues[idx];
     }
 
     /**
-     * {@inheritDoc}
+     * Returns the value of the indicated identity columns.
+     * 
+     * @param name  The column name
+     * @return The column's value
      */
-    public boolean equals(Object obj)
+    public Object getColumnValue(String name)
     {
-        if (!(obj instanceof Identity))
+        for (int idx = 0; idx < _columnNames.length; idx++)
         {
-            return false;
+            if (_columnNames[idx].equals(name))
+            {
+                return _columnValues[idx];
+            }
         }
+        return null;
+    }
 
-        Identity otherIdentity = (Identity)obj;
-
-        if (!_table.equals(otherIdentity._table))
-        {
-            return false;
-        }
-        if (_columnValues.keySet().size() != otherIdentity._columnValues.keySet().size())
+    /**
+     * Determines whether the given identity has the same column values as this identity. The
+     * tables of both identities have already been found to be equal.
+     * 
+     * @param otherIdentity The other identity
+     * @return <code>true</code> if both identities have the same column values
+     */
+    protected boolean hasSameColumnValues(Identity otherIdentity)
+    {
+        if ((otherIdentity.getClass() != Identity.class) ||
+            (_columnValues.length != otherIdentity._columnValues.length))
         {
             return false;
         }
-        for (Iterator it = _columnValues.entrySet().iterator(); it.hasNext();)
+        for (int idx = 0; idx < _columnValues.length; idx++)
         {
-            Map.Entry entry      = (Map.Entry)it.next();
-            Object    otherValue = otherIdentity._columnValues.get(entry.getKey());
+            Object value      = _columnValues[idx];
+            Object otherValue = otherIdentity._columnValues[idx];
 
-            if (entry.getValue() == null)
+            if (!_columnNames[idx].equals(otherIdentity._columnNames[idx]))
+            {
+                return false;
+            }
+            if (value == null)
             {
                 if (otherValue != null)
                 {
@@ -141,22 +211,51 @@ public class Identity
             }
             else
             {
-                if (!entry.getValue().equals(otherValue))
+                if (!value.equals(otherValue))
                 {
                     return false;
                 }
             }
         }
-        
         return true;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj)
+    {
+        if (obj == this)
+        {
+            return true;
+        }
+        if (!(obj instanceof Identity))
+        {
+            return false;
+        }
+
+        Identity otherIdentity = (Identity)obj;
+
+        if (_hashCode != otherIdentity._hashCode)
+        {
+            return false;
+        }
+        // identities are usually created for the tables of the same model, so we can
+        // avoid the rather costly table comparison in most cases
+        if ((_table != otherIdentity._table) &&
+            (!_table.getName().equals(otherIdentity._table.getName()) || !_table.equals(otherIdentity._table)))
+        {
+            return false;
+        }
+        return hasSameColumnValues(otherIdentity);
+    }
+
     /**
      * {@inheritDoc}
      */
     public int hashCode()
     {
-        return toString().hashCode();
+        return _hashCode;
     }
 
     /**
@@ -168,17 +267,15 @@ public class Identity
 
         buffer.append(_table.getName());
         buffer.append(":");
-        for (Iterator it = _columnValues.entrySet().iterator(); it.hasNext();)
+        for (int idx = 0; idx < _columnNames.length; idx++)
         {
-            Map.Entry entry = (Map.Entry)it.next();
-
-            buffer.append(entry.getKey());
-            buffer.append("=");
-            buffer.append(entry.getValue());
-            if (it.hasNext())
+            if (idx > 0)
             {
                 buffer.append(";");
             }
+            buffer.append(_columnNames[idx]);
+            buffer.append("=");
+            buffer.append(_columnValues[idx]);
         }
         return buffer.toString();
     }
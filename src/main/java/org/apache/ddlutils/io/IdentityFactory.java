@@ -0,0 +1,222 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.IdentityHashMap;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.model.Column;
+import org.apache.ddlutils.model.ForeignKey;
+import org.apache.ddlutils.model.Reference;
+import org.apache.ddlutils.model.Table;
+
+/**
+ * Creates {@link Identity} objects for beans. The column names for the primary keys and the
+ * foreign keys are determined once per table and foreign key, and then reused for all beans.
+ * Note that instances of this class are not thread-safe.
+ * 
+ * @version $Revision: $
+ */
+public class IdentityFactory
+{
+    /** The primary key column names per table. */
+    private IdentityHashMap _pkColumnNames = new IdentityHashMap();
+    /** The local and foreign column names per foreign key, ordered like the primary key of the referenced table. */
+    private IdentityHashMap _fkColumnNames = new IdentityHashMap();
+    /** The names of the foreign keys. */
+    private IdentityHashMap _fkNames = new IdentityHashMap();
+
+    /**
+     * Builds an identity object from the primary keys of the specified table using the
+     * column values of the supplied bean.
+     * 
+     * @param table The table
+     * @param bean  The bean
+     * @return The identity
+     */
+    public Identity buildIdentityFromPKs(Table table, DynaBean bean)
+    {
+        String[] columnNames = getPrimaryKeyColumnNames(table);
+        Object[] values      = new Object[columnNames.length];
+
+        for (int idx = 0; idx < columnNames.length; idx++)
+        {
+            values[idx] = bean.get(columnNames[idx]);
+        }
+        return Identity.newInstance(table, null, columnNames, values);
+    }
+
+    /**
+     * Builds an identity object for the specified foreign key using the foreignkey column values
+     * of the supplied bean. The identity is equal to the identity of the referenced row as
+     * returned by {@link #buildIdentityFromPKs(Table, DynaBean)}.
+     * 
+     * @param owningTable The table owning the foreign key
+     * @param fk          The foreign key
+     * @param bean        The bean
+     * @return The identity or <code>null</code> if one of the foreign key columns is <code>null</code>
+     */
+    public Identity buildIdentityFromFK(Table owningTable, ForeignKey fk, DynaBean bean)
+    {
+        String[][] columnNames = getForeignKeyColumnNames(fk);
+        Object[]   values      = new Object[columnNames[0].length];
+
+        for (int idx = 0; idx < values.length; idx++)
+        {
+            values[idx] = bean.get(columnNames[0][idx]);
+            if (values[idx] == null)
+            {
+                return null;
+            }
+        }
+        return Identity.newInstance(fk.getForeignTable(), getForeignKeyName(owningTable, fk), columnNames[1], values);
+    }
+
+    /**
+     * Returns the name of the given foreign key. If it has no name, then a temporary one
+     * is generated from the names of the relevant tables and columns.
+     *
+     * @param owningTable The table owning the fk
+     * @param fk          The foreign key
+     * @return The name
+     */
+    public String getForeignKeyName(Table owningTable, ForeignKey fk)
+    {
+        if ((fk.getName() != null) && (fk.getName().length() > 0))
+        {
+            return fk.getName();
+        }
+
+        String name = (String)_fkNames.get(fk);
+
+        if (name == null)
+        {
+            StringBuffer result = new StringBuffer();
+
+            result.append(owningTable.getName());
+            result.append("[");
+            for (int idx = 0; idx < fk.getReferenceCount(); idx++)
+            {
+                if (idx > 0)
+                {
+                    result.append(",");
+                }
+                result.append(fk.getReference(idx).getLocalColumnName());
+            }
+            result.append("]->");
+            result.append(fk.getForeignTableName());
+            result.append("[");
+            for (int idx = 0; idx < fk.getReferenceCount(); idx++)
+            {
+                if (idx > 0)
+                {
+                    result.append(",");
+                }
+                result.append(fk.getReference(idx).getForeignColumnName());
+            }
+            result.append("]");
+            name = result.toString();
+            _fkNames.put(fk, name);
+        }
+        return name;
+    }
+
+    /**
+     * Returns the names of the primary key columns of the given table.
+     * 
+     * @param table The table
+     * @return The column names
+     */
+    private String[] getPrimaryKeyColumnNames(Table table)
+    {
+        String[] result = (String[])_pkColumnNames.get(table);
+
+        if (result == null)
+        {
+            Column[] pkColumns = table.getPrimaryKeyColumns();
+
+            result = new String[pkColumns.length];
+            for (int idx = 0; idx < pkColumns.length; idx++)
+            {
+                result[idx] = pkColumns[idx].getName();
+            }
+            _pkColumnNames.put(table, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names of the local and of the foreign columns of the given foreign key. If the
+     * foreign key references the primary key of the foreign table, then the columns are ordered
+     * in the same way as the primary key columns.
+     * 
+     * @param fk The foreign key
+     * @return The local column names (index 0) and foreign column names (index 1)
+     */
+    private String[][] getForeignKeyColumnNames(ForeignKey fk)
+    {
+        String[][] result = (String[][])_fkColumnNames.get(fk);
+
+        if (result == null)
+        {
+            int         numRefs     = fk.getReferenceCount();
+            Reference[] refs        = new Reference[numRefs];
+            String[]    pkNames     = fk.getForeignTable() == null ? new String[0] : getPrimaryKeyColumnNames(fk.getForeignTable());
+            boolean     refersToPks = (pkNames.length == numRefs);
+
+            for (int pkIdx = 0; refersToPks && (pkIdx < pkNames.length); pkIdx++)
+            {
+                for (int refIdx = 0; refIdx < numRefs; refIdx++)
+                {
+                    if (pkNames[pkIdx].equals(getForeignColumnName(fk.getReference(refIdx))))
+                    {
+                        refs[pkIdx] = fk.getReference(refIdx);
+                        break;
+                    }
+                }
+                refersToPks = (refs[pkIdx] != null);
+            }
+            if (!refersToPks)
+            {
+                refs = fk.getReferences();
+            }
+            result = new String[][] { new String[numRefs], new String[numRefs] };
+            for (int idx = 0; idx < numRefs; idx++)
+            {
+                result[0][idx] = refs[idx].getLocalColumnName();
+                result[1][idx] = getForeignColumnName(refs[idx]);
+            }
+            _fkColumnNames.put(fk, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the name of the foreign column of the given reference, preferably as defined
+     * by the column itself.
+     * 
+     * @param ref The reference
+     * @return The column name
+     */
+    private String getForeignColumnName(Reference ref)
+    {
+        return ref.getForeignColumn() != null ? ref.getForeignColumn().getName() : ref.getForeignColumnName();
+    }
+}
@@ -0,0 +1,153 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.ddlutils.model.Table;
+
+/**
+ * Identity of a database object whose primary key consists of a single column with an
+ * integral number value. The value is stored as a primitive <code>long</code> which makes
+ * hashing and comparing these identities cheap.
+ * 
+ * @version $Revision: $
+ */
+public class NumericIdentity extends Identity
+{
+    /** The name of the identity column. */
+    private String _columnName;
+    /** The original value of the identity column. */
+    private Object _columnValue;
+    /** The value of the identity column as a number. */
+    private long _number;
+
+    /**
+     * Creates a new numeric identity object for the given table.
+     * 
+     * @param table       The table
+     * @param fkName      The name of the foreign key whose referenced object this identity represents
+     * @param columnName  The name of the identity column
+     * @param columnValue The value of the identity column, one of <code>Byte</code>, <code>Short</code>,
+     *                    <code>Integer</code> or <code>Long</code>
+     */
+    public NumericIdentity(Table table, String fkName, String columnName, Object columnValue)
+    {
+        super(table, fkName, computeHashCode(table, ((Number)columnValue).longValue()));
+        _columnName  = columnName;
+        _columnValue = columnValue;
+        _number      = ((Number)columnValue).longValue();
+    }
+
+    /**
+     * Determines whether the given value can be stored in a numeric identity.
+     * 
+     * @param value The value
+     * @return <code>true</code> if the value is an integral number that fits into a <code>long</code>
+     */
+    public static boolean isIntegralNumber(Object value)
+    {
+        return (value instanceof Integer) || (value instanceof Long) ||
+               (value instanceof Short)   || (value instanceof Byte);
+    }
+
+    /**
+     * Computes the hash code for a numeric identity.
+     * 
+     * @param table  The table
+     * @param number The column value
+     * @return The hash code
+     */
+    private static int computeHashCode(Table table, long number)
+    {
+        return 31 * table.getName().hashCode() + (int)(number ^ (number >>> 32));
+    }
+
+    /**
+     * Returns the value of the identity column as a number.
+     * 
+     * @return The number
+     */
+    public long getNumber()
+    {
+        return _number;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getColumnCount()
+    {
+        return 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getColumnName(int idx)
+    {
+        if (idx != 0)
+        {
+            throw new IndexOutOfBoundsException("Invalid column index " + idx);
+        }
+        return _columnName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getColumnValue(int idx)
+    {
+        if (idx != 0)
+        {
+            throw new IndexOutOfBoundsException("Invalid column index " + idx);
+        }
+        return _columnValue;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getColumnValue(String name)
+    {
+        return _columnName.equals(name) ? _columnValue : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean hasSameColumnValues(Identity otherIdentity)
+    {
+        if (!(otherIdentity instanceof NumericIdentity))
+        {
+            return false;
+        }
+
+        NumericIdentity otherNumericIdentity = (NumericIdentity)otherIdentity;
+
+        return (_number == otherNumericIdentity._number) && _columnName.equals(otherNumericIdentity._columnName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return getTable().getName() + ":" + _columnName + "=" + _columnValue;
+    }
+}
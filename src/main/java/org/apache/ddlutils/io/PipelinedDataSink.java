@@ -0,0 +1,327 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.LinkedList;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Data sink that hands the beans to another sink running in a separate writer thread. The
+ * beans are passed via a bounded queue so that the thread that reads the beans (e.g. the
+ * {@link org.apache.ddlutils.io.DataReader} parsing the data XML) can continue while the
+ * other sink writes the previous beans to the database. If the queue is full, adding a bean
+ * blocks until the writer thread has taken a bean from the queue.<br/>
+ * The beans are passed to the other sink in the order in which they were added. If the other
+ * sink fails, the writer thread stops, the queued beans are discarded and the error is thrown
+ * by the next call to {@link #addBean(DynaBean)} or by {@link #end()}. Note that there is only
+ * one writer thread as the {@link org.apache.ddlutils.io.DataToDatabaseSink} relies on the order
+ * of the beans; use its thread count to insert tables concurrently.
+ *
+ * @version $Revision: $
+ */
+public class PipelinedDataSink implements DataSink
+{
+    /** Our log. */
+    private final Log _log = LogFactory.getLog(PipelinedDataSink.class);
+
+    /** The sink that receives the beans in the writer thread. */
+    private final DataSink _sink;
+    /** The maximum number of queued beans. */
+    private final int _queueSize;
+    /** The queued beans and source markers; also used as the lock. */
+    private final LinkedList _queue = new LinkedList();
+    /** Whether all beans have been added. */
+    private boolean _ended;
+    /** The error that stopped the writer thread, if any. */
+    private Throwable _error;
+    /** Whether the error has already been thrown to the reading thread. */
+    private boolean _errorReported;
+    /** The writer thread. */
+    private Thread _writer;
+
+    /**
+     * Creates a new sink instance.
+     *
+     * @param sink      The sink that shall receive the beans
+     * @param queueSize The maximum number of beans that are queued for the sink
+     */
+    public PipelinedDataSink(DataSink sink, int queueSize)
+    {
+        if (queueSize < 1)
+        {
+            throw new IllegalArgumentException("The queue size must be at least 1");
+        }
+        _sink      = sink;
+        _queueSize = queueSize;
+    }
+
+    /**
+     * Returns the sink that receives the beans.
+     *
+     * @return The sink
+     */
+    public DataSink getSink()
+    {
+        return _sink;
+    }
+
+    /**
+     * Returns the maximum number of beans that are queued for the sink.
+     *
+     * @return The number of beans
+     */
+    public int getQueueSize()
+    {
+        return _queueSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start() throws DataSinkException
+    {
+        synchronized (_queue)
+        {
+            _queue.clear();
+            _ended         = false;
+            _error         = null;
+            _errorReported = false;
+        }
+        _sink.start();
+        _writer = new WriterThread();
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addBean(DynaBean bean) throws DataSinkException
+    {
+        enqueue(bean);
+    }
+
+    /**
+     * Notifies the sink that the following beans come from the given source. This is passed on
+     * in order with the beans if the receiving sink is a {@link DataToDatabaseSink}.
+     *
+     * @param source The name of the source
+     * @see DataToDatabaseSink#startSource(String)
+     */
+    public void startSource(String source) throws DataSinkException
+    {
+        enqueue(new SourceStart(source));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void end() throws DataSinkException
+    {
+        if (_writer != null)
+        {
+            synchronized (_queue)
+            {
+                _ended = true;
+                _queue.notifyAll();
+            }
+            try
+            {
+                _writer.join();
+            }
+            catch (InterruptedException ex)
+            {
+                throw new DataSinkException(ex);
+            }
+            _writer = null;
+        }
+
+        Throwable error = null;
+
+        synchronized (_queue)
+        {
+            if (!_errorReported)
+            {
+                error          = _error;
+                _errorReported = true;
+            }
+        }
+        if (error == null)
+        {
+            _sink.end();
+        }
+        else
+        {
+            try
+            {
+                _sink.end();
+            }
+            catch (RuntimeException ex)
+            {
+                _log.warn("Could not end the sink after the error while writing the beans", ex);
+            }
+            throw toDataSinkException(error);
+        }
+    }
+
+    /**
+     * Adds the given object to the queue, waiting until there is room in the queue.
+     *
+     * @param obj The bean or source marker
+     */
+    private void enqueue(Object obj) throws DataSinkException
+    {
+        synchronized (_queue)
+        {
+            while ((_error == null) && (_queue.size() >= _queueSize))
+            {
+                try
+                {
+                    _queue.wait();
+                }
+                catch (InterruptedException ex)
+                {
+                    throw new DataSinkException(ex);
+                }
+            }
+            if (_error != null)
+            {
+                _errorReported = true;
+                throw toDataSinkException(_error);
+            }
+            _queue.add(obj);
+            _queue.notifyAll();
+        }
+    }
+
+    /**
+     * Converts the given error of the writer thread into a data sink exception.
+     *
+     * @param error The error
+     * @return The exception
+     */
+    private DataSinkException toDataSinkException(Throwable error)
+    {
+        if (error instanceof DataSinkException)
+        {
+            return (DataSinkException)error;
+        }
+        else
+        {
+            return new DataSinkException(error);
+        }
+    }
+
+    /**
+     * Marks the start of a source in the queue.
+     */
+    private static class SourceStart
+    {
+        /** The name of the source. */
+        private final String _source;
+
+        /**
+         * Creates a new marker.
+         *
+         * @param source The name of the source
+         */
+        public SourceStart(String source)
+        {
+            _source = source;
+        }
+
+        /**
+         * Returns the name of the source.
+         *
+         * @return The name
+         */
+        public String getSource()
+        {
+            return _source;
+        }
+    }
+
+    /**
+     * Thread that takes the beans from the queue and adds them to the sink.
+     */
+    private class WriterThread extends Thread
+    {
+        /**
+         * {@inheritDoc}
+         */
+        public void run()
+        {
+            while (true)
+            {
+                Object obj = null;
+
+                synchronized (_queue)
+                {
+                    while (_queue.isEmpty() && !_ended)
+                    {
+                        try
+                        {
+                            _queue.wait();
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            _error = ex;
+                            _queue.notifyAll();
+                            return;
+                        }
+                    }
+                    if (_queue.isEmpty())
+                    {
+                        return;
+                    }
+                    obj = _queue.removeFirst();
+                    _queue.notifyAll();
+                }
+                try
+                {
+                    if (obj instanceof SourceStart)
+                    {
+                        if (_sink instanceof DataToDatabaseSink)
+                        {
+                            ((DataToDatabaseSink)_sink).startSource(((SourceStart)obj).getSource());
+                        }
+                    }
+                    else
+                    {
+                        _sink.addBean((DynaBean)obj);
+                    }
+                }
+                catch (Throwable ex)
+                {
+                    synchronized (_queue)
+                    {
+                        _error = ex;
+                        _queue.clear();
+                        _queue.notifyAll();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -126,6 +126,19 @@ public class PrettyPrintingXmlWriter
         }
     }
 
+    /**
+     * Creates a xml writer instance that uses the given xml stream writer. Note that the stream
+     * writer needs to write in the specified encoding.
+     * 
+     * @param writer   The xml stream writer
+     * @param encoding The encoding of the stream writer
+     */
+    PrettyPrintingXmlWriter(XMLStreamWriter writer, String encoding)
+    {
+        _writer   = writer;
+        _encoding = encoding;
+    }
+
     /**
      * Returnd the encoding used by this xml writer.
      * 
@@ -374,6 +387,40 @@ public class PrettyPrintingXmlWriter
         }
     }
 
+    /**
+     * Writes a comment. As XML comments must not contain two consecutive hyphens or end with
+     * a hyphen, a space is inserted where necessary.
+     * 
+     * @param comment The comment to write
+     */
+    public void writeComment(String comment) throws DdlUtilsXMLException
+    {
+        if (comment != null)
+        {
+            StringBuffer text = new StringBuffer(comment);
+
+            for (int idx = text.length() - 1; idx > 0; idx--)
+            {
+                if ((text.charAt(idx) == '-') && (text.charAt(idx - 1) == '-'))
+                {
+                    text.insert(idx, ' ');
+                }
+            }
+            if ((text.length() > 0) && (text.charAt(text.length() - 1) == '-'))
+            {
+                text.append(' ');
+            }
+            try
+            {
+                _writer.writeComment(text.toString());
+            }
+            catch (XMLStreamException ex)
+            {
+                throwException(ex);
+            }
+        }
+    }
+
     /**
      * Writes a text segment.
      * 
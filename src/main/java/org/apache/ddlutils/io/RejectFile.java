@@ -0,0 +1,141 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.ddlutils.dynabean.SqlDynaBean;
+
+/**
+ * The file that the {@link org.apache.ddlutils.io.DataToDatabaseSink} writes the rows to that
+ * could not be inserted into the database. The file uses the format of the
+ * {@link org.apache.ddlutils.io.DataWriter}, so that the rows can be corrected and loaded
+ * again. Each row is preceded by a comment containing the error message of the database.
+ * The file is only created when the first row is rejected. The methods of this class are
+ * thread-safe so that the file can be shared by the sinks that insert tables concurrently.
+ *
+ * @version $Revision: $
+ */
+public class RejectFile
+{
+    /** The encoding of the file. */
+    private static final String ENCODING = "UTF-8";
+
+    /** The file. */
+    private final File _file;
+    /** The writer, created when the first row is rejected. */
+    private DataWriter _writer;
+    /** The stream underlying the writer. */
+    private FileOutputStream _output;
+    /** The number of rejected rows. */
+    private int _numRows = 0;
+
+    /**
+     * Creates a new reject file.
+     *
+     * @param file The file
+     */
+    public RejectFile(File file)
+    {
+        _file = file;
+    }
+
+    /**
+     * Returns the file.
+     *
+     * @return The file
+     */
+    public File getFile()
+    {
+        return _file;
+    }
+
+    /**
+     * Returns the number of rows written to the file so far.
+     *
+     * @return The number of rows
+     */
+    public synchronized int getNumRows()
+    {
+        return _numRows;
+    }
+
+    /**
+     * Writes the given row to the file.
+     *
+     * @param bean    The row
+     * @param message The error message of the database
+     */
+    public synchronized void reject(SqlDynaBean bean, String message) throws DataSinkException
+    {
+        try
+        {
+            if (_writer == null)
+            {
+                _output = new FileOutputStream(_file);
+                _writer = new DataWriter(_output, ENCODING);
+                _writer.writeDocumentStart();
+            }
+            _writer.indentIfPrettyPrinting(1);
+            _writer.writeComment(" " + message + " ");
+            _writer.printlnIfPrettyPrinting();
+            _writer.write(bean);
+            _numRows++;
+        }
+        catch (IOException ex)
+        {
+            throw new DataSinkException("Could not write the rejected row to the file " + _file.getAbsolutePath(), ex);
+        }
+        catch (DdlUtilsXMLException ex)
+        {
+            throw new DataSinkException("Could not write the rejected row to the file " + _file.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * Finishes and closes the file if rows have been written to it.
+     */
+    public synchronized void close() throws DataSinkException
+    {
+        if (_writer != null)
+        {
+            try
+            {
+                _writer.writeDocumentEnd();
+                _output.close();
+            }
+            catch (IOException ex)
+            {
+                throw new DataSinkException("Could not close the file " + _file.getAbsolutePath(), ex);
+            }
+            catch (DdlUtilsXMLException ex)
+            {
+                throw new DataSinkException("Could not close the file " + _file.getAbsolutePath(), ex);
+            }
+            finally
+            {
+                _writer = null;
+                _output = null;
+            }
+        }
+    }
+}
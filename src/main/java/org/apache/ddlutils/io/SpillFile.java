@@ -0,0 +1,482 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.dynabean.SqlDynaClass;
+import org.apache.ddlutils.model.Database;
+import org.apache.ddlutils.model.Table;
+
+/**
+ * A temporary file that beans and identities can be written to and read back from. It
+ * is used by the {@link org.apache.ddlutils.io.DataToDatabaseSink} to move data out of
+ * the memory during huge loads. Records are appended to the file, and are identified by
+ * their position in the file. The file is deleted when it is closed.
+ * 
+ * @version $Revision: $
+ */
+public class SpillFile
+{
+    /** Type tag for <code>null</code> values. */
+    private static final byte TYPE_NULL = 0;
+    /** Type tag for string values. */
+    private static final byte TYPE_STRING = 1;
+    /** Type tag for integer values. */
+    private static final byte TYPE_INTEGER = 2;
+    /** Type tag for long values. */
+    private static final byte TYPE_LONG = 3;
+    /** Type tag for short values. */
+    private static final byte TYPE_SHORT = 4;
+    /** Type tag for byte values. */
+    private static final byte TYPE_BYTE = 5;
+    /** Type tag for boolean values. */
+    private static final byte TYPE_BOOLEAN = 6;
+    /** Type tag for double values. */
+    private static final byte TYPE_DOUBLE = 7;
+    /** Type tag for float values. */
+    private static final byte TYPE_FLOAT = 8;
+    /** Type tag for big decimal values. */
+    private static final byte TYPE_BIGDECIMAL = 9;
+    /** Type tag for big integer values. */
+    private static final byte TYPE_BIGINTEGER = 10;
+    /** Type tag for sql date values. */
+    private static final byte TYPE_SQLDATE = 11;
+    /** Type tag for time values. */
+    private static final byte TYPE_TIME = 12;
+    /** Type tag for timestamp values. */
+    private static final byte TYPE_TIMESTAMP = 13;
+    /** Type tag for byte array values. */
+    private static final byte TYPE_BYTES = 14;
+    /** Type tag for other values which are written via java serialization. */
+    private static final byte TYPE_SERIALIZED = 15;
+
+    /** The database model. */
+    private Database _model;
+    /** The file. */
+    private File _file;
+    /** The random access file used for reading and writing. */
+    private RandomAccessFile _data;
+    /** The buffer for serializing one record. */
+    private ByteArrayOutputStream _buffer = new ByteArrayOutputStream();
+
+    /**
+     * Creates a new spill file.
+     * 
+     * @param model The database model which is used to resolve tables when reading records
+     */
+    public SpillFile(Database model) throws IOException
+    {
+        _model = model;
+        _file  = File.createTempFile("ddlutils", ".spill");
+        _file.deleteOnExit();
+        _data  = new RandomAccessFile(_file, "rw");
+    }
+
+    /**
+     * Appends the given bean to this file.
+     * 
+     * @param bean The bean
+     * @return The position of the bean in the file
+     */
+    public long writeBean(DynaBean bean) throws IOException
+    {
+        DataOutputStream output = startRecord();
+
+        writeBean(output, bean);
+        return finishRecord(output);
+    }
+
+    /**
+     * Reads the bean at the given position.
+     * 
+     * @param position The position of the bean
+     * @return The bean
+     */
+    public DynaBean readBean(long position) throws IOException
+    {
+        return readBean(readRecord(position), _model);
+    }
+
+    /**
+     * Writes the given bean to the given stream in the format that is used for the beans
+     * in spill files.
+     * 
+     * @param output The output stream
+     * @param bean   The bean
+     */
+    static void writeBean(DataOutputStream output, DynaBean bean) throws IOException
+    {
+        Table table = ((SqlDynaClass)bean.getDynaClass()).getTable();
+
+        output.writeUTF(table.getName());
+        output.writeInt(table.getColumnCount());
+        for (int idx = 0; idx < table.getColumnCount(); idx++)
+        {
+            writeValue(output, bean.get(table.getColumn(idx).getName()));
+        }
+    }
+
+    /**
+     * Reads a bean that has been written via {@link #writeBean(DataOutputStream, DynaBean)}.
+     * 
+     * @param input The input stream
+     * @param model The database model which is used to resolve the table of the bean
+     * @return The bean
+     */
+    static DynaBean readBean(DataInputStream input, Database model) throws IOException
+    {
+        String tableName = input.readUTF();
+        Table  table     = model.findTable(tableName, true);
+
+        if (table == null)
+        {
+            throw new IOException("Unknown table " + tableName + " in temporary file");
+        }
+
+        DynaBean bean  = model.createDynaBeanFor(table);
+        int      count = input.readInt();
+
+        for (int idx = 0; idx < count; idx++)
+        {
+            bean.set(table.getColumn(idx).getName(), readValue(input));
+        }
+        return bean;
+    }
+
+    /**
+     * Appends the given identities to this file.
+     * 
+     * @param identities The identities; individual identities can be <code>null</code>
+     * @return The position of the identities in the file
+     */
+    public long writeIdentities(Identity[] identities) throws IOException
+    {
+        DataOutputStream output = startRecord();
+
+        output.writeInt(identities.length);
+        for (int idx = 0; idx < identities.length; idx++)
+        {
+            Identity identity = identities[idx];
+
+            output.writeBoolean(identity != null);
+            if (identity != null)
+            {
+                output.writeUTF(identity.getTable().getName());
+                output.writeInt(identity.getColumnCount());
+                for (int columnIdx = 0; columnIdx < identity.getColumnCount(); columnIdx++)
+                {
+                    output.writeUTF(identity.getColumnName(columnIdx));
+                    writeValue(output, identity.getColumnValue(columnIdx));
+                }
+            }
+        }
+        return finishRecord(output);
+    }
+
+    /**
+     * Reads the identities at the given position.
+     * 
+     * @param position The position of the identities
+     * @return The identities
+     */
+    public Identity[] readIdentities(long position) throws IOException
+    {
+        DataInputStream input  = readRecord(position);
+        Identity[]      result = new Identity[input.readInt()];
+
+        for (int idx = 0; idx < result.length; idx++)
+        {
+            if (input.readBoolean())
+            {
+                Table    table        = findTable(input.readUTF());
+                int      numColumns   = input.readInt();
+                String[] columnNames  = new String[numColumns];
+                Object[] columnValues = new Object[numColumns];
+
+                for (int columnIdx = 0; columnIdx < numColumns; columnIdx++)
+                {
+                    columnNames[columnIdx]  = input.readUTF();
+                    columnValues[columnIdx] = readValue(input);
+                }
+                result[idx] = Identity.newInstance(table, null, columnNames, columnValues);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Closes and deletes this file.
+     */
+    public void close()
+    {
+        try
+        {
+            _data.close();
+        }
+        catch (IOException ex)
+        {
+            // ignored, we're only deleting the file
+        }
+        _file.delete();
+    }
+
+    /**
+     * Returns the table with the given name.
+     * 
+     * @param name The table name
+     * @return The table
+     */
+    private Table findTable(String name) throws IOException
+    {
+        Table table = _model.findTable(name, true);
+
+        if (table == null)
+        {
+            throw new IOException("Unknown table " + name + " in spill file " + _file.getAbsolutePath());
+        }
+        return table;
+    }
+
+    /**
+     * Starts a new record.
+     * 
+     * @return The output stream to write the record to
+     */
+    private DataOutputStream startRecord()
+    {
+        _buffer.reset();
+        return new DataOutputStream(_buffer);
+    }
+
+    /**
+     * Appends the current record to the file.
+     * 
+     * @param output The output stream of the record
+     * @return The position of the record in the file
+     */
+    private long finishRecord(DataOutputStream output) throws IOException
+    {
+        output.flush();
+
+        long position = _data.length();
+
+        _data.seek(position);
+        _data.writeInt(_buffer.size());
+        _data.write(_buffer.toByteArray());
+        return position;
+    }
+
+    /**
+     * Reads the record at the given position.
+     * 
+     * @param position The position
+     * @return An input stream for reading the record
+     */
+    private DataInputStream readRecord(long position) throws IOException
+    {
+        _data.seek(position);
+
+        byte[] record = new byte[_data.readInt()];
+
+        _data.readFully(record);
+        return new DataInputStream(new ByteArrayInputStream(record));
+    }
+
+    /**
+     * Writes the given column value.
+     * 
+     * @param output The output
+     * @param value  The value
+     */
+    private static void writeValue(DataOutputStream output, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            output.writeByte(TYPE_NULL);
+        }
+        else if (value instanceof String)
+        {
+            byte[] bytes = ((String)value).getBytes("UTF-8");
+
+            // writeUTF is restricted to 64K bytes
+            output.writeByte(TYPE_STRING);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+        else if (value instanceof Integer)
+        {
+            output.writeByte(TYPE_INTEGER);
+            output.writeInt(((Integer)value).intValue());
+        }
+        else if (value instanceof Long)
+        {
+            output.writeByte(TYPE_LONG);
+            output.writeLong(((Long)value).longValue());
+        }
+        else if (value instanceof Short)
+        {
+            output.writeByte(TYPE_SHORT);
+            output.writeShort(((Short)value).shortValue());
+        }
+        else if (value instanceof Byte)
+        {
+            output.writeByte(TYPE_BYTE);
+            output.writeByte(((Byte)value).byteValue());
+        }
+        else if (value instanceof Boolean)
+        {
+            output.writeByte(TYPE_BOOLEAN);
+            output.writeBoolean(((Boolean)value).booleanValue());
+        }
+        else if (value instanceof Double)
+        {
+            output.writeByte(TYPE_DOUBLE);
+            output.writeDouble(((Double)value).doubleValue());
+        }
+        else if (value instanceof Float)
+        {
+            output.writeByte(TYPE_FLOAT);
+            output.writeFloat(((Float)value).floatValue());
+        }
+        else if (value instanceof BigDecimal)
+        {
+            output.writeByte(TYPE_BIGDECIMAL);
+            output.writeUTF(value.toString());
+        }
+        else if (value instanceof BigInteger)
+        {
+            output.writeByte(TYPE_BIGINTEGER);
+            output.writeUTF(value.toString());
+        }
+        else if (value instanceof java.sql.Date)
+        {
+            output.writeByte(TYPE_SQLDATE);
+            output.writeLong(((java.sql.Date)value).getTime());
+        }
+        else if (value instanceof java.sql.Time)
+        {
+            output.writeByte(TYPE_TIME);
+            output.writeLong(((java.sql.Time)value).getTime());
+        }
+        else if (value instanceof java.sql.Timestamp)
+        {
+            output.writeByte(TYPE_TIMESTAMP);
+            output.writeLong(((java.sql.Timestamp)value).getTime());
+            output.writeInt(((java.sql.Timestamp)value).getNanos());
+        }
+        else if (value instanceof byte[])
+        {
+            output.writeByte(TYPE_BYTES);
+            output.writeInt(((byte[])value).length);
+            output.write((byte[])value);
+        }
+        else if (value instanceof Serializable)
+        {
+            output.writeByte(TYPE_SERIALIZED);
+
+            ObjectOutputStream objOutput = new ObjectOutputStream(output);
+
+            objOutput.writeObject(value);
+            objOutput.flush();
+        }
+        else
+        {
+            throw new IOException("Cannot write values of type " + value.getClass().getName() + " to a temporary file");
+        }
+    }
+
+    /**
+     * Reads a column value.
+     * 
+     * @param input The input
+     * @return The value
+     */
+    private static Object readValue(DataInputStream input) throws IOException
+    {
+        byte type = input.readByte();
+
+        switch (type)
+        {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                byte[] bytes = new byte[input.readInt()];
+
+                input.readFully(bytes);
+                return new String(bytes, "UTF-8");
+            case TYPE_INTEGER:
+                return new Integer(input.readInt());
+            case TYPE_LONG:
+                return new Long(input.readLong());
+            case TYPE_SHORT:
+                return new Short(input.readShort());
+            case TYPE_BYTE:
+                return new Byte(input.readByte());
+            case TYPE_BOOLEAN:
+                return Boolean.valueOf(input.readBoolean());
+            case TYPE_DOUBLE:
+                return new Double(input.readDouble());
+            case TYPE_FLOAT:
+                return new Float(input.readFloat());
+            case TYPE_BIGDECIMAL:
+                return new BigDecimal(input.readUTF());
+            case TYPE_BIGINTEGER:
+                return new BigInteger(input.readUTF());
+            case TYPE_SQLDATE:
+                return new java.sql.Date(input.readLong());
+            case TYPE_TIME:
+                return new java.sql.Time(input.readLong());
+            case TYPE_TIMESTAMP:
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(input.readLong());
+
+                timestamp.setNanos(input.readInt());
+                return timestamp;
+            case TYPE_BYTES:
+                byte[] data = new byte[input.readInt()];
+
+                input.readFully(data);
+                return data;
+            case TYPE_SERIALIZED:
+                try
+                {
+                    return new ObjectInputStream(input).readObject();
+                }
+                catch (ClassNotFoundException ex)
+                {
+                    throw new IOException("Could not read value from a temporary file: " + ex.getMessage());
+                }
+            default:
+                throw new IOException("Unknown value type " + type + " in temporary file");
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+import org.apache.ddlutils.model.Database;
+
+/**
+ * Maps original identities to the identities of the inserted rows. The map holds up
+ * to a configurable number of entries in memory. Further entries are written to a
+ * {@link SpillFile}, and are found via a hash index that is stored in a memory-mapped
+ * file, so that they occupy (almost) no heap space. Entries whose identity did not
+ * change upon insertion are stored without the second identity.<br/>
+ * The methods of this class are synchronized so that an instance can be shared by
+ * multiple sinks.
+ * 
+ * @version $Revision: $
+ */
+public class SpillingIdentityMap
+{
+    /** The size of one index slot: the hash code (int) plus the position of the record in the spill file (long). */
+    private static final int SLOT_SIZE = 12;
+    /** The number of slots in one memory-mapped segment of the index. */
+    private static final int SLOTS_PER_SEGMENT = 1 << 20;
+    /** The initial number of slots of the index. */
+    private static final int INITIAL_SLOT_COUNT = 1 << 16;
+
+    /** The database model. */
+    private Database _model;
+    /** The maximum number of entries held in memory; 0 for no limit. */
+    private int _maxEntriesInMemory;
+    /** The entries held in memory. */
+    private HashMap _entries = new HashMap();
+    /** The file receiving the entries that do not fit into the memory. */
+    private SpillFile _spillFile;
+    /** The file containing the hash index for the entries in the spill file. */
+    private File _indexFile;
+    /** The random access file for the hash index. */
+    private RandomAccessFile _index;
+    /** The memory-mapped segments of the hash index. */
+    private MappedByteBuffer[] _segments;
+    /** The number of slots in the hash index (a power of two). */
+    private int _slotCount;
+    /** The number of entries in the spill file. */
+    private int _spilledCount;
+
+    /**
+     * Creates a new identity map.
+     * 
+     * @param model              The database model
+     * @param maxEntriesInMemory The maximum number of entries to hold in memory; use 0 for no limit
+     */
+    public SpillingIdentityMap(Database model, int maxEntriesInMemory)
+    {
+        _model              = model;
+        _maxEntriesInMemory = maxEntriesInMemory;
+    }
+
+    /**
+     * Returns the number of entries in this map.
+     * 
+     * @return The number of entries
+     */
+    public synchronized int size()
+    {
+        return _entries.size() + _spilledCount;
+    }
+
+    /**
+     * Returns the number of entries that were written to disk.
+     * 
+     * @return The number of spilled entries
+     */
+    public synchronized int getSpilledCount()
+    {
+        return _spilledCount;
+    }
+
+    /**
+     * Returns the identity that the given original identity is mapped to.
+     * 
+     * @param original The original identity
+     * @return The mapped identity or <code>null</code> if there is none
+     */
+    public synchronized Identity get(Identity original) throws DataSinkException
+    {
+        Identity result = (Identity)_entries.get(original);
+
+        if ((result == null) && (_spilledCount > 0))
+        {
+            try
+            {
+                int slot = findSlot(original);
+
+                if (slot >= 0)
+                {
+                    Identity[] identities = _spillFile.readIdentities(getPosition(slot) - 1);
+
+                    result = (identities[1] == null ? identities[0] : identities[1]);
+                }
+            }
+            catch (IOException ex)
+            {
+                throw new DataSinkException("Could not read the identity map from disk", ex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Maps the given original identity to the given identity.
+     * 
+     * @param original The original identity
+     * @param mapped   The identity that the original identity shall be mapped to
+     */
+    public synchronized void put(Identity original, Identity mapped) throws DataSinkException
+    {
+        if ((_maxEntriesInMemory <= 0) || (_entries.size() < _maxEntriesInMemory) || _entries.containsKey(original))
+        {
+            _entries.put(original, mapped);
+            return;
+        }
+        try
+        {
+            if (_segments == null)
+            {
+                _spillFile = new SpillFile(_model);
+                createIndex(INITIAL_SLOT_COUNT);
+            }
+            else if (2 * (_spilledCount + 1) > _slotCount)
+            {
+                growIndex();
+            }
+
+            long position = _spillFile.writeIdentities(new Identity[] { original, original.equals(mapped) ? null : mapped });
+            int  slot     = findSlot(original);
+
+            if (slot < 0)
+            {
+                slot = -slot - 1;
+                _spilledCount++;
+            }
+            setSlot(slot, original.hashCode(), position + 1);
+        }
+        catch (IOException ex)
+        {
+            throw new DataSinkException("Could not write the identity map to disk", ex);
+        }
+    }
+
+    /**
+     * Removes all entries and releases the files used by this map.
+     */
+    public synchronized void close()
+    {
+        _entries.clear();
+        _spilledCount = 0;
+        if (_spillFile != null)
+        {
+            _spillFile.close();
+            _spillFile = null;
+        }
+        releaseIndex();
+    }
+
+    /**
+     * Finds the slot of the given identity in the hash index.
+     * 
+     * @param identity The identity
+     * @return The slot if the identity is contained in the index, or <code>-(slot + 1)</code>
+     *         for the empty slot where it would be stored
+     */
+    private int findSlot(Identity identity) throws IOException
+    {
+        int hashCode = identity.hashCode();
+        int mask     = _slotCount - 1;
+        int slot     = (hashCode ^ (hashCode >>> 16)) & mask;
+
+        while (true)
+        {
+            long position = getPosition(slot);
+
+            if (position == 0)
+            {
+                return -slot - 1;
+            }
+            if ((getHashCode(slot) == hashCode) &&
+                identity.equals(_spillFile.readIdentities(position - 1)[0]))
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Creates a new empty hash index.
+     * 
+     * @param slotCount The number of slots (a power of two)
+     */
+    private void createIndex(int slotCount) throws IOException
+    {
+        int numSegments = Math.max(1, slotCount / SLOTS_PER_SEGMENT);
+        int segmentSize = Math.min(slotCount, SLOTS_PER_SEGMENT) * SLOT_SIZE;
+
+        _indexFile = File.createTempFile("ddlutils", ".index");
+        _indexFile.deleteOnExit();
+        _index     = new RandomAccessFile(_indexFile, "rw");
+        _index.setLength((long)numSegments * segmentSize);
+        _segments  = new MappedByteBuffer[numSegments];
+        _slotCount = slotCount;
+
+        FileChannel channel = _index.getChannel();
+
+        for (int idx = 0; idx < numSegments; idx++)
+        {
+            _segments[idx] = channel.map(FileChannel.MapMode.READ_WRITE, (long)idx * segmentSize, segmentSize);
+            // the content of the extended file is not defined, so we clear it
+            for (int pos = 0; pos < segmentSize; pos += SLOT_SIZE)
+            {
+                _segments[idx].putInt(pos, 0);
+                _segments[idx].putLong(pos + 4, 0);
+            }
+        }
+    }
+
+    /**
+     * Doubles the size of the hash index.
+     */
+    private void growIndex() throws IOException
+    {
+        MappedByteBuffer[] oldSegments  = _segments;
+        int                oldSlotCount = _slotCount;
+        RandomAccessFile   oldIndex     = _index;
+        File               oldFile      = _indexFile;
+
+        createIndex(2 * oldSlotCount);
+
+        int mask = _slotCount - 1;
+
+        for (int oldSlot = 0; oldSlot < oldSlotCount; oldSlot++)
+        {
+            MappedByteBuffer segment  = oldSegments[oldSlot / SLOTS_PER_SEGMENT];
+            int              offset   = (oldSlot % SLOTS_PER_SEGMENT) * SLOT_SIZE;
+            long             position = segment.getLong(offset + 4);
+
+            if (position != 0)
+            {
+                int hashCode = segment.getInt(offset);
+                int slot     = (hashCode ^ (hashCode >>> 16)) & mask;
+
+                while (getPosition(slot) != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                setSlot(slot, hashCode, position);
+            }
+        }
+        oldIndex.close();
+        oldFile.delete();
+    }
+
+    /**
+     * Releases the hash index.
+     */
+    private void releaseIndex()
+    {
+        _segments  = null;
+        _slotCount = 0;
+        if (_index != null)
+        {
+            try
+            {
+                _index.close();
+            }
+            catch (IOException ex)
+            {
+                // ignored, we're only deleting the file
+            }
+            _indexFile.delete();
+            _index     = null;
+            _indexFile = null;
+        }
+    }
+
+    /**
+     * Returns the hash code stored in the given slot.
+     * 
+     * @param slot The slot
+     * @return The hash code
+     */
+    private int getHashCode(int slot)
+    {
+        return _segments[slot / SLOTS_PER_SEGMENT].getInt((slot % SLOTS_PER_SEGMENT) * SLOT_SIZE);
+    }
+
+    /**
+     * Returns the position (plus one) stored in the given slot.
+     * 
+     * @param slot The slot
+     * @return The position plus one, or <code>0</code> if the slot is empty
+     */
+    private long getPosition(int slot)
+    {
+        return _segments[slot / SLOTS_PER_SEGMENT].getLong((slot % SLOTS_PER_SEGMENT) * SLOT_SIZE + 4);
+    }
+
+    /**
+     * Fills the given slot.
+     * 
+     * @param slot     The slot
+     * @param hashCode The hash code of the identity
+     * @param position The position (plus one) of the record in the spill file
+     */
+    private void setSlot(int slot, int hashCode, long position)
+    {
+        MappedByteBuffer segment = _segments[slot / SLOTS_PER_SEGMENT];
+        int              offset  = (slot % SLOTS_PER_SEGMENT) * SLOT_SIZE;
+
+        segment.putInt(offset, hashCode);
+        segment.putLong(offset + 4, position);
+    }
+}
@@ -19,8 +19,6 @@ package org.apache.ddlutils.io;
  * under the License.
  */
 
-import java.util.Iterator;
-import java.util.List;
 import org.apache.ddlutils.model.Table;
 
 /**
@@ -66,10 +64,12 @@ public class TableXmlWriter extends ModelXmlWriter
     /**
      * Write the table data to XML to the given writer.
      * 
-     * @param columnXmlWriters A list of column xml writers for writing out the bean's values to XML
-     * @param writer           The writer to write to
+     * @param columnXmlWriters    The column xml writers for writing out the bean's values to XML
+     * @param values              The values of the columns; columns whose value is <code>null</code> are not written
+     * @param valuesBase64Encoded Whether the values are base64 encoded
+     * @param writer              The writer to write to
      */
-    public void write(List columnXmlWriters, DataWriter writer)
+    public void write(ColumnXmlWriter[] columnXmlWriters, String[] values, boolean[] valuesBase64Encoded, DataWriter writer)
     {
         writer.indentIfPrettyPrinting(1);
         if (formattingMethod == AS_TAG_NAME)
@@ -84,9 +84,12 @@ public class TableXmlWriter extends ModelXmlWriter
         {
             writer.writeAttribute(null, "table-name", tableName);
         }
-        for (Iterator it = columnXmlWriters.iterator(); it.hasNext();)
+        for (int idx = 0; idx < columnXmlWriters.length; idx++)
         {
-            ((ColumnXmlWriter)it.next()).writeAttribute(writer);
+            if (values[idx] != null)
+            {
+                columnXmlWriters[idx].writeAttribute(writer, values[idx], valuesBase64Encoded[idx]);
+            }
         }
 
         boolean hasSubTags = false;
@@ -100,9 +103,12 @@ public class TableXmlWriter extends ModelXmlWriter
             writer.writeElementEnd();
             hasSubTags = true;
         }
-        for (Iterator it = columnXmlWriters.iterator(); it.hasNext();)
+        for (int idx = 0; idx < columnXmlWriters.length; idx++)
         {
-            hasSubTags = ((ColumnXmlWriter)it.next()).writeSubElement(writer) || hasSubTags;
+            if (values[idx] != null)
+            {
+                hasSubTags = columnXmlWriters[idx].writeSubElement(writer, values[idx], valuesBase64Encoded[idx]) || hasSubTags;
+            }
         }
         if (hasSubTags)
         {
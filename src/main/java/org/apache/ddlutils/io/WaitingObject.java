@@ -39,6 +39,14 @@ public class WaitingObject
     private Identity _objIdentity;
     /** The identities of the waited-for objects. */
     private ListOrderedSet _waitedForIdentites = new ListOrderedSet();
+    /** The position of the object in a spill file if it was moved out of memory, or <code>-1</code>. */
+    private long _spillPosition = -1;
+    /** The source that the object was read from. */
+    private String _source;
+    /** The ordinal of the object in its source. */
+    private long _row = -1;
+    /** Whether the existence of the object in the database has to be checked before inserting it. */
+    private boolean _checkExistence;
 
     /**
      * Creates a new <code>WaitingObject</code> instance for the given object.
@@ -55,13 +63,120 @@ public class WaitingObject
     /**
      * Returns the waiting object.
      * 
-     * @return The object
+     * @return The object, or <code>null</code> if it was moved to a spill file
      */
     public DynaBean getObject()
     {
         return _obj;
     }
 
+    /**
+     * Sets the waiting object, e.g. after it has been read back from a spill file.
+     * 
+     * @param obj The object
+     */
+    public void setObject(DynaBean obj)
+    {
+        _obj           = obj;
+        _spillPosition = -1;
+    }
+
+    /**
+     * Returns the original identity of the waiting object.
+     * 
+     * @return The identity
+     */
+    public Identity getIdentity()
+    {
+        return _objIdentity;
+    }
+
+    /**
+     * Determines whether the waiting object has been moved to a spill file.
+     * 
+     * @return <code>true</code> if the object is not held in memory
+     */
+    public boolean isSpilled()
+    {
+        return _spillPosition >= 0;
+    }
+
+    /**
+     * Returns the position of the waiting object in the spill file.
+     * 
+     * @return The position, or <code>-1</code> if the object is held in memory
+     */
+    public long getSpillPosition()
+    {
+        return _spillPosition;
+    }
+
+    /**
+     * Specifies that the waiting object has been moved to a spill file. The object itself is
+     * then released.
+     * 
+     * @param position The position of the object in the spill file
+     */
+    public void setSpillPosition(long position)
+    {
+        _obj           = null;
+        _spillPosition = position;
+    }
+
+    /**
+     * Returns the source that the object was read from.
+     * 
+     * @return The source, or <code>null</code> if the source has no name
+     */
+    public String getSource()
+    {
+        return _source;
+    }
+
+    /**
+     * Returns the ordinal of the object in its source.
+     * 
+     * @return The ordinal, or <code>-1</code> if it is not known
+     */
+    public long getRow()
+    {
+        return _row;
+    }
+
+    /**
+     * Specifies where the object was read from.
+     * 
+     * @param source The source, or <code>null</code> if the source has no name
+     * @param row    The ordinal of the object in the source
+     */
+    public void setSourcePosition(String source, long row)
+    {
+        _source = source;
+        _row    = row;
+    }
+
+    /**
+     * Determines whether the existence of the object in the database has to be checked
+     * before inserting it, e.g. because it might have been inserted by an earlier run.
+     * 
+     * @return <code>true</code> if the existence has to be checked
+     */
+    public boolean isCheckExistence()
+    {
+        return _checkExistence;
+    }
+
+    /**
+     * Specifies whether the existence of the object in the database has to be checked
+     * before inserting it.
+     * 
+     * @param checkExistence <code>true</code> if the existence has to be checked
+     */
+    public void setCheckExistence(boolean checkExistence)
+    {
+        _checkExistence = checkExistence;
+    }
+
     /**
      * Adds the identity of another object that the object is waiting for.
      * 
@@ -21,8 +21,12 @@ package org.apache.ddlutils.model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.map.ListOrderedMap;
 
 /**
  * Contains some utility functions for working with the model classes.
@@ -92,4 +96,87 @@ public class ModelHelper
             }
         }
     }
+
+    /**
+     * Groups the given tables according to their foreign key order. The first group contains
+     * the tables that have no foreign keys, and every following group contains the tables
+     * that only reference themselves or tables in the previous groups.
+     * The tables that are part of circular dependencies (or that depend on such tables) are
+     * returned in a final group. Within each group, the tables retain their original order.
+     * 
+     * @param tables The tables
+     * @return The groups, each being a list of tables
+     */
+    public List groupTablesByForeignKeyOrder(Table[] tables)
+    {
+        ArrayList      result    = new ArrayList();
+        ArrayList      curGroup  = new ArrayList();
+        HashSet        processed = new HashSet();
+        ListOrderedMap pending   = new ListOrderedMap();
+
+        for (int idx = 0; idx < tables.length; idx++)
+        {
+            Table table = tables[idx];
+
+            if (table.getForeignKeyCount() == 0)
+            {
+                curGroup.add(table);
+                processed.add(table);
+            }
+            else
+            {
+                HashSet waitedFor = new HashSet();
+
+                for (int fkIdx = 0; fkIdx < table.getForeignKeyCount(); fkIdx++)
+                {
+                    Table waitedForTable = table.getForeignKey(fkIdx).getForeignTable();
+
+                    if (!table.equals(waitedForTable))
+                    {
+                        waitedFor.add(waitedForTable);
+                    }
+                }
+                pending.put(table, waitedFor);
+            }
+        }
+        if (!curGroup.isEmpty())
+        {
+            result.add(curGroup);
+        }
+
+        while (!pending.isEmpty())
+        {
+            curGroup = new ArrayList();
+
+            for (Iterator it = pending.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry entry     = (Map.Entry)it.next();
+                HashSet   waitedFor = (HashSet)entry.getValue();
+
+                waitedFor.removeAll(processed);
+                if (waitedFor.isEmpty())
+                {
+                    curGroup.add(entry.getKey());
+                }
+            }
+            if (curGroup.isEmpty())
+            {
+                break;
+            }
+            for (Iterator it = curGroup.iterator(); it.hasNext();)
+            {
+                Object table = it.next();
+
+                pending.remove(table);
+                processed.add(table);
+            }
+            result.add(curGroup);
+        }
+        // the remaining are within circular dependencies
+        if (!pending.isEmpty())
+        {
+            result.add(new ArrayList(pending.keySet()));
+        }
+        return result;
+    }
 }
@@ -24,6 +24,7 @@ import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
@@ -40,7 +41,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -96,6 +99,11 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
 {
     /** The default name for models read from the database, if no name as given.*/
     protected static final String MODEL_DEFAULT_NAME = "default";
+    /** The maximum number of rows checked by one query when checking the existence of
+        multiple rows, as some databases (e.g. Oracle) limit IN lists to 1000 entries. */
+    private static final int MAX_ROWS_PER_EXISTENCE_CHECK = 1000;
+    /** The fetch size used for streaming queries if no query fetch size is specified. */
+    public static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
 
     /** The log for this platform. */
     private final Log _log = LogFactory.getLog(getClass());
@@ -114,6 +122,18 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
     private boolean _delimitedIdentifierModeOn;
     /** Whether identity override is enabled. */
     private boolean _identityOverrideOn;
+    /** The number of rows to combine into one multi-row INSERT statement in batch mode. */
+    private int _multiRowInsertSize = 1;
+    /** The maximum number of prepared statements to cache per connection, 0 if disabled. */
+    private int _statementCacheSize = 0;
+    /** The fetch size for the result sets of queries, 0 for the driver's default. */
+    private int _queryFetchSize = 0;
+    /** Whether queries use streaming cursors. */
+    private boolean _streamingQueriesOn;
+    /** The prepared statement caches keyed by their connections. */
+    private final Map _statementCaches = new IdentityHashMap();
+    /** The open table sessions keyed by their connections. */
+    private final Map _tableSessions = new IdentityHashMap();
     /** Whether read foreign keys shall be sorted alphabetically. */
     private boolean _foreignKeysSorted;
     /** Whether to use the default ON UPDATE action if the specified one is unsupported. */
@@ -241,6 +261,231 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
         _identityOverrideOn = identityOverrideOn;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public int getMultiRowInsertSize()
+    {
+        return _multiRowInsertSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMultiRowInsertSize(int numRows)
+    {
+        _multiRowInsertSize = numRows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getStatementCacheSize()
+    {
+        return _statementCacheSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setStatementCacheSize(int maxStatements)
+    {
+        _statementCacheSize = maxStatements;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getQueryFetchSize()
+    {
+        return _queryFetchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setQueryFetchSize(int fetchSize)
+    {
+        _queryFetchSize = fetchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isStreamingQueriesOn()
+    {
+        return _streamingQueriesOn;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setStreamingQueriesOn(boolean streamingQueriesOn)
+    {
+        _streamingQueriesOn = streamingQueriesOn;
+    }
+
+    /**
+     * Returns the prepared statement cache for the given connection. The cache is created
+     * when needed and is closed when the connection is returned via
+     * {@link #returnConnection(Connection)}.
+     * 
+     * @param connection The connection
+     * @return The cache, or <code>null</code> if statement caching is disabled
+     */
+    protected PreparedStatementCache getStatementCache(Connection connection)
+    {
+        if (_statementCacheSize <= 0)
+        {
+            return null;
+        }
+        synchronized (_statementCaches)
+        {
+            PreparedStatementCache cache = (PreparedStatementCache)_statementCaches.get(connection);
+
+            if (cache == null)
+            {
+                cache = new PreparedStatementCache(connection, _statementCacheSize);
+                _statementCaches.put(connection, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Closes the given statement unless it is managed by the given statement cache.
+     * 
+     * @param cache     The statement cache, can be <code>null</code>
+     * @param statement The statement
+     */
+    protected void releaseStatement(PreparedStatementCache cache, PreparedStatement statement)
+    {
+        if ((cache == null) || (statement == null) || !cache.contains(statement))
+        {
+            closeStatement(statement);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void returnConnection(Connection connection)
+    {
+        PreparedStatementCache cache;
+
+        try
+        {
+            endTableSession(connection);
+        }
+        catch (DatabaseOperationException ex)
+        {
+            _log.warn("Could not end the table session of the returned connection", ex);
+        }
+        synchronized (_statementCaches)
+        {
+            cache = (PreparedStatementCache)_statementCaches.remove(connection);
+        }
+        if (cache != null)
+        {
+            cache.close();
+        }
+        super.returnConnection(connection);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void startTableSession(Connection connection, Table table) throws DatabaseOperationException
+    {
+        TableSession session;
+
+        synchronized (_tableSessions)
+        {
+            session = (TableSession)_tableSessions.get(connection);
+        }
+        if (session != null)
+        {
+            if (session.getTable() == table)
+            {
+                return;
+            }
+            endTableSession(connection);
+        }
+        session = new TableSession(connection, table);
+        try
+        {
+            setUpTableSession(session);
+        }
+        catch (SQLException ex)
+        {
+            session.close();
+            throw new DatabaseOperationException("Error while starting the session for table " + table.getName() + ": " + ex.getMessage(), ex);
+        }
+        synchronized (_tableSessions)
+        {
+            _tableSessions.put(connection, session);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void endTableSession(Connection connection) throws DatabaseOperationException
+    {
+        TableSession session;
+
+        synchronized (_tableSessions)
+        {
+            session = (TableSession)_tableSessions.remove(connection);
+        }
+        if (session != null)
+        {
+            try
+            {
+                session.end();
+            }
+            catch (SQLException ex)
+            {
+                throw new DatabaseOperationException("Error while ending the session for table " + session.getTable().getName() + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Allows platforms to prepare the connection of the given session for writing rows to
+     * the table of the session, e.g. by enabling identity override. The statements should
+     * be executed via {@link TableSession#execute(String, String)} so that they are undone
+     * when the session ends. While the session is open, the <code>beforeInsert</code>,
+     * <code>afterInsert</code>, <code>beforeUpdate</code> and <code>afterUpdate</code>
+     * methods are not called for the table.
+     * 
+     * @param session The session
+     */
+    protected void setUpTableSession(TableSession session) throws SQLException
+    {
+    }
+
+    /**
+     * Determines whether a table session is open on the given connection, and if so,
+     * switches it to the given table.
+     * 
+     * @param connection The connection
+     * @param table      The table that rows are written to
+     * @return <code>true</code> if the rows are written within a table session
+     */
+    private boolean joinTableSession(Connection connection, Table table) throws DatabaseOperationException
+    {
+        synchronized (_tableSessions)
+        {
+            if (!_tableSessions.containsKey(connection))
+            {
+                return false;
+            }
+        }
+        startTableSession(connection, table);
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1555,7 +1800,7 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
 
         try
         {
-            statement = connection.createStatement();
+            statement = createQueryStatement(connection);
             resultSet = statement.executeQuery(sql);
             answer    = createResultSetIterator(model, resultSet, queryHints);
             return answer;
@@ -1588,7 +1833,7 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
 
         try
         {
-            statement = connection.prepareStatement(sql);
+            statement = prepareQueryStatement(connection, sql);
 
             int paramIdx = 1;
 
@@ -1662,7 +1907,7 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
 
         try
         {
-            statement = connection.createStatement();
+            statement = createQueryStatement(connection);
             resultSet = statement.executeQuery(sql);
 
             int rowIdx = 0;
@@ -1729,7 +1974,7 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
 
         try
         {
-            statement = connection.prepareStatement(sql);
+            statement = prepareQueryStatement(connection, sql);
 
             int paramIdx = 1;
 
@@ -1915,14 +2160,8 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
             return;
         }
 
-        String insertSql        = createInsertSql(model, dynaClass, properties, null);
         String queryIdentitySql = null;
 
-        if (_log.isDebugEnabled())
-        {
-            _log.debug("About to execute SQL: " + insertSql);
-        }
-
         if (autoIncrColumns.length > 0)
         {
             if (!getPlatformInfo().isLastIdentityValueReadable())
@@ -1935,8 +2174,10 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
             }
         }
 
-        boolean           autoCommitMode = false;
-        PreparedStatement statement      = null;
+        PreparedStatementCache cache          = getStatementCache(connection);
+        boolean                autoCommitMode = false;
+        boolean                inSession      = false;
+        PreparedStatement      statement      = null;
 
         try
         {
@@ -1946,9 +2187,24 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
                 connection.setAutoCommit(false);
             }
 
-            beforeInsert(connection, dynaClass.getTable());
+            inSession = joinTableSession(connection, dynaClass.getTable());
+            if (!inSession)
+            {
+                beforeInsert(connection, dynaClass.getTable());
+            }
             
-            statement = connection.prepareStatement(insertSql);
+            statement = (cache == null ? null : cache.get(dynaClass.getTable(), "INSERT", properties));
+            if (statement == null)
+            {
+                String insertSql = createInsertSql(model, dynaClass, properties, null);
+
+                if (_log.isDebugEnabled())
+                {
+                    _log.debug("About to execute SQL: " + insertSql);
+                }
+                statement = (cache == null ? connection.prepareStatement(insertSql)
+                                           : cache.prepare(dynaClass.getTable(), "INSERT", properties, insertSql));
+            }
 
             for (int idx = 0; idx < properties.length; idx++ )
             {
@@ -1957,7 +2213,10 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
 
             int count = statement.executeUpdate();
 
-            afterInsert(connection, dynaClass.getTable());
+            if (!inSession)
+            {
+                afterInsert(connection, dynaClass.getTable());
+            }
 
             if (count != 1)
             {
@@ -1972,7 +2231,7 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
         }
         finally
         {
-            closeStatement(statement);
+            releaseStatement(cache, statement);
         }
         if (queryIdentitySql != null)
         {
@@ -2037,7 +2296,7 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
                         // we ignore this one
                     }
                 }
-                closeStatement(statement);
+                closeStatement(queryStmt);
             }
         }
         if (!getPlatformInfo().isAutoCommitModeForLastIdentityValueReading())
@@ -2079,8 +2338,11 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
     {
         SqlDynaClass      dynaClass              = null;
         SqlDynaProperty[] properties             = null;
+        Column[]          identityColumns        = null;
+        List              batchBeans             = new ArrayList();
         PreparedStatement statement              = null;
         int               addedStmts             = 0;
+        int               rowsPerStatement       = 1;
         boolean           identityWarningPrinted = false;
 
         for (Iterator it = dynaBeans.iterator(); it.hasNext();)
@@ -2092,40 +2354,83 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
             {
                 if (dynaClass != null)
                 {
-                    executeBatch(statement, addedStmts, dynaClass.getTable());
+                    if (rowsPerStatement > 1)
+                    {
+                        insertMultiRow(connection, model, dynaClass, properties, batchBeans, rowsPerStatement);
+                    }
+                    else
+                    {
+                        executeBatch(statement, addedStmts, dynaClass.getTable(), batchBeans, identityColumns);
+                    }
                     addedStmts = 0;
+                    batchBeans.clear();
                 }
 
-                dynaClass  = curDynaClass;
-                properties = getPropertiesForInsertion(model, curDynaClass, dynaBean);
+                dynaClass          = curDynaClass;
+                properties         = getPropertiesForInsertion(model, curDynaClass, dynaBean);
+                identityColumns    = getRelevantIdentityColumns(model, curDynaClass, dynaBean);
+                rowsPerStatement   = 1;
+                statement          = null;
     
                 if (properties.length == 0)
                 {
                     _log.warn("Cannot insert instances of type " + dynaClass + " because it has no usable properties");
                     continue;
                 }
-                if (!identityWarningPrinted &&
-                    (getRelevantIdentityColumns(model, curDynaClass, dynaBean).length > 0))
-                {
-                    _log.warn("Updating the bean properties corresponding to auto-increment columns is not supported in batch mode");
-                    identityWarningPrinted = true;
-                }
 
                 String insertSql = createInsertSql(model, dynaClass, properties, null);
 
+                if ((identityColumns.length > 0) && !getPlatformInfo().isGeneratedKeysReadableInBatchMode())
+                {
+                    if (!identityWarningPrinted)
+                    {
+                        _log.warn("Updating the bean properties corresponding to auto-increment columns is not supported in batch mode");
+                        identityWarningPrinted = true;
+                    }
+                    identityColumns = new Column[0];
+                }
+                if (identityColumns.length == 0)
+                {
+                    // the generated keys are only read for single-row statements
+                    rowsPerStatement = getRowsPerInsertStatement(properties.length);
+                    if (rowsPerStatement > 1)
+                    {
+                        // the beans are collected and inserted when the type changes
+                        batchBeans.add(dynaBean);
+                        continue;
+                    }
+                }
+
                 if (_log.isDebugEnabled())
                 {
                     _log.debug("Starting new batch with SQL: " + insertSql);
                 }
                 try
                 {
-                    statement = connection.prepareStatement(insertSql);
+                    if (identityColumns.length > 0)
+                    {
+                        statement = connection.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS);
+                    }
+                    else
+                    {
+                        statement = connection.prepareStatement(insertSql);
+                    }
                 }
                 catch (SQLException ex)
                 {
                     throw new DatabaseOperationException("Error while preparing insert statement", ex);
                 }
             }
+            if (rowsPerStatement > 1)
+            {
+                batchBeans.add(dynaBean);
+                continue;
+            }
+            if (statement == null)
+            {
+                // the type has no usable properties
+                continue;
+            }
             try
             {
                 for (int idx = 0; idx < properties.length; idx++ )
@@ -2134,98 +2439,551 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
                 }
                 statement.addBatch();
                 addedStmts++;
+                if (identityColumns.length > 0)
+                {
+                    batchBeans.add(dynaBean);
+                }
             }
             catch (SQLException ex)
             {
+                closeStatement(statement);
                 throw new DatabaseOperationException("Error while adding batch insert", ex);
             }
         }
         if (dynaClass != null)
         {
-            executeBatch(statement, addedStmts, dynaClass.getTable());
+            if (rowsPerStatement > 1)
+            {
+                insertMultiRow(connection, model, dynaClass, properties, batchBeans, rowsPerStatement);
+            }
+            else
+            {
+                executeBatch(statement, addedStmts, dynaClass.getTable(), batchBeans, identityColumns);
+            }
         }
     }
 
     /**
-     * Performs the batch for the given statement, and checks that the specified amount of rows have been changed.
+     * Determines how many rows of a type with the given number of insertable columns are
+     * combined into one INSERT statement in batch mode.
      * 
-     * @param statement The prepared statement
-     * @param numRows   The number of rows that should change
-     * @param table     The changed table
+     * @param numColumns The number of columns per row
+     * @return The number of rows per statement, 1 if multi-row inserts shall not be used
      */
-    private void executeBatch(PreparedStatement statement, int numRows, Table table) throws DatabaseOperationException
+    protected int getRowsPerInsertStatement(int numColumns)
     {
-        if (statement != null)
+        PlatformInfo info    = getPlatformInfo();
+        int          numRows = getMultiRowInsertSize();
+
+        if (!info.isMultiRowInsertSupported() || (numRows <= 1) || (numColumns == 0))
         {
-            try
-            {
-                Connection connection = statement.getConnection();
+            return 1;
+        }
+        if (info.getMaxRowsPerInsert() > 0)
+        {
+            numRows = Math.min(numRows, info.getMaxRowsPerInsert());
+        }
+        if (info.getMaxParametersPerStatement() > 0)
+        {
+            numRows = Math.min(numRows, info.getMaxParametersPerStatement() / numColumns);
+        }
+        return Math.max(numRows, 1);
+    }
 
-                beforeInsert(connection, table);
+    /**
+     * Inserts the given beans of one type via multi-row INSERT statements of the given width
+     * that are executed as a batch. The rows that do not fill a whole statement are inserted
+     * with a separate, narrower statement.
+     * 
+     * @param connection       The connection
+     * @param model            The database model
+     * @param dynaClass        The type of the beans
+     * @param properties       The properties to write
+     * @param dynaBeans        The beans
+     * @param rowsPerStatement The number of rows per statement
+     */
+    private void insertMultiRow(Connection        connection,
+                                Database          model,
+                                SqlDynaClass      dynaClass,
+                                SqlDynaProperty[] properties,
+                                List              dynaBeans,
+                                int               rowsPerStatement) throws DatabaseOperationException
+    {
+        Table    table        = model.findTable(dynaClass.getTableName());
+        HashMap  columnValues = toColumnValues(properties, null);
+        Iterator beanIt       = dynaBeans.iterator();
+        int      numFullStmts = dynaBeans.size() / rowsPerStatement;
+        int      numRemaining = dynaBeans.size() % rowsPerStatement;
+
+        for (int pass = 0; pass < 2; pass++)
+        {
+            int numRows  = (pass == 0 ? rowsPerStatement : numRemaining);
+            int numStmts = (pass == 0 ? numFullStmts     : 1);
+
+            if ((numRows == 0) || (numStmts == 0))
+            {
+                continue;
+            }
 
-                int[] results = statement.executeBatch();
+            String insertSql = _builder.getMultiRowInsertSql(table, columnValues, numRows);
 
-                closeStatement(statement);
-                afterInsert(connection, table);
+            if (_log.isDebugEnabled())
+            {
+                _log.debug("Starting new batch of " + numRows + "-row inserts with SQL: " + insertSql);
+            }
 
-                boolean hasSum = true;
-                int     sum    = 0;
+            PreparedStatement statement = null;
 
-                for (int idx = 0; (results != null) && (idx < results.length); idx++)
+            try
+            {
+                statement = connection.prepareStatement(insertSql);
+                for (int stmtIdx = 0; stmtIdx < numStmts; stmtIdx++)
                 {
-                    if (results[idx] < 0)
+                    int paramIdx = 1;
+
+                    for (int rowIdx = 0; rowIdx < numRows; rowIdx++)
                     {
-                        hasSum = false;
-                        if (results[idx] == Statement.EXECUTE_FAILED)
-                        {
-                            _log.warn("The batch insertion of row " + idx + " into table " + table.getName() + " failed but the driver is able to continue processing");
-                        }
-                        else if (results[idx] != Statement.SUCCESS_NO_INFO)
+                        DynaBean dynaBean = (DynaBean)beanIt.next();
+
+                        for (int idx = 0; idx < properties.length; idx++)
                         {
-                            _log.warn("The batch insertion of row " + idx + " into table " + table.getName() + " returned an undefined status value " + results[idx]);
+                            setObject(statement, paramIdx++, dynaBean, properties[idx]);
                         }
                     }
-                    else
-                    {
-                        sum += results[idx];
-                    }
-                }
-                if (hasSum && (sum != numRows))
-                {
-                    _log.warn("Attempted to insert " + numRows + " rows into table " + table.getName() + " but changed " + sum + " rows");
+                    statement.addBatch();
                 }
             }
             catch (SQLException ex)
             {
-                if (ex instanceof BatchUpdateException)
-                {
-                    SQLException sqlEx = ((BatchUpdateException)ex).getNextException();
-
-                    throw new DatabaseOperationException("Error while inserting into the database", sqlEx);
-                }
-                else
-                {
-                    throw new DatabaseOperationException("Error while inserting into the database", ex);
-                }
+                closeStatement(statement);
+                throw new DatabaseOperationException("Error while adding batch insert", ex);
             }
+            executeBatch(statement, numRows * numStmts, table, null, null);
         }
     }
 
     /**
-     * {@inheritDoc}
+     * Stores the values of the identity columns from the current row of the given result set
+     * into the bean. If the result set contains exactly the identity columns, then the values
+     * are read by index, otherwise they are looked up by the column names.
+     * 
+     * @param resultSet       The result set
+     * @param dynaBean        The bean
+     * @param identityColumns The identity columns
      */
-    public void insert(Database model, Collection dynaBeans) throws DatabaseOperationException
+    private void readIdentityValues(ResultSet resultSet, DynaBean dynaBean, Column[] identityColumns) throws SQLException
     {
-        Connection connection = borrowConnection();
+        boolean readByIndex = (resultSet.getMetaData().getColumnCount() == identityColumns.length);
 
-        try
+        for (int idx = 0; idx < identityColumns.length; idx++)
         {
+            int    columnIdx = readByIndex ? idx + 1 : resultSet.findColumn(identityColumns[idx].getName());
+            Object value     = getObjectFromResultSet(resultSet, identityColumns[idx], columnIdx);
+
+            try
+            {
+                PropertyUtils.setProperty(dynaBean, identityColumns[idx].getName(), value);
+            }
+            catch (NoSuchMethodException ex)
+            {
+                // Can't happen because we're using dyna beans
+            }
+            catch (IllegalAccessException ex)
+            {
+                // Can't happen because we're using dyna beans
+            }
+            catch (InvocationTargetException ex)
+            {
+                // Can't happen because we're using dyna beans
+            }
+        }
+    }
+
+    /**
+     * Reads the generated keys of the executed batch into the beans, in the order in which
+     * the beans were added to the batch.
+     * 
+     * @param statement       The executed statement
+     * @param table           The table
+     * @param dynaBeans       The inserted beans
+     * @param identityColumns The identity columns
+     */
+    private void readGeneratedKeys(PreparedStatement statement, Table table, List dynaBeans, Column[] identityColumns)
+    {
+        ResultSet generatedKeys = null;
+
+        try
+        {
+            generatedKeys = statement.getGeneratedKeys();
+
+            Iterator beanIt = dynaBeans.iterator();
+
+            while (beanIt.hasNext() && generatedKeys.next())
+            {
+                readIdentityValues(generatedKeys, (DynaBean)beanIt.next(), identityColumns);
+            }
+            if (beanIt.hasNext())
+            {
+                _log.warn("The database returned fewer generated keys than rows inserted into table " + table.getName());
+            }
+        }
+        catch (SQLException ex)
+        {
+            _log.warn("Could not read the generated keys for the rows inserted into table " + table.getName(), ex);
+        }
+        finally
+        {
+            if (generatedKeys != null)
+            {
+                try
+                {
+                    generatedKeys.close();
+                }
+                catch (SQLException ex)
+                {
+                    // we ignore this one
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs the batch for the given statement, and checks that the specified amount of rows have been changed.
+     * If identity columns are given, then their generated values are read back into the beans.
+     * 
+     * @param statement       The prepared statement
+     * @param numRows         The number of rows that should change, or -1 if the number of
+     *                        changed rows shall not be checked
+     * @param table           The changed table
+     * @param dynaBeans       The beans in the batch, in the order in which they were added
+     * @param identityColumns The identity columns whose values shall be read back, can be empty
+     */
+    private void executeBatch(PreparedStatement statement, int numRows, Table table, List dynaBeans, Column[] identityColumns) throws DatabaseOperationException
+    {
+        if (statement != null)
+        {
+            try
+            {
+                Connection connection = statement.getConnection();
+                boolean    inSession  = joinTableSession(connection, table);
+
+                if (!inSession)
+                {
+                    beforeInsert(connection, table);
+                }
+
+                int[] results = statement.executeBatch();
+
+                if ((identityColumns != null) && (identityColumns.length > 0))
+                {
+                    readGeneratedKeys(statement, table, dynaBeans, identityColumns);
+                }
+                closeStatement(statement);
+                if (!inSession)
+                {
+                    afterInsert(connection, table);
+                }
+
+                boolean hasSum = true;
+                int     sum    = 0;
+
+                for (int idx = 0; (results != null) && (idx < results.length); idx++)
+                {
+                    if (results[idx] < 0)
+                    {
+                        hasSum = false;
+                        if (results[idx] == Statement.EXECUTE_FAILED)
+                        {
+                            _log.warn("The batch insertion of row " + idx + " into table " + table.getName() + " failed but the driver is able to continue processing");
+                        }
+                        else if (results[idx] != Statement.SUCCESS_NO_INFO)
+                        {
+                            _log.warn("The batch insertion of row " + idx + " into table " + table.getName() + " returned an undefined status value " + results[idx]);
+                        }
+                    }
+                    else
+                    {
+                        sum += results[idx];
+                    }
+                }
+                if (hasSum && (numRows >= 0) && (sum != numRows))
+                {
+                    _log.warn("Attempted to insert " + numRows + " rows into table " + table.getName() + " but changed " + sum + " rows");
+                }
+            }
+            catch (SQLException ex)
+            {
+                closeStatement(statement);
+                // not all drivers chain the actual error to the batch exception
+                if ((ex instanceof BatchUpdateException) && (ex.getNextException() != null))
+                {
+                    SQLException sqlEx = ((BatchUpdateException)ex).getNextException();
+
+                    throw new DatabaseOperationException("Error while inserting into the database", sqlEx);
+                }
+                else
+                {
+                    throw new DatabaseOperationException("Error while inserting into the database", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void insert(Database model, Collection dynaBeans) throws DatabaseOperationException
+    {
+        Connection connection = borrowConnection();
+
+        try
+        {
+            insert(connection, model, dynaBeans);
+        }
+        finally
+        {
+            returnConnection(connection);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void upsert(Connection connection, Database model, Collection dynaBeans) throws DatabaseOperationException
+    {
+        SqlDynaClass dynaClass   = null;
+        List         beansOfType = new ArrayList();
+
+        for (Iterator it = dynaBeans.iterator(); it.hasNext();)
+        {
+            DynaBean     dynaBean     = (DynaBean)it.next();
+            SqlDynaClass curDynaClass = model.getDynaClassFor(dynaBean);
+
+            if ((curDynaClass != dynaClass) && !beansOfType.isEmpty())
+            {
+                upsert(connection, model, dynaClass, beansOfType);
+                beansOfType.clear();
+            }
+            dynaClass = curDynaClass;
+            beansOfType.add(dynaBean);
+        }
+        if (!beansOfType.isEmpty())
+        {
+            upsert(connection, model, dynaClass, beansOfType);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void upsert(Database model, Collection dynaBeans) throws DatabaseOperationException
+    {
+        Connection connection = borrowConnection();
+
+        try
+        {
+            upsert(connection, model, dynaBeans);
+        }
+        finally
+        {
+            returnConnection(connection);
+        }
+    }
+
+    /**
+     * Inserts or updates the given beans which all are of the given type.
+     * 
+     * @param connection The connection
+     * @param model      The database model
+     * @param dynaClass  The type of the beans
+     * @param dynaBeans  The beans
+     */
+    private void upsert(Connection connection, Database model, SqlDynaClass dynaClass, List dynaBeans) throws DatabaseOperationException
+    {
+        SqlDynaProperty[] properties  = getPropertiesForInsertion(model, dynaClass, (DynaBean)dynaBeans.get(0));
+        SqlDynaProperty[] primaryKeys = dynaClass.getPrimaryKeyProperties();
+
+        if ((primaryKeys.length == 0) || !Arrays.asList(properties).containsAll(Arrays.asList(primaryKeys)))
+        {
+            // without primary key values, we cannot identify existing rows
             insert(connection, model, dynaBeans);
+            return;
+        }
+
+        String sql = createUpsertSql(model, dynaClass, properties);
+
+        if (sql == null)
+        {
+            upsertViaExistenceCheck(connection, model, dynaClass, properties, dynaBeans);
+            return;
+        }
+        if (_log.isDebugEnabled())
+        {
+            _log.debug("Starting new batch with SQL: " + sql);
+        }
+
+        PreparedStatement statement = null;
+
+        try
+        {
+            statement = connection.prepareStatement(sql);
+            for (Iterator it = dynaBeans.iterator(); it.hasNext();)
+            {
+                DynaBean dynaBean = (DynaBean)it.next();
+
+                for (int idx = 0; idx < properties.length; idx++)
+                {
+                    setObject(statement, idx + 1, dynaBean, properties[idx]);
+                }
+                statement.addBatch();
+            }
+        }
+        catch (SQLException ex)
+        {
+            closeStatement(statement);
+            throw new DatabaseOperationException("Error while adding batch upsert", ex);
+        }
+        // the update counts of upserts differ between the databases, so we don't check them
+        executeBatch(statement, -1, dynaClass.getTable(), dynaBeans, null);
+    }
+
+    /**
+     * Inserts or updates the given beans on a platform that does not support native upserts.
+     * The existence of the rows is checked in chunks, and then the new beans are inserted and
+     * the existing ones updated, both in batches.
+     * 
+     * @param connection The connection
+     * @param model      The database model
+     * @param dynaClass  The type of the beans
+     * @param properties The properties to write
+     * @param dynaBeans  The beans
+     */
+    private void upsertViaExistenceCheck(Connection        connection,
+                                         Database          model,
+                                         SqlDynaClass      dynaClass,
+                                         SqlDynaProperty[] properties,
+                                         List              dynaBeans) throws DatabaseOperationException
+    {
+        boolean[] exists        = exists(connection, model, (DynaBean[])dynaBeans.toArray(new DynaBean[dynaBeans.size()]));
+        List      newBeans      = new ArrayList();
+        List      existingBeans = new ArrayList();
+
+        for (int idx = 0; idx < exists.length; idx++)
+        {
+            if (exists[idx])
+            {
+                existingBeans.add(dynaBeans.get(idx));
+            }
+            else
+            {
+                newBeans.add(dynaBeans.get(idx));
+            }
+        }
+        if (!newBeans.isEmpty())
+        {
+            insert(connection, model, newBeans);
+        }
+
+        SqlDynaProperty[] primaryKeys    = dynaClass.getPrimaryKeyProperties();
+        List              nonPrimaryKeys = new ArrayList(Arrays.asList(properties));
+
+        nonPrimaryKeys.removeAll(Arrays.asList(primaryKeys));
+        if (existingBeans.isEmpty() || nonPrimaryKeys.isEmpty())
+        {
+            return;
+        }
+
+        updateBatch(connection, model, dynaClass, (SqlDynaProperty[])nonPrimaryKeys.toArray(new SqlDynaProperty[nonPrimaryKeys.size()]), existingBeans);
+    }
+
+    /**
+     * Updates the given properties of the given beans which all are of the given type, via
+     * one batch.
+     * 
+     * @param connection   The connection
+     * @param model        The database model
+     * @param dynaClass    The type of the beans
+     * @param updatedProps The properties to write, not including the primary key properties
+     * @param dynaBeans    The beans
+     */
+    private void updateBatch(Connection        connection,
+                             Database          model,
+                             SqlDynaClass      dynaClass,
+                             SqlDynaProperty[] updatedProps,
+                             List              dynaBeans) throws DatabaseOperationException
+    {
+        SqlDynaProperty[] primaryKeys = dynaClass.getPrimaryKeyProperties();
+        String            sql         = createUpdateSql(model, dynaClass, primaryKeys, updatedProps, null);
+        PreparedStatement statement    = null;
+        boolean           inSession    = false;
+
+        if (_log.isDebugEnabled())
+        {
+            _log.debug("Starting new batch with SQL: " + sql);
+        }
+        try
+        {
+            inSession = joinTableSession(connection, dynaClass.getTable());
+            if (!inSession)
+            {
+                beforeUpdate(connection, dynaClass.getTable());
+            }
+            statement = connection.prepareStatement(sql);
+            for (Iterator it = dynaBeans.iterator(); it.hasNext();)
+            {
+                DynaBean dynaBean = (DynaBean)it.next();
+                int      sqlIndex = 1;
+
+                for (int idx = 0; idx < updatedProps.length; idx++)
+                {
+                    setObject(statement, sqlIndex++, dynaBean, updatedProps[idx]);
+                }
+                for (int idx = 0; idx < primaryKeys.length; idx++)
+                {
+                    setObject(statement, sqlIndex++, dynaBean, primaryKeys[idx]);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            if (!inSession)
+            {
+                afterUpdate(connection, dynaClass.getTable());
+            }
+        }
+        catch (SQLException ex)
+        {
+            if ((ex instanceof BatchUpdateException) && (ex.getNextException() != null))
+            {
+                ex = ((BatchUpdateException)ex).getNextException();
+            }
+            throw new DatabaseOperationException("Error while updating in the database", ex);
         }
         finally
         {
-            returnConnection(connection);
+            closeStatement(statement);
+        }
+    }
+
+    /**
+     * Creates the SQL for inserting an object of the given type, or updating the existing row
+     * with the same primary key, via a prepared statement.
+     * 
+     * @param model      The database model
+     * @param dynaClass  The type
+     * @param properties The properties to write, including the primary key properties
+     * @return The SQL, or <code>null</code> if the database does not support this
+     */
+    protected String createUpsertSql(Database model, SqlDynaClass dynaClass, SqlDynaProperty[] properties)
+    {
+        if (!getPlatformInfo().isUpsertSupported())
+        {
+            return null;
         }
+
+        Table   table        = model.findTable(dynaClass.getTableName());
+        HashMap columnValues = toColumnValues(properties, null);
+
+        return _builder.getUpsertSql(table, columnValues);
     }
 
     /**
@@ -2356,19 +3114,31 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
             return;
         }
 
-        SqlDynaProperty[] properties = dynaClass.getNonPrimaryKeyProperties();
-        String            sql        = createUpdateSql(model, dynaClass, primaryKeys, properties, null);
-        PreparedStatement statement  = null;
+        SqlDynaProperty[]      properties = dynaClass.getNonPrimaryKeyProperties();
+        PreparedStatementCache cache      = getStatementCache(connection);
+        PreparedStatement      statement  = null;
+        boolean                inSession  = false;
 
-        if (_log.isDebugEnabled())
-        {
-            _log.debug("About to execute SQL: " + sql);
-        }
         try
         {
-            beforeUpdate(connection, dynaClass.getTable());
+            inSession = joinTableSession(connection, dynaClass.getTable());
+            if (!inSession)
+            {
+                beforeUpdate(connection, dynaClass.getTable());
+            }
 
-            statement = connection.prepareStatement(sql);
+            statement = (cache == null ? null : cache.get(dynaClass.getTable(), "UPDATE", properties));
+            if (statement == null)
+            {
+                String sql = createUpdateSql(model, dynaClass, primaryKeys, properties, null);
+
+                if (_log.isDebugEnabled())
+                {
+                    _log.debug("About to execute SQL: " + sql);
+                }
+                statement = (cache == null ? connection.prepareStatement(sql)
+                                           : cache.prepare(dynaClass.getTable(), "UPDATE", properties, sql));
+            }
 
             int sqlIndex = 1;
 
@@ -2383,7 +3153,10 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
 
             int count = statement.executeUpdate();
 
-            afterUpdate(connection, dynaClass.getTable());
+            if (!inSession)
+            {
+                afterUpdate(connection, dynaClass.getTable());
+            }
 
             if (count != 1)
             {
@@ -2398,7 +3171,54 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
         }
         finally
         {
-            closeStatement(statement);
+            releaseStatement(cache, statement);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void update(Connection connection, Database model, Collection dynaBeans) throws DatabaseOperationException
+    {
+        SqlDynaClass dynaClass   = null;
+        List         beansOfType = new ArrayList();
+
+        for (Iterator it = dynaBeans.iterator(); it.hasNext();)
+        {
+            DynaBean     dynaBean     = (DynaBean)it.next();
+            SqlDynaClass curDynaClass = model.getDynaClassFor(dynaBean);
+
+            if ((curDynaClass != dynaClass) && !beansOfType.isEmpty())
+            {
+                update(connection, model, dynaClass, beansOfType);
+                beansOfType.clear();
+            }
+            dynaClass = curDynaClass;
+            beansOfType.add(dynaBean);
+        }
+        if (!beansOfType.isEmpty())
+        {
+            update(connection, model, dynaClass, beansOfType);
+        }
+    }
+
+    /**
+     * Updates the given beans which all are of the given type, via one batch.
+     * 
+     * @param connection The connection
+     * @param model      The database model
+     * @param dynaClass  The type of the beans
+     * @param dynaBeans  The beans
+     */
+    private void update(Connection connection, Database model, SqlDynaClass dynaClass, List dynaBeans) throws DatabaseOperationException
+    {
+        if (dynaClass.getPrimaryKeyProperties().length == 0)
+        {
+            _log.info("Cannot update instances of type " + dynaClass + " because it has no primary keys");
+        }
+        else if (dynaClass.getNonPrimaryKeyProperties().length > 0)
+        {
+            updateBatch(connection, model, dynaClass, dynaClass.getNonPrimaryKeyProperties(), dynaBeans);
         }
     }
 
@@ -2437,19 +3257,31 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
             return;
         }
 
-        SqlDynaProperty[] properties = dynaClass.getSqlDynaProperties();
-        String            sql        = createUpdateSql(model, dynaClass, primaryKeys, properties, null, null);
-        PreparedStatement statement  = null;
+        SqlDynaProperty[]      properties = dynaClass.getSqlDynaProperties();
+        PreparedStatementCache cache      = getStatementCache(connection);
+        PreparedStatement      statement  = null;
+        boolean                inSession  = false;
 
-        if (_log.isDebugEnabled())
-        {
-            _log.debug("About to execute SQL: " + sql);
-        }
         try
         {
-            beforeUpdate(connection, dynaClass.getTable());
+            inSession = joinTableSession(connection, dynaClass.getTable());
+            if (!inSession)
+            {
+                beforeUpdate(connection, dynaClass.getTable());
+            }
 
-            statement = connection.prepareStatement(sql);
+            statement = (cache == null ? null : cache.get(dynaClass.getTable(), "UPDATE_ALL", properties));
+            if (statement == null)
+            {
+                String sql = createUpdateSql(model, dynaClass, primaryKeys, properties, null, null);
+
+                if (_log.isDebugEnabled())
+                {
+                    _log.debug("About to execute SQL: " + sql);
+                }
+                statement = (cache == null ? connection.prepareStatement(sql)
+                                           : cache.prepare(dynaClass.getTable(), "UPDATE_ALL", properties, sql));
+            }
 
             int sqlIndex = 1;
 
@@ -2464,7 +3296,10 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
 
             int count = statement.executeUpdate();
 
-            afterUpdate(connection, dynaClass.getTable());
+            if (!inSession)
+            {
+                afterUpdate(connection, dynaClass.getTable());
+            }
 
             if (count != 1)
             {
@@ -2479,7 +3314,7 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
         }
         finally
         {
-            closeStatement(statement);
+            releaseStatement(cache, statement);
         }
     }
 
@@ -2553,36 +3388,42 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
             return false;
         }
 
-        PreparedStatement stmt = null;
+        PreparedStatementCache cache     = getStatementCache(connection);
+        PreparedStatement      stmt      = null;
+        ResultSet              resultSet = null;
 
         try
         {
-            StringBuffer sql = new StringBuffer();
-
-            sql.append("SELECT * FROM ");
-            sql.append(_builder.getDelimitedIdentifier(dynaClass.getTable().getName()));
-            sql.append(" WHERE ");
-
-            for (int idx = 0; idx < primaryKeys.length; idx++)
+            stmt = (cache == null ? null : cache.get(dynaClass.getTable(), "EXISTS", primaryKeys));
+            if (stmt == null)
             {
-                String key = primaryKeys[idx].getColumn().getName();
-
-                if (idx > 0)
+                StringBuffer sql = new StringBuffer();
+    
+                sql.append("SELECT * FROM ");
+                sql.append(_builder.getDelimitedIdentifier(dynaClass.getTable().getName()));
+                sql.append(" WHERE ");
+    
+                for (int idx = 0; idx < primaryKeys.length; idx++)
                 {
-                    sql.append(" AND ");
+                    String key = primaryKeys[idx].getColumn().getName();
+    
+                    if (idx > 0)
+                    {
+                        sql.append(" AND ");
+                    }
+                    sql.append(_builder.getDelimitedIdentifier(key));
+                    sql.append("=?");
                 }
-                sql.append(_builder.getDelimitedIdentifier(key));
-                sql.append("=?");
+                stmt = (cache == null ? connection.prepareStatement(sql.toString())
+                                      : cache.prepare(dynaClass.getTable(), "EXISTS", primaryKeys, sql.toString()));
             }
 
-            stmt = connection.prepareStatement(sql.toString());
-
             for (int idx = 0; idx < primaryKeys.length; idx++)
             {
                 setObject(stmt, idx + 1, dynaBean, primaryKeys[idx]);
             }
 
-            ResultSet resultSet = stmt.executeQuery();
+            resultSet = stmt.executeQuery();
 
             return resultSet.next();
         }
@@ -2592,7 +3433,216 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
         }
         finally
         {
-            closeStatement(stmt);
+            if (resultSet != null)
+            {
+                try
+                {
+                    resultSet.close();
+                }
+                catch (SQLException ex)
+                {
+                    // we ignore this one
+                }
+            }
+            releaseStatement(cache, stmt);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean[] exists(Connection connection, Database model, DynaBean[] dynaBeans) throws DatabaseOperationException
+    {
+        boolean[] result = new boolean[dynaBeans.length];
+
+        if (dynaBeans.length == 0)
+        {
+            return result;
+        }
+
+        SqlDynaClass      dynaClass   = model.getDynaClassFor(dynaBeans[0]);
+        SqlDynaProperty[] primaryKeys = dynaClass.getPrimaryKeyProperties();
+
+        if (primaryKeys.length == 0)
+        {
+            return result;
+        }
+
+        Table table            = model.findTable(dynaClass.getTableName());
+        int   maxRowsPerSelect = MAX_ROWS_PER_EXISTENCE_CHECK;
+
+        if (getPlatformInfo().getMaxParametersPerStatement() > 0)
+        {
+            maxRowsPerSelect = Math.max(1, Math.min(maxRowsPerSelect, getPlatformInfo().getMaxParametersPerStatement() / primaryKeys.length));
+        }
+        for (int startIdx = 0; startIdx < dynaBeans.length; startIdx += maxRowsPerSelect)
+        {
+            int               numRows      = Math.min(maxRowsPerSelect, dynaBeans.length - startIdx);
+            LinkedHashMap     rowsByKey    = new LinkedHashMap();
+            boolean           foundUnknown = false;
+            PreparedStatement statement    = null;
+            ResultSet         resultSet    = null;
+
+            // every key is only queried once even if multiple beans have it
+            for (int rowIdx = startIdx; rowIdx < startIdx + numRows; rowIdx++)
+            {
+                if (model.getDynaClassFor(dynaBeans[rowIdx]) != dynaClass)
+                {
+                    throw new DatabaseOperationException("The dyna beans need to be for the same table");
+                }
+
+                ArrayList key = new ArrayList(primaryKeys.length);
+
+                for (int idx = 0; idx < primaryKeys.length; idx++)
+                {
+                    key.add(normalizeKeyValue(primaryKeys[idx].getColumn(), dynaBeans[rowIdx].get(primaryKeys[idx].getName())));
+                }
+
+                List rowIdxs = (List)rowsByKey.get(key);
+
+                if (rowIdxs == null)
+                {
+                    rowIdxs = new ArrayList();
+                    rowsByKey.put(key, rowIdxs);
+                }
+                rowIdxs.add(new Integer(rowIdx));
+            }
+            try
+            {
+                String sql = _builder.getSelectExistingPrimaryKeysSql(table, rowsByKey.size());
+
+                if (_log.isDebugEnabled())
+                {
+                    _log.debug("About to execute SQL " + sql);
+                }
+                statement = connection.prepareStatement(sql);
+
+                int paramIdx = 1;
+
+                for (Iterator it = rowsByKey.values().iterator(); it.hasNext();)
+                {
+                    DynaBean dynaBean = dynaBeans[((Integer)((List)it.next()).get(0)).intValue()];
+
+                    for (int idx = 0; idx < primaryKeys.length; idx++)
+                    {
+                        setObject(statement, paramIdx++, dynaBean, primaryKeys[idx]);
+                    }
+                }
+
+                resultSet = statement.executeQuery();
+                while (resultSet.next())
+                {
+                    ArrayList key = new ArrayList(primaryKeys.length);
+
+                    for (int idx = 0; idx < primaryKeys.length; idx++)
+                    {
+                        Column column = primaryKeys[idx].getColumn();
+
+                        key.add(normalizeKeyValue(column, getObjectFromResultSet(resultSet, column, idx + 1)));
+                    }
+
+                    List rowIdxs = (List)rowsByKey.get(key);
+
+                    if (rowIdxs == null)
+                    {
+                        foundUnknown = true;
+                    }
+                    for (int idx = 0; (rowIdxs != null) && (idx < rowIdxs.size()); idx++)
+                    {
+                        result[((Integer)rowIdxs.get(idx)).intValue()] = true;
+                    }
+                }
+            }
+            catch (SQLException ex)
+            {
+                throw new DatabaseOperationException("Error while reading from the database", ex);
+            }
+            finally
+            {
+                if (resultSet != null)
+                {
+                    try
+                    {
+                        resultSet.close();
+                    }
+                    catch (SQLException ex)
+                    {
+                        // we ignore this one
+                    }
+                }
+                closeStatement(statement);
+            }
+            if (foundUnknown)
+            {
+                // the database found a key that differs from the keys of the beans, e.g. only in
+                // case because of a case-insensitive collation, so we don't know which bean it
+                // belongs to and check the beans that were not found one by one
+                for (Iterator it = rowsByKey.values().iterator(); it.hasNext();)
+                {
+                    List rowIdxs  = (List)it.next();
+                    int  firstIdx = ((Integer)rowIdxs.get(0)).intValue();
+
+                    if (!result[firstIdx] && exists(connection, model, dynaBeans[firstIdx]))
+                    {
+                        for (int idx = 0; idx < rowIdxs.size(); idx++)
+                        {
+                            result[((Integer)rowIdxs.get(idx)).intValue()] = true;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Normalizes the given primary key value so that the values in the beans can be compared
+     * to the values read from the database via <code>equals</code>, independent of the
+     * concrete numeric type, the scale of decimals, or the padding of CHAR values.
+     * 
+     * @param column The column of the value
+     * @param value  The value
+     * @return The normalized value
+     */
+    private Object normalizeKeyValue(Column column, Object value)
+    {
+        if (value instanceof BigDecimal)
+        {
+            BigDecimal decimal = (BigDecimal)value;
+
+            // we remove trailing zeros from the fraction
+            while ((decimal.scale() > 0) && (decimal.unscaledValue().mod(BigInteger.valueOf(10)).signum() == 0))
+            {
+                decimal = decimal.setScale(decimal.scale() - 1);
+            }
+            return decimal.scale() == 0 ? (Object)decimal.unscaledValue() : decimal;
+        }
+        else if ((value instanceof Byte) || (value instanceof Short) || (value instanceof Integer) || (value instanceof Long))
+        {
+            return BigInteger.valueOf(((Number)value).longValue());
+        }
+        else if ((value instanceof Float) || (value instanceof Double))
+        {
+            return new Double(((Number)value).doubleValue());
+        }
+        else if ((value instanceof String) && (column.getTypeCode() == Types.CHAR))
+        {
+            String str = (String)value;
+            int    len = str.length();
+
+            while ((len > 0) && (str.charAt(len - 1) == ' '))
+            {
+                len--;
+            }
+            return str.substring(0, len);
+        }
+        else if (value instanceof byte[])
+        {
+            return new BigInteger(1, (byte[])value).toString(16) + "/" + ((byte[])value).length;
+        }
+        else
+        {
+            return value;
         }
     }
 
@@ -2688,7 +3738,8 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
      */
     public void delete(Connection connection, Database model, DynaBean dynaBean) throws DatabaseOperationException
     {
-        PreparedStatement statement  = null;
+        PreparedStatementCache cache     = getStatementCache(connection);
+        PreparedStatement      statement = null;
 
         try
         {
@@ -2701,14 +3752,18 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
                 return;
             }
 
-            String sql = createDeleteSql(model, dynaClass, primaryKeys, null);
-
-            if (_log.isDebugEnabled())
+            statement = (cache == null ? null : cache.get(dynaClass.getTable(), "DELETE", primaryKeys));
+            if (statement == null)
             {
-                _log.debug("About to execute SQL " + sql);
-            }
+                String sql = createDeleteSql(model, dynaClass, primaryKeys, null);
 
-            statement = connection.prepareStatement(sql);
+                if (_log.isDebugEnabled())
+                {
+                    _log.debug("About to execute SQL " + sql);
+                }
+                statement = (cache == null ? connection.prepareStatement(sql)
+                                           : cache.prepare(dynaClass.getTable(), "DELETE", primaryKeys, sql));
+            }
 
             for (int idx = 0; idx < primaryKeys.length; idx++)
             {
@@ -2730,7 +3785,7 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
         }
         finally
         {
-            closeStatement(statement);
+            releaseStatement(cache, statement);
         }
     }
 
@@ -3164,4 +4219,83 @@ public abstract class PlatformImplBase extends JdbcSupport implements Platform
     {
         return new ModelBasedResultSetIterator(this, model, resultSet, queryHints, true);
     }
+
+    /**
+     * Creates the statement for a query without parameters. If streaming queries are on, then
+     * the statement produces forward-only, read-only result sets.
+     * 
+     * @param connection The connection
+     * @return The statement
+     */
+    protected Statement createQueryStatement(Connection connection) throws SQLException
+    {
+        Statement statement;
+
+        if (isStreamingQueriesOn())
+        {
+            prepareConnectionForStreaming(connection);
+            statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+        else
+        {
+            statement = connection.createStatement();
+        }
+        configureQueryStatement(statement);
+        return statement;
+    }
+
+    /**
+     * Prepares the statement for a query with parameters. If streaming queries are on, then
+     * the statement produces forward-only, read-only result sets.
+     * 
+     * @param connection The connection
+     * @param sql        The query
+     * @return The statement
+     */
+    protected PreparedStatement prepareQueryStatement(Connection connection, String sql) throws SQLException
+    {
+        PreparedStatement statement;
+
+        if (isStreamingQueriesOn())
+        {
+            prepareConnectionForStreaming(connection);
+            statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+        else
+        {
+            statement = connection.prepareStatement(sql);
+        }
+        configureQueryStatement(statement);
+        return statement;
+    }
+
+    /**
+     * Prepares the given connection for a streaming query. This is called before the statement
+     * of the query is created. The default implementation does nothing.
+     * 
+     * @param connection The connection
+     */
+    protected void prepareConnectionForStreaming(Connection connection) throws SQLException
+    {
+    }
+
+    /**
+     * Applies the fetch size to the given query statement. Platforms whose JDBC driver needs a
+     * special fetch size for streaming result sets can redefine this method.
+     * 
+     * @param statement The statement
+     */
+    protected void configureQueryStatement(Statement statement) throws SQLException
+    {
+        int fetchSize = getQueryFetchSize();
+
+        if (isStreamingQueriesOn() && (fetchSize <= 0))
+        {
+            fetchSize = DEFAULT_STREAMING_FETCH_SIZE;
+        }
+        if (fetchSize > 0)
+        {
+            statement.setFetchSize(fetchSize);
+        }
+    }
 }
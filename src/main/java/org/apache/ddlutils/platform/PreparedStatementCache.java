@@ -0,0 +1,265 @@
+package org.apache.ddlutils.platform;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ddlutils.dynabean.SqlDynaProperty;
+import org.apache.ddlutils.model.Table;
+
+/**
+ * Caches the prepared statements of one connection so that the statements for the same
+ * operation on the same table and properties are only prepared once. If the cache is full,
+ * the least recently used statement is closed and removed.
+ * Note that this class is not thread-safe, just as the connection.
+ *
+ * @version $Revision: $
+ */
+public class PreparedStatementCache
+{
+    /** Our log. */
+    private final Log _log = LogFactory.getLog(PreparedStatementCache.class);
+
+    /** The connection. */
+    private final Connection _connection;
+    /** The maximum number of cached statements. */
+    private final int _maxSize;
+    /** The cached statements keyed by {@link StatementKey} objects, in access order. */
+    private final LinkedHashMap _statements;
+    /** Contains the cached statements. */
+    private final IdentityHashMap _cachedStatements = new IdentityHashMap();
+
+    /**
+     * Creates a new cache for the given connection.
+     *
+     * @param connection The connection
+     * @param maxSize    The maximum number of statements to cache
+     */
+    public PreparedStatementCache(Connection connection, int maxSize)
+    {
+        _connection = connection;
+        _maxSize    = maxSize;
+        _statements = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest)
+            {
+                if (size() > _maxSize)
+                {
+                    PreparedStatement statement = (PreparedStatement)eldest.getValue();
+
+                    _cachedStatements.remove(statement);
+                    closeStatement(statement);
+                    return true;
+                }
+                else
+                {
+                    return false;
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the connection whose statements are cached.
+     *
+     * @return The connection
+     */
+    public Connection getConnection()
+    {
+        return _connection;
+    }
+
+    /**
+     * Returns the number of currently cached statements.
+     *
+     * @return The number of statements
+     */
+    public int size()
+    {
+        return _statements.size();
+    }
+
+    /**
+     * Returns the cached statement for the given operation, table and properties.
+     * The parameters of the returned statement are cleared.
+     *
+     * @param table      The table
+     * @param operation  The operation, e.g. <code>INSERT</code>
+     * @param properties The properties that the statement uses
+     * @return The statement or <code>null</code> if no such statement is cached
+     */
+    public PreparedStatement get(Table table, String operation, SqlDynaProperty[] properties) throws SQLException
+    {
+        PreparedStatement statement = (PreparedStatement)_statements.get(new StatementKey(table, operation, properties));
+
+        if (statement != null)
+        {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * Prepares a statement for the given SQL and caches it for the given operation, table
+     * and properties.
+     *
+     * @param table      The table
+     * @param operation  The operation, e.g. <code>INSERT</code>
+     * @param properties The properties that the statement uses
+     * @param sql        The SQL of the statement
+     * @return The prepared statement
+     */
+    public PreparedStatement prepare(Table table, String operation, SqlDynaProperty[] properties, String sql) throws SQLException
+    {
+        PreparedStatement statement = _connection.prepareStatement(sql);
+
+        _cachedStatements.put(statement, statement);
+
+        PreparedStatement oldStatement = (PreparedStatement)_statements.put(new StatementKey(table, operation, properties), statement);
+
+        if (oldStatement != null)
+        {
+            _cachedStatements.remove(oldStatement);
+            closeStatement(oldStatement);
+        }
+        return statement;
+    }
+
+    /**
+     * Determines whether the given statement is managed by this cache, in which case it
+     * must not be closed by the caller.
+     *
+     * @param statement The statement
+     * @return <code>true</code> if the statement is cached
+     */
+    public boolean contains(PreparedStatement statement)
+    {
+        return _cachedStatements.containsKey(statement);
+    }
+
+    /**
+     * Closes and removes all cached statements.
+     */
+    public void close()
+    {
+        for (Iterator it = _statements.values().iterator(); it.hasNext();)
+        {
+            closeStatement((PreparedStatement)it.next());
+        }
+        _statements.clear();
+        _cachedStatements.clear();
+    }
+
+    /**
+     * Closes the given statement.
+     *
+     * @param statement The statement
+     */
+    private void closeStatement(PreparedStatement statement)
+    {
+        try
+        {
+            statement.close();
+        }
+        catch (SQLException ex)
+        {
+            _log.debug("Ignoring exception that occurred while closing statement", ex);
+        }
+    }
+
+    /**
+     * The key of a cached statement. The table and the properties are compared by
+     * reference as they are the same objects for all beans of a type.
+     */
+    private static class StatementKey
+    {
+        /** The table. */
+        private final Table _table;
+        /** The operation. */
+        private final String _operation;
+        /** The properties. */
+        private final SqlDynaProperty[] _properties;
+        /** The hash code. */
+        private final int _hashCode;
+
+        /**
+         * Creates a new key.
+         *
+         * @param table      The table
+         * @param operation  The operation
+         * @param properties The properties
+         */
+        public StatementKey(Table table, String operation, SqlDynaProperty[] properties)
+        {
+            int hashCode = 31 * System.identityHashCode(table) + operation.hashCode();
+
+            for (int idx = 0; idx < properties.length; idx++)
+            {
+                hashCode = 31 * hashCode + System.identityHashCode(properties[idx]);
+            }
+            _table      = table;
+            _operation  = operation;
+            _properties = properties;
+            _hashCode   = hashCode;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof StatementKey))
+            {
+                return false;
+            }
+
+            StatementKey other = (StatementKey)obj;
+
+            if ((_hashCode != other._hashCode) || (_table != other._table) ||
+                !_operation.equals(other._operation) || (_properties.length != other._properties.length))
+            {
+                return false;
+            }
+            for (int idx = 0; idx < _properties.length; idx++)
+            {
+                if (_properties[idx] != other._properties[idx])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+    }
+}
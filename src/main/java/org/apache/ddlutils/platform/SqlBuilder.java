@@ -909,6 +909,224 @@ public abstract class SqlBuilder
         return buffer.toString();
     }
 
+    /**
+     * Creates the SQL for inserting multiple objects into the specified table with one
+     * statement usable in a prepared statement. The statement contains one parenthesized
+     * list of value placeholders per row, in the order of the columns of the table.
+     *  
+     * @param table        The table
+     * @param columnValues The columns values indexed by the column names; only the keys are used
+     * @param numRows      The number of rows
+     * @return The insertion sql
+     */
+    public String getMultiRowInsertSql(Table table, Map columnValues, int numRows)
+    {
+        StringBuffer buffer   = new StringBuffer(getInsertSql(table, columnValues, true));
+        StringBuffer rowValue = new StringBuffer(", (");
+
+        for (int idx = 0; idx < columnValues.size(); idx++)
+        {
+            if (idx > 0)
+            {
+                rowValue.append(", ");
+            }
+            rowValue.append("?");
+        }
+        rowValue.append(")");
+        for (int rowIdx = 1; rowIdx < numRows; rowIdx++)
+        {
+            buffer.append(rowValue);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Creates the SQL for inserting an object into the specified table, or updating the
+     * existing row with the same primary key, via a prepared statement. The statement
+     * contains one value placeholder per given column, in the order of the columns in the
+     * table. The given columns have to contain all primary key columns of the table.
+     * A database that does not support this in a single statement, will return
+     * <code>null</code>.
+     *
+     * @param table        The table
+     * @param columnValues The columns values indexed by the column names
+     * @return The upsert sql, or <code>null</code> if the database does not support this
+     */
+    public String getUpsertSql(Table table, Map columnValues)
+    {
+        return null;
+    }
+
+    /**
+     * Returns the SQL that defers or suspends the foreign key checks for the current connection
+     * so that rows can be inserted before the rows that they reference. Depending on the
+     * database, the checks are deferred until the transaction is committed, or they are
+     * suspended until {@link #getRestoreForeignKeyChecksSql()} is executed in which case
+     * the rows inserted in between are not checked at all.
+     * A database that does not support this, will return <code>null</code>.
+     *
+     * @return The sql, or <code>null</code> if the database does not support this
+     * @see org.apache.ddlutils.PlatformInfo#isForeignKeyChecksDeferrable()
+     */
+    public String getDeferForeignKeyChecksSql()
+    {
+        return null;
+    }
+
+    /**
+     * Returns the SQL that restores the foreign key checks after they have been suspended via
+     * {@link #getDeferForeignKeyChecksSql()}.
+     *
+     * @return The sql, or <code>null</code> if nothing needs to be done, e.g. because the
+     *         deferred checks are performed when the transaction is committed
+     */
+    public String getRestoreForeignKeyChecksSql()
+    {
+        return null;
+    }
+
+    /**
+     * Creates a standard SQL <code>MERGE</code> statement that merges the single row of
+     * the given source into the specified table, using the primary key to match the rows.
+     * The source has to be aliased as {@link #getMergeSourceAlias()} and provide all given
+     * columns under their names.
+     *
+     * @param table        The table
+     * @param columnValues The columns values indexed by the column names
+     * @param source       The source, e.g. a <code>VALUES</code> clause
+     * @return The merge sql
+     */
+    protected String getMergeSql(Table table, Map columnValues, String source)
+    {
+        String       sourceAlias = getDelimitedIdentifier(getMergeSourceAlias());
+        StringBuffer buffer      = new StringBuffer("MERGE INTO ");
+        StringBuffer updateSql   = new StringBuffer();
+        StringBuffer insertSql   = new StringBuffer();
+        StringBuffer valuesSql   = new StringBuffer();
+        boolean      addSep      = false;
+
+        buffer.append(getDelimitedIdentifier(getTableName(table)));
+        buffer.append(" USING ");
+        buffer.append(source);
+        buffer.append(" ON (");
+        for (int idx = 0; idx < table.getColumnCount(); idx++)
+        {
+            Column column = table.getColumn(idx);
+            String name   = getDelimitedIdentifier(column.getName());
+
+            if (!columnValues.containsKey(column.getName()))
+            {
+                continue;
+            }
+            if (column.isPrimaryKey())
+            {
+                if (addSep)
+                {
+                    buffer.append(" AND ");
+                }
+                buffer.append(getDelimitedIdentifier(getTableName(table)));
+                buffer.append(".");
+                buffer.append(name);
+                buffer.append(" = ");
+                buffer.append(sourceAlias);
+                buffer.append(".");
+                buffer.append(name);
+                addSep = true;
+            }
+            else
+            {
+                if (updateSql.length() > 0)
+                {
+                    updateSql.append(", ");
+                }
+                updateSql.append(name);
+                updateSql.append(" = ");
+                updateSql.append(sourceAlias);
+                updateSql.append(".");
+                updateSql.append(name);
+            }
+            if (insertSql.length() > 0)
+            {
+                insertSql.append(", ");
+                valuesSql.append(", ");
+            }
+            insertSql.append(name);
+            valuesSql.append(sourceAlias);
+            valuesSql.append(".");
+            valuesSql.append(name);
+        }
+        buffer.append(")");
+        if (updateSql.length() > 0)
+        {
+            buffer.append(" WHEN MATCHED THEN UPDATE SET ");
+            buffer.append(updateSql);
+        }
+        buffer.append(" WHEN NOT MATCHED THEN INSERT (");
+        buffer.append(insertSql);
+        buffer.append(") VALUES (");
+        buffer.append(valuesSql);
+        buffer.append(")");
+        return buffer.toString();
+    }
+
+    /**
+     * Creates a <code>VALUES</code> clause with one row of value placeholders for the given
+     * columns that can be used as the source of a <code>MERGE</code> statement.
+     *
+     * @param table            The table
+     * @param columnValues     The columns values indexed by the column names
+     * @param castPlaceholders Whether the placeholders shall be cast to the column types,
+     *                         which is necessary for databases that cannot derive the type
+     *                         of a parameter in a <code>VALUES</code> clause
+     * @return The source sql
+     */
+    protected String getMergeValuesSource(Table table, Map columnValues, boolean castPlaceholders)
+    {
+        StringBuffer buffer  = new StringBuffer("(VALUES (");
+        StringBuffer columns = new StringBuffer();
+
+        for (int idx = 0; idx < table.getColumnCount(); idx++)
+        {
+            Column column = table.getColumn(idx);
+
+            if (columnValues.containsKey(column.getName()))
+            {
+                if (columns.length() > 0)
+                {
+                    buffer.append(", ");
+                    columns.append(", ");
+                }
+                if (castPlaceholders)
+                {
+                    buffer.append("CAST(? AS ");
+                    buffer.append(getSqlType(column));
+                    buffer.append(")");
+                }
+                else
+                {
+                    buffer.append("?");
+                }
+                columns.append(getDelimitedIdentifier(column.getName()));
+            }
+        }
+        buffer.append(")) AS ");
+        buffer.append(getDelimitedIdentifier(getMergeSourceAlias()));
+        buffer.append(" (");
+        buffer.append(columns);
+        buffer.append(")");
+        return buffer.toString();
+    }
+
+    /**
+     * Returns the alias of the source in <code>MERGE</code> statements.
+     *
+     * @return The alias
+     */
+    protected String getMergeSourceAlias()
+    {
+        return "src";
+    }
+
     /**
      * Creates the SQL for updating an object in the specified table.
      * If values are given then a concrete update statement is created, otherwise an
@@ -1052,6 +1270,71 @@ public abstract class SqlBuilder
         return buffer.toString();
     }
 
+    /**
+     * Creates the SQL for querying which of the given number of primary keys exist in the
+     * specified table. The statement selects only the primary key columns, and contains
+     * value placeholders for the primary key values of each row, in the order of the
+     * primary key columns. For a single primary key column, an IN list is used, otherwise
+     * a disjunction of the per-row conditions.
+     * 
+     * @param table   The table
+     * @param numRows The number of primary keys to check
+     * @return The query sql
+     */
+    public String getSelectExistingPrimaryKeysSql(Table table, int numRows)
+    {
+        Column[]     pkColumns = table.getPrimaryKeyColumns();
+        StringBuffer buffer    = new StringBuffer("SELECT ");
+
+        for (int idx = 0; idx < pkColumns.length; idx++)
+        {
+            if (idx > 0)
+            {
+                buffer.append(", ");
+            }
+            buffer.append(getDelimitedIdentifier(pkColumns[idx].getName()));
+        }
+        buffer.append(" FROM ");
+        buffer.append(getDelimitedIdentifier(getTableName(table)));
+        buffer.append(" WHERE ");
+        if (pkColumns.length == 1)
+        {
+            buffer.append(getDelimitedIdentifier(pkColumns[0].getName()));
+            buffer.append(" IN (");
+            for (int rowIdx = 0; rowIdx < numRows; rowIdx++)
+            {
+                if (rowIdx > 0)
+                {
+                    buffer.append(", ");
+                }
+                buffer.append("?");
+            }
+            buffer.append(")");
+        }
+        else
+        {
+            for (int rowIdx = 0; rowIdx < numRows; rowIdx++)
+            {
+                if (rowIdx > 0)
+                {
+                    buffer.append(" OR ");
+                }
+                buffer.append("(");
+                for (int idx = 0; idx < pkColumns.length; idx++)
+                {
+                    if (idx > 0)
+                    {
+                        buffer.append(" AND ");
+                    }
+                    buffer.append(getDelimitedIdentifier(pkColumns[idx].getName()));
+                    buffer.append(" = ?");
+                }
+                buffer.append(")");
+            }
+        }
+        return buffer.toString();
+    }
+
     /**
      * Creates the SQL for deleting an object from the specified table. Depending on
      * the value of <code>genPlaceholders</code>, the generated SQL will contain
@@ -0,0 +1,153 @@
+package org.apache.ddlutils.platform;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ddlutils.model.Table;
+
+/**
+ * The session of a connection for writing rows to one table. Platforms use it to issue the
+ * statements that prepare the connection for the table (e.g. enabling identity override)
+ * only once when the rows of the table start and to undo them when the session ends,
+ * instead of around every insert or batch. All statements are executed with one statement
+ * object that is closed when the session ends.
+ * Note that this class is not thread-safe, just as the connection.
+ *
+ * @version $Revision: $
+ */
+public class TableSession
+{
+    /** Our log. */
+    private final Log _log = LogFactory.getLog(TableSession.class);
+
+    /** The connection. */
+    private final Connection _connection;
+    /** The table. */
+    private final Table _table;
+    /** The statement used to execute the session statements, created when needed. */
+    private Statement _statement;
+    /** The statements that undo the executed statements, in reverse order of execution. */
+    private final LinkedList _undoSql = new LinkedList();
+
+    /**
+     * Creates a new session.
+     *
+     * @param connection The connection
+     * @param table      The table
+     */
+    public TableSession(Connection connection, Table table)
+    {
+        _connection = connection;
+        _table      = table;
+    }
+
+    /**
+     * Returns the connection of this session.
+     *
+     * @return The connection
+     */
+    public Connection getConnection()
+    {
+        return _connection;
+    }
+
+    /**
+     * Returns the table whose rows are written in this session.
+     *
+     * @return The table
+     */
+    public Table getTable()
+    {
+        return _table;
+    }
+
+    /**
+     * Executes the given statement and remembers the statement that undoes it at the end
+     * of the session.
+     *
+     * @param sql     The statement to execute
+     * @param undoSql The statement that undoes it; <code>null</code> if it need not be undone
+     */
+    public void execute(String sql, String undoSql) throws SQLException
+    {
+        if (_statement == null)
+        {
+            _statement = _connection.createStatement();
+        }
+        if (_log.isDebugEnabled())
+        {
+            _log.debug("About to execute SQL: " + sql);
+        }
+        _statement.execute(sql);
+        if (undoSql != null)
+        {
+            _undoSql.addFirst(undoSql);
+        }
+    }
+
+    /**
+     * Ends the session by executing the undo statements in reverse order. The statement
+     * object is closed even if an undo statement fails.
+     */
+    public void end() throws SQLException
+    {
+        try
+        {
+            for (Iterator it = _undoSql.iterator(); it.hasNext();)
+            {
+                String sql = (String)it.next();
+
+                it.remove();
+                execute(sql, null);
+            }
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    /**
+     * Closes the statement object of this session without undoing the executed statements.
+     */
+    public void close()
+    {
+        if (_statement != null)
+        {
+            try
+            {
+                _statement.close();
+            }
+            catch (SQLException ex)
+            {
+                _log.debug("Ignoring exception that occurred while closing statement", ex);
+            }
+            _statement = null;
+        }
+    }
+}
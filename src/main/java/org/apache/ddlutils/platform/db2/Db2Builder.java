@@ -21,6 +21,7 @@ package org.apache.ddlutils.platform.db2;
 
 import java.io.IOException;
 import java.sql.Types;
+import java.util.Map;
 
 import org.apache.ddlutils.Platform;
 import org.apache.ddlutils.alteration.ColumnDefinitionChange;
@@ -79,6 +80,14 @@ public class Db2Builder extends SqlBuilder
         return "VALUES IDENTITY_VAL_LOCAL()";
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public String getUpsertSql(Table table, Map columnValues)
+    {
+        return getMergeSql(table, columnValues, getMergeValuesSource(table, columnValues, true));
+    }
+
     /**
      * Generates the SQL to drop a column from a table.
      * 
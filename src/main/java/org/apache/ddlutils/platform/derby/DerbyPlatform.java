@@ -69,6 +69,10 @@ public class DerbyPlatform extends CloudscapePlatform
         info.setSupportedOnDeleteActions(new CascadeActionEnum[] { CascadeActionEnum.NONE, CascadeActionEnum.RESTRICT,
                                                                    CascadeActionEnum.CASCADE, CascadeActionEnum.SET_NULL });
         info.setDefaultOnDeleteAction(CascadeActionEnum.NONE);
+        info.setMultiRowInsertSupported(true);
+        // Derby compiles each statement into a class, and large VALUES lists exceed
+        // the size limit of the generated methods
+        info.setMaxParametersPerStatement(2000);
 
         setSqlBuilder(new DerbyBuilder(this));
         setModelReader(new DerbyModelReader(this));
@@ -20,6 +20,7 @@ package org.apache.ddlutils.platform.hsqldb;
  */
 
 import java.io.IOException;
+import java.util.Map;
 
 import org.apache.ddlutils.Platform;
 import org.apache.ddlutils.alteration.ColumnDefinitionChange;
@@ -66,6 +67,32 @@ public class HsqlDbBuilder extends SqlBuilder
         return "CALL IDENTITY()";
     }
 
+    /**
+     * {@inheritDoc}
+     * Note that <code>MERGE</code> is only available since HSQLDB 2.0.
+     */
+    public String getUpsertSql(Table table, Map columnValues)
+    {
+        return getMergeSql(table, columnValues, getMergeValuesSource(table, columnValues, true));
+    }
+
+    /**
+     * {@inheritDoc}
+     * Note that this turns off the checks for the whole database, not only the current connection.
+     */
+    public String getDeferForeignKeyChecksSql()
+    {
+        return "SET REFERENTIAL_INTEGRITY FALSE";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRestoreForeignKeyChecksSql()
+    {
+        return "SET REFERENTIAL_INTEGRITY TRUE";
+    }
+
     /**
      * Writes the SQL to add/insert a column.
      * 
@@ -66,6 +66,12 @@ public class HsqlDbPlatform extends PlatformImplBase
         info.setSystemForeignKeyIndicesAlwaysNonUnique(true);
         info.setPrimaryKeyColumnAutomaticallyRequired(true);
         info.setMixingIdentityAndNormalPrimaryKeyColumnsSupported(false);
+        // multiple rows in the VALUES clause are only supported since HSQLDB 2.0
+        info.setMultiRowInsertSupported(false);
+        // same for MERGE
+        info.setUpsertSupported(false);
+        // via SET REFERENTIAL_INTEGRITY
+        info.setForeignKeyChecksDeferrable(true);
 
         info.addNativeTypeMapping(Types.ARRAY,       "LONGVARBINARY", Types.LONGVARBINARY);
         info.addNativeTypeMapping(Types.BIT,         "BOOLEAN",       Types.BOOLEAN);
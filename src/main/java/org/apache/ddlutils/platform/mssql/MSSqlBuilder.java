@@ -331,6 +331,16 @@ public class MSSqlBuilder extends SqlBuilder
         return getQuotationOnStatement() + super.getUpdateSql(table, columnValues, genPlaceholders);
     }
 
+    /**
+     * {@inheritDoc}
+     * Note that <code>MERGE</code> is only available since SQL Server 2008.
+     */
+    public String getUpsertSql(Table table, Map columnValues)
+    {
+        // Sql Server requires MERGE statements to be terminated with a semicolon
+        return getQuotationOnStatement() + getMergeSql(table, columnValues, getMergeValuesSource(table, columnValues, false)) + ";";
+    }
+
     /**
      * Prints the given identifier with enforced single quotes around it regardless of whether 
      * delimited identifiers are turned on or not.
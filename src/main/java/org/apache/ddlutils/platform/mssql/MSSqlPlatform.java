@@ -22,6 +22,7 @@ package org.apache.ddlutils.platform.mssql;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.util.Collection;
 
@@ -44,6 +45,7 @@ import org.apache.ddlutils.model.Table;
 import org.apache.ddlutils.platform.CreationParameters;
 import org.apache.ddlutils.platform.DefaultTableDefinitionChangesPredicate;
 import org.apache.ddlutils.platform.PlatformImplBase;
+import org.apache.ddlutils.platform.TableSession;
 
 /**
  * The platform implementation for the Microsoft SQL Server database.
@@ -76,6 +78,12 @@ public class MSSqlPlatform extends PlatformImplBase
         info.setPrimaryKeyColumnAutomaticallyRequired(true);
         info.setIdentityColumnAutomaticallyRequired(true);
         info.setMultipleIdentityColumnsSupported(false);
+        // row constructors in the VALUES clause are available since SQL Server 2008
+        info.setMultiRowInsertSupported(true);
+        info.setMaxRowsPerInsert(1000);
+        info.setMaxParametersPerStatement(2100);
+        // as is MERGE
+        info.setUpsertSupported(true);
         info.setSupportedOnUpdateActions(new CascadeActionEnum[] { CascadeActionEnum.CASCADE, CascadeActionEnum.NONE });
         info.addEquivalentOnUpdateActions(CascadeActionEnum.NONE, CascadeActionEnum.RESTRICT);
         info.setSupportedOnDeleteActions(new CascadeActionEnum[] { CascadeActionEnum.CASCADE, CascadeActionEnum.NONE });
@@ -134,6 +142,44 @@ public class MSSqlPlatform extends PlatformImplBase
                (table.getAutoIncrementColumns().length > 0);
     }
 
+    /**
+     * Executes the given identity override statement on the given connection.
+     * 
+     * @param connection The connection
+     * @param sql        The statement
+     */
+    private void executeIdentityOverrideSql(Connection connection, String sql) throws SQLException
+    {
+        Statement stmt = connection.createStatement();
+
+        try
+        {
+            stmt.execute(sql);
+        }
+        finally
+        {
+            stmt.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUpTableSession(TableSession session) throws SQLException
+    {
+        Table table = session.getTable();
+
+        if (useIdentityOverrideFor(table))
+        {
+            MSSqlBuilder builder = (MSSqlBuilder)getSqlBuilder();
+
+            // identity override can only be enabled for one table per connection, so it
+            // is enabled for the whole session instead of around every statement
+            session.execute(builder.getEnableIdentityOverrideSql(table),
+                            builder.getDisableIdentityOverrideSql(table));
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -143,7 +189,7 @@ public class MSSqlPlatform extends PlatformImplBase
         {
             MSSqlBuilder builder = (MSSqlBuilder)getSqlBuilder();
     
-            connection.createStatement().execute(builder.getEnableIdentityOverrideSql(table));
+            executeIdentityOverrideSql(connection, builder.getEnableIdentityOverrideSql(table));
         }
     }
 
@@ -156,7 +202,7 @@ public class MSSqlPlatform extends PlatformImplBase
         {
             MSSqlBuilder builder = (MSSqlBuilder)getSqlBuilder();
     
-            connection.createStatement().execute(builder.getDisableIdentityOverrideSql(table));
+            executeIdentityOverrideSql(connection, builder.getDisableIdentityOverrideSql(table));
         }
     }
 
@@ -106,6 +106,61 @@ public class MySqlBuilder extends SqlBuilder
         return "SELECT LAST_INSERT_ID() " + autoIncrementKeyName;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public String getUpsertSql(Table table, Map columnValues)
+    {
+        StringBuffer buffer = new StringBuffer(getInsertSql(table, columnValues, true));
+        boolean      addSep = false;
+
+        buffer.append(" ON DUPLICATE KEY UPDATE ");
+        for (int idx = 0; idx < table.getColumnCount(); idx++)
+        {
+            Column column = table.getColumn(idx);
+
+            if (!column.isPrimaryKey() && columnValues.containsKey(column.getName()))
+            {
+                if (addSep)
+                {
+                    buffer.append(", ");
+                }
+                buffer.append(getDelimitedIdentifier(column.getName()));
+                buffer.append(" = VALUES(");
+                buffer.append(getDelimitedIdentifier(column.getName()));
+                buffer.append(")");
+                addSep = true;
+            }
+        }
+        if (!addSep)
+        {
+            // only primary key columns, so there is nothing to update for an existing row
+            String pkName = getDelimitedIdentifier(table.getPrimaryKeyColumns()[0].getName());
+
+            buffer.append(pkName);
+            buffer.append(" = ");
+            buffer.append(pkName);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Note that the rows inserted while the checks are turned off are not checked afterwards.
+     */
+    public String getDeferForeignKeyChecksSql()
+    {
+        return "SET FOREIGN_KEY_CHECKS = 0";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRestoreForeignKeyChecksSql()
+    {
+        return "SET FOREIGN_KEY_CHECKS = 1";
+    }
+
     /**
      * {@inheritDoc}
      */
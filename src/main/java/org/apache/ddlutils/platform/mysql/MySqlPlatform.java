@@ -20,6 +20,8 @@ package org.apache.ddlutils.platform.mysql;
  */
 
 import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 
 import org.apache.ddlutils.PlatformInfo;
@@ -73,6 +75,13 @@ public class MySqlPlatform extends PlatformImplBase
         // MySql returns synthetic default values for pk columns
         info.setSyntheticDefaultValueForRequiredReturned(true);
         info.setPrimaryKeyColumnAutomaticallyRequired(true);
+        info.setGeneratedKeysReadableInBatchMode(true);
+        info.setMultiRowInsertSupported(true);
+        info.setUpsertSupported(true);
+        // via the foreign_key_checks session variable
+        info.setForeignKeyChecksDeferrable(true);
+        // limit of the server-side prepared statements
+        info.setMaxParametersPerStatement(65535);
         info.setCommentPrefix("#");
         // Double quotes are only allowed for delimiting identifiers if the server SQL mode includes ANSI_QUOTES 
         info.setDelimiterToken("`");
@@ -124,6 +133,23 @@ public class MySqlPlatform extends PlatformImplBase
         return DATABASENAME;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected void configureQueryStatement(Statement statement) throws SQLException
+    {
+        if (isStreamingQueriesOn())
+        {
+            // the MySQL driver only streams forward-only, read-only result sets with this fetch size,
+            // otherwise it reads the whole result set into memory
+            statement.setFetchSize(Integer.MIN_VALUE);
+        }
+        else
+        {
+            super.configureQueryStatement(statement);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -349,6 +349,45 @@ public class Oracle8Builder extends SqlBuilder
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * Note that <code>MERGE</code> is only available since Oracle 9.
+     */
+    public String getUpsertSql(Table table, Map columnValues)
+    {
+        StringBuffer source = new StringBuffer("(SELECT ");
+        boolean      addSep = false;
+
+        for (int idx = 0; idx < table.getColumnCount(); idx++)
+        {
+            Column column = table.getColumn(idx);
+
+            if (columnValues.containsKey(column.getName()))
+            {
+                if (addSep)
+                {
+                    source.append(", ");
+                }
+                source.append("? ");
+                source.append(getDelimitedIdentifier(column.getName()));
+                addSep = true;
+            }
+        }
+        source.append(" FROM dual) ");
+        source.append(getDelimitedIdentifier(getMergeSourceAlias()));
+        return getMergeSql(table, columnValues, source.toString());
+    }
+
+    /**
+     * {@inheritDoc}
+     * Note that only foreign keys that are declared as <code>DEFERRABLE</code> are deferred;
+     * these are checked when the transaction is committed.
+     */
+    public String getDeferForeignKeyChecksSql()
+    {
+        return "SET CONSTRAINTS ALL DEFERRED";
+    }
+
     /**
      * {@inheritDoc}
      */
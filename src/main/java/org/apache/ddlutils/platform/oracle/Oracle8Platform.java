@@ -75,6 +75,9 @@ public class Oracle8Platform extends PlatformImplBase
         info.setSupportedOnUpdateActions(new CascadeActionEnum[] { CascadeActionEnum.NONE });
         info.setSupportedOnDeleteActions(new CascadeActionEnum[] { CascadeActionEnum.CASCADE, CascadeActionEnum.SET_NULL, CascadeActionEnum.NONE });
         info.addEquivalentOnDeleteActions(CascadeActionEnum.NONE, CascadeActionEnum.RESTRICT);
+        // only affects foreign keys that are declared as DEFERRABLE
+        info.setForeignKeyChecksDeferrable(true);
+        info.setDeferrableForeignKeysRequired(true);
 
         // Note that the back-mappings are partially done by the model reader, not the driver
         info.addNativeTypeMapping(Types.ARRAY,         "BLOB",             Types.BLOB);
@@ -38,6 +38,8 @@ public class Oracle9Platform extends Oracle8Platform
     {
         super();
         getPlatformInfo().addNativeTypeMapping(Types.TIMESTAMP, "TIMESTAMP");
+        // MERGE is available since Oracle 9
+        getPlatformInfo().setUpsertSupported(true);
     }
 
     /**
@@ -168,6 +168,63 @@ public class PostgreSqlBuilder extends SqlBuilder
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * Uses <code>INSERT ... ON CONFLICT</code> which requires PostgreSQL 9.5 or newer.
+     */
+    public String getUpsertSql(Table table, Map columnValues)
+    {
+        StringBuffer result    = new StringBuffer(getInsertSql(table, columnValues, true));
+        Column[]     pkColumns = table.getPrimaryKeyColumns();
+        boolean      addSep    = false;
+
+        result.append(" ON CONFLICT (");
+        for (int idx = 0; idx < pkColumns.length; idx++)
+        {
+            if (idx > 0)
+            {
+                result.append(", ");
+            }
+            result.append(getDelimitedIdentifier(pkColumns[idx].getName()));
+        }
+        result.append(") DO ");
+        for (int idx = 0; idx < table.getColumnCount(); idx++)
+        {
+            Column column = table.getColumn(idx);
+
+            if (!column.isPrimaryKey() && columnValues.containsKey(column.getName()))
+            {
+                if (addSep)
+                {
+                    result.append(", ");
+                }
+                else
+                {
+                    result.append("UPDATE SET ");
+                }
+                result.append(getDelimitedIdentifier(column.getName()));
+                result.append(" = EXCLUDED.");
+                result.append(getDelimitedIdentifier(column.getName()));
+                addSep = true;
+            }
+        }
+        if (!addSep)
+        {
+            result.append("NOTHING");
+        }
+        return result.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Note that only foreign keys that are declared as <code>DEFERRABLE</code> are deferred;
+     * these are checked when the transaction is committed.
+     */
+    public String getDeferForeignKeyChecksSql()
+    {
+        return "SET CONSTRAINTS ALL DEFERRED";
+    }
+
     /**
      * {@inheritDoc}
      */
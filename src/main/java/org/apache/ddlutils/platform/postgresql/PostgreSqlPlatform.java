@@ -26,6 +26,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -59,6 +60,9 @@ public class PostgreSqlPlatform extends PlatformImplBase
     /** The subprotocol used by the standard PostgreSQL driver. */
     public static final String JDBC_SUBPROTOCOL  = "postgresql";
 
+    /** The connections whose auto-commit mode has been turned off for streaming queries. */
+    private final Map _streamingConnections = new IdentityHashMap();
+
     /**
      * Creates a new platform instance.
      */
@@ -70,6 +74,15 @@ public class PostgreSqlPlatform extends PlatformImplBase
         // this is the default length though it might be changed when building PostgreSQL
         // in file src/include/postgres_ext.h
         info.setMaxIdentifierLength(31);
+        info.setGeneratedKeysReadableInBatchMode(true);
+        info.setMultiRowInsertSupported(true);
+        // ON CONFLICT is available since PostgreSQL 9.5
+        info.setUpsertSupported(true);
+        // only affects foreign keys that are declared as DEFERRABLE
+        info.setForeignKeyChecksDeferrable(true);
+        info.setDeferrableForeignKeysRequired(true);
+        // the wire protocol uses a 16 bit parameter count
+        info.setMaxParametersPerStatement(32767);
 
         info.addNativeTypeMapping(Types.ARRAY,         "BYTEA",            Types.LONGVARBINARY);
         info.addNativeTypeMapping(Types.BINARY,        "BYTEA",            Types.LONGVARBINARY);
@@ -112,6 +125,49 @@ public class PostgreSqlPlatform extends PlatformImplBase
         return DATABASENAME;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected void prepareConnectionForStreaming(Connection connection) throws SQLException
+    {
+        // the driver ignores the fetch size and reads the whole result set in auto-commit mode
+        if (connection.getAutoCommit())
+        {
+            connection.setAutoCommit(false);
+            synchronized (_streamingConnections)
+            {
+                _streamingConnections.put(connection, connection);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void returnConnection(Connection connection)
+    {
+        boolean isStreaming;
+
+        synchronized (_streamingConnections)
+        {
+            isStreaming = (_streamingConnections.remove(connection) != null);
+        }
+        if (isStreaming)
+        {
+            try
+            {
+                // ends the transaction of the streaming query
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            catch (SQLException ex)
+            {
+                getLog().warn("Could not restore the auto-commit mode of the connection", ex);
+            }
+        }
+        super.returnConnection(connection);
+    }
+
     /**
      * Creates or drops the database referenced by the given connection url.
      * 
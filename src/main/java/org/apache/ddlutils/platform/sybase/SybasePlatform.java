@@ -51,6 +51,7 @@ import org.apache.ddlutils.model.TypeMap;
 import org.apache.ddlutils.platform.CreationParameters;
 import org.apache.ddlutils.platform.DefaultTableDefinitionChangesPredicate;
 import org.apache.ddlutils.platform.PlatformImplBase;
+import org.apache.ddlutils.platform.TableSession;
 
 /**
  * The platform implementation for Sybase.
@@ -291,6 +292,28 @@ public class SybasePlatform extends PlatformImplBase
                (table.getAutoIncrementColumns().length > 0);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUpTableSession(TableSession session) throws SQLException
+    {
+        Table table = session.getTable();
+
+        if (useIdentityOverrideFor(table))
+        {
+            SybaseBuilder builder     = (SybaseBuilder)getSqlBuilder();
+            String        quotationOn = builder.getQuotationOnStatement();
+
+            // the quotation mode stays on so that it also applies when the session ends
+            if (quotationOn.length() > 0)
+            {
+                session.execute(quotationOn, null);
+            }
+            session.execute(builder.getEnableIdentityOverrideSql(table),
+                            builder.getDisableIdentityOverrideSql(table));
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -213,6 +213,16 @@ public class DatabaseToDdlTask extends DatabaseTaskBase
         addCommand(command);
     }
 
+    /**
+     * Adds the "sort data files"-command.
+     * 
+     * @param command The command
+     */
+    public void addSortDataFiles(SortDataFilesCommand command)
+    {
+        addCommand(command);
+    }
+
     /**
      * Adds the "drop tables"-command.
      * 
@@ -190,6 +190,16 @@ public class DdlToDatabaseTask extends DatabaseTaskBase
         addCommand(command);
     }
 
+    /**
+     * Adds the "sort data files"-command.
+     * 
+     * @param command The command
+     */
+    public void addSortDataFiles(SortDataFilesCommand command)
+    {
+        addCommand(command);
+    }
+
     /**
      * {@inheritDoc}
      */
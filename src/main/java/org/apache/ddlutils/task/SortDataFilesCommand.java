@@ -0,0 +1,214 @@
+package org.apache.ddlutils.task;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.apache.ddlutils.io.DataSorter;
+import org.apache.ddlutils.model.Database;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.FileSet;
+
+/**
+ * Reads the data XML file(s) and writes the data into one file in which the rows are grouped
+ * by table in the order imposed by the foreign keys, i.e. the referenced tables come before the
+ * referencing ones. Rows of a table that references itself are ordered so that the referenced
+ * rows come first. The data in the resulting file can then be inserted with the
+ * <code>ensureForeignKeyOrder</code> attribute of the <code>writeDataToDatabase</code> command
+ * turned off. Sorting does not need a database connection, and only a limited number of rows
+ * is held in memory; the remaining rows are sorted in temporary files.
+ *
+ * @version $Revision: $
+ * @ant.task name="sortDataFiles"
+ */
+public class SortDataFilesCommand extends ConvertingDatabaseCommand
+{
+    /** A single data file to sort. */
+    private File _singleDataFile = null;
+    /** The input files. */
+    private ArrayList _fileSets = new ArrayList();
+    /** The file to output the sorted data to. */
+    private File _outputFile;
+    /** The character encoding to use. */
+    private String _encoding;
+    /** The maximum number of rows to hold in memory. */
+    private int _maxRowsInMemory = 0;
+    /** The directory for the temporary files. */
+    private File _tempDir;
+
+    /**
+     * Adds a fileset.
+     *
+     * @param fileset The additional input files
+     */
+    public void addConfiguredFileset(FileSet fileset)
+    {
+        _fileSets.add(fileset);
+    }
+
+    /**
+     * Specifies the name of the single XML file that contains the data to sort.
+     *
+     * @param dataFile The data file
+     * @ant.not-required Use either this or <code>fileset</code> sub elements.
+     */
+    public void setDataFile(File dataFile)
+    {
+        _singleDataFile = dataFile;
+    }
+
+    /**
+     * Specifies the file to write the sorted data XML to.
+     *
+     * @param outputFile The output file
+     * @ant.required
+     */
+    public void setOutputFile(File outputFile)
+    {
+        _outputFile = outputFile;
+    }
+
+    /**
+     * Specifies the encoding of the output XML file.
+     *
+     * @param encoding The encoding
+     * @ant.not-required The default encoding is <code>UTF-8</code>.
+     */
+    public void setEncoding(String encoding)
+    {
+        _encoding = encoding;
+    }
+
+    /**
+     * Specifies the maximum number of rows that shall be held in memory while sorting. The
+     * rows beyond this limit are written sorted to temporary files which are then merged.
+     *
+     * @param maxRows The maximum number of rows
+     * @ant.not-required The default value is 100000.
+     */
+    public void setMaxRowsInMemory(int maxRows)
+    {
+        _maxRowsInMemory = maxRows;
+    }
+
+    /**
+     * Specifies the directory in which the temporary files shall be created.
+     *
+     * @param tempDir The directory
+     * @ant.not-required Per default the temporary directory of the system is used.
+     */
+    public void setTempDir(File tempDir)
+    {
+        _tempDir = tempDir;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isRequiringModel()
+    {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute(DatabaseTaskBase task, Database model) throws BuildException
+    {
+        if ((_singleDataFile != null) && !_fileSets.isEmpty())
+        {
+            throw new BuildException("Please use either the datafile attribute or the sub fileset element, but not both");
+        }
+        if (_outputFile == null)
+        {
+            throw new BuildException("No output file specified");
+        }
+
+        ArrayList dataFiles = new ArrayList();
+
+        if (_singleDataFile != null)
+        {
+            addDataFile(dataFiles, _singleDataFile);
+        }
+        else
+        {
+            for (Iterator it = _fileSets.iterator(); it.hasNext();)
+            {
+                FileSet          fileSet    = (FileSet)it.next();
+                File             fileSetDir = fileSet.getDir(task.getProject());
+                DirectoryScanner scanner    = fileSet.getDirectoryScanner(task.getProject());
+                String[]         files      = scanner.getIncludedFiles();
+
+                for (int idx = 0; (files != null) && (idx < files.length); idx++)
+                {
+                    addDataFile(dataFiles, new File(fileSetDir, files[idx]));
+                }
+            }
+        }
+        try
+        {
+            DataSorter sorter = new DataSorter(model);
+
+            if (_maxRowsInMemory > 0)
+            {
+                sorter.setMaxRowsInMemory(_maxRowsInMemory);
+            }
+            sorter.setTempDir(_tempDir);
+            getDataIO().sortData(sorter,
+                                 (File[])dataFiles.toArray(new File[dataFiles.size()]),
+                                 _outputFile.getAbsolutePath(),
+                                 _encoding);
+            _log.info("Written sorted data XML to file " + _outputFile.getAbsolutePath());
+        }
+        catch (Exception ex)
+        {
+            handleException(ex, ex.getMessage());
+        }
+    }
+
+    /**
+     * Adds the given data file to the list of files to sort if it exists.
+     *
+     * @param dataFiles The list of files
+     * @param dataFile  The data file
+     */
+    private void addDataFile(ArrayList dataFiles, File dataFile)
+    {
+        if (!dataFile.exists())
+        {
+            _log.error("Could not find data file " + dataFile.getAbsolutePath());
+        }
+        else if (!dataFile.isFile())
+        {
+            _log.error("Path " + dataFile.getAbsolutePath() + " does not denote a data file");
+        }
+        else if (!dataFile.canRead())
+        {
+            _log.error("Could not read data file " + dataFile.getAbsolutePath());
+        }
+        else
+        {
+            dataFiles.add(dataFile);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 
 import org.apache.ddlutils.Platform;
+import org.apache.ddlutils.io.BulkLoadConstraints;
 import org.apache.ddlutils.io.DataReader;
 import org.apache.ddlutils.model.Database;
 import org.apache.tools.ant.BuildException;
@@ -55,6 +56,10 @@ public class WriteDataToDatabaseCommand extends ConvertingDatabaseCommand
     private ArrayList _fileSets = new ArrayList();
     /** Whether explicit values for identity columns will be used. */
     private boolean _useExplicitIdentityValues;
+    /** The number of rows to combine into one INSERT statement in batch mode. */
+    private int _multiRowInsertSize = 1;
+    /** The maximum number of prepared statements to cache. */
+    private int _statementCacheSize = 0;
 
     /**
      * Defines whether values for identity columns in the data XML shall be used instead of
@@ -73,6 +78,36 @@ public class WriteDataToDatabaseCommand extends ConvertingDatabaseCommand
         _useExplicitIdentityValues = useExplicitIdentityValues;
     }
 
+    /**
+     * Specifies how many rows DdlUtils shall combine into one multi-row INSERT statement
+     * (<code>INSERT ... VALUES (...), (...)</code>) in batch mode. This is only used for
+     * databases that support such statements, and the number of rows is further limited
+     * by the number of parameters that the database allows per statement. It is not used
+     * for tables whose rows have database-generated primary key values that need to be
+     * read back.
+     *
+     * @param numRows The number of rows per INSERT statement
+     * @ant.not-required Per default, every row is inserted via its own statement.
+     */
+    public void setMultiRowInsertSize(int numRows)
+    {
+        _multiRowInsertSize = numRows;
+    }
+
+    /**
+     * Specifies how many prepared statements DdlUtils shall keep open for reuse while
+     * inserting the data. If enabled, the statements for the same table and columns are
+     * prepared only once instead of for every row, which mostly benefits inserting without
+     * batch mode. The least recently used statement is closed if the limit is reached.
+     *
+     * @param maxStatements The maximum number of cached statements
+     * @ant.not-required Per default, no statements are cached.
+     */
+    public void setStatementCacheSize(int maxStatements)
+    {
+        _statementCacheSize = maxStatements;
+    }
+
     /**
      * Adds a fileset.
      * 
@@ -107,6 +142,73 @@ public class WriteDataToDatabaseCommand extends ConvertingDatabaseCommand
         getDataIO().setBatchSize(new Integer(batchSize));
     }
 
+    /**
+     * Specifies the time that the execution of one batch shall take. If set, DdlUtils measures
+     * how long the batches of each table take and adjusts the number of rows per batch for that
+     * table accordingly, starting with <code>batchSize</code> and staying between
+     * <code>minBatchSize</code> and <code>maxBatchSize</code>. The final batch sizes are logged
+     * at the end of the data insertion.<br/>
+     * This value is only used if <code>useBatchMode</code> is <code>true</code>.
+     *
+     * @param latency The latency in milliseconds
+     * @ant.not-required Per default, the batch size is fixed.
+     */
+    public void setTargetBatchLatency(int latency)
+    {
+        getDataIO().setTargetBatchLatency(latency);
+    }
+
+    /**
+     * Specifies the minimum number of rows per batch when adapting the batch size to the
+     * <code>targetBatchLatency</code>.
+     *
+     * @param batchSize The number of rows
+     * @ant.not-required The default value is 16.
+     */
+    public void setMinBatchSize(int batchSize)
+    {
+        getDataIO().setMinBatchSize(batchSize);
+    }
+
+    /**
+     * Specifies the maximum number of rows per batch when adapting the batch size to the
+     * <code>targetBatchLatency</code>.
+     *
+     * @param batchSize The number of rows
+     * @ant.not-required The default value is 65536.
+     */
+    public void setMaxBatchSize(int batchSize)
+    {
+        getDataIO().setMaxBatchSize(batchSize);
+    }
+
+    /**
+     * Specifies the maximum amount of data in one batch, estimated from the values of the rows.
+     * Use this to limit the memory that the JDBC driver needs for tables with large columns.<br/>
+     * This value is only used if <code>useBatchMode</code> is <code>true</code>.
+     *
+     * @param maxBytes The number of bytes
+     * @ant.not-required Per default, the amount of data per batch is not limited.
+     */
+    public void setMaxBatchBytes(long maxBytes)
+    {
+        getDataIO().setMaxBatchBytes(maxBytes);
+    }
+
+    /**
+     * Specifies whether the data shall be inserted by a separate thread while the data files are
+     * parsed. The parsed rows are then queued for the inserting thread, which allows parsing and
+     * inserting to overlap. If the queue is full, parsing waits until the inserting thread has
+     * caught up. Errors while inserting stop the parsing.
+     *
+     * @param queueSize The maximum number of queued rows
+     * @ant.not-required Per default, the rows are inserted by the parsing thread.
+     */
+    public void setPipelineQueueSize(int queueSize)
+    {
+        getDataIO().setPipelineQueueSize(queueSize);
+    }
+
     /**
      * Specifies whether batch mode shall be used for inserting the data. In batch mode, insert statements
      * for the same table are bundled together and executed as one statement. This can be a lot faster
@@ -138,6 +240,175 @@ public class WriteDataToDatabaseCommand extends ConvertingDatabaseCommand
         getDataIO().setEnsureFKOrder(ensureFKOrder);
     }
 
+    /**
+     * Specifies the number of threads that shall insert the data concurrently. If more than one thread
+     * is used, then the data is first read completely and then inserted table by table, following the
+     * foreign key order. The tables that do not depend on each other are then processed in parallel,
+     * each thread using its own database connection. Note that the read rows beyond the maximum number
+     * of objects in memory are then written to temporary files, and that the data source has to be able
+     * to provide the required number of connections.
+     *
+     * @param threadCount The number of threads
+     * @ant.not-required Per default only one thread is used.
+     */
+    public void setThreadCount(int threadCount)
+    {
+        getDataIO().setThreadCount(threadCount);
+    }
+
+    /**
+     * Specifies the number of threads that shall insert the data of one table concurrently if more
+     * than one thread is used, so that a big table does not hold up the load. Each of these threads
+     * uses its own database connection and inserts a part of the rows of the table. Tables that
+     * reference themselves or tables with auto-increment primary keys are not split, unless
+     * identity override is used.
+     *
+     * @param workersPerTable The number of threads
+     * @ant.not-required Per default the data of a table is inserted by one thread.
+     */
+    public void setWorkersPerTable(int workersPerTable)
+    {
+        getDataIO().setWorkersPerTable(workersPerTable);
+    }
+
+    /**
+     * Specifies the maximum number of objects that shall be held in memory while inserting the data.
+     * This limit applies separately to the identities of the inserted rows, which are needed to ensure
+     * the foreign key order, to the rows whose insertion is delayed because they reference rows that
+     * have not been inserted yet, and to the rows that are read before inserting them with multiple
+     * threads. Objects beyond this limit are written to temporary files. Use this for
+     * huge data files which would otherwise exhaust the available memory.
+     *
+     * @param maxObjects The maximum number of objects
+     * @ant.not-required Per default all objects are held in memory.
+     */
+    public void setMaxObjectsInMemory(int maxObjects)
+    {
+        getDataIO().setMaxObjectsInMemory(maxObjects);
+    }
+
+    /**
+     * Specifies the number of rows after which DdlUtils shall commit the inserted data. This is
+     * independent of the batch size; all queued rows are written before committing.
+     *
+     * @param commitInterval The number of rows
+     * @ant.not-required Per default, every written row or batch is committed.
+     */
+    public void setCommitInterval(int commitInterval)
+    {
+        getDataIO().setCommitInterval(commitInterval);
+    }
+
+    /**
+     * Specifies whether DdlUtils shall defer the foreign key checks of the database instead of ordering
+     * the rows by their foreign keys. The rows are then inserted in the order of the data XML within one
+     * transaction per <code>commitInterval</code>, or one transaction for all data if no commit interval
+     * is given. Depending on the database, the foreign keys are checked when committing (PostgreSQL and
+     * Oracle, which only defer foreign keys declared as <code>DEFERRABLE</code>), or the checks are turned
+     * off during the insertion (HsqlDb and MySql). On other databases, this setting is ignored. The rows are
+     * still ordered by their foreign keys on PostgreSQL and Oracle if the foreign keys in the database are
+     * not deferrable (which they are not when created by DdlUtils), and on all databases if foreign keys
+     * reference database-generated primary key values. Note that this is only used if the data is inserted
+     * with one thread.
+     *
+     * @param deferForeignKeyChecks <code>true</code> if the foreign key checks shall be deferred
+     * @ant.not-required Per default, the foreign key checks are not deferred.
+     */
+    public void setDeferForeignKeyChecks(boolean deferForeignKeyChecks)
+    {
+        getDataIO().setDeferForeignKeyChecks(deferForeignKeyChecks);
+    }
+
+    /**
+     * Specifies a file to which DdlUtils writes the rows that could not be inserted into the database.
+     * If set, DdlUtils continues with the next rows instead of stopping at the first row that could not
+     * be inserted. The file has the format of the data XML, and contains the error message of the database
+     * as a comment before each row. In batch mode, a failed batch is inserted again in smaller and smaller
+     * parts until the failing rows are isolated, so that all other rows of the batch are still inserted.
+     *
+     * @param rejectFile The reject file
+     * @ant.not-required Per default, the rows that could not be inserted are only logged.
+     */
+    public void setRejectFile(File rejectFile)
+    {
+        getDataIO().setRejectFile(rejectFile);
+        getDataIO().setFailOnError(rejectFile == null);
+    }
+
+    /**
+     * Specifies a file in which DdlUtils records the progress of the data insertion whenever it commits
+     * according to the <code>commitInterval</code>. If the insertion fails, it can then be resumed with
+     * <code>resumeFromCheckpoint</code>. The file is deleted once all data has been inserted. Checkpoints
+     * cannot be used together with a <code>threadCount</code> greater than one; the data insertion then
+     * fails without touching the file.
+     *
+     * @param checkpointFile The checkpoint file
+     * @ant.not-required Per default, no checkpoints are written.
+     */
+    public void setCheckpointFile(File checkpointFile)
+    {
+        getDataIO().setCheckpointFile(checkpointFile);
+    }
+
+    /**
+     * Specifies whether DdlUtils shall resume a failed data insertion from the checkpoint file. The rows
+     * that were committed according to the checkpoint are skipped, and rows that might have been committed
+     * are only inserted if they do not exist yet. The data files have to be the same and read in the same
+     * order as in the failed run. Note that this does not work for rows whose identity values are defined
+     * by the database and are referenced by other rows, so the data insertion fails if the model contains
+     * such tables and <code>useExplicitIdentityValues</code> is not turned on, or if <code>threadCount</code>
+     * is greater than one.
+     *
+     * @param resumeFromCheckpoint <code>true</code> if the data insertion shall be resumed
+     * @ant.not-required Per default, the data insertion starts from the beginning.
+     */
+    public void setResumeFromCheckpoint(boolean resumeFromCheckpoint)
+    {
+        getDataIO().setResumeFromCheckpoint(resumeFromCheckpoint);
+    }
+
+    /**
+     * Specifies whether DdlUtils shall drop the indexes and foreign keys of the tables before
+     * inserting the data, and recreate them afterwards. This is usually a lot faster for large
+     * initial loads. As there are no foreign keys during the load, the foreign key order is not
+     * ensured, so identity values referenced by other rows have to be inserted explicitly (see
+     * <code>useExplicitIdentityValues</code>). The dropped indexes and foreign keys are recorded
+     * in the <code>bulkLoadRecordFile</code> until they have been recreated, so if the load is
+     * aborted, then the next bulk load will recreate them.
+     *
+     * @param bulkLoad <code>true</code> if the indexes and foreign keys shall be dropped during the load
+     * @ant.not-required Per default, the indexes and foreign keys are kept.
+     */
+    public void setBulkLoad(boolean bulkLoad)
+    {
+        getDataIO().setBulkLoad(bulkLoad);
+    }
+
+    /**
+     * Specifies the file in which DdlUtils records the indexes and foreign keys that it dropped for
+     * a bulk load. Use the same file when rerunning an aborted bulk load.
+     *
+     * @param recordFile The record file
+     * @ant.not-required Per default, a file in the temporary directory named after the database
+     *                   model is used.
+     */
+    public void setBulkLoadRecordFile(File recordFile)
+    {
+        getDataIO().setBulkLoadRecordFile(recordFile);
+    }
+
+    /**
+     * Specifies the number of threads that recreate the indexes and foreign keys after a bulk load,
+     * each using its own database connection.
+     *
+     * @param threadCount The number of threads
+     * @ant.not-required Per default only one thread is used.
+     */
+    public void setIndexThreadCount(int threadCount)
+    {
+        getDataIO().setIndexThreadCount(threadCount);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -148,12 +419,17 @@ public class WriteDataToDatabaseCommand extends ConvertingDatabaseCommand
             throw new BuildException("Please use either the datafile attribute or the sub fileset element, but not both");
         }
 
-        Platform   platform   = getPlatform();
-        DataReader dataReader = null;
+        Platform            platform   = getPlatform();
+        DataReader          dataReader = null;
+        BulkLoadConstraints bulkLoad   = null;
+        boolean             success    = false;
 
         platform.setIdentityOverrideOn(_useExplicitIdentityValues);
+        platform.setMultiRowInsertSize(_multiRowInsertSize);
+        platform.setStatementCacheSize(_statementCacheSize);
         try
         {
+            bulkLoad   = getDataIO().startBulkLoad(platform, model);
             dataReader = getDataIO().getConfiguredDataReader(platform, model);
             dataReader.getSink().start();
             if (_singleDataFile != null)
@@ -175,6 +451,7 @@ public class WriteDataToDatabaseCommand extends ConvertingDatabaseCommand
                     }
                 }
             }
+            success = true;
         }
         catch (Exception ex)
         {
@@ -182,9 +459,19 @@ public class WriteDataToDatabaseCommand extends ConvertingDatabaseCommand
         }
         finally
         {
-            if (dataReader != null)
+            boolean ended = false;
+
+            try
+            {
+                if (dataReader != null)
+                {
+                    dataReader.getSink().end();
+                }
+                ended = true;
+            }
+            finally
             {
-                dataReader.getSink().end();
+                getDataIO().finishBulkLoad(bulkLoad, success && ended);
             }
         }
     }
@@ -39,6 +39,11 @@ public class WriteDataToFileCommand extends ConvertingDatabaseCommand
     /** The character encoding to use. */
     private String _encoding;
 
+    /** The number of rows that the JDBC driver shall fetch at once. */
+    private int _fetchSize = 0;
+    /** Whether to use streaming cursors for reading the tables. */
+    private boolean _useStreamingCursors;
+
     /** Whether DdlUtils should search for the schema of the tables. @deprecated */
     private boolean _determineSchema;
 
@@ -64,6 +69,74 @@ public class WriteDataToFileCommand extends ConvertingDatabaseCommand
         _encoding = encoding;
     }
 
+    /**
+     * Specifies the number of threads that shall read the data of the tables concurrently. Each
+     * thread uses its own database connection and stores the rows of the tables it reads in
+     * temporary files. The resulting XML is the same as when using one thread as the rows are
+     * written to it in the same order.
+     * 
+     * @param threadCount The number of threads
+     * @ant.not-required Per default only one thread is used.
+     */
+    public void setThreadCount(int threadCount)
+    {
+        getDataIO().setExportThreadCount(threadCount);
+    }
+
+    /**
+     * Specifies the number of rows per primary key range into which big tables shall be split
+     * when reading the tables with more than one thread. This applies to tables with a single
+     * integer primary key column, whose ranges are then read concurrently. The rows of these
+     * tables are written ordered by the primary key.
+     * 
+     * @param numRows The number of rows
+     * @ant.not-required Per default tables are not split.
+     */
+    public void setChunkSize(int numRows)
+    {
+        getDataIO().setExportChunkSize(numRows);
+    }
+
+    /**
+     * Specifies whether the XML shall be written with a fast writer of DdlUtils instead of the
+     * StAX implementation. The fast writer produces the same XML as the Woodstox StAX
+     * implementation, and is only used for the UTF-8 encoding.
+     * 
+     * @param useFastXmlWriter <code>true</code> if the fast writer shall be used
+     * @ant.not-required Per default the fast writer is used.
+     */
+    public void setUseFastXmlWriter(boolean useFastXmlWriter)
+    {
+        getDataIO().setUseFastXmlWriter(useFastXmlWriter);
+    }
+
+    /**
+     * Specifies the number of rows that the JDBC driver shall fetch at once when reading the
+     * tables.
+     * 
+     * @param fetchSize The number of rows
+     * @ant.not-required Per default the fetch size of the JDBC driver is used, or 1000 if
+     *                   streaming cursors are used.
+     */
+    public void setFetchSize(int fetchSize)
+    {
+        _fetchSize = fetchSize;
+    }
+
+    /**
+     * Specifies whether the tables shall be read via streaming cursors, i.e. forward-only,
+     * read-only result sets whose rows are fetched from the database while they are written
+     * instead of all at once. Use this for tables that are too big to fit into memory. DdlUtils
+     * applies the settings that the JDBC driver of the database requires for this.
+     * 
+     * @param useStreamingCursors <code>true</code> if streaming cursors shall be used
+     * @ant.not-required Per default streaming cursors are not used.
+     */
+    public void setUseStreamingCursors(boolean useStreamingCursors)
+    {
+        _useStreamingCursors = useStreamingCursors;
+    }
+
     /**
      * Specifies whether DdlUtils should try to find the schema of the tables when reading data
      * from a live database.
@@ -91,6 +164,8 @@ public class WriteDataToFileCommand extends ConvertingDatabaseCommand
     {
         try
         {
+            getPlatform().setQueryFetchSize(_fetchSize);
+            getPlatform().setStreamingQueriesOn(_useStreamingCursors);
             getDataIO().setDetermineSchema(_determineSchema);
             getDataIO().writeDataToXML(getPlatform(), model,
                                        new FileOutputStream(_outputFile), _encoding);
@@ -142,7 +142,10 @@ public abstract class JdbcSupport
                 String connName = connection.toString();
 
                 _log.debug("Borrowed connection "+connName+" from data source");
-                _openConnectionNames.add(connName);
+                synchronized (_openConnectionNames)
+                {
+                    _openConnectionNames.add(connName);
+                }
             }
             return connection;
         }
@@ -165,25 +168,27 @@ public abstract class JdbcSupport
             {
                 if (_log.isDebugEnabled())
                 {
-                    String connName = connection.toString();
-
-                    _openConnectionNames.remove(connName);
-
-                    StringBuffer logMsg = new StringBuffer();
+                    String       connName = connection.toString();
+                    StringBuffer logMsg   = new StringBuffer();
 
                     logMsg.append("Returning connection ");
                     logMsg.append(connName);
                     logMsg.append(" to data source.\nRemaining connections:");
-                    if (_openConnectionNames.isEmpty())
+                    // connections may be borrowed and returned by several threads at once
+                    synchronized (_openConnectionNames)
                     {
-                        logMsg.append(" None");
-                    }
-                    else
-                    {
-                        for (Iterator it = _openConnectionNames.iterator(); it.hasNext();)
+                        _openConnectionNames.remove(connName);
+                        if (_openConnectionNames.isEmpty())
+                        {
+                            logMsg.append(" None");
+                        }
+                        else
                         {
-                          logMsg.append("\n    ");
-                          logMsg.append(it.next().toString());
+                            for (Iterator it = _openConnectionNames.iterator(); it.hasNext();)
+                            {
+                              logMsg.append("\n    ");
+                              logMsg.append(it.next().toString());
+                            }
                         }
                     }
                     _log.debug(logMsg.toString());
@@ -21,9 +21,12 @@ package org.apache.ddlutils;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.ddlutils.io.DatabaseIO;
 import org.apache.ddlutils.model.Database;
+import org.apache.ddlutils.model.Table;
 import org.apache.ddlutils.platform.SqlBuilder;
 
 /**
@@ -258,4 +261,32 @@ public abstract class TestPlatformBase extends TestBase
 
         return getDatabaseCreationSql(schema);
     }
+
+    /**
+     * Returns the SQL to insert or update a row in a table with a primary key column
+     * and two other columns.
+     * 
+     * @return The SQL
+     */
+    protected String getUpsertTestSql()
+    {
+        final String schema =
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n" +
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='upserttest'>\n" +
+            "  <table name='upserttable'>\n" +
+            "    <column name='COL_PK' type='INTEGER' primaryKey='true'/>\n" +
+            "    <column name='COL_TEXT' type='VARCHAR' size='128'/>\n" +
+            "    <column name='COL_NUM' type='DECIMAL' size='15,2'/>\n" +
+            "  </table>\n" +
+            "</database>";
+
+        Table table        = parseDatabaseFromString(schema).getTable(0);
+        Map   columnValues = new HashMap();
+
+        for (int idx = 0; idx < table.getColumnCount(); idx++)
+        {
+            columnValues.put(table.getColumn(idx).getName(), null);
+        }
+        return getSqlBuilder().getUpsertSql(table, columnValues);
+    }
 }
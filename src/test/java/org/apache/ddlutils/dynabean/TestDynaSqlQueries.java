@@ -19,6 +19,7 @@ package org.apache.ddlutils.dynabean;
  * under the License.
  */
 
+import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -533,6 +534,56 @@ public class TestDynaSqlQueries extends TestAgainstLiveDatabaseBase
     }
 
 
+    /**
+     * Tests the exists method for multiple beans.
+     */
+    public void testExistsMultiple() throws Exception
+    {
+        createDatabase(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='ddlutils'>\n"+
+            "  <table name='TestTable'>\n"+
+            "    <column name='TheId' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='TheKey' type='VARCHAR' size='15' primaryKey='true' required='true'/>\n"+
+            "    <column name='TheText' type='VARCHAR' size='15'/>\n"+
+            "  </table>\n"+
+            "</database>");
+
+        insertData(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<data>\n"+
+            "  <TestTable TheId='1' TheKey='a' TheText='Text 1'/>\n"+
+            "  <TestTable TheId='3' TheKey='b' TheText='Text 3'/>\n"+
+            "</data>");
+
+        SqlDynaClass dynaClass = SqlDynaClass.newInstance(getModel().getTable(0));
+        DynaBean[]   dynaBeans = new DynaBean[4];
+        Object[][]   pkValues  = { { new Integer(1), "a" }, { new Integer(1), "b" }, { new Integer(3), "b" }, { new Integer(3), "b" } };
+
+        for (int idx = 0; idx < dynaBeans.length; idx++)
+        {
+            dynaBeans[idx] = new SqlDynaBean(dynaClass);
+            dynaBeans[idx].set("TheId", pkValues[idx][0]);
+            dynaBeans[idx].set("TheKey", pkValues[idx][1]);
+        }
+
+        Connection connection = getPlatform().borrowConnection();
+
+        try
+        {
+            boolean[] exists = getPlatform().exists(connection, getModel(), dynaBeans);
+
+            assertTrue(exists[0]);
+            assertFalse(exists[1]);
+            assertTrue(exists[2]);
+            assertTrue(exists[3]);
+        }
+        finally
+        {
+            getPlatform().returnConnection(connection);
+        }
+    }
+
     /**
      * Tests the store method.
      */
@@ -612,4 +663,64 @@ public class TestDynaSqlQueries extends TestAgainstLiveDatabaseBase
         assertEquals("Text 10",
                      getPropertyValue(bean, "TheText"));
     }
+
+    /**
+     * Tests the insert, update, exists and delete methods with an enabled statement cache
+     * that is smaller than the number of distinct statements.
+     */
+    public void testStatementCache() throws Exception
+    {
+        createDatabase(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='ddlutils'>\n"+
+            "  <table name='TestTable'>\n"+
+            "    <column name='TheId' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='TheText' type='VARCHAR' size='15'/>\n"+
+            "  </table>\n"+
+            "</database>");
+
+        SqlDynaClass dynaClass  = SqlDynaClass.newInstance(getModel().getTable(0));
+        Connection   connection = null;
+
+        getPlatform().setStatementCacheSize(2);
+        try
+        {
+            connection = getPlatform().borrowConnection();
+            for (int idx = 0; idx < 10; idx++)
+            {
+                DynaBean dynaBean = new SqlDynaBean(dynaClass);
+
+                dynaBean.set("TheId", new Integer(idx));
+                dynaBean.set("TheText", "Text " + idx);
+                assertFalse(getPlatform().exists(connection, getModel(), dynaBean));
+                getPlatform().insert(connection, getModel(), dynaBean);
+                assertTrue(getPlatform().exists(connection, getModel(), dynaBean));
+                dynaBean.set("TheText", "Text " + (idx + 10));
+                getPlatform().update(connection, getModel(), dynaBean);
+                if (idx % 2 == 1)
+                {
+                    getPlatform().delete(connection, getModel(), dynaBean);
+                }
+            }
+        }
+        finally
+        {
+            getPlatform().returnConnection(connection);
+            getPlatform().setStatementCacheSize(0);
+        }
+
+        List beans = getRows("TestTable", "TheId");
+
+        assertEquals(5,
+                     beans.size());
+        for (int idx = 0; idx < beans.size(); idx++)
+        {
+            DynaBean bean = (DynaBean)beans.get(idx);
+
+            assertEquals(new Integer(2 * idx),
+                         getPropertyValue(bean, "TheId"));
+            assertEquals("Text " + (2 * idx + 10),
+                         getPropertyValue(bean, "TheText"));
+        }
+    }
 }
@@ -0,0 +1,178 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.TestBase;
+import org.apache.ddlutils.model.Database;
+import org.apache.ddlutils.model.Table;
+
+/**
+ * Tests the {@link org.apache.ddlutils.io.BatchSizeController} class.
+ *
+ * @version $Revision: $
+ */
+public class TestBatchSizeController extends TestBase
+{
+    /** The test model. */
+    private static final String TEST_MODEL =
+        "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+        "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='batchtest'>\n"+
+        "  <table name='fast'>\n"+
+        "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+        "  </table>\n"+
+        "  <table name='slow'>\n"+
+        "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+        "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+        "    <column name='blob' type='VARBINARY' size='32'/>\n"+
+        "  </table>\n"+
+        "</database>";
+
+    /** The model. */
+    private Database _model;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _model = parseDatabaseFromString(TEST_MODEL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        _model = null;
+        super.tearDown();
+    }
+
+    /**
+     * Tests that the batch size is fixed if no target latency is given.
+     */
+    public void testFixedBatchSize() throws Exception
+    {
+        BatchSizeController controller = new BatchSizeController(100, 16, 1000, 0, 0);
+        Table               table      = _model.findTable("fast");
+
+        assertFalse(controller.isAdaptive());
+        controller.batchExecuted(table, 100, 800, 1);
+        controller.batchExecuted(table, 100, 800, 500);
+        assertEquals(100, controller.getBatchSize(table));
+
+        List summary = controller.getSummary();
+
+        assertEquals(1, summary.size());
+        assertEquals("fast: 200 rows in 2 batches, average latency 250 ms, 8 bytes per row, batch size 100",
+                     summary.get(0));
+    }
+
+    /**
+     * Tests that the batch sizes of the tables follow their latencies independently.
+     */
+    public void testAdaptBatchSizePerTable() throws Exception
+    {
+        BatchSizeController controller = new BatchSizeController(100, 16, 1000, 100, 0);
+        Table               fastTable  = _model.findTable("fast");
+        Table               slowTable  = _model.findTable("slow");
+
+        assertTrue(controller.isAdaptive());
+        // fast batches grow by at most a factor of two per batch up to the maximum
+        controller.batchExecuted(fastTable, 100, 0, 10);
+        assertEquals(200, controller.getBatchSize(fastTable));
+        controller.batchExecuted(fastTable, 200, 0, 10);
+        assertEquals(400, controller.getBatchSize(fastTable));
+        controller.batchExecuted(fastTable, 400, 0, 10);
+        controller.batchExecuted(fastTable, 800, 0, 10);
+        assertEquals(1000, controller.getBatchSize(fastTable));
+
+        // slow batches shrink to the minimum
+        assertEquals(100, controller.getBatchSize(slowTable));
+        controller.batchExecuted(slowTable, 100, 0, 125);
+        assertEquals(80, controller.getBatchSize(slowTable));
+        for (int idx = 0; idx < 5; idx++)
+        {
+            controller.batchExecuted(slowTable, controller.getBatchSize(slowTable), 0, 1000);
+        }
+        assertEquals(16, controller.getBatchSize(slowTable));
+
+        // a small final batch does not change the batch size
+        controller.batchExecuted(fastTable, 10, 0, 100);
+        assertEquals(1000, controller.getBatchSize(fastTable));
+
+        assertEquals(2, controller.getSummary().size());
+    }
+
+    /**
+     * Tests that the batch size is limited by the maximum number of bytes per batch.
+     */
+    public void testMaxBatchBytes() throws Exception
+    {
+        BatchSizeController controller = new BatchSizeController(100, 16, 1000, 100, 10000);
+        Table               table      = _model.findTable("slow");
+
+        controller.batchExecuted(table, 100, 20000, 10);
+        assertEquals(50, controller.getBatchSize(table));
+    }
+
+    /**
+     * Tests the estimation of the size of a bean.
+     */
+    public void testEstimateSize() throws Exception
+    {
+        DynaBean bean = _model.createDynaBeanFor(_model.findTable("slow"));
+
+        bean.set("pk", new Integer(1));
+        bean.set("avalue", "abcd");
+        bean.set("blob", new byte[] { 1, 2, 3 });
+        assertEquals(8 + 8 + 3, BatchSizeController.estimateSize(bean));
+        bean.set("avalue", null);
+        assertEquals(8 + 3, BatchSizeController.estimateSize(bean));
+    }
+
+    /**
+     * Tests that invalid bounds are rejected.
+     */
+    public void testInvalidBounds() throws Exception
+    {
+        try
+        {
+            new BatchSizeController(100, 0, 1000, 100, 0);
+            fail();
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // expected
+        }
+        try
+        {
+            new BatchSizeController(100, 100, 10, 100, 0);
+            fail();
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // expected
+        }
+    }
+}
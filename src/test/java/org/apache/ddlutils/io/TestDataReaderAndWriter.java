@@ -29,12 +29,15 @@ import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import junit.framework.TestCase;
 import org.apache.commons.beanutils.DynaBean;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 import org.apache.ddlutils.dynabean.SqlDynaBean;
+import org.apache.ddlutils.io.converters.ConversionException;
+import org.apache.ddlutils.io.converters.SqlTypeConverter;
 import org.apache.ddlutils.model.Column;
 import org.apache.ddlutils.model.Database;
 import org.apache.ddlutils.model.Table;
@@ -102,6 +105,8 @@ public class TestDataReaderAndWriter extends TestCase
 
     /**
      * Writes the given dyna bean via a {@link DataWriter} and returns the raw xml output.
+     * If the {@link FastXmlStreamWriter} supports the encoding, then this also checks that
+     * it produces the same output as the StAX implementation.
      * 
      * @param model    The database model to use
      * @param bean     The bean to write
@@ -117,6 +122,17 @@ public class TestDataReaderAndWriter extends TestCase
         dataWriter.write(bean);
         dataWriter.writeDocumentEnd();
 
+        if (FastXmlStreamWriter.isSupportedEncoding(encoding))
+        {
+            ByteArrayOutputStream fastOutput     = new ByteArrayOutputStream();
+            DataWriter            fastDataWriter = new DataWriter(new FastXmlStreamWriter(fastOutput), encoding);
+
+            fastDataWriter.writeDocumentStart();
+            fastDataWriter.write(bean);
+            fastDataWriter.writeDocumentEnd();
+            assertTrue("The fast xml writer wrote different XML",
+                       Arrays.equals(output.toByteArray(), fastOutput.toByteArray()));
+        }
         return output.toByteArray();
     }
 
@@ -1713,4 +1729,70 @@ public class TestDataReaderAndWriter extends TestCase
                       "  </test>\n" +
                       "</data>\n");
     }
+
+    /**
+     * Tests writing several rows of the same table whose values need different representations,
+     * and that a converter registered after rows of the table have been written is used for the
+     * following rows.
+     */
+    public void testWriteSeveralRowsAndRegisterConverter() throws Exception
+    {
+        Database model = readModel(
+            "<?xml version='1.0' encoding='UTF-8'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='test'>\n" +
+            "  <table name='test'>\n"+
+            "    <column name='id' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='value' type='VARCHAR' size='300'/>\n"+
+            "  </table>\n"+
+            "</database>");
+        String                longValue  = StringUtils.repeat("a", 300);
+        ByteArrayOutputStream output     = new ByteArrayOutputStream();
+        DataWriter            dataWriter = new DataWriter(output, "UTF-8");
+        SqlDynaBean           bean       = (SqlDynaBean)model.createDynaBeanFor(model.getTable(0));
+
+        dataWriter.writeDocumentStart();
+        bean.set("id", new Integer(1));
+        bean.set("value", "foo");
+        dataWriter.write(bean);
+        bean.set("id", new Integer(2));
+        bean.set("value", longValue);
+        dataWriter.write(bean);
+        bean.set("id", new Integer(3));
+        bean.set("value", "\u0001");
+        dataWriter.write(bean);
+        bean.set("id", new Integer(4));
+        bean.set("value", null);
+        dataWriter.write(bean);
+        dataWriter.getConverterConfiguration().registerConverter("test", "value", new SqlTypeConverter() {
+            public Object convertFromString(String textRep, int sqlTypeCode) throws ConversionException
+            {
+                return textRep;
+            }
+
+            public String convertToString(Object obj, int sqlTypeCode) throws ConversionException
+            {
+                return obj == null ? null : obj.toString().toUpperCase();
+            }
+        });
+        bean.set("id", new Integer(5));
+        bean.set("value", "foo");
+        dataWriter.write(bean);
+        dataWriter.writeDocumentEnd();
+
+        String dataXml = new String(output.toByteArray(), "UTF-8");
+
+        // the form of the xml declaration depends on the StAX implementation
+        assertEquals("<dataset>\n" +
+                     "  <test id=\"1\" value=\"foo\" />\n" +
+                     "  <test id=\"2\">\n" +
+                     "    <value>" + longValue + "</value>\n" +
+                     "  </test>\n" +
+                     "  <test id=\"3\">\n" +
+                     "    <value " + DatabaseIO.BASE64_ATTR_NAME + "=\"true\">" + new String(Base64.encodeBase64("\u0001".getBytes("UTF-8")), "UTF-8") + "</value>\n" +
+                     "  </test>\n" +
+                     "  <test id=\"4\" />\n" +
+                     "  <test id=\"5\" value=\"FOO\" />\n" +
+                     "</dataset>\n",
+                     dataXml.substring(dataXml.indexOf("<dataset>")));
+    }
 }
@@ -0,0 +1,300 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.TestBase;
+import org.apache.ddlutils.model.Database;
+
+/**
+ * Tests the {@link org.apache.ddlutils.io.DataSorter} class.
+ *
+ * @version $Revision: $
+ */
+public class TestDataSorter extends TestBase
+{
+    /** The test model. */
+    private static final String TEST_MODEL =
+        "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+        "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='sortertest'>\n"+
+        "  <table name='child'>\n"+
+        "    <column name='id' type='INTEGER' primaryKey='true' required='true'/>\n"+
+        "    <column name='parentid' type='INTEGER'/>\n"+
+        "    <foreign-key foreignTable='parent'>\n"+
+        "      <reference local='parentid' foreign='id'/>\n"+
+        "    </foreign-key>\n"+
+        "  </table>\n"+
+        "  <table name='node'>\n"+
+        "    <column name='id' type='INTEGER' primaryKey='true' required='true'/>\n"+
+        "    <column name='parentid' type='INTEGER'/>\n"+
+        "    <foreign-key foreignTable='node'>\n"+
+        "      <reference local='parentid' foreign='id'/>\n"+
+        "    </foreign-key>\n"+
+        "  </table>\n"+
+        "  <table name='parent'>\n"+
+        "    <column name='id' type='INTEGER' primaryKey='true' required='true'/>\n"+
+        "    <column name='name' type='VARCHAR' size='32'/>\n"+
+        "  </table>\n"+
+        "</database>";
+
+    /** The model. */
+    private Database _model;
+    /** The temporary files. */
+    private List _files = new ArrayList();
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _model = parseDatabaseFromString(TEST_MODEL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        for (int idx = 0; idx < _files.size(); idx++)
+        {
+            ((File)_files.get(idx)).delete();
+        }
+        _files.clear();
+        _model = null;
+        super.tearDown();
+    }
+
+    /**
+     * Writes the given data XML to a temporary file.
+     *
+     * @param dataXml The data XML
+     * @return The file
+     */
+    private File writeDataFile(String dataXml) throws Exception
+    {
+        File   file   = File.createTempFile("data", ".xml");
+        Writer writer = new FileWriter(file);
+
+        _files.add(file);
+        writer.write(dataXml);
+        writer.close();
+        return file;
+    }
+
+    /**
+     * Sorts the given files and reads the sorted data back.
+     *
+     * @param files   The data files
+     * @param maxRows The maximum number of rows to hold in memory
+     * @return The sorted beans
+     */
+    private List sort(File[] files, int maxRows) throws Exception
+    {
+        DataSorter sorter = new DataSorter(_model);
+        File       output = File.createTempFile("sorted", ".xml");
+
+        _files.add(output);
+        sorter.setMaxRowsInMemory(maxRows);
+        new DatabaseDataIO().sortData(sorter, files, output.getAbsolutePath(), "UTF-8");
+
+        final List beans  = new ArrayList();
+        DataReader reader = new DataReader();
+
+        reader.setModel(_model);
+        reader.setSink(new DataSink() {
+            public void start() throws DataSinkException
+            {}
+
+            public void addBean(DynaBean bean) throws DataSinkException
+            {
+                beans.add(bean);
+            }
+
+            public void end() throws DataSinkException
+            {}
+        });
+        reader.read(output);
+        return beans;
+    }
+
+    /**
+     * Returns the value of the given column as an int.
+     *
+     * @param bean   The bean
+     * @param column The column
+     * @return The value
+     */
+    private int getInt(DynaBean bean, String column)
+    {
+        return ((Number)bean.get(column)).intValue();
+    }
+
+    /**
+     * Tests sorting data that is spread over several files and that does not fit into memory.
+     */
+    public void testSort() throws Exception
+    {
+        StringBuffer data1 = new StringBuffer("<data>\n");
+        StringBuffer data2 = new StringBuffer("<data>\n");
+
+        for (int idx = 0; idx < 200; idx++)
+        {
+            data1.append("  <child id='" + idx + "' parentid='" + (idx % 10) + "'/>\n");
+            // the nodes form a chain in which each node references the following one
+            data1.append("  <node id='" + idx + "'" + (idx < 199 ? " parentid='" + (idx + 1) + "'" : "") + "/>\n");
+        }
+        for (int idx = 9; idx >= 0; idx--)
+        {
+            data2.append("  <parent id='" + idx + "' name='parent " + idx + "'/>\n");
+        }
+        data1.append("</data>");
+        data2.append("</data>");
+
+        File[] files = new File[] { writeDataFile(data1.toString()), writeDataFile(data2.toString()) };
+        // small enough so that the rows are spread over more temporary files than are merged at once
+        List   beans = sort(files, 3);
+
+        assertEquals(410, beans.size());
+
+        List tableNames = new ArrayList();
+        Set  nodeIds    = new HashSet();
+        int  childIdx   = 0;
+        int  parentIdx  = 9;
+
+        for (int idx = 0; idx < beans.size(); idx++)
+        {
+            DynaBean bean      = (DynaBean)beans.get(idx);
+            String   tableName = _model.getDynaClassFor(bean).getTableName();
+
+            if (tableNames.isEmpty() || !tableName.equals(tableNames.get(tableNames.size() - 1)))
+            {
+                assertFalse("Rows of table " + tableName + " are not grouped", tableNames.contains(tableName));
+                tableNames.add(tableName);
+            }
+            if ("parent".equals(tableName))
+            {
+                assertEquals(parentIdx--, getInt(bean, "id"));
+                assertEquals("parent " + getInt(bean, "id"), bean.get("name"));
+            }
+            else if ("child".equals(tableName))
+            {
+                assertEquals(childIdx++, getInt(bean, "id"));
+            }
+            else
+            {
+                if (bean.get("parentid") != null)
+                {
+                    assertTrue(nodeIds.contains(bean.get("parentid")));
+                }
+                nodeIds.add(bean.get("id"));
+            }
+        }
+        assertEquals(-1, parentIdx);
+        assertEquals(200, childIdx);
+        assertEquals(200, nodeIds.size());
+        assertTrue(tableNames.indexOf("parent") < tableNames.indexOf("child"));
+    }
+
+    /**
+     * Tests sorting the rows of a table that references itself via several foreign keys.
+     */
+    public void testSortMultipleSelfReferences() throws Exception
+    {
+        _model = parseDatabaseFromString(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='sortertest'>\n"+
+            "  <table name='tree'>\n"+
+            "    <column name='id' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='left_id' type='INTEGER'/>\n"+
+            "    <column name='right_id' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='tree' name='tree_left_fk'>\n"+
+            "      <reference local='left_id' foreign='id'/>\n"+
+            "    </foreign-key>\n"+
+            "    <foreign-key foreignTable='tree' name='tree_right_fk'>\n"+
+            "      <reference local='right_id' foreign='id'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>");
+
+        // the rows only reference rows that come later in the data via the second foreign key
+        File[] files = new File[] {
+            writeDataFile("<data>\n"+
+                          "  <tree id='1' left_id='2' right_id='3'/>\n"+
+                          "  <tree id='2' right_id='4'/>\n"+
+                          "  <tree id='3' left_id='4' right_id='5'/>\n"+
+                          "  <tree id='4' right_id='5'/>\n"+
+                          "  <tree id='5' left_id='5'/>\n"+
+                          "</data>")
+        };
+        List beans   = sort(files, 2);
+        Set  written = new HashSet();
+
+        assertEquals(5, beans.size());
+        for (int idx = 0; idx < beans.size(); idx++)
+        {
+            DynaBean bean = (DynaBean)beans.get(idx);
+
+            if ((bean.get("left_id") != null) && !bean.get("left_id").equals(bean.get("id")))
+            {
+                assertTrue(written.contains(bean.get("left_id")));
+            }
+            if (bean.get("right_id") != null)
+            {
+                assertTrue(written.contains(bean.get("right_id")));
+            }
+            written.add(bean.get("id"));
+        }
+    }
+
+    /**
+     * Tests that rows of a self-referencing table whose parents are not in the data, and rows
+     * in a reference cycle, are still written.
+     */
+    public void testSortSelfReferencesWithoutParents() throws Exception
+    {
+        File[] files = new File[] {
+            writeDataFile("<data>\n"+
+                          "  <node id='1' parentid='2'/>\n"+
+                          "  <node id='2' parentid='1'/>\n"+
+                          "  <node id='3' parentid='4'/>\n"+
+                          "  <node id='4' parentid='100'/>\n"+
+                          "  <node id='5' parentid='5'/>\n"+
+                          "</data>")
+        };
+        List beans = sort(files, 100);
+        List order = new ArrayList();
+
+        for (int idx = 0; idx < beans.size(); idx++)
+        {
+            order.add(new Integer(getInt((DynaBean)beans.get(idx), "id")));
+        }
+        assertEquals(5, new HashSet(order).size());
+        assertTrue(order.indexOf(new Integer(4)) < order.indexOf(new Integer(3)));
+    }
+}
@@ -0,0 +1,266 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Random;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link org.apache.ddlutils.io.FastXmlStreamWriter} class by comparing its output
+ * with the output of the StAX implementation.
+ *
+ * @version $Revision: $
+ */
+public class TestFastXmlStreamWriter extends TestCase
+{
+    /**
+     * Writes XML to a xml stream writer.
+     */
+    private interface XmlScript
+    {
+        /**
+         * Writes the XML.
+         *
+         * @param writer The writer
+         */
+        public void write(XMLStreamWriter writer) throws XMLStreamException;
+    }
+
+    /**
+     * Writes XML with the StAX implementation and with the fast writer, both to an output
+     * stream and to a writer, and checks that the results are the same.
+     *
+     * @param script The script that writes the XML
+     */
+    private void assertSameOutput(XmlScript script) throws Exception
+    {
+        XMLOutputFactory      factory      = XMLOutputFactory.newInstance();
+        ByteArrayOutputStream staxOutput   = new ByteArrayOutputStream();
+        ByteArrayOutputStream fastOutput   = new ByteArrayOutputStream();
+        StringWriter          staxWriter   = new StringWriter();
+        StringWriter          fastWriter   = new StringWriter();
+        XMLStreamWriter       writer;
+
+        writer = factory.createXMLStreamWriter(staxOutput, "UTF-8");
+        script.write(writer);
+        writer.close();
+        writer = new FastXmlStreamWriter(fastOutput);
+        script.write(writer);
+        writer.close();
+        assertEquals(new String(staxOutput.toByteArray(), "UTF-8"), new String(fastOutput.toByteArray(), "UTF-8"));
+
+        writer = factory.createXMLStreamWriter(staxWriter);
+        script.write(writer);
+        writer.close();
+        writer = new FastXmlStreamWriter(fastWriter);
+        script.write(writer);
+        writer.close();
+        assertEquals(staxWriter.toString(), fastWriter.toString());
+    }
+
+    /**
+     * Writes the given text in an element with the given attribute value.
+     *
+     * @param attrValue The attribute value
+     * @param text      The text
+     */
+    private void assertSameOutput(final String attrValue, final String text) throws Exception
+    {
+        assertSameOutput(new XmlScript() {
+            public void write(XMLStreamWriter writer) throws XMLStreamException
+            {
+                writer.writeStartDocument("UTF-8", "1.0");
+                writer.writeStartElement("data");
+                writer.writeAttribute("value", attrValue);
+                writer.writeCharacters(text);
+                writer.writeEndElement();
+                writer.writeEndDocument();
+            }
+        });
+    }
+
+    /**
+     * Tests the structure of the document.
+     */
+    public void testDocument() throws Exception
+    {
+        assertSameOutput(new XmlScript() {
+            public void write(XMLStreamWriter writer) throws XMLStreamException
+            {
+                writer.writeStartDocument("UTF-8", "1.0");
+                writer.writeCharacters("\n");
+                writer.writeComment(" A comment - with -- hyphens -");
+                writer.writeCharacters("\n");
+                writer.writeStartElement("data");
+                writer.writeCharacters("\n  ");
+                writer.writeStartElement("test");
+                writer.writeAttribute("id", "1");
+                writer.writeAttribute("value", "some value");
+                writer.writeEndElement();
+                writer.writeStartElement("test");
+                writer.writeCharacters("");
+                writer.writeEndElement();
+                writer.writeStartElement("test");
+                writer.writeComment("-");
+                writer.writeStartElement("value");
+                writer.writeCData("");
+                writer.writeEndElement();
+                writer.writeStartElement("value");
+                writer.writeAttribute("base64", "true");
+                writer.writeCData("a]]>b]]]>]]>");
+                writer.writeEndElement();
+                writer.writeStartElement("open");
+                writer.writeStartElement("empty");
+                writer.writeEndDocument();
+            }
+        });
+        assertSameOutput(new XmlScript() {
+            public void write(XMLStreamWriter writer) throws XMLStreamException
+            {
+                writer.writeStartDocument(null, "1.0");
+                writer.writeStartElement("data");
+                writer.writeEndDocument();
+            }
+        });
+    }
+
+    /**
+     * Tests the escaping of all characters in attribute values and texts.
+     */
+    public void testAllCharacters() throws Exception
+    {
+        StringBuffer text = new StringBuffer("\t\n\r");
+
+        for (char c = 0x20; c < 0xFFFF; c++)
+        {
+            if ((c < 0xD800) || (c > 0xDFFF))
+            {
+                text.append(c);
+            }
+        }
+        text.append("\uFFFF\uD83D\uDE00");
+        assertSameOutput(text.toString(), text.toString());
+    }
+
+    /**
+     * Tests the escaping of '&gt;' characters in short and long texts.
+     */
+    public void testGreaterThanCharacters() throws Exception
+    {
+        String[] texts = { ">", "a>", "]>", "a]]>b", "&>", "<>", ">>", "\r>", "\uFFFE>", "aaaaaaaaaaa>", "aaaaaaaaaa&>", "aaaaaaaaa&>" };
+
+        for (int idx = 0; idx < texts.length; idx++)
+        {
+            assertSameOutput("", texts[idx]);
+        }
+
+        // random texts of varying length, some of which span several chunks
+        char[] chars  = { 'a', 'a', 'a', 'a', '>', ']', '&', '<', '\r', '\n', '\u00E9', '\uFFFE' };
+        Random random = new Random(12345);
+
+        for (int idx = 0; idx < 200; idx++)
+        {
+            StringBuffer text = new StringBuffer();
+            int          len  = 1 + random.nextInt(idx < 100 ? 20 : 2000);
+
+            for (int charIdx = 0; charIdx < len; charIdx++)
+            {
+                text.append(chars[random.nextInt(chars.length)]);
+            }
+            assertSameOutput(text.toString(), text.toString());
+        }
+
+        StringBuffer text = new StringBuffer();
+
+        for (int idx = 0; idx < 3000; idx++)
+        {
+            text.append(idx % 256 == 0 ? '>' : 'a');
+        }
+        assertSameOutput("", text.toString());
+    }
+
+    /**
+     * Tests writing surrogate pairs that span the end of the internal buffer.
+     */
+    public void testSurrogatePairsAtBufferEnd() throws Exception
+    {
+        for (int offset = 0; offset < 2; offset++)
+        {
+            StringBuffer text = new StringBuffer();
+
+            for (int idx = 0; idx < offset; idx++)
+            {
+                text.append('a');
+            }
+            for (int idx = 0; idx < 40000; idx++)
+            {
+                text.append("\uD83D\uDE00");
+            }
+            assertSameOutput("", text.toString());
+        }
+    }
+
+    /**
+     * Tests that characters that are not allowed in XML are rejected.
+     */
+    public void testIllegalCharacters() throws Exception
+    {
+        XMLStreamWriter writer = new FastXmlStreamWriter(new ByteArrayOutputStream());
+
+        writer.writeStartElement("data");
+        try
+        {
+            writer.writeAttribute("value", "a\u0001b");
+            fail();
+        }
+        catch (XMLStreamException ex)
+        {
+            // expected
+        }
+        try
+        {
+            writer.writeCharacters("a\u0001b");
+            fail();
+        }
+        catch (XMLStreamException ex)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Tests the encodings supported by the writer.
+     */
+    public void testSupportedEncodings() throws Exception
+    {
+        assertTrue(FastXmlStreamWriter.isSupportedEncoding("UTF-8"));
+        assertTrue(FastXmlStreamWriter.isSupportedEncoding("utf8"));
+        assertFalse(FastXmlStreamWriter.isSupportedEncoding("ISO-8859-1"));
+        assertFalse(FastXmlStreamWriter.isSupportedEncoding("unicode-1-1-utf-8"));
+        assertFalse(FastXmlStreamWriter.isSupportedEncoding(null));
+    }
+}
@@ -0,0 +1,152 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.TestBase;
+import org.apache.ddlutils.model.Database;
+import org.apache.ddlutils.model.Table;
+
+/**
+ * Tests the {@link org.apache.ddlutils.io.Identity} objects created by the
+ * {@link org.apache.ddlutils.io.IdentityFactory}.
+ * 
+ * @version $Revision: $
+ */
+public class TestIdentityFactory extends TestBase
+{
+    /** The test model. */
+    private static final String TEST_MODEL =
+        "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+        "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='identitytest'>\n"+
+        "  <table name='parent'>\n"+
+        "    <column name='pk1' type='INTEGER' primaryKey='true' required='true'/>\n"+
+        "    <column name='pk2' type='VARCHAR' size='32' primaryKey='true' required='true'/>\n"+
+        "  </table>\n"+
+        "  <table name='child'>\n"+
+        "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+        "    <column name='fk1' type='VARCHAR' size='32'/>\n"+
+        "    <column name='fk2' type='INTEGER'/>\n"+
+        "    <column name='parentid' type='INTEGER'/>\n"+
+        "    <foreign-key foreignTable='parent'>\n"+
+        "      <reference local='fk1' foreign='pk2'/>\n"+
+        "      <reference local='fk2' foreign='pk1'/>\n"+
+        "    </foreign-key>\n"+
+        "    <foreign-key name='selfref' foreignTable='child'>\n"+
+        "      <reference local='parentid' foreign='pk'/>\n"+
+        "    </foreign-key>\n"+
+        "  </table>\n"+
+        "</database>";
+
+    /** The model. */
+    private Database _model;
+    /** The factory under test. */
+    private IdentityFactory _factory;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _model   = parseDatabaseFromString(TEST_MODEL);
+        _factory = new IdentityFactory();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        _model   = null;
+        _factory = null;
+        super.tearDown();
+    }
+
+    /**
+     * Creates a bean for the indicated table.
+     * 
+     * @param tableName The table name
+     * @param values    The column values in the order of the columns
+     * @return The bean
+     */
+    private DynaBean createBean(String tableName, Object[] values) throws Exception
+    {
+        Table    table = _model.findTable(tableName);
+        DynaBean bean  = _model.createDynaBeanFor(table);
+
+        for (int idx = 0; idx < values.length; idx++)
+        {
+            bean.set(table.getColumn(idx).getName(), values[idx]);
+        }
+        return bean;
+    }
+
+    /**
+     * Tests that the identity created for a foreign key whose references are not in the
+     * order of the primary key, is equal to the identity of the referenced row.
+     */
+    public void testMultiColumnForeignKey() throws Exception
+    {
+        DynaBean parent = createBean("parent", new Object[] { new Integer(1), "a" });
+        DynaBean child  = createBean("child",  new Object[] { new Integer(5), "a", new Integer(1), null });
+        DynaBean other  = createBean("child",  new Object[] { new Integer(6), "b", new Integer(1), null });
+        Table    table  = _model.findTable("child");
+
+        Identity parentId = _factory.buildIdentityFromPKs(_model.findTable("parent"), parent);
+        Identity fkId     = _factory.buildIdentityFromFK(table, table.getForeignKey(0), child);
+        Identity otherId  = _factory.buildIdentityFromFK(table, table.getForeignKey(0), other);
+
+        assertEquals(parentId, fkId);
+        assertEquals(fkId, parentId);
+        assertEquals(parentId.hashCode(), fkId.hashCode());
+        assertFalse(parentId.equals(otherId));
+        assertEquals("a", fkId.getColumnValue("pk2"));
+        assertEquals(new Integer(1), fkId.getColumnValue("pk1"));
+        assertEquals("parent:pk1=1;pk2=a", parentId.toString());
+        assertNull(parentId.getForeignKeyName());
+        assertEquals("child[fk1,fk2]->parent[pk2,pk1]", fkId.getForeignKeyName());
+    }
+
+    /**
+     * Tests identities consisting of a single number.
+     */
+    public void testNumericIdentity() throws Exception
+    {
+        DynaBean parent = createBean("child", new Object[] { new Integer(1), null, null, null });
+        DynaBean child  = createBean("child", new Object[] { new Integer(2), null, null, new Integer(1) });
+        DynaBean orphan = createBean("child", new Object[] { new Integer(3), null, null, null });
+        Table    table  = _model.findTable("child");
+
+        Identity parentId = _factory.buildIdentityFromPKs(table, parent);
+        Identity childId  = _factory.buildIdentityFromPKs(table, child);
+        Identity fkId     = _factory.buildIdentityFromFK(table, table.getForeignKey(1), child);
+
+        assertTrue(parentId instanceof NumericIdentity);
+        assertTrue(fkId instanceof NumericIdentity);
+        assertEquals(parentId, fkId);
+        assertEquals(parentId.hashCode(), fkId.hashCode());
+        assertFalse(parentId.equals(childId));
+        assertEquals("selfref", fkId.getForeignKeyName());
+        assertEquals(new Integer(1), fkId.getColumnValue("pk"));
+        assertEquals("child:pk=1", fkId.toString());
+        assertNull(_factory.buildIdentityFromFK(table, table.getForeignKey(1), orphan));
+    }
+}
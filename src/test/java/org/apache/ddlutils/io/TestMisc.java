@@ -20,18 +20,25 @@ package org.apache.ddlutils.io;
  */
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
 
 import junit.framework.Test;
 
 import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.DatabaseOperationException;
+import org.apache.ddlutils.DdlUtilsException;
 import org.apache.ddlutils.TestAgainstLiveDatabaseBase;
 import org.apache.ddlutils.model.Database;
 import org.apache.ddlutils.model.Table;
@@ -1290,4 +1297,1763 @@ public class TestMisc extends TestAgainstLiveDatabaseBase
         assertEquals(new Integer(1), beans.get(0), "Pk");
         assertEquals((Object)"foo",  beans.get(0), "Avalue");
     }
+
+    /**
+     * Tests the INSERT_NEW data load type where some of the rows already exist, and rows
+     * of the other table reference both existing and new rows.
+     */
+    public void testInsertNewWithExistingRows() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk1' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='pk2' type='VARCHAR' size='32' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+        insertData(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<data>\n"+
+            "  <roundtrip1 pk='0' avalue='old'/>\n"+
+            "  <roundtrip1 pk='2' avalue='old'/>\n"+
+            "  <roundtrip2 pk1='0' pk2='a' fk='0'/>\n"+
+            "</data>");
+
+        StringBuffer dataXml = new StringBuffer();
+        final int    numObjs = 25;
+
+        // the rows of the second table come first so that they have to wait
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip2 pk1='");
+            dataXml.append(idx);
+            dataXml.append("' pk2='a' fk='");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+        }
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip1 pk='");
+            dataXml.append(idx);
+            dataXml.append("' avalue='new'/>\n");
+        }
+        dataXml.append("</data>");
+
+        DataReader         dataReader = new DataReader();
+        DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+        sink.setDataLoadType("INSERT_NEW");
+        sink.setExistenceProbeSize(10);
+        dataReader.setModel(getModel());
+        dataReader.setSink(sink);
+        sink.start();
+        dataReader.read(new StringReader(dataXml.toString()));
+        sink.end();
+
+        List beans1 = getRows("roundtrip1", "pk");
+        List beans2 = getRows("roundtrip2", "pk1");
+
+        assertEquals(numObjs, beans1.size());
+        assertEquals(numObjs, beans2.size());
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            assertEquals(new Integer(idx),                                  beans1.get(idx), "pk");
+            assertEquals((Object)((idx == 0) || (idx == 2) ? "old" : "new"), beans1.get(idx), "avalue");
+            assertEquals(new Integer(idx),                                  beans2.get(idx), "pk1");
+            assertEquals(new Integer(idx),                                  beans2.get(idx), "fk");
+        }
+    }
+
+    /**
+     * Tests the INSERT_NEW data load type on a case-insensitive primary key column where the
+     * database returns the existing key in a different case, and two rows with the same primary
+     * key are checked in the same probe.
+     */
+    public void testInsertNewWithCaseInsensitiveKeys() throws Exception
+    {
+        // only Hsqldb can be switched to case-insensitive columns here
+        if (!HsqlDbPlatform.DATABASENAME.equals(getPlatform().getName()))
+        {
+            return;
+        }
+
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip'>\n"+
+            "    <column name='pk' type='VARCHAR' size='32' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='INTEGER'/>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        getPlatform().evaluateBatch("SET IGNORECASE TRUE;", false);
+        try
+        {
+            createDatabase(modelXml);
+        }
+        finally
+        {
+            getPlatform().evaluateBatch("SET IGNORECASE FALSE;", false);
+        }
+        insertData(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<data>\n"+
+            "  <roundtrip pk='abc' avalue='0'/>\n"+
+            "</data>");
+
+        final String dataXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<data>\n"+
+            "  <roundtrip pk='ABC' avalue='1'/>\n"+
+            "  <roundtrip pk='def' avalue='2'/>\n"+
+            "  <roundtrip pk='def' avalue='3'/>\n"+
+            "</data>";
+
+        DataReader         dataReader = new DataReader();
+        DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+        sink.setDataLoadType("INSERT_NEW");
+        sink.setUseBatchMode(true);
+        sink.setExistenceProbeSize(10);
+        dataReader.setModel(getModel());
+        dataReader.setSink(sink);
+        sink.start();
+        dataReader.read(new StringReader(dataXml));
+        sink.end();
+
+        List beans = getRows("roundtrip", "pk");
+
+        assertEquals(2, beans.size());
+        assertEquals((Object)"abc", beans.get(0), "pk");
+        assertEquals(new Integer(0), beans.get(0), "avalue");
+        assertEquals((Object)"def", beans.get(1), "pk");
+        assertEquals(new Integer(2), beans.get(1), "avalue");
+    }
+
+    /**
+     * Tests the UPSERT data load type in normal and batch mode.
+     */
+    public void testUpsertWithExistingRows() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+        insertData(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<data>\n"+
+            "  <roundtrip1 pk='0' avalue='old'/>\n"+
+            "  <roundtrip1 pk='2' avalue='old'/>\n"+
+            "  <roundtrip2 pk='0' fk='2'/>\n"+
+            "</data>");
+
+        final int numObjs = 25;
+
+        for (int pass = 0; pass < 2; pass++)
+        {
+            StringBuffer dataXml = new StringBuffer();
+
+            // the rows of the second table come first so that they have to wait
+            dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                dataXml.append("  <roundtrip2 pk='");
+                dataXml.append(idx);
+                dataXml.append("' fk='");
+                dataXml.append(idx);
+                dataXml.append("'/>\n");
+            }
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                dataXml.append("  <roundtrip1 pk='");
+                dataXml.append(idx);
+                dataXml.append("' avalue='new");
+                dataXml.append(pass);
+                dataXml.append("'/>\n");
+            }
+            dataXml.append("</data>");
+
+            DataReader         dataReader = new DataReader();
+            DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+            sink.setDataLoadType("UPSERT");
+            sink.setUseBatchMode(pass > 0);
+            sink.setBatchSize(10);
+            dataReader.setModel(getModel());
+            dataReader.setSink(sink);
+            sink.start();
+            dataReader.read(new StringReader(dataXml.toString()));
+            sink.end();
+
+            List beans1 = getRows("roundtrip1", "pk");
+            List beans2 = getRows("roundtrip2", "pk");
+
+            assertEquals(numObjs, beans1.size());
+            assertEquals(numObjs, beans2.size());
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                assertEquals(new Integer(idx),       beans1.get(idx), "pk");
+                assertEquals((Object)("new" + pass), beans1.get(idx), "avalue");
+                assertEquals(new Integer(idx),       beans2.get(idx), "pk");
+                assertEquals(new Integer(idx),       beans2.get(idx), "fk");
+            }
+        }
+    }
+
+    /**
+     * Tests that a load cannot be resumed if referenced rows get primary key values generated by
+     * the database.
+     */
+    public void testResumeFromCheckpointWithGeneratedPrimaryKeys() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true' autoIncrement='true'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        File checkpointFile = File.createTempFile("checkpoint", ".properties");
+
+        try
+        {
+            DataToDatabaseSink sink = new DataToDatabaseSink(getPlatform(), getModel());
+
+            getPlatform().setIdentityOverrideOn(false);
+            sink.setCheckpointFile(checkpointFile);
+            sink.setResumeFromCheckpoint(true);
+            try
+            {
+                sink.start();
+                fail();
+            }
+            catch (DataSinkException ex)
+            {
+                // expected
+            }
+            assertTrue(checkpointFile.exists());
+
+            // without ensuring the foreign key order, the values in the data are used anyway
+            sink.setEnsureForeignKeyOrder(false);
+            sink.start();
+            sink.end();
+        }
+        finally
+        {
+            checkpointFile.delete();
+        }
+    }
+
+    /**
+     * Tests that checkpoints cannot be used when inserting the data with multiple threads, and
+     * that the checkpoint file of a previous load is left untouched.
+     */
+    public void testCheckpointWithMultipleThreads() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        File   checkpointFile = File.createTempFile("checkpoint", ".properties");
+        String checkpoint     = "source=data\nrow=3\n";
+
+        try
+        {
+            FileOutputStream output = new FileOutputStream(checkpointFile);
+
+            output.write(checkpoint.getBytes("ISO-8859-1"));
+            output.close();
+
+            for (int pass = 0; pass < 2; pass++)
+            {
+                DataToDatabaseSink sink = new DataToDatabaseSink(getPlatform(), getModel());
+
+                sink.setThreadCount(2);
+                sink.setCheckpointFile(checkpointFile);
+                sink.setResumeFromCheckpoint(pass > 0);
+                try
+                {
+                    sink.start();
+                    fail();
+                }
+                catch (DataSinkException ex)
+                {
+                    // expected
+                }
+                assertTrue(checkpointFile.exists());
+                assertEquals(checkpoint.length(), checkpointFile.length());
+            }
+        }
+        finally
+        {
+            checkpointFile.delete();
+        }
+    }
+
+    /**
+     * Tests resuming a failed data load from the checkpoint file.
+     */
+    public void testResumeFromCheckpoint() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int numObjs        = 20;
+        File      checkpointFile = File.createTempFile("checkpoint", ".properties");
+
+        checkpointFile.delete();
+        try
+        {
+            for (int pass = 0; pass < 2; pass++)
+            {
+                StringBuffer dataXml = new StringBuffer();
+
+                // the row of the second table has to wait for a later row, and in the first
+                // pass, the 14th row fails because of a duplicate primary key
+                dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+                for (int idx = 0; idx < numObjs; idx++)
+                {
+                    if (idx == 3)
+                    {
+                        dataXml.append("  <roundtrip2 pk='0' fk='15'/>\n");
+                    }
+                    dataXml.append("  <roundtrip1 pk='");
+                    dataXml.append((pass == 0) && (idx == 12) ? 5 : idx);
+                    dataXml.append("' avalue='val");
+                    dataXml.append(idx);
+                    dataXml.append("'/>\n");
+                }
+                dataXml.append("</data>");
+
+                DataReader         dataReader = new DataReader();
+                DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+                sink.setCommitInterval(5);
+                sink.setCheckpointFile(checkpointFile);
+                sink.setResumeFromCheckpoint(pass > 0);
+                dataReader.setModel(getModel());
+                dataReader.setSink(sink);
+                sink.start();
+                sink.startSource("data");
+                if (pass == 0)
+                {
+                    try
+                    {
+                        dataReader.read(new StringReader(dataXml.toString()));
+                        fail();
+                    }
+                    catch (Exception ex)
+                    {
+                        // expected
+                    }
+                }
+                else
+                {
+                    dataReader.read(new StringReader(dataXml.toString()));
+                    sink.end();
+                }
+
+                if (pass == 0)
+                {
+                    DataLoadCheckpoint checkpoint = new DataLoadCheckpoint(checkpointFile);
+
+                    // the last commit was after the 10th row, and the waiting row is not committed
+                    assertTrue(checkpoint.read());
+                    assertEquals("data", checkpoint.getSource());
+                    assertEquals(3,      checkpoint.getRow());
+                    assertEquals("data", checkpoint.getWrittenSource());
+                    assertEquals(10,     checkpoint.getWrittenRow());
+                    assertEquals(9,      getRows("roundtrip1", "pk").size());
+                    assertEquals(0,      getRows("roundtrip2", "pk").size());
+                }
+                else
+                {
+                    assertFalse(checkpointFile.exists());
+                }
+            }
+
+            List beans1 = getRows("roundtrip1", "pk");
+            List beans2 = getRows("roundtrip2", "pk");
+
+            assertEquals(numObjs, beans1.size());
+            assertEquals(1,       beans2.size());
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                assertEquals(new Integer(idx),      beans1.get(idx), "pk");
+                assertEquals((Object)("val" + idx), beans1.get(idx), "avalue");
+            }
+            assertEquals(new Integer(15), beans2.get(0), "fk");
+        }
+        finally
+        {
+            checkpointFile.delete();
+        }
+    }
+
+    /**
+     * Tests inserting interleaved rows of several tables in batch mode with adaptive batch sizes.
+     */
+    public void testAdaptiveBatchSize() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        final int numObjs = 100;
+
+        for (int pass = 0; pass < 2; pass++)
+        {
+            if (pass > 0)
+            {
+                dropDatabase();
+            }
+            createDatabase(modelXml);
+
+            StringBuffer dataXml = new StringBuffer();
+
+            dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                dataXml.append("  <roundtrip1 pk='");
+                dataXml.append(idx);
+                dataXml.append("' avalue='val");
+                dataXml.append(idx);
+                dataXml.append("'/>\n");
+                dataXml.append("  <roundtrip2 pk='");
+                dataXml.append(idx);
+                dataXml.append("' fk='");
+                dataXml.append(numObjs - idx - 1);
+                dataXml.append("'/>\n");
+            }
+            dataXml.append("</data>");
+
+            DataReader         dataReader = new DataReader();
+            DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+            // the second pass uses sinks per table that share the batch sizes
+            sink.setUseBatchMode(true);
+            sink.setBatchSize(4);
+            sink.setTargetBatchLatency(50);
+            sink.setMinBatchSize(2);
+            sink.setMaxBatchSize(32);
+            sink.setMaxBatchBytes(200);
+            sink.setThreadCount(pass + 1);
+            dataReader.setModel(getModel());
+            dataReader.setSink(sink);
+            sink.start();
+            dataReader.read(new StringReader(dataXml.toString()));
+            sink.end();
+
+            List beans1 = getRows("roundtrip1", "pk");
+            List beans2 = getRows("roundtrip2", "pk");
+
+            assertEquals(numObjs, beans1.size());
+            assertEquals(numObjs, beans2.size());
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                assertEquals(new Integer(idx),      beans1.get(idx), "pk");
+                assertEquals((Object)("val" + idx), beans1.get(idx), "avalue");
+                assertEquals(new Integer(idx),      beans2.get(idx), "pk");
+                assertEquals(new Integer(numObjs - idx - 1), beans2.get(idx), "fk");
+            }
+        }
+    }
+
+    /**
+     * Tests that interrupting the thread that inserts the data via multiple threads stops the
+     * insertion.
+     */
+    public void testInterruptedThreadedInsert() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        StringBuffer dataXml = new StringBuffer();
+
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = 0; idx < 100; idx++)
+        {
+            dataXml.append("  <roundtrip1 pk='" + idx + "'/>\n");
+            dataXml.append("  <roundtrip2 pk='" + idx + "' fk='" + idx + "'/>\n");
+        }
+        dataXml.append("</data>");
+
+        DataReader         dataReader = new DataReader();
+        DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+        sink.setThreadCount(2);
+        dataReader.setModel(getModel());
+        dataReader.setSink(sink);
+        sink.start();
+        dataReader.read(new StringReader(dataXml.toString()));
+        Thread.currentThread().interrupt();
+        try
+        {
+            sink.end();
+            fail();
+        }
+        catch (DataSinkException ex)
+        {
+            // expected
+        }
+        finally
+        {
+            assertTrue(Thread.interrupted());
+        }
+        // the rows of the second table are not inserted once the first level was interrupted
+        assertEquals(0, getRows("roundtrip2").size());
+    }
+
+    /**
+     * Tests inserting the rows of one table via multiple threads.
+     */
+    public void testWorkersPerTable() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        final int numObjs = 201;
+
+        // the second pass upserts every row of the first table twice, so the two rows with the
+        // same primary key have to be written in order by the same thread
+        for (int pass = 0; pass < 2; pass++)
+        {
+            if (pass > 0)
+            {
+                dropDatabase();
+            }
+            createDatabase(modelXml);
+
+            StringBuffer dataXml = new StringBuffer();
+
+            dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                dataXml.append("  <roundtrip2 pk='");
+                dataXml.append(idx);
+                dataXml.append("' fk='");
+                dataXml.append(numObjs - idx - 1);
+                dataXml.append("'/>\n");
+            }
+            for (int copy = 0; copy <= pass; copy++)
+            {
+                for (int idx = 0; idx < numObjs; idx++)
+                {
+                    dataXml.append("  <roundtrip1 pk='");
+                    dataXml.append(idx);
+                    dataXml.append("' avalue='val");
+                    dataXml.append(idx + copy * numObjs);
+                    dataXml.append("'/>\n");
+                }
+            }
+            dataXml.append("</data>");
+
+            DataReader         dataReader = new DataReader();
+            DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+            sink.setUseBatchMode(true);
+            sink.setBatchSize(8);
+            sink.setThreadCount(4);
+            sink.setWorkersPerTable(4);
+            sink.setDataLoadType(pass == 0 ? "INSERT" : "UPSERT");
+            dataReader.setModel(getModel());
+            dataReader.setSink(sink);
+            sink.start();
+            dataReader.read(new StringReader(dataXml.toString()));
+            sink.end();
+
+            List beans1 = getRows("roundtrip1", "pk");
+            List beans2 = getRows("roundtrip2", "pk");
+
+            assertEquals(numObjs, beans1.size());
+            assertEquals(numObjs, beans2.size());
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                assertEquals(new Integer(idx),                         beans1.get(idx), "pk");
+                assertEquals((Object)("val" + (idx + pass * numObjs)), beans1.get(idx), "avalue");
+                assertEquals(new Integer(idx),                         beans2.get(idx), "pk");
+                assertEquals(new Integer(numObjs - idx - 1),           beans2.get(idx), "fk");
+            }
+        }
+    }
+
+    /**
+     * Tests inserting data via a separate thread while the data is parsed.
+     */
+    public void testPipelinedInsert() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int    numObjs = 200;
+        StringBuffer dataXml = new StringBuffer();
+
+        // the referencing rows come first so that they have to wait in the writer thread
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip2 pk='");
+            dataXml.append(idx);
+            dataXml.append("' fk='");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+            dataXml.append("  <roundtrip1 pk='");
+            dataXml.append(idx);
+            dataXml.append("' avalue='val");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+        }
+        dataXml.append("</data>");
+
+        DatabaseDataIO dataIO = new DatabaseDataIO();
+
+        dataIO.setUseBatchMode(true);
+        dataIO.setBatchSize(new Integer(16));
+        dataIO.setPipelineQueueSize(8);
+
+        DataReader dataReader = dataIO.getConfiguredDataReader(getPlatform(), getModel());
+
+        assertTrue(dataReader.getSink() instanceof PipelinedDataSink);
+        dataReader.getSink().start();
+        dataIO.writeDataToDatabase(dataReader, new StringReader(dataXml.toString()));
+        dataReader.getSink().end();
+
+        List beans1 = getRows("roundtrip1", "pk");
+        List beans2 = getRows("roundtrip2", "pk");
+
+        assertEquals(numObjs, beans1.size());
+        assertEquals(numObjs, beans2.size());
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            assertEquals(new Integer(idx),      beans1.get(idx), "pk");
+            assertEquals((Object)("val" + idx), beans1.get(idx), "avalue");
+            assertEquals(new Integer(idx),      beans2.get(idx), "fk");
+        }
+
+        // a duplicate primary key stops the parsing
+        dataReader = dataIO.getConfiguredDataReader(getPlatform(), getModel());
+        dataReader.getSink().start();
+        try
+        {
+            dataIO.writeDataToDatabase(dataReader, new StringReader(dataXml.toString()));
+            dataReader.getSink().end();
+            fail();
+        }
+        catch (Exception ex)
+        {
+            // expected
+        }
+        assertEquals(numObjs, getRows("roundtrip1", "pk").size());
+    }
+
+    /**
+     * Tests that interleaved rows of several tables are inserted in full batches.
+     */
+    public void testInterleavedBatchInsert() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        final int numObjs = 50;
+
+        for (int pass = 0; pass < 2; pass++)
+        {
+            if (pass > 0)
+            {
+                dropDatabase();
+            }
+            createDatabase(modelXml);
+
+            StringBuffer dataXml = new StringBuffer();
+
+            dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                dataXml.append("  <roundtrip1 pk='");
+                dataXml.append(idx);
+                dataXml.append("' avalue='val");
+                dataXml.append(idx);
+                dataXml.append("'/>\n");
+                dataXml.append("  <roundtrip2 pk='");
+                dataXml.append(idx);
+                dataXml.append("' fk='");
+                dataXml.append(idx);
+                dataXml.append("'/>\n");
+            }
+            dataXml.append("</data>");
+
+            DataReader         dataReader = new DataReader();
+            DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+            // without ensuring the foreign key order, the referenced rows have to be written first
+            sink.setUseBatchMode(true);
+            sink.setBatchSize(10);
+            sink.setEnsureForeignKeyOrder(pass == 0);
+            dataReader.setModel(getModel());
+            dataReader.setSink(sink);
+            sink.start();
+            dataReader.read(new StringReader(dataXml.toString()));
+            sink.end();
+
+            List summary = sink.getBatchSizeController().getSummary();
+
+            assertEquals(2, summary.size());
+            assertTrue(((String)summary.get(0)).toLowerCase().startsWith("roundtrip1: 50 rows in 5 batches"));
+            assertTrue(((String)summary.get(1)).toLowerCase().startsWith("roundtrip2: 50 rows in 5 batches"));
+
+            List beans1 = getRows("roundtrip1", "pk");
+            List beans2 = getRows("roundtrip2", "pk");
+
+            assertEquals(numObjs, beans1.size());
+            assertEquals(numObjs, beans2.size());
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                assertEquals(new Integer(idx),      beans1.get(idx), "pk");
+                assertEquals((Object)("val" + idx), beans1.get(idx), "avalue");
+                assertEquals(new Integer(idx),      beans2.get(idx), "fk");
+            }
+        }
+
+        // the queue of the second table is full first, so the queue of the first table
+        // has to be written before it
+        dropDatabase();
+        createDatabase(modelXml);
+
+        StringBuffer dataXml = new StringBuffer();
+
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        dataXml.append("  <roundtrip1 pk='0' avalue='val0'/>\n");
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip2 pk='");
+            dataXml.append(idx);
+            dataXml.append("' fk='0'/>\n");
+        }
+        dataXml.append("</data>");
+
+        DataReader         dataReader = new DataReader();
+        DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+        sink.setUseBatchMode(true);
+        sink.setBatchSize(10);
+        sink.setEnsureForeignKeyOrder(false);
+        dataReader.setModel(getModel());
+        dataReader.setSink(sink);
+        sink.start();
+        dataReader.read(new StringReader(dataXml.toString()));
+        sink.end();
+
+        assertEquals(1,       getRows("roundtrip1", "pk").size());
+        assertEquals(numObjs, getRows("roundtrip2", "pk").size());
+    }
+
+    /**
+     * Tests the bulk load mode which drops the indexes and foreign keys during the load.
+     */
+    public void testBulkLoad() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "    <unique name='testunique'>\n"+
+            "      <unique-column name='avalue'/>\n"+
+            "    </unique>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key name='testfk' foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "    <index name='testindex'>\n"+
+            "      <index-column name='fk'/>\n"+
+            "    </index>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int    numObjs = 20;
+        StringBuffer dataXml = new StringBuffer();
+
+        // the referencing rows come first which is only possible without the foreign key
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip2 pk='");
+            dataXml.append(idx);
+            dataXml.append("' fk='");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+        }
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip1 pk='");
+            dataXml.append(idx);
+            dataXml.append("' avalue='val");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+        }
+        dataXml.append("</data>");
+
+        File recordFile = File.createTempFile("bulkload", ".properties");
+
+        recordFile.delete();
+        try
+        {
+            // an aborted bulk load left the dropped indexes and foreign keys in the record file
+            BulkLoadConstraints aborted = new BulkLoadConstraints(getPlatform(), getModel(), recordFile);
+
+            aborted.drop();
+            assertTrue(recordFile.exists());
+            assertEquals(3, aborted.getDroppedCount());
+
+            DatabaseDataIO dataIO = new DatabaseDataIO();
+
+            dataIO.setEnsureFKOrder(true);
+            dataIO.setUseBatchMode(true);
+            dataIO.setBulkLoad(true);
+            dataIO.setBulkLoadRecordFile(recordFile);
+            dataIO.setIndexThreadCount(2);
+            dataIO.writeDataToDatabase(getPlatform(), getModel(), new Reader[] { new StringReader(dataXml.toString()) });
+
+            assertFalse(recordFile.exists());
+
+            List beans1 = getRows("roundtrip1", "pk");
+            List beans2 = getRows("roundtrip2", "pk");
+
+            assertEquals(numObjs, beans1.size());
+            assertEquals(numObjs, beans2.size());
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                assertEquals((Object)("val" + idx), beans1.get(idx), "avalue");
+                assertEquals(new Integer(idx),      beans2.get(idx), "fk");
+            }
+
+            Database readModel = readModelFromDatabase("roundtriptest");
+            Table    table1    = readModel.findTable("roundtrip1", false);
+            Table    table2    = readModel.findTable("roundtrip2", false);
+
+            assertNotNull(table1.findIndex("testunique", false));
+            assertNotNull(table2.findIndex("testindex", false));
+            assertNotNull(table2.findForeignKey("testfk", false));
+        }
+        finally
+        {
+            recordFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the indexes and foreign keys are recreated if dropping them for a bulk load fails.
+     */
+    public void testBulkLoadWithFailingDrop() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "    <unique name='testunique'>\n"+
+            "      <unique-column name='avalue'/>\n"+
+            "    </unique>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key name='testfk' foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "    <index name='testindex'>\n"+
+            "      <index-column name='fk'/>\n"+
+            "    </index>\n"+
+            "  </table>\n"+
+            "</database>";
+        // the last index does not exist in the database, so dropping it fails
+        final String otherModelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "    <unique name='testunique'>\n"+
+            "      <unique-column name='avalue'/>\n"+
+            "    </unique>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key name='testfk' foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "    <index name='testindex'>\n"+
+            "      <index-column name='fk'/>\n"+
+            "    </index>\n"+
+            "    <index name='missingindex'>\n"+
+            "      <index-column name='pk'/>\n"+
+            "      <index-column name='fk'/>\n"+
+            "    </index>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        File recordFile = File.createTempFile("bulkload", ".properties");
+
+        recordFile.delete();
+        try
+        {
+            BulkLoadConstraints bulkLoad = new BulkLoadConstraints(getPlatform(), parseDatabaseFromString(otherModelXml), recordFile);
+
+            try
+            {
+                bulkLoad.drop();
+                fail();
+            }
+            catch (DdlUtilsException ex)
+            {
+                // expected
+            }
+            assertEquals(0, bulkLoad.getDroppedCount());
+            assertFalse(recordFile.exists());
+
+            Database readModel = readModelFromDatabase("roundtriptest");
+            Table    table1    = readModel.findTable("roundtrip1", false);
+            Table    table2    = readModel.findTable("roundtrip2", false);
+
+            assertNotNull(table1.findIndex("testunique", false));
+            assertNotNull(table2.findIndex("testindex", false));
+            assertNotNull(table2.findForeignKey("testfk", false));
+        }
+        finally
+        {
+            recordFile.delete();
+        }
+    }
+
+    /**
+     * Tests restoring the indexes and foreign keys of a bulk load that ended while replacing the
+     * record file, and restoring recorded indexes and foreign keys that still exist.
+     */
+    public void testBulkLoadRestoreAfterAbort() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key name='testfk' foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "    <index name='testindex'>\n"+
+            "      <index-column name='fk'/>\n"+
+            "    </index>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        File recordFile = File.createTempFile("bulkload", ".properties");
+        File tmpFile    = new File(recordFile.getAbsolutePath() + ".tmp");
+
+        recordFile.delete();
+        try
+        {
+            new BulkLoadConstraints(getPlatform(), getModel(), recordFile).drop();
+
+            Properties  record = new Properties();
+            InputStream input  = new FileInputStream(recordFile);
+
+            try
+            {
+                record.load(input);
+            }
+            finally
+            {
+                input.close();
+            }
+
+            // the process ended after deleting the old record file but before renaming the new one
+            assertTrue(recordFile.renameTo(tmpFile));
+
+            BulkLoadConstraints bulkLoad = new BulkLoadConstraints(getPlatform(), getModel(), recordFile);
+
+            bulkLoad.restore(1);
+            assertEquals(0, bulkLoad.getDroppedCount());
+            assertFalse(recordFile.exists());
+            assertFalse(tmpFile.exists());
+
+            Database readModel = readModelFromDatabase("roundtriptest");
+            Table    table2    = readModel.findTable("roundtrip2", false);
+
+            assertNotNull(table2.findIndex("testindex", false));
+            assertNotNull(table2.findForeignKey("testfk", false));
+
+            // the process ended after recording the objects but before dropping them
+            OutputStream output = new FileOutputStream(recordFile);
+
+            try
+            {
+                record.store(output, null);
+            }
+            finally
+            {
+                output.close();
+            }
+            bulkLoad = new BulkLoadConstraints(getPlatform(), getModel(), recordFile);
+            bulkLoad.restore(1);
+            assertEquals(0, bulkLoad.getDroppedCount());
+            assertFalse(recordFile.exists());
+        }
+        finally
+        {
+            recordFile.delete();
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the foreign key checks are not deferred if the foreign keys reference
+     * primary key values generated by the database.
+     */
+    public void testDeferredForeignKeyChecksWithGeneratedPrimaryKeys() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true' autoIncrement='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+        final String dataXml =
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<data>\n"+
+            "  <roundtrip2 pk='1' fk='100'/>\n"+
+            "  <roundtrip1 pk='100' avalue='val'/>\n"+
+            "</data>";
+
+        createDatabase(modelXml);
+        getPlatform().setIdentityOverrideOn(false);
+
+        DatabaseDataIO dataIO = new DatabaseDataIO();
+
+        dataIO.setEnsureFKOrder(true);
+        dataIO.setDeferForeignKeyChecks(true);
+        dataIO.writeDataToDatabase(getPlatform(), getModel(), new Reader[] { new StringReader(dataXml) });
+
+        List beans1 = getRows("roundtrip1");
+        List beans2 = getRows("roundtrip2");
+
+        assertEquals(1, beans1.size());
+        assertEquals(1, beans2.size());
+        // the foreign key references the generated primary key value
+        assertEquals(((DynaBean)beans1.get(0)).get("pk"), beans2.get(0), "fk");
+    }
+
+    /**
+     * Tests inserting more rows than the maximum number of objects in memory with multiple threads,
+     * which moves the collected rows to temporary files.
+     */
+    public void testThreadedInsertWithMaxObjectsInMemory() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int    numObjs = 150;
+        StringBuffer dataXml = new StringBuffer();
+
+        // every row of the first table is upserted twice, and the second value has to win
+        // even if the first one has been moved to a temporary file
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip2 pk='");
+            dataXml.append(idx);
+            dataXml.append("' fk='");
+            dataXml.append(numObjs - idx - 1);
+            dataXml.append("'/>\n");
+        }
+        for (int copy = 0; copy < 2; copy++)
+        {
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                dataXml.append("  <roundtrip1 pk='");
+                dataXml.append(idx);
+                if (copy > 0)
+                {
+                    dataXml.append("' avalue='val");
+                    dataXml.append(idx);
+                }
+                dataXml.append("'/>\n");
+            }
+        }
+        dataXml.append("</data>");
+
+        DataReader         dataReader = new DataReader();
+        DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+        sink.setUseBatchMode(true);
+        sink.setBatchSize(8);
+        sink.setThreadCount(4);
+        sink.setWorkersPerTable(3);
+        sink.setMaxObjectsInMemory(16);
+        sink.setDataLoadType("UPSERT");
+        dataReader.setModel(getModel());
+        dataReader.setSink(sink);
+        sink.start();
+        dataReader.read(new StringReader(dataXml.toString()));
+        sink.end();
+
+        List beans1 = getRows("roundtrip1", "pk");
+        List beans2 = getRows("roundtrip2", "pk");
+
+        assertEquals(numObjs, beans1.size());
+        assertEquals(numObjs, beans2.size());
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            assertEquals(new Integer(idx),               beans1.get(idx), "pk");
+            assertEquals((Object)("val" + idx),          beans1.get(idx), "avalue");
+            assertEquals(new Integer(idx),               beans2.get(idx), "pk");
+            assertEquals(new Integer(numObjs - idx - 1), beans2.get(idx), "fk");
+        }
+    }
+
+    /**
+     * Tests the insertion of rows in file order with deferred foreign key checks.
+     */
+    public void testDeferredForeignKeyChecks() throws Exception
+    {
+        // on databases that only defer foreign keys declared as DEFERRABLE, the sink orders
+        // the rows itself as the foreign keys created by DdlUtils are not deferrable
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int    numObjs = 50;
+        StringBuffer dataXml = new StringBuffer();
+
+        // all referencing rows come first
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip2 pk='");
+            dataXml.append(idx);
+            dataXml.append("' fk='");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+        }
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip1 pk='");
+            dataXml.append(idx);
+            dataXml.append("' avalue='val");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+        }
+        dataXml.append("</data>");
+
+        DatabaseDataIO dataIO = new DatabaseDataIO();
+
+        dataIO.setEnsureFKOrder(true);
+        dataIO.setUseBatchMode(true);
+        dataIO.setBatchSize(new Integer(16));
+        dataIO.setDeferForeignKeyChecks(true);
+        dataIO.writeDataToDatabase(getPlatform(), getModel(), new Reader[] { new StringReader(dataXml.toString()) });
+
+        List beans1 = getRows("roundtrip1", "pk");
+        List beans2 = getRows("roundtrip2", "pk");
+
+        assertEquals(numObjs, beans1.size());
+        assertEquals(numObjs, beans2.size());
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            assertEquals((Object)("val" + idx), beans1.get(idx), "avalue");
+            assertEquals(new Integer(idx),      beans2.get(idx), "fk");
+        }
+
+        // the foreign key checks are restored after the load
+        DynaBean bean = getModel().createDynaBeanFor("roundtrip2", false);
+
+        bean.set("pk", new Integer(numObjs));
+        bean.set("fk", new Integer(numObjs));
+        try
+        {
+            getPlatform().insert(getModel(), bean);
+            fail();
+        }
+        catch (DatabaseOperationException ex)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the foreign key checks are restored if the load with deferred foreign key checks
+     * fails.
+     */
+    public void testDeferredForeignKeyChecksAfterError() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+        final String dataXml =
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<data>\n"+
+            "  <roundtrip2 pk='1' fk='1'/>\n"+
+            "  <roundtrip1 pk='1' avalue='val1'/>\n"+
+            "  <roundtrip1 pk='1' avalue='val2'/>\n"+
+            "</data>";
+
+        createDatabase(modelXml);
+
+        DatabaseDataIO dataIO = new DatabaseDataIO();
+
+        dataIO.setEnsureFKOrder(true);
+        dataIO.setFailOnError(true);
+        dataIO.setDeferForeignKeyChecks(true);
+        try
+        {
+            dataIO.writeDataToDatabase(getPlatform(), getModel(), new Reader[] { new StringReader(dataXml) });
+            fail();
+        }
+        catch (DdlUtilsException ex)
+        {
+            // expected
+        }
+
+        // the rows are rolled back
+        assertEquals(0, getRows("roundtrip1").size());
+        assertEquals(0, getRows("roundtrip2").size());
+
+        // and the foreign key checks are restored
+        DynaBean bean = getModel().createDynaBeanFor("roundtrip2", false);
+
+        bean.set("pk", new Integer(2));
+        bean.set("fk", new Integer(2));
+        try
+        {
+            getPlatform().insert(getModel(), bean);
+            fail();
+        }
+        catch (DatabaseOperationException ex)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the failing rows of a failed batch are isolated and written to the reject file.
+     */
+    public void testRejectFailedRowsOfBatch() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32' required='true'/>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int    numObjs = 40;
+        StringBuffer dataXml = new StringBuffer();
+
+        // row 7 has no value for the required column, and row 25 duplicates the primary key of row 3
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip1 pk='");
+            dataXml.append(idx == 25 ? 3 : idx);
+            if (idx != 7)
+            {
+                dataXml.append("' avalue='val");
+                dataXml.append(idx);
+            }
+            dataXml.append("'/>\n");
+        }
+        dataXml.append("</data>");
+
+        File rejectFile = File.createTempFile("rejects", ".xml");
+
+        rejectFile.delete();
+        try
+        {
+            DataReader         dataReader = new DataReader();
+            DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+            sink.setHaltOnErrors(false);
+            sink.setUseBatchMode(true);
+            sink.setBatchSize(16);
+            sink.setRejectFile(rejectFile);
+            dataReader.setModel(getModel());
+            dataReader.setSink(sink);
+            sink.start();
+            dataReader.read(new StringReader(dataXml.toString()));
+            sink.end();
+
+            List beans = getRows("roundtrip1", "pk");
+
+            assertEquals(numObjs - 2, beans.size());
+            for (int idx = 0, pk = 0; idx < beans.size(); idx++, pk++)
+            {
+                if ((pk == 7) || (pk == 25))
+                {
+                    pk++;
+                }
+                assertEquals(new Integer(pk),      beans.get(idx), "pk");
+                assertEquals((Object)("val" + pk), beans.get(idx), "avalue");
+            }
+
+            // the reject file can be read as data XML
+            final List rejected = new ArrayList();
+
+            dataReader = new DataReader();
+            dataReader.setModel(getModel());
+            dataReader.setSink(new DataSink() {
+                public void start() throws DataSinkException
+                {}
+
+                public void addBean(DynaBean bean) throws DataSinkException
+                {
+                    rejected.add(bean);
+                }
+
+                public void end() throws DataSinkException
+                {}
+            });
+            dataReader.read(rejectFile);
+
+            assertEquals(2, rejected.size());
+            assertEquals(new Integer(7),  rejected.get(0), "pk");
+            assertNull(((DynaBean)rejected.get(0)).get("avalue"));
+            assertEquals(new Integer(3),  rejected.get(1), "pk");
+            assertEquals((Object)"val25", rejected.get(1), "avalue");
+        }
+        finally
+        {
+            rejectFile.delete();
+        }
+    }
+
+    /**
+     * Tests the batched insertion of rows that reference themselves via their identity primary key
+     * while identity override is off.
+     */
+    public void testBatchedSelfReferenceIdentityOverrideOff() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='misc'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true' autoIncrement='true'/>\n"+
+            "    <column name='fk' type='INTEGER' required='false'/>\n"+
+            "    <column name='avalue' type='INTEGER' required='true'/>\n"+
+            "    <foreign-key name='test' foreignTable='misc'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int    numObjs = 30;
+        StringBuffer dataXml = new StringBuffer();
+
+        // every third row references itself, the others reference the previous row
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <misc pk='");
+            dataXml.append(100 + idx);
+            if (idx > 0)
+            {
+                dataXml.append("' fk='");
+                dataXml.append(idx % 3 == 0 ? 100 + idx : 99 + idx);
+            }
+            dataXml.append("' avalue='");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+        }
+        dataXml.append("</data>");
+
+        getPlatform().setIdentityOverrideOn(false);
+
+        DataReader         dataReader = new DataReader();
+        DataToDatabaseSink sink       = new DataToDatabaseSink(getPlatform(), getModel());
+
+        sink.setUseBatchMode(true);
+        sink.setBatchSize(8);
+        dataReader.setModel(getModel());
+        dataReader.setSink(sink);
+        sink.start();
+        dataReader.read(new StringReader(dataXml.toString()));
+        sink.end();
+
+        List     beans = getRows("misc", "avalue");
+        Object[] pks   = new Object[numObjs];
+
+        assertEquals(numObjs, beans.size());
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            assertEquals(new Integer(idx), beans.get(idx), "avalue");
+            pks[idx] = ((DynaBean)beans.get(idx)).get("pk");
+        }
+        assertNull(((DynaBean)beans.get(0)).get("fk"));
+        for (int idx = 1; idx < numObjs; idx++)
+        {
+            assertEquals(idx % 3 == 0 ? pks[idx] : pks[idx - 1], beans.get(idx), "fk");
+        }
+    }
+
+    /**
+     * Tests that writing the data to XML with several threads results in the same XML as with one thread.
+     */
+    public void testParallelExport() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip3'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='DOUBLE'/>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int numObjs = 100;
+
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            insertRow("roundtrip1", new Object[] { new Integer(idx), "val" + idx });
+        }
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            insertRow("roundtrip2", new Object[] { new Integer(idx), new Integer(numObjs - 1 - idx) });
+            insertRow("roundtrip3", new Object[] { new Integer(idx), idx % 10 == 0 ? null : new Double(idx / 4.0) });
+        }
+
+        DatabaseDataIO dataIO       = new DatabaseDataIO();
+        StringWriter   stringWriter = new StringWriter();
+
+        dataIO.writeDataToXML(getPlatform(), getModel(), stringWriter, "UTF-8");
+
+        String expectedXml = stringWriter.toString();
+
+        dataIO.setExportThreadCount(3);
+        stringWriter = new StringWriter();
+        dataIO.writeDataToXML(getPlatform(), getModel(), stringWriter, "UTF-8");
+
+        String    dataAsXml = stringWriter.toString();
+        SAXReader reader    = new SAXReader();
+        Document  testDoc   = reader.read(new InputSource(new StringReader(dataAsXml)));
+
+        assertEquals(expectedXml, dataAsXml);
+        assertEquals(3 * numObjs, testDoc.getRootElement().elements().size());
+    }
+
+    /**
+     * Tests writing the data to XML with big tables split into primary key ranges that are read concurrently.
+     */
+    public void testChunkedExport() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='VARCHAR' size='32' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int numObjs = 100;
+
+        // the keys are inserted in descending order, and include negative values and gaps
+        for (int idx = numObjs - 1; idx >= 0; idx--)
+        {
+            insertRow("roundtrip1", new Object[] { new Integer(idx * idx - 50), "val" + idx });
+        }
+        for (int idx = 0; idx < 20; idx++)
+        {
+            insertRow("roundtrip2", new Object[] { "key" + idx, new Integer(idx * idx - 50) });
+        }
+
+        DatabaseDataIO dataIO       = new DatabaseDataIO();
+        StringWriter   stringWriter = new StringWriter();
+
+        dataIO.setExportThreadCount(3);
+        dataIO.setExportChunkSize(7);
+        dataIO.writeDataToXML(getPlatform(), getModel(), stringWriter, "UTF-8");
+
+        SAXReader reader    = new SAXReader();
+        Document  testDoc   = reader.read(new InputSource(new StringReader(stringWriter.toString())));
+        List      rows      = testDoc.getRootElement().elements();
+        HashSet   otherKeys = new HashSet();
+
+        assertEquals(numObjs + 20, rows.size());
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            Element row = (Element)rows.get(idx);
+
+            assertEquals("roundtrip1", row.getName().toLowerCase());
+            assertEquals(String.valueOf(idx * idx - 50), (row.attribute("pk") != null ? row.attributeValue("pk") : row.attributeValue("PK")));
+        }
+        for (int idx = numObjs; idx < rows.size(); idx++)
+        {
+            Element row = (Element)rows.get(idx);
+
+            assertEquals("roundtrip2", row.getName().toLowerCase());
+            otherKeys.add((row.attribute("pk") != null ? row.attributeValue("pk") : row.attributeValue("PK")));
+        }
+        assertEquals(20, otherKeys.size());
+    }
+
+    /**
+     * Tests that writing the data to XML via streaming cursors results in the same XML.
+     */
+    public void testStreamingExport() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        createDatabase(modelXml);
+
+        final int numObjs = 50;
+
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            insertRow("roundtrip", new Object[] { new Integer(idx), "val" + idx });
+        }
+
+        DatabaseDataIO dataIO       = new DatabaseDataIO();
+        StringWriter   stringWriter = new StringWriter();
+
+        dataIO.writeDataToXML(getPlatform(), getModel(), stringWriter, "UTF-8");
+
+        String expectedXml = stringWriter.toString();
+
+        getPlatform().setStreamingQueriesOn(true);
+        getPlatform().setQueryFetchSize(7);
+        try
+        {
+            stringWriter = new StringWriter();
+            dataIO.writeDataToXML(getPlatform(), getModel(), stringWriter, "UTF-8");
+        }
+        finally
+        {
+            getPlatform().setStreamingQueriesOn(false);
+            getPlatform().setQueryFetchSize(0);
+        }
+        assertEquals(expectedXml, stringWriter.toString());
+        assertEquals(numObjs, getRows("roundtrip", "pk").size());
+    }
 }
@@ -0,0 +1,212 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.TestBase;
+import org.apache.ddlutils.model.Database;
+
+/**
+ * Tests the {@link org.apache.ddlutils.io.PipelinedDataSink} class.
+ *
+ * @version $Revision: $
+ */
+public class TestPipelinedDataSink extends TestBase
+{
+    /** The test model. */
+    private static final String TEST_MODEL =
+        "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+        "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='pipelinetest'>\n"+
+        "  <table name='test'>\n"+
+        "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+        "  </table>\n"+
+        "</database>";
+
+    /** The model. */
+    private Database _model;
+
+    /**
+     * Sink that records the beans, optionally failing for a specific bean.
+     */
+    private static class RecordingSink implements DataSink
+    {
+        /** The added beans. */
+        private final List _beans = Collections.synchronizedList(new ArrayList());
+        /** The index of the bean for which to fail, or -1. */
+        private final int _failIdx;
+        /** Whether the sink has been started. */
+        private boolean _started;
+        /** Whether the sink has been ended. */
+        private boolean _ended;
+
+        /**
+         * Creates a new sink.
+         *
+         * @param failIdx The index of the bean for which to fail, or -1
+         */
+        public RecordingSink(int failIdx)
+        {
+            _failIdx = failIdx;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void start() throws DataSinkException
+        {
+            _started = true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void addBean(DynaBean bean) throws DataSinkException
+        {
+            if (_beans.size() == _failIdx)
+            {
+                throw new DataSinkException("Failed for bean " + _failIdx);
+            }
+            _beans.add(bean);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void end() throws DataSinkException
+        {
+            _ended = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _model = parseDatabaseFromString(TEST_MODEL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        _model = null;
+        super.tearDown();
+    }
+
+    /**
+     * Creates a bean for the test table.
+     *
+     * @param pk The primary key value
+     * @return The bean
+     */
+    private DynaBean createBean(int pk)
+    {
+        DynaBean bean = _model.createDynaBeanFor(_model.findTable("test"));
+
+        bean.set("pk", new Integer(pk));
+        return bean;
+    }
+
+    /**
+     * Tests that all beans are passed on in order.
+     */
+    public void testOrder() throws Exception
+    {
+        RecordingSink     recordingSink = new RecordingSink(-1);
+        PipelinedDataSink sink          = new PipelinedDataSink(recordingSink, 3);
+        List              beans         = new ArrayList();
+
+        sink.start();
+        assertTrue(recordingSink._started);
+        for (int idx = 0; idx < 100; idx++)
+        {
+            DynaBean bean = createBean(idx);
+
+            beans.add(bean);
+            sink.addBean(bean);
+        }
+        sink.end();
+        assertTrue(recordingSink._ended);
+        assertEquals(beans, recordingSink._beans);
+    }
+
+    /**
+     * Tests that an error in the writer thread is thrown to the reading thread.
+     */
+    public void testErrorWhileAdding() throws Exception
+    {
+        RecordingSink     recordingSink = new RecordingSink(10);
+        PipelinedDataSink sink          = new PipelinedDataSink(recordingSink, 2);
+
+        sink.start();
+        try
+        {
+            // the queue is too small to hold all beans, so the error is thrown by addBean
+            for (int idx = 0; idx < 100; idx++)
+            {
+                sink.addBean(createBean(idx));
+            }
+            fail();
+        }
+        catch (DataSinkException ex)
+        {
+            assertEquals("Failed for bean 10", ex.getMessage());
+        }
+        // the error has been reported, so ending the sink succeeds
+        sink.end();
+        assertTrue(recordingSink._ended);
+        assertEquals(10, recordingSink._beans.size());
+    }
+
+    /**
+     * Tests that an error in the writer thread is thrown by the end method if it has not been
+     * thrown yet.
+     */
+    public void testErrorWhileEnding() throws Exception
+    {
+        RecordingSink     recordingSink = new RecordingSink(2);
+        PipelinedDataSink sink          = new PipelinedDataSink(recordingSink, 10);
+
+        sink.start();
+        // no bean follows the failing one, so addBean does not see the error
+        for (int idx = 0; idx < 3; idx++)
+        {
+            sink.addBean(createBean(idx));
+        }
+        try
+        {
+            sink.end();
+            fail();
+        }
+        catch (DataSinkException ex)
+        {
+            assertEquals("Failed for bean 2", ex.getMessage());
+        }
+        assertTrue(recordingSink._ended);
+        assertEquals(2, recordingSink._beans.size());
+    }
+}
@@ -0,0 +1,157 @@
+package org.apache.ddlutils.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.TestBase;
+import org.apache.ddlutils.model.Database;
+import org.apache.ddlutils.model.Table;
+
+/**
+ * Tests the {@link org.apache.ddlutils.io.SpillingIdentityMap} and the
+ * {@link org.apache.ddlutils.io.SpillFile} classes.
+ * 
+ * @version $Revision: $
+ */
+public class TestSpillingIdentityMap extends TestBase
+{
+    /** The test model. */
+    private static final String TEST_MODEL =
+        "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+        "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='spilltest'>\n"+
+        "  <table name='numeric'>\n"+
+        "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+        "  </table>\n"+
+        "  <table name='other'>\n"+
+        "    <column name='pk1' type='VARCHAR' size='32' primaryKey='true' required='true'/>\n"+
+        "    <column name='pk2' type='DECIMAL' size='15,2' primaryKey='true' required='true'/>\n"+
+        "    <column name='avalue' type='TIMESTAMP'/>\n"+
+        "    <column name='blob' type='VARBINARY' size='32'/>\n"+
+        "  </table>\n"+
+        "</database>";
+
+    /** The model. */
+    private Database _model;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        _model = parseDatabaseFromString(TEST_MODEL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception
+    {
+        _model = null;
+        super.tearDown();
+    }
+
+    /**
+     * Creates an identity for the numeric table.
+     * 
+     * @param value The pk value
+     * @return The identity
+     */
+    private Identity createIdentity(int value)
+    {
+        return Identity.newInstance(_model.findTable("numeric"), null, new String[] { "pk" }, new Object[] { new Integer(value) });
+    }
+
+    /**
+     * Tests a map that has to grow its index on disk several times.
+     */
+    public void testSpillNumericIdentities() throws Exception
+    {
+        SpillingIdentityMap map     = new SpillingIdentityMap(_model, 100);
+        final int           numObjs = 100000;
+
+        try
+        {
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                // every other identity is mapped to a different one
+                map.put(createIdentity(idx), createIdentity(idx % 2 == 0 ? idx : idx + numObjs));
+            }
+            assertEquals(numObjs, map.size());
+            assertEquals(numObjs - 100, map.getSpilledCount());
+            for (int idx = 0; idx < numObjs; idx++)
+            {
+                assertEquals(createIdentity(idx % 2 == 0 ? idx : idx + numObjs), map.get(createIdentity(idx)));
+            }
+            assertNull(map.get(createIdentity(-1)));
+            assertNull(map.get(createIdentity(numObjs)));
+
+            // replacing a spilled entry
+            map.put(createIdentity(numObjs - 1), createIdentity(1));
+            assertEquals(numObjs, map.size());
+            assertEquals(createIdentity(1), map.get(createIdentity(numObjs - 1)));
+        }
+        finally
+        {
+            map.close();
+        }
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Tests writing beans and multi-column identities to a spill file.
+     */
+    public void testSpillFile() throws Exception
+    {
+        Table     table     = _model.findTable("other");
+        DynaBean  bean      = _model.createDynaBeanFor(table);
+        Timestamp timestamp = new Timestamp(1234567890L);
+        SpillFile file      = new SpillFile(_model);
+
+        timestamp.setNanos(123456789);
+        bean.set("pk1",    "\u00e4bc");
+        bean.set("pk2",    new BigDecimal("12.50"));
+        bean.set("avalue", timestamp);
+        try
+        {
+            Identity identity = Identity.newInstance(table, null, new String[] { "pk1", "pk2" }, new Object[] { "\u00e4bc", new BigDecimal("12.50") });
+            long     idPos    = file.writeIdentities(new Identity[] { identity, null });
+            long     beanPos  = file.writeBean(bean);
+
+            Identity[] readIdentities = file.readIdentities(idPos);
+            DynaBean   readBean       = file.readBean(beanPos);
+
+            assertEquals(2, readIdentities.length);
+            assertEquals(identity, readIdentities[0]);
+            assertNull(readIdentities[1]);
+            assertEquals("\u00e4bc", readBean.get("pk1"));
+            assertEquals(new BigDecimal("12.50"), readBean.get("pk2"));
+            assertEquals(timestamp, readBean.get("avalue"));
+            assertNull(readBean.get("blob"));
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+}
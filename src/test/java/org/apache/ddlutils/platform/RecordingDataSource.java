@@ -0,0 +1,283 @@
+package org.apache.ddlutils.platform;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * Data source for tests that records the JDBC calls of a platform. The connection executes
+ * queries with empty result sets, and batches in which every statement changes one row.
+ * The meta data of the database returns one imported key for every table if a deferrability
+ * has been specified for the imported keys. The generated keys are the specified integer
+ * values, one per row.
+ *
+ * @version $Revision: $
+ */
+public class RecordingDataSource implements InvocationHandler
+{
+    /** The recorded calls, except for calls of <code>Object</code> methods. */
+    private final List _calls = new ArrayList();
+    /** The data source. */
+    private final DataSource _dataSource;
+    /** The connection. */
+    private final Connection _connection;
+    /** The statement. */
+    private final PreparedStatement _statement;
+    /** The result set. */
+    private final ResultSet _resultSet;
+    /** The meta data of the result set. */
+    private final ResultSetMetaData _metaData;
+    /** The meta data of the database. */
+    private final DatabaseMetaData _databaseMetaData;
+    /** The result set for the imported keys. */
+    private final ResultSet _importedKeys;
+    /** The deferrability of the imported keys, or -1 if there are no imported keys. */
+    private int _importedKeyDeferrability = -1;
+    /** Whether the imported key of the current table has been read. */
+    private boolean _importedKeyRead;
+    /** The auto-commit mode of the connection. */
+    private boolean _autoCommit = true;
+    /** The number of statements added to the current batch. */
+    private int _numBatchStatements = 0;
+    /** The result set for the generated keys. */
+    private final ResultSet _generatedKeys;
+    /** The meta data of the result set for the generated keys. */
+    private final ResultSetMetaData _generatedKeysMetaData;
+    /** The values of the generated keys. */
+    private int[] _generatedKeyValues = new int[0];
+    /** The number of generated keys that have been read. */
+    private int _numReadGeneratedKeys;
+
+    /**
+     * Creates a new data source.
+     */
+    public RecordingDataSource()
+    {
+        _dataSource = (DataSource)createProxy(DataSource.class);
+        _connection = (Connection)createProxy(Connection.class);
+        _statement  = (PreparedStatement)createProxy(PreparedStatement.class);
+        _resultSet  = (ResultSet)createProxy(ResultSet.class);
+        _metaData   = (ResultSetMetaData)createProxy(ResultSetMetaData.class);
+
+        _databaseMetaData = (DatabaseMetaData)createProxy(DatabaseMetaData.class);
+        _importedKeys     = (ResultSet)createProxy(ResultSet.class);
+
+        _generatedKeys         = (ResultSet)createProxy(ResultSet.class);
+        _generatedKeysMetaData = (ResultSetMetaData)createProxy(ResultSetMetaData.class);
+    }
+
+    /**
+     * Creates a proxy for the given interface that uses this object as the handler.
+     *
+     * @param type The interface
+     * @return The proxy
+     */
+    private Object createProxy(Class type)
+    {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { type }, this);
+    }
+
+    /**
+     * Returns the data source.
+     *
+     * @return The data source
+     */
+    public DataSource getDataSource()
+    {
+        return _dataSource;
+    }
+
+    /**
+     * Returns the recorded calls in the form <code>Interface.method(arg1, arg2)</code>.
+     *
+     * @return The calls
+     */
+    public List getCalls()
+    {
+        return _calls;
+    }
+
+    /**
+     * Specifies the deferrability of the imported keys, i.e. of the foreign keys, of the tables.
+     *
+     * @param deferrability One of the deferrability constants of {@link DatabaseMetaData}, or -1
+     *                      if the tables shall have no imported keys
+     */
+    public void setImportedKeyDeferrability(int deferrability)
+    {
+        _importedKeyDeferrability = deferrability;
+    }
+
+    /**
+     * Specifies the values of the generated keys that are returned after the next batch.
+     *
+     * @param values The values of the single generated key column, one per row
+     */
+    public void setGeneratedKeys(int[] values)
+    {
+        _generatedKeyValues = values;
+    }
+
+    /**
+     * Returns the current auto-commit mode of the connection.
+     *
+     * @return The auto-commit mode
+     */
+    public boolean isAutoCommit()
+    {
+        return _autoCommit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        String name = method.getName();
+
+        if ("hashCode".equals(name))
+        {
+            return new Integer(System.identityHashCode(proxy));
+        }
+        else if ("equals".equals(name))
+        {
+            return Boolean.valueOf(proxy == args[0]);
+        }
+        else if ("toString".equals(name))
+        {
+            return method.getDeclaringClass().getName();
+        }
+
+        StringBuffer call = new StringBuffer();
+
+        call.append(proxy.getClass().getInterfaces()[0].getName().replaceAll(".*\\.", ""));
+        call.append(".");
+        call.append(name);
+        call.append("(");
+        for (int idx = 0; (args != null) && (idx < args.length); idx++)
+        {
+            if (idx > 0)
+            {
+                call.append(", ");
+            }
+            call.append(args[idx]);
+        }
+        call.append(")");
+        _calls.add(call.toString());
+
+        if ("getConnection".equals(name))
+        {
+            return _connection;
+        }
+        else if ("createStatement".equals(name) || "prepareStatement".equals(name) || "getStatement".equals(name))
+        {
+            return _statement;
+        }
+        else if ("executeQuery".equals(name))
+        {
+            return _resultSet;
+        }
+        else if ("addBatch".equals(name))
+        {
+            _numBatchStatements++;
+            return null;
+        }
+        else if ("executeBatch".equals(name))
+        {
+            int[] result = new int[_numBatchStatements];
+
+            Arrays.fill(result, 1);
+            _numBatchStatements = 0;
+            return result;
+        }
+        else if ("getGeneratedKeys".equals(name))
+        {
+            _numReadGeneratedKeys = 0;
+            return _generatedKeys;
+        }
+        else if ((proxy == _generatedKeys) && "next".equals(name))
+        {
+            return Boolean.valueOf(_numReadGeneratedKeys++ < _generatedKeyValues.length);
+        }
+        else if ((proxy == _generatedKeys) && "getInt".equals(name))
+        {
+            return new Integer(_generatedKeyValues[_numReadGeneratedKeys - 1]);
+        }
+        else if ("getMetaData".equals(name))
+        {
+            if (proxy == _generatedKeys)
+            {
+                return _generatedKeysMetaData;
+            }
+            return proxy == _connection ? (Object)_databaseMetaData : _metaData;
+        }
+        else if ("getImportedKeys".equals(name))
+        {
+            _importedKeyRead = false;
+            return _importedKeys;
+        }
+        else if ((proxy == _importedKeys) && "next".equals(name))
+        {
+            boolean hasRow = (_importedKeyDeferrability >= 0) && !_importedKeyRead;
+
+            _importedKeyRead = true;
+            return Boolean.valueOf(hasRow);
+        }
+        else if ((proxy == _importedKeys) && "getShort".equals(name))
+        {
+            return new Short((short)_importedKeyDeferrability);
+        }
+        else if ("getColumnCount".equals(name))
+        {
+            return new Integer(proxy == _generatedKeysMetaData ? 1 : 0);
+        }
+        else if ("getAutoCommit".equals(name))
+        {
+            return Boolean.valueOf(_autoCommit);
+        }
+        else if ("setAutoCommit".equals(name))
+        {
+            _autoCommit = ((Boolean)args[0]).booleanValue();
+            return null;
+        }
+        else if (method.getReturnType() == Boolean.TYPE)
+        {
+            return Boolean.FALSE;
+        }
+        else if (method.getReturnType() == Void.TYPE)
+        {
+            return null;
+        }
+        throw new UnsupportedOperationException(name);
+    }
+}
@@ -158,4 +158,18 @@ public class TestDB2Platform extends TestPlatformBase
             ");\n",
             getCharEscapingTestDatabaseCreationSql());
     }
+
+    /**
+     * Tests the SQL for inserting or updating a row.
+     */
+    public void testUpsertSql()
+    {
+        assertEquals(
+            "MERGE INTO \"upserttable\" "+
+            "USING (VALUES (CAST(? AS INTEGER), CAST(? AS VARCHAR(128)), CAST(? AS DECIMAL(15,2)))) AS \"src\" (\"COL_PK\", \"COL_TEXT\", \"COL_NUM\") "+
+            "ON (\"upserttable\".\"COL_PK\" = \"src\".\"COL_PK\") "+
+            "WHEN MATCHED THEN UPDATE SET \"COL_TEXT\" = \"src\".\"COL_TEXT\", \"COL_NUM\" = \"src\".\"COL_NUM\" "+
+            "WHEN NOT MATCHED THEN INSERT (\"COL_PK\", \"COL_TEXT\", \"COL_NUM\") VALUES (\"src\".\"COL_PK\", \"src\".\"COL_TEXT\", \"src\".\"COL_NUM\")",
+            getUpsertTestSql());
+    }
 }
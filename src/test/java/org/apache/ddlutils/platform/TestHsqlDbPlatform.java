@@ -169,4 +169,28 @@ public class TestHsqlDbPlatform extends TestPlatformBase
             ");\n",
             getCharEscapingTestDatabaseCreationSql());
     }
+
+    /**
+     * Tests the SQL for inserting or updating a row.
+     */
+    public void testUpsertSql()
+    {
+        assertEquals(
+            "MERGE INTO \"upserttable\" "+
+            "USING (VALUES (CAST(? AS INTEGER), CAST(? AS VARCHAR(128)), CAST(? AS DECIMAL(15,2)))) AS \"src\" (\"COL_PK\", \"COL_TEXT\", \"COL_NUM\") "+
+            "ON (\"upserttable\".\"COL_PK\" = \"src\".\"COL_PK\") "+
+            "WHEN MATCHED THEN UPDATE SET \"COL_TEXT\" = \"src\".\"COL_TEXT\", \"COL_NUM\" = \"src\".\"COL_NUM\" "+
+            "WHEN NOT MATCHED THEN INSERT (\"COL_PK\", \"COL_TEXT\", \"COL_NUM\") VALUES (\"src\".\"COL_PK\", \"src\".\"COL_TEXT\", \"src\".\"COL_NUM\")",
+            getUpsertTestSql());
+    }
+
+    /**
+     * Tests the SQL for deferring the foreign key checks.
+     */
+    public void testForeignKeyChecksSql()
+    {
+        assertTrue(getPlatformInfo().isForeignKeyChecksDeferrable());
+        assertEquals("SET REFERENTIAL_INTEGRITY FALSE", getPlatform().getSqlBuilder().getDeferForeignKeyChecksSql());
+        assertEquals("SET REFERENTIAL_INTEGRITY TRUE", getPlatform().getSqlBuilder().getRestoreForeignKeyChecksSql());
+    }
 }
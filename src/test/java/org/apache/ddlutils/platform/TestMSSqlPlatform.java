@@ -19,10 +19,17 @@ package org.apache.ddlutils.platform;
  * under the License.
  */
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.ddlutils.TestPlatformBase;
+import org.apache.ddlutils.io.DatabaseIO;
+import org.apache.ddlutils.model.Database;
 import org.apache.ddlutils.platform.mssql.MSSqlPlatform;
 
 /**
@@ -335,4 +342,110 @@ public class TestMSSqlPlatform extends TestPlatformBase
             ");\n",
             sql);
     }
+
+    /**
+     * Tests the SQL for inserting or updating a row.
+     */
+    public void testUpsertSql()
+    {
+        assertEquals(
+            "SET quoted_identifier on;\n"+
+            "MERGE INTO \"upserttable\" "+
+            "USING (VALUES (?, ?, ?)) AS \"src\" (\"COL_PK\", \"COL_TEXT\", \"COL_NUM\") "+
+            "ON (\"upserttable\".\"COL_PK\" = \"src\".\"COL_PK\") "+
+            "WHEN MATCHED THEN UPDATE SET \"COL_TEXT\" = \"src\".\"COL_TEXT\", \"COL_NUM\" = \"src\".\"COL_NUM\" "+
+            "WHEN NOT MATCHED THEN INSERT (\"COL_PK\", \"COL_TEXT\", \"COL_NUM\") VALUES (\"src\".\"COL_PK\", \"src\".\"COL_TEXT\", \"src\".\"COL_NUM\");",
+            getUpsertTestSql());
+    }
+
+    /**
+     * Records the SQL executed via the statements of a connection.
+     */
+    private static class RecordingConnection implements InvocationHandler
+    {
+        /** The executed SQL. */
+        private final StringBuffer _sql = new StringBuffer();
+        /** The number of created statements. */
+        private int _numCreatedStatements;
+        /** The number of closed statements. */
+        private int _numClosedStatements;
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            if ("createStatement".equals(method.getName()))
+            {
+                _numCreatedStatements++;
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Statement.class }, this);
+            }
+            else if ("execute".equals(method.getName()))
+            {
+                _sql.append(args[0]);
+                _sql.append("\n");
+                return Boolean.FALSE;
+            }
+            else if ("close".equals(method.getName()))
+            {
+                _numClosedStatements++;
+                return null;
+            }
+            else if ("hashCode".equals(method.getName()))
+            {
+                return new Integer(System.identityHashCode(proxy));
+            }
+            else if ("equals".equals(method.getName()))
+            {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    /**
+     * Tests that identity override is enabled once per table session and disabled when the
+     * session ends, using one statement per session.
+     */
+    public void testIdentityOverrideTableSession() throws Exception
+    {
+        Database model = parseDatabaseFromString(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='sessiontest'>\n"+
+            "  <table name='first'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true' autoIncrement='true'/>\n"+
+            "  </table>\n"+
+            "  <table name='second'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true' autoIncrement='true'/>\n"+
+            "  </table>\n"+
+            "  <table name='third'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "  </table>\n"+
+            "</database>");
+        RecordingConnection recorder   = new RecordingConnection();
+        Connection          connection = (Connection)Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                            new Class[] { Connection.class },
+                                                                            recorder);
+
+        getPlatform().setIdentityOverrideOn(true);
+        getPlatform().startTableSession(connection, model.findTable("first"));
+        getPlatform().startTableSession(connection, model.findTable("first"));
+        getPlatform().startTableSession(connection, model.findTable("second"));
+        getPlatform().startTableSession(connection, model.findTable("third"));
+        getPlatform().endTableSession(connection);
+        getPlatform().endTableSession(connection);
+
+        assertEqualsIgnoringWhitespaces(
+            "SET quoted_identifier on;\n"+
+            "SET IDENTITY_INSERT \"first\" ON;\n"+
+            "SET quoted_identifier on;\n"+
+            "SET IDENTITY_INSERT \"first\" OFF;\n"+
+            "SET quoted_identifier on;\n"+
+            "SET IDENTITY_INSERT \"second\" ON;\n"+
+            "SET quoted_identifier on;\n"+
+            "SET IDENTITY_INSERT \"second\" OFF;\n",
+            recorder._sql.toString());
+        assertEquals(2, recorder._numCreatedStatements);
+        assertEquals(2, recorder._numClosedStatements);
+    }
 }
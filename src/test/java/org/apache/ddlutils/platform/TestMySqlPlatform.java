@@ -19,6 +19,8 @@ package org.apache.ddlutils.platform;
  * under the License.
  */
 
+import java.sql.ResultSet;
+
 import org.apache.ddlutils.TestPlatformBase;
 import org.apache.ddlutils.io.DatabaseIO;
 import org.apache.ddlutils.model.Database;
@@ -230,4 +232,48 @@ public class TestMySqlPlatform extends TestPlatformBase
             ");\n",
             getDatabaseCreationSql(schema));
     }
+
+    /**
+     * Tests the SQL for inserting or updating a row.
+     */
+    public void testUpsertSql()
+    {
+        assertEquals(
+            "INSERT INTO `upserttable` (`COL_PK`, `COL_TEXT`, `COL_NUM`) VALUES (?, ?, ?) "+
+            "ON DUPLICATE KEY UPDATE `COL_TEXT` = VALUES(`COL_TEXT`), `COL_NUM` = VALUES(`COL_NUM`)",
+            getUpsertTestSql());
+    }
+
+    /**
+     * Tests the SQL for deferring the foreign key checks.
+     */
+    public void testForeignKeyChecksSql()
+    {
+        assertTrue(getPlatformInfo().isForeignKeyChecksDeferrable());
+        assertEquals("SET FOREIGN_KEY_CHECKS = 0", getPlatform().getSqlBuilder().getDeferForeignKeyChecksSql());
+        assertEquals("SET FOREIGN_KEY_CHECKS = 1", getPlatform().getSqlBuilder().getRestoreForeignKeyChecksSql());
+    }
+
+    /**
+     * Tests the statements of streaming and non-streaming queries.
+     */
+    public void testStreamingQuery() throws Exception
+    {
+        RecordingDataSource dataSource = new RecordingDataSource();
+
+        getPlatform().setDataSource(dataSource.getDataSource());
+        getPlatform().setStreamingQueriesOn(true);
+        assertFalse(getPlatform().query(new Database(), "SELECT * FROM test").hasNext());
+        assertTrue(dataSource.getCalls().contains("Connection.createStatement(" + ResultSet.TYPE_FORWARD_ONLY + ", " + ResultSet.CONCUR_READ_ONLY + ")"));
+        assertTrue(dataSource.getCalls().contains("PreparedStatement.setFetchSize(" + Integer.MIN_VALUE + ")"));
+        assertFalse(dataSource.getCalls().contains("Connection.setAutoCommit(false)"));
+
+        dataSource = new RecordingDataSource();
+        getPlatform().setDataSource(dataSource.getDataSource());
+        getPlatform().setStreamingQueriesOn(false);
+        getPlatform().setQueryFetchSize(50);
+        assertFalse(getPlatform().query(new Database(), "SELECT * FROM test").hasNext());
+        assertTrue(dataSource.getCalls().contains("Connection.createStatement()"));
+        assertTrue(dataSource.getCalls().contains("PreparedStatement.setFetchSize(50)"));
+    }
 }
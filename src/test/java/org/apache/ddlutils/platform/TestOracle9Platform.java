@@ -164,4 +164,18 @@ public class TestOracle9Platform extends TestPlatformBase
             ");\n",
             getCharEscapingTestDatabaseCreationSql());
     }
+
+    /**
+     * Tests the SQL for inserting or updating a row.
+     */
+    public void testUpsertSql()
+    {
+        assertEquals(
+            "MERGE INTO \"upserttable\" "+
+            "USING (SELECT ? \"COL_PK\", ? \"COL_TEXT\", ? \"COL_NUM\" FROM dual) \"src\" "+
+            "ON (\"upserttable\".\"COL_PK\" = \"src\".\"COL_PK\") "+
+            "WHEN MATCHED THEN UPDATE SET \"COL_TEXT\" = \"src\".\"COL_TEXT\", \"COL_NUM\" = \"src\".\"COL_NUM\" "+
+            "WHEN NOT MATCHED THEN INSERT (\"COL_PK\", \"COL_TEXT\", \"COL_NUM\") VALUES (\"src\".\"COL_PK\", \"src\".\"COL_TEXT\", \"src\".\"COL_NUM\")",
+            getUpsertTestSql());
+    }
 }
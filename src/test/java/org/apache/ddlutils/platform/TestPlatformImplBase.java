@@ -22,6 +22,7 @@ package org.apache.ddlutils.platform;
 import java.util.Map;
 
 import org.apache.commons.beanutils.DynaBean;
+import org.apache.ddlutils.PlatformInfo;
 import org.apache.ddlutils.TestBase;
 import org.apache.ddlutils.dynabean.SqlDynaBean;
 import org.apache.ddlutils.dynabean.SqlDynaClass;
@@ -64,4 +65,29 @@ public class TestPlatformImplBase extends TestBase
                      map.get("name"));
         assertTrue(map.containsKey("id"));
     }
+
+    /**
+     * Tests the getRowsPerInsertStatement method.
+     */
+    public void testRowsPerInsertStatement()
+    {
+        PlatformImplBase platform = new TestPlatform();
+        PlatformInfo     info     = platform.getPlatformInfo();
+
+        platform.setMultiRowInsertSize(100);
+        assertEquals(1, platform.getRowsPerInsertStatement(5));
+
+        info.setMultiRowInsertSupported(true);
+        assertEquals(100, platform.getRowsPerInsertStatement(5));
+
+        info.setMaxRowsPerInsert(50);
+        assertEquals(50, platform.getRowsPerInsertStatement(5));
+
+        info.setMaxParametersPerStatement(120);
+        assertEquals(24, platform.getRowsPerInsertStatement(5));
+        assertEquals(1, platform.getRowsPerInsertStatement(200));
+
+        platform.setMultiRowInsertSize(1);
+        assertEquals(1, platform.getRowsPerInsertStatement(5));
+    }
 }
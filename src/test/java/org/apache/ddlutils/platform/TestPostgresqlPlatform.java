@@ -19,8 +19,18 @@ package org.apache.ddlutils.platform;
  * under the License.
  */
 
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.beanutils.DynaBean;
 import org.apache.ddlutils.TestPlatformBase;
+import org.apache.ddlutils.io.DataToDatabaseSink;
 import org.apache.ddlutils.io.DatabaseIO;
+import org.apache.ddlutils.model.Database;
 import org.apache.ddlutils.platform.postgresql.PostgreSqlPlatform;
 
 /**
@@ -171,4 +181,187 @@ public class TestPostgresqlPlatform extends TestPlatformBase
             ");\n",
             getDatabaseCreationSql(schema));
     }
+
+    /**
+     * Tests the SQL for inserting or updating a row.
+     */
+    public void testUpsertSql()
+    {
+        assertEquals(
+            "INSERT INTO \"upserttable\" (\"COL_PK\", \"COL_TEXT\", \"COL_NUM\") VALUES (?, ?, ?) "+
+            "ON CONFLICT (\"COL_PK\") DO UPDATE SET \"COL_TEXT\" = EXCLUDED.\"COL_TEXT\", \"COL_NUM\" = EXCLUDED.\"COL_NUM\"",
+            getUpsertTestSql());
+    }
+
+    /**
+     * Tests the SQL for deferring the foreign key checks.
+     */
+    public void testForeignKeyChecksSql()
+    {
+        assertTrue(getPlatformInfo().isForeignKeyChecksDeferrable());
+        assertEquals("SET CONSTRAINTS ALL DEFERRED", getPlatform().getSqlBuilder().getDeferForeignKeyChecksSql());
+        assertEquals(null, getPlatform().getSqlBuilder().getRestoreForeignKeyChecksSql());
+    }
+
+    /**
+     * Tests that the foreign key checks are only deferred if the foreign keys in the database
+     * are deferrable.
+     */
+    public void testDeferForeignKeyChecks() throws Exception
+    {
+        Database model = parseDatabaseFromString(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='deferredtest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>");
+        int[] deferrabilities = { -1, DatabaseMetaData.importedKeyNotDeferrable, DatabaseMetaData.importedKeyInitiallyImmediate };
+
+        for (int idx = 0; idx < deferrabilities.length; idx++)
+        {
+            RecordingDataSource dataSource = new RecordingDataSource();
+            DataToDatabaseSink  sink       = new DataToDatabaseSink(getPlatform(), model);
+
+            dataSource.setImportedKeyDeferrability(deferrabilities[idx]);
+            getPlatform().setDataSource(dataSource.getDataSource());
+            sink.setDeferForeignKeyChecks(true);
+            sink.start();
+            sink.end();
+
+            boolean deferred = (deferrabilities[idx] == DatabaseMetaData.importedKeyInitiallyImmediate);
+
+            assertTrue(dataSource.getCalls().contains("DatabaseMetaData.getImportedKeys(null, null, roundtrip2)"));
+            assertEquals(deferred, dataSource.getCalls().contains("PreparedStatement.execute(SET CONSTRAINTS ALL DEFERRED)"));
+            assertEquals(deferred, dataSource.getCalls().contains("Connection.setAutoCommit(false)"));
+            assertEquals(deferred, dataSource.getCalls().contains("Connection.commit()"));
+        }
+    }
+
+    /**
+     * Tests that the generated keys of a batch of inserts are read back into the beans.
+     */
+    public void testBatchInsertWithGeneratedKeys() throws Exception
+    {
+        Database model = parseDatabaseFromString(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='batchtest'>\n"+
+            "  <table name='roundtrip'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true' autoIncrement='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "</database>");
+        RecordingDataSource dataSource = new RecordingDataSource();
+        List                beans      = new ArrayList();
+
+        for (int idx = 0; idx < 3; idx++)
+        {
+            DynaBean bean = model.createDynaBeanFor("roundtrip", false);
+
+            bean.set("avalue", "val" + idx);
+            beans.add(bean);
+        }
+        dataSource.setGeneratedKeys(new int[] { 11, 12, 13 });
+        getPlatform().setDataSource(dataSource.getDataSource());
+        getPlatform().insert(model, beans);
+
+        List calls = dataSource.getCalls();
+
+        assertTrue(calls.contains("Connection.prepareStatement(INSERT INTO \"roundtrip\" (\"avalue\") VALUES (?), " + Statement.RETURN_GENERATED_KEYS + ")"));
+        assertTrue(calls.indexOf("PreparedStatement.executeBatch()") < calls.indexOf("PreparedStatement.getGeneratedKeys()"));
+        for (int idx = 0; idx < 3; idx++)
+        {
+            assertEquals(new Integer(11 + idx), ((DynaBean)beans.get(idx)).get("pk"));
+        }
+    }
+
+    /**
+     * Tests that a batch of inserts is written with multi-row INSERT statements, and that the
+     * rows that do not fill a whole statement are written with a narrower statement.
+     */
+    public void testMultiRowInsert() throws Exception
+    {
+        Database model = parseDatabaseFromString(
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='batchtest'>\n"+
+            "  <table name='roundtrip'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "</database>");
+        RecordingDataSource dataSource = new RecordingDataSource();
+        List                beans      = new ArrayList();
+
+        for (int idx = 0; idx < 7; idx++)
+        {
+            DynaBean bean = model.createDynaBeanFor("roundtrip", false);
+
+            bean.set("pk", new Integer(idx));
+            bean.set("avalue", "val" + idx);
+            beans.add(bean);
+        }
+        getPlatform().setDataSource(dataSource.getDataSource());
+        getPlatform().setMultiRowInsertSize(3);
+        getPlatform().insert(model, beans);
+
+        List expected = new ArrayList();
+        List actual   = new ArrayList();
+
+        expected.add("Connection.prepareStatement(INSERT INTO \"roundtrip\" (\"pk\", \"avalue\") VALUES (?, ?), (?, ?), (?, ?))");
+        for (int idx = 0; idx < 6; idx++)
+        {
+            expected.add("PreparedStatement.setInt(" + (2 * (idx % 3) + 1) + ", " + idx + ")");
+            expected.add("PreparedStatement.setString(" + (2 * (idx % 3) + 2) + ", val" + idx + ")");
+            if (idx % 3 == 2)
+            {
+                expected.add("PreparedStatement.addBatch()");
+            }
+        }
+        expected.add("PreparedStatement.executeBatch()");
+        expected.add("Connection.prepareStatement(INSERT INTO \"roundtrip\" (\"pk\", \"avalue\") VALUES (?, ?))");
+        expected.add("PreparedStatement.setInt(1, 6)");
+        expected.add("PreparedStatement.setString(2, val6)");
+        expected.add("PreparedStatement.addBatch()");
+        expected.add("PreparedStatement.executeBatch()");
+        for (Iterator it = dataSource.getCalls().iterator(); it.hasNext();)
+        {
+            String call = (String)it.next();
+
+            if (call.startsWith("Connection.prepareStatement(") || call.startsWith("PreparedStatement.set") ||
+                call.startsWith("PreparedStatement.addBatch(") || call.startsWith("PreparedStatement.executeBatch("))
+            {
+                actual.add(call);
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Tests that streaming queries turn off the auto-commit mode of the connection for the
+     * duration of the query.
+     */
+    public void testStreamingQuery() throws Exception
+    {
+        RecordingDataSource dataSource = new RecordingDataSource();
+
+        getPlatform().setDataSource(dataSource.getDataSource());
+        getPlatform().setStreamingQueriesOn(true);
+
+        Iterator it = getPlatform().query(new Database(), "SELECT * FROM test");
+
+        assertFalse(dataSource.isAutoCommit());
+        assertTrue(dataSource.getCalls().contains("Connection.setAutoCommit(false)"));
+        assertTrue(dataSource.getCalls().contains("Connection.createStatement(" + ResultSet.TYPE_FORWARD_ONLY + ", " + ResultSet.CONCUR_READ_ONLY + ")"));
+        assertTrue(dataSource.getCalls().contains("PreparedStatement.setFetchSize(" + PlatformImplBase.DEFAULT_STREAMING_FETCH_SIZE + ")"));
+        assertFalse(it.hasNext());
+        assertTrue(dataSource.isAutoCommit());
+        assertTrue(dataSource.getCalls().contains("Connection.rollback()"));
+    }
 }
@@ -96,4 +96,66 @@ public class TestSqlBuilder extends TestBase
         assertEquals("UPDATE \"TestTable\" SET \"id\" = '1', \"name\" = 'ddlutils' WHERE \"id\" = '0'",
                      sql);
     }
+
+    /**
+     * Tests the {@link SqlBuilder#getMultiRowInsertSql(Table, Map, int)} method.
+     */
+    public void testMultiRowInsertSql()
+    {
+        final String modelXml =
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='ddlutils'>\n"+
+            "  <table name='TestTable'>\n"+
+            "    <column name='id' autoIncrement='true' type='INTEGER' primaryKey='true'/>\n"+
+            "    <column name='name' type='VARCHAR' size='15'/>\n"+
+            "    <column name='value' type='INTEGER'/>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        TestPlatform platform   = new TestPlatform();
+        SqlBuilder   sqlBuilder = platform.getSqlBuilder();
+        Database     database   = parseDatabaseFromString(modelXml);
+        Map          map        = new HashMap();
+
+        map.put("name", null);
+        map.put("value", null);
+
+        platform.setDelimitedIdentifierModeOn(true);
+        
+        assertEquals("INSERT INTO \"TestTable\" (\"name\", \"value\") VALUES (?, ?)",
+                     sqlBuilder.getMultiRowInsertSql(database.getTable(0), map, 1));
+        assertEquals("INSERT INTO \"TestTable\" (\"name\", \"value\") VALUES (?, ?), (?, ?), (?, ?)",
+                     sqlBuilder.getMultiRowInsertSql(database.getTable(0), map, 3));
+    }
+
+    /**
+     * Tests the {@link SqlBuilder#getSelectExistingPrimaryKeysSql(Table, int)} method.
+     */
+    public void testSelectExistingPrimaryKeysSql()
+    {
+        final String modelXml =
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='ddlutils'>\n"+
+            "  <table name='TestTable1'>\n"+
+            "    <column name='id' type='INTEGER' primaryKey='true'/>\n"+
+            "    <column name='name' type='VARCHAR' size='15'/>\n"+
+            "  </table>\n"+
+            "  <table name='TestTable2'>\n"+
+            "    <column name='id1' type='INTEGER' primaryKey='true'/>\n"+
+            "    <column name='id2' type='INTEGER' primaryKey='true'/>\n"+
+            "    <column name='name' type='VARCHAR' size='15'/>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        TestPlatform platform   = new TestPlatform();
+        SqlBuilder   sqlBuilder = platform.getSqlBuilder();
+        Database     database   = parseDatabaseFromString(modelXml);
+
+        platform.setDelimitedIdentifierModeOn(true);
+        
+        assertEquals("SELECT \"id\" FROM \"TestTable1\" WHERE \"id\" IN (?, ?, ?)",
+                     sqlBuilder.getSelectExistingPrimaryKeysSql(database.getTable(0), 3));
+        assertEquals("SELECT \"id1\", \"id2\" FROM \"TestTable2\" WHERE (\"id1\" = ? AND \"id2\" = ?) OR (\"id1\" = ? AND \"id2\" = ?)",
+                     sqlBuilder.getSelectExistingPrimaryKeysSql(database.getTable(1), 2));
+    }
 }
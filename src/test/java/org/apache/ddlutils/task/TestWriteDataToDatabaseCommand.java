@@ -22,10 +22,12 @@ package org.apache.ddlutils.task;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 
 import junit.framework.Test;
 
+import org.apache.commons.beanutils.DynaBean;
 import org.apache.ddlutils.io.DatabaseIO;
 
 /**
@@ -54,6 +56,35 @@ public class TestWriteDataToDatabaseCommand extends TestTaskBase
      * @param ensureFkOrder Whether to ensure foreign key order
      */
     private void runTask(DatabaseToDdlTask task, String dataXml, boolean useBatchMode, boolean ensureFkOrder) throws IOException
+    {
+        runTask(task, dataXml, useBatchMode, ensureFkOrder, 1);
+    }
+
+    /**
+     * Adds the writeDataToDatabase sub task to the given task, executes it, and checks its output.
+     *
+     * @param task          The task
+     * @param dataXml       The data xml to write
+     * @param useBatchMode  Whether to use batch mode for inserting the data
+     * @param ensureFkOrder Whether to ensure foreign key order
+     * @param threadCount   The number of threads to use for inserting the data
+     */
+    private void runTask(DatabaseToDdlTask task, String dataXml, boolean useBatchMode, boolean ensureFkOrder, int threadCount) throws IOException
+    {
+        runTask(task, dataXml, useBatchMode, ensureFkOrder, threadCount, 0);
+    }
+
+    /**
+     * Adds the writeDataToDatabase sub task to the given task, executes it, and checks its output.
+     *
+     * @param task               The task
+     * @param dataXml            The data xml to write
+     * @param useBatchMode       Whether to use batch mode for inserting the data
+     * @param ensureFkOrder      Whether to ensure foreign key order
+     * @param threadCount        The number of threads to use for inserting the data
+     * @param maxObjectsInMemory The maximum number of objects to hold in memory
+     */
+    private void runTask(DatabaseToDdlTask task, String dataXml, boolean useBatchMode, boolean ensureFkOrder, int threadCount, int maxObjectsInMemory) throws IOException
     {
         WriteDataToDatabaseCommand subTask = new WriteDataToDatabaseCommand();
         File                       tmpFile = File.createTempFile("schema", ".xml");
@@ -71,6 +102,8 @@ public class TestWriteDataToDatabaseCommand extends TestTaskBase
             subTask.setFailOnError(true);
             subTask.setUseBatchMode(useBatchMode);
             subTask.setEnsureForeignKeyOrder(ensureFkOrder);
+            subTask.setThreadCount(threadCount);
+            subTask.setMaxObjectsInMemory(maxObjectsInMemory);
             task.addWriteDataToDatabase(subTask);
             task.setModelName("roundtriptest");
             task.execute();
@@ -172,4 +205,221 @@ public class TestWriteDataToDatabaseCommand extends TestTaskBase
             assertEquals(new Integer(idx),      beans.get(idx), "avalue");
         }
     }
+
+    /**
+     * Tests data insertion with multiple threads where the data is not in foreign key order.
+     */
+    public void testMultipleThreads() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip3'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk1' type='INTEGER'/>\n"+
+            "    <column name='fk2' type='INTEGER'/>\n"+
+            "    <column name='parent' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk1' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "    <foreign-key foreignTable='roundtrip2'>\n"+
+            "      <reference local='fk2' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "    <foreign-key foreignTable='roundtrip3'>\n"+
+            "      <reference local='parent' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        StringBuffer dataXml = new StringBuffer();
+        final int    numObjs = 500;
+
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = numObjs - 1; idx >= 0; idx--)
+        {
+            dataXml.append("  <roundtrip3 pk='");
+            dataXml.append(idx);
+            dataXml.append("' fk1='");
+            dataXml.append(idx);
+            dataXml.append("' fk2='");
+            dataXml.append(idx);
+            if (idx > 0)
+            {
+                dataXml.append("' parent='");
+                dataXml.append(idx - 1);
+            }
+            dataXml.append("'/>\n");
+        }
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            dataXml.append("  <roundtrip1 pk='");
+            dataXml.append(idx);
+            dataXml.append("' avalue='a");
+            dataXml.append(idx);
+            dataXml.append("'/>\n  <roundtrip2 pk='");
+            dataXml.append(idx);
+            dataXml.append("' avalue='b");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+        }
+        dataXml.append("</data>");
+
+        createDatabase(modelXml);
+
+        runTask(getDatabaseToDdlTaskInstance(), dataXml.toString(), true, true, 2);
+
+        List beans1 = getRows("roundtrip1", "pk");
+        List beans2 = getRows("roundtrip2", "pk");
+        List beans3 = getRows("roundtrip3", "pk");
+
+        assertEquals(numObjs, beans1.size());
+        assertEquals(numObjs, beans2.size());
+        assertEquals(numObjs, beans3.size());
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            assertEquals((Object)("a" + idx), beans1.get(idx), "avalue");
+            assertEquals((Object)("b" + idx), beans2.get(idx), "avalue");
+            assertEquals(new Integer(idx),    beans3.get(idx), "fk1");
+            assertEquals(new Integer(idx),    beans3.get(idx), "fk2");
+        }
+    }
+
+    /**
+     * Tests data insertion where the identities and the deferred rows do not fit into memory.
+     */
+    public void testMaxObjectsInMemory() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "    <column name='parent' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip'>\n"+
+            "      <reference local='parent' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        StringBuffer dataXml = new StringBuffer();
+        final int    numObjs = 500;
+
+        // the rows are in reverse order so that all but the last one have to wait
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = numObjs - 1; idx >= 0; idx--)
+        {
+            dataXml.append("  <roundtrip pk='");
+            dataXml.append(idx);
+            dataXml.append("' avalue='val");
+            dataXml.append(idx);
+            if (idx > 0)
+            {
+                dataXml.append("' parent='");
+                dataXml.append(idx - 1);
+            }
+            dataXml.append("'/>\n");
+        }
+        dataXml.append("</data>");
+
+        createDatabase(modelXml);
+
+        runTask(getDatabaseToDdlTaskInstance(), dataXml.toString(), false, true, 1, 10);
+
+        List beans = getRows("roundtrip", "pk");
+
+        assertEquals(numObjs, beans.size());
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            assertEquals(new Integer(idx),      beans.get(idx), "pk");
+            assertEquals((Object)("val" + idx), beans.get(idx), "avalue");
+        }
+    }
+
+    /**
+     * Tests data insertion in batch mode where the rows referenced by other rows have
+     * database-generated primary keys.
+     */
+    public void testBatchModeWithIdentityReferences() throws Exception
+    {
+        final String modelXml = 
+            "<?xml version='1.0' encoding='ISO-8859-1'?>\n"+
+            "<database xmlns='" + DatabaseIO.DDLUTILS_NAMESPACE + "' name='roundtriptest'>\n"+
+            "  <table name='roundtrip1'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true' autoIncrement='true'/>\n"+
+            "    <column name='avalue' type='VARCHAR' size='32'/>\n"+
+            "  </table>\n"+
+            "  <table name='roundtrip2'>\n"+
+            "    <column name='pk' type='INTEGER' primaryKey='true' required='true'/>\n"+
+            "    <column name='fk' type='INTEGER'/>\n"+
+            "    <foreign-key foreignTable='roundtrip1'>\n"+
+            "      <reference local='fk' foreign='pk'/>\n"+
+            "    </foreign-key>\n"+
+            "  </table>\n"+
+            "</database>";
+
+        StringBuffer dataXml = new StringBuffer();
+        final int    numObjs = 250;
+
+        // the pk values in the data differ from the generated ones, and every other
+        // referencing row comes before the row that it references
+        dataXml.append("<?xml version='1.0' encoding='ISO-8859-1'?>\n<data>");
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            if (idx % 2 == 1)
+            {
+                dataXml.append("  <roundtrip2 pk='");
+                dataXml.append(idx);
+                dataXml.append("' fk='");
+                dataXml.append(1000 + idx);
+                dataXml.append("'/>\n");
+            }
+            dataXml.append("  <roundtrip1 pk='");
+            dataXml.append(1000 + idx);
+            dataXml.append("' avalue='val");
+            dataXml.append(idx);
+            dataXml.append("'/>\n");
+            if (idx % 2 == 0)
+            {
+                dataXml.append("  <roundtrip2 pk='");
+                dataXml.append(idx);
+                dataXml.append("' fk='");
+                dataXml.append(1000 + idx);
+                dataXml.append("'/>\n");
+            }
+        }
+        dataXml.append("</data>");
+
+        createDatabase(modelXml);
+
+        runTask(getDatabaseToDdlTaskInstance(), dataXml.toString(), true, true);
+
+        List    beans1     = getRows("roundtrip1", "pk");
+        List    beans2     = getRows("roundtrip2", "pk");
+        HashMap valuesByPk = new HashMap();
+
+        assertEquals(numObjs, beans1.size());
+        assertEquals(numObjs, beans2.size());
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            DynaBean bean = (DynaBean)beans1.get(idx);
+
+            valuesByPk.put(bean.get("pk"), bean.get("avalue"));
+        }
+        for (int idx = 0; idx < numObjs; idx++)
+        {
+            DynaBean bean = (DynaBean)beans2.get(idx);
+
+            assertEquals(new Integer(idx), bean.get("pk"));
+            assertEquals("val" + idx, valuesByPk.get(bean.get("fk")));
+        }
+    }
 }